@@ -0,0 +1,263 @@
+package io.github.speechchemistry;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous BFEPP scoring for services that embed this library. Word pairs are
+ * submitted and the scores are collected later through Futures, or streamed to a
+ * ResultHandler as each one finishes.
+ * <p>
+ * At most maxPending requests are accepted at once (queued or running); after that,
+ * submitting blocks until a request finishes, so a large or slow batch can't use up
+ * memory. Waiting submitters are served in order, and scoreAll() can also limit how many
+ * of the pending places a single batch can take so other callers aren't starved.
+ * Each request can be given a timeout (measured from submission), after which it is
+ * cancelled and its scoring thread is interrupted. A cancelled request keeps its place until
+ * its scoring has actually stopped, so requests that ignore the interrupt and carry on can't
+ * take the work in progress past maxPending.
+ * <p>
+ * Any ExecutorService can be used. newDefaultExecutor() uses virtual threads when the
+ * Java runtime supports them, otherwise one thread per processor.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class AsyncBfeppScorer implements Closeable {
+
+    /** Receives results from scoreAll(). Methods are called from worker threads, so
+      * implementations must be thread-safe. */
+    public interface ResultHandler {
+        /** Called when a pair has been scored. */
+        void onResult(WordPair pair, double bfepp);
+
+        /** Called when a pair failed, was cancelled (CancellationException) or timed out (TimeoutException). */
+        void onError(WordPair pair, Throwable error);
+    }
+
+    /** Default maximum number of requests accepted at once. */
+    public static final int DEFAULT_MAX_PENDING = 10000;
+
+    /** The (thread-safe) scorer used for every request. */
+    private final BfeppScorer scorer;
+    /** Runs the scoring. */
+    private final ExecutorService executor;
+    /** True if the executor was created here and should be shut down by close(). */
+    private final boolean ownsExecutor;
+    /** One permit per request that can be accepted; fair so waiting submitters are served in order. */
+    private final Semaphore permits;
+    /** Maximum number of requests accepted at once. */
+    private final int maxPending;
+    /** Per-request timeout in nanoseconds (0 means no timeout). */
+    private final long timeoutNanos;
+    /** Cancels requests that have timed out (null if there is no timeout). */
+    private final ScheduledThreadPoolExecutor timer;
+
+    /** Creates the scorer with the default executor, DEFAULT_MAX_PENDING and no timeout. */
+    public AsyncBfeppScorer(BfeppScorer scorer) {
+        this(scorer, newDefaultExecutor(), true, DEFAULT_MAX_PENDING, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /** Creates the scorer. The executor is not shut down by close(). A timeout of 0 means no timeout. */
+    public AsyncBfeppScorer(BfeppScorer scorer, ExecutorService executor, int maxPending, long timeout, TimeUnit unit) {
+        this(scorer, executor, false, maxPending, timeout, unit);
+    }
+
+    private AsyncBfeppScorer(BfeppScorer scorer, ExecutorService executor, boolean ownsExecutor, int maxPending,
+            long timeout, TimeUnit unit) {
+        if (maxPending < 1) throw new IllegalArgumentException("maxPending must be at least 1");
+        if (timeout < 0) throw new IllegalArgumentException("timeout can't be negative");
+        this.scorer = scorer;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.maxPending = maxPending;
+        this.permits = new Semaphore(maxPending, true);
+        this.timeoutNanos = unit.toNanos(timeout);
+        if (timeoutNanos > 0) {
+            timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "AsyncBfeppScorer-timeout");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            timer.setRemoveOnCancelPolicy(true);
+        } else {
+            timer = null;
+        }
+    }
+
+    /** Creates an executor using virtual threads if the Java runtime supports them
+      * (Java 21 onwards), otherwise a fixed pool with one thread per processor. */
+    public static ExecutorService newDefaultExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (Exception e) { // NoSuchMethodException on older runtimes
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /** Gets the scorer used for every request. */
+    public BfeppScorer getScorer() {
+        return scorer;
+    }
+
+    /** Submits one pair, waiting while maxPending requests are already accepted. */
+    public Future<Double> submit(WordPair pair) throws InterruptedException {
+        permits.acquire();
+        return start(new ScoringTask(pair, null, null));
+    }
+
+    /** Submits one pair, waiting at most the given time for a place. Returns null if there was no place. */
+    public Future<Double> trySubmit(WordPair pair, long wait, TimeUnit unit) throws InterruptedException {
+        if (!permits.tryAcquire(wait, unit)) return null;
+        return start(new ScoringTask(pair, null, null));
+    }
+
+    /** Submits a batch of pairs, returning the Futures in the same order. This waits whenever
+      * maxPending requests are already accepted, so it returns once the last pair is accepted. */
+    public List<Future<Double>> submitAll(Collection<WordPair> pairs) throws InterruptedException {
+        List<Future<Double>> futures = new ArrayList<Future<Double>>(pairs.size());
+        for (WordPair pair : pairs) futures.add(submit(pair));
+        return futures;
+    }
+
+    /** Scores a stream of pairs, passing each result to the handler as soon as it is ready
+      * (so results may arrive out of order). Pairs are only taken from the iterator when
+      * there is a place for them, and at most maxInFlight of this call's pairs are accepted
+      * at once. Returns when every pair has been handled. */
+    public void scoreAll(Iterator<WordPair> pairs, ResultHandler handler, int maxInFlight) throws InterruptedException {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be at least 1");
+        Semaphore batchPermits = new Semaphore(maxInFlight);
+        while (pairs.hasNext()) {
+            WordPair pair = pairs.next();
+            batchPermits.acquire();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                batchPermits.release();
+                throw e;
+            }
+            start(new ScoringTask(pair, handler, batchPermits));
+        }
+        // wait for the pairs still being scored
+        batchPermits.acquire(maxInFlight);
+        batchPermits.release(maxInFlight);
+    }
+
+    /** Gets the number of requests accepted but not yet finished. */
+    public int getPendingCount() {
+        return maxPending - permits.availablePermits();
+    }
+
+    /** Stops the timeout timer, and the executor if it was created by this object. Requests
+      * that are already running are allowed to finish. */
+    public void close() {
+        if (timer != null) timer.shutdownNow();
+        if (ownsExecutor) executor.shutdown();
+    }
+
+    /** Starts a task that already holds a permit. */
+    private Future<Double> start(final ScoringTask task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.releasePermits();
+            throw e;
+        }
+        if (timer != null) {
+            task.timeoutTask = timer.schedule(new Runnable() {
+                public void run() {
+                    task.timedOut = true;
+                    task.cancel(true);
+                }
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+            if (task.isDone()) task.timeoutTask.cancel(false); // finished before the timeout was set
+        }
+        return task;
+    }
+
+    /** A scoring request that gives back its permit(s) when it finishes for any reason. The
+      * permits are released once both the result has been handled (done()) and the executor
+      * has finished running the task, so a cancelled request whose scoring carries on still
+      * holds its place. The executor runs a task cancelled before it started too, returning
+      * straight away. */
+    private class ScoringTask extends FutureTask<Double> {
+        private final WordPair pair;
+        private final ResultHandler handler;
+        private final Semaphore batchPermits;
+        /** Counts down done() and the end of run(); the permits are released at 0. */
+        private final AtomicInteger unfinished = new AtomicInteger(2);
+        volatile ScheduledFuture<?> timeoutTask;
+        volatile boolean timedOut;
+
+        ScoringTask(final WordPair pair, ResultHandler handler, Semaphore batchPermits) {
+            super(new Callable<Double>() {
+                public Double call() {
+                    return scorer.bfepp(pair.getWord1(), pair.getWord2());
+                }
+            });
+            this.pair = pair;
+            this.handler = handler;
+            this.batchPermits = batchPermits;
+        }
+
+        @Override
+        protected void done() {
+            ScheduledFuture<?> t = timeoutTask;
+            if (t != null) t.cancel(false);
+            try {
+                if (handler != null) {
+                    try {
+                        handler.onResult(pair, get());
+                    } catch (ExecutionException e) {
+                        handler.onError(pair, e.getCause());
+                    } catch (CancellationException e) {
+                        handler.onError(pair, timedOut ? new TimeoutException("Timed out scoring " + pair) : e);
+                    } catch (InterruptedException e) { // can't happen as the task is done
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } finally {
+                finished(); // only after the handler, so a slow handler also slows submission
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                finished();
+            }
+        }
+
+        private void finished() {
+            if (unfinished.decrementAndGet() == 0) releasePermits();
+        }
+
+        void releasePermits() {
+            permits.release();
+            if (batchPermits != null) batchPermits.release();
+        }
+    }
+}
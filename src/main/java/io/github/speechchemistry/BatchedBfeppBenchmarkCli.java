@@ -0,0 +1,122 @@
+package io.github.speechchemistry;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Measures the throughput of BFEPP scoring of many short word pairs, one pair at a time with
+ * BfeppScorer.bfepp() and in batches with BatchedBfeppScorer.bfepp(), on a synthetic corpus
+ * (see SyntheticCorpus). The batched-ids method times only the batched Dynamic Time Warps,
+ * with the words already converted to phone ids. Each method is run several times after a warm up round and the
+ * median and best throughputs in pairs per second are printed as TSV. The batch results are
+ * checked to be exactly the same as the per-pair results, and the exit code is 1 if not.
+ * <p>
+ * Example: java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.BatchedBfeppBenchmarkCli
+ * -n 1000000 --min-length 2 --max-length 8
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "BatchedBfeppBenchmarkCli", version = "BatchedBfeppBenchmarkCli 0.1", mixinStandardHelpOptions = true)
+public class BatchedBfeppBenchmarkCli implements Callable<Integer> {
+    @Option(names = { "-f", "--feature-framework" }, defaultValue = "hayes", description = "Feature framework: hayes (default) or phoible")
+    String feature_framework = "hayes";
+    @Option(names = { "-i", "--inventory" }, defaultValue = "/hau/hausa_components_utf8nfc.tsv",
+            description = "Phone inventory resource the corpus is generated from (default: /hau/hausa_components_utf8nfc.tsv)")
+    String inventory = "/hau/hausa_components_utf8nfc.tsv";
+    @Option(names = { "-n", "--pairs" }, defaultValue = "200000", description = "Number of word pairs (default: 200000)")
+    int pairCount = 200000;
+    @Option(names = { "--rounds" }, defaultValue = "5", description = "Number of measured runs of each method (default: 5)")
+    int rounds = 5;
+    @Option(names = { "--block-size" }, defaultValue = ""+BatchedBfeppScorer.DEFAULT_BLOCK_SIZE,
+            description = "Maximum number of pairs run in lockstep (default: ${DEFAULT-VALUE})")
+    int blockSize = BatchedBfeppScorer.DEFAULT_BLOCK_SIZE;
+    @Option(names = { "--seed" }, defaultValue = "1", description = "Random seed of the synthetic corpus (default: 1)")
+    long seed = 1;
+    @Option(names = { "--min-length" }, defaultValue = "2", description = "Minimum word length in phones (default: 2)")
+    int minLength = 2;
+    @Option(names = { "--max-length" }, defaultValue = "8", description = "Maximum word length in phones (default: 8)")
+    int maxLength = 8;
+    @Option(names = { "--length-distribution" }, defaultValue = "UNIFORM", description = "UNIFORM (default) or NORMAL between the minimum and maximum lengths")
+    SyntheticCorpus.LengthDistribution lengthDistribution = SyntheticCorpus.LengthDistribution.UNIFORM;
+    @Option(names = { "-m", "--mutation-rate" }, defaultValue = "0.2", description = "Probability of each phone being edited between the words of a pair (default: 0.2)")
+    double mutationRate = 0.2;
+
+    @Override
+    public Integer call() throws IOException {
+        FeatureFramework framework = FeatureFramework.fromName(feature_framework);
+        PhoneInventory phInv = framework.loadInventory(inventory);
+        List<WordPair> pairs = new SyntheticCorpus(phInv, seed, minLength, maxLength, lengthDistribution)
+                .pairs(pairCount, mutationRate);
+        final BfeppScorer scorer = new BfeppScorer(phInv);
+        final BatchedBfeppScorer batched = new BatchedBfeppScorer(scorer, blockSize);
+        Method perPair = new Method() {
+            public double[] score(List<WordPair> pairs) {
+                double[] out = new double[pairs.size()];
+                for (int p = 0; p < out.length; p++) {
+                    out[p] = scorer.bfepp(pairs.get(p).getWord1(), pairs.get(p).getWord2());
+                }
+                return out;
+            }
+        };
+        Method batch = new Method() {
+            public double[] score(List<WordPair> pairs) {
+                return batched.bfepp(pairs);
+            }
+        };
+        final int[][] ids1 = new int[pairs.size()][];
+        final int[][] ids2 = new int[pairs.size()][];
+        for (int p = 0; p < ids1.length; p++) {
+            ids1[p] = new PhoneIdUtterance(pairs.get(p).getWord1(), phInv).toIdArray();
+            ids2[p] = new PhoneIdUtterance(pairs.get(p).getWord2(), phInv).toIdArray();
+        }
+        Method batchIds = new Method() {
+            public double[] score(List<WordPair> pairs) {
+                return batched.totalFeatureErrors(ids1, ids2);
+            }
+        };
+        System.out.println("method\tpairs\tmedianPairsPerSecond\tbestPairsPerSecond");
+        double[] expected = measure("per-pair", perPair, pairs);
+        double[] actual = measure("batched", batch, pairs);
+        measure("batched-ids", batchIds, pairs);
+        for (int p = 0; p < expected.length; p++) {
+            if (Double.compare(expected[p], actual[p]) != 0) {
+                System.err.println("Batched result differs for pair "+(p+1)+" ("+pairs.get(p).getWord1()+" / "
+                        +pairs.get(p).getWord2()+"): "+actual[p]+" rather than "+expected[p]);
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /** A way of scoring all the pairs. */
+    private interface Method {
+        double[] score(List<WordPair> pairs);
+    }
+
+    /** Runs a method for the warm up and measured rounds, prints its throughput and returns
+      * its results. */
+    private double[] measure(String name, Method method, List<WordPair> pairs) {
+        double[] results = method.score(pairs); // warm up
+        double[] pairsPerSecond = new double[rounds];
+        for (int k = 0; k < rounds; k++) {
+            long start = System.nanoTime();
+            results = method.score(pairs);
+            pairsPerSecond[k] = pairs.size()*1e9/(System.nanoTime()-start);
+        }
+        Arrays.sort(pairsPerSecond);
+        System.out.println(name+"\t"+pairs.size()+"\t"+Math.round(pairsPerSecond[rounds/2])+"\t"
+                +Math.round(pairsPerSecond[rounds-1]));
+        return results;
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new BatchedBfeppBenchmarkCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,249 @@
+package io.github.speechchemistry;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scores many short word pairs at once, giving exactly the same results as calling
+ * BfeppScorer.totalFeatureErrors() and BfeppScorer.bfepp() for each pair. With words of
+ * only a few phones the PhoneUtterances, cost functions and Phone comparisons of each pair
+ * cost far more than the handful of Dynamic Time Warp cells, so instead:
+ * <ul>
+ * <li>the words are converted to arrays of phone ids</li>
+ * <li>phone distances are read from a table indexed by phone id, filled in once for each
+ * phone that is used</li>
+ * <li>pairs with the same lengths are put together into blocks, and the Dynamic Time Warp
+ * recurrences of every pair in a block are run in lockstep, cell by cell. The phone ids and
+ * the two rows of costs of the block are each held in one array with the pairs next to each
+ * other (struct of arrays) so that the innermost loop reads consecutive memory.</li>
+ * </ul>
+ * Each cell is calculated with the same arithmetic and tie breaking as DanEllisDtw.totalCost(),
+ * so the costs are identical, not just close.
+ * <p>
+ * The table is filled with the scorer's component alignment (see Phone.setComponentAlignment())
+ * at the time the BatchedBfeppScorer is created; scoring after that alignment has changed
+ * throws an IllegalStateException rather than mixing distances of two alignments.
+ * <p>
+ * A BatchedBfeppScorer can be shared by any number of threads.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class BatchedBfeppScorer {
+    /** Default maximum number of pairs run in lockstep. */
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
+    private final BfeppScorer scorer;
+    private final PhoneInventory inventory;
+    /** Number of phones in the inventory. */
+    private final int n;
+    /** Maximum number of pairs run in lockstep. */
+    private final int blockSize;
+    /** Local cost of phone id a of the first word against phone id b of the second at a*n+b,
+      * filled in for the phones marked in filled. */
+    private final double[] table;
+    private final boolean[] filled;
+    /** The component alignment of the distances in the table. */
+    private final ComponentAlignment alignment;
+
+    /** Creates a batch scorer giving the same results as the given scorer. */
+    public BatchedBfeppScorer(BfeppScorer scorer) {
+        this(scorer, DEFAULT_BLOCK_SIZE);
+    }
+
+    /** Creates a batch scorer giving the same results as the given scorer, running up to
+      * blockSize pairs in lockstep. */
+    public BatchedBfeppScorer(BfeppScorer scorer, int blockSize) {
+        if (blockSize < 1) throw new IllegalArgumentException("blockSize must be at least 1");
+        this.scorer = scorer;
+        this.inventory = scorer.getInventory();
+        this.n = inventory.size();
+        this.blockSize = blockSize;
+        this.table = new double[n*n];
+        this.filled = new boolean[n];
+        this.alignment = scorer.getComponentAlignment();
+    }
+
+    /** Gets the scorer that this gives the same results as. */
+    public BfeppScorer getScorer() {
+        return scorer;
+    }
+
+    /** Calculates BfeppScorer.bfepp(word1, word2) of every pair. */
+    public double[] bfepp(List<WordPair> pairs) {
+        double[] errors = totalFeatureErrors(pairs);
+        for (int p = 0; p < errors.length; p++) {
+            errors[p] = errors[p]/BfeppScorer.numberOfPhones(pairs.get(p).getWord2());
+        }
+        return errors;
+    }
+
+    /** Calculates BfeppScorer.totalFeatureErrors(word1, word2) of every pair. */
+    public double[] totalFeatureErrors(List<WordPair> pairs) {
+        int[][] ids1 = new int[pairs.size()][];
+        int[][] ids2 = new int[pairs.size()][];
+        // words are often repeated e.g. every word of one list against every word of another
+        Map<String,int[]> converted = new HashMap<String,int[]>();
+        for (int p = 0; p < ids1.length; p++) {
+            WordPair pair = pairs.get(p);
+            try {
+                ids1[p] = phoneIds(pair.getWord1(), converted);
+                ids2[p] = phoneIds(pair.getWord2(), converted);
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Pair "+(p+1)+" ("+pair.getWord1()+" / "+pair.getWord2()+"): "+e.getMessage(), e);
+            }
+        }
+        return totalFeatureErrors(ids1, ids2);
+    }
+
+    /** Converts a transcription (phones separated by spaces) to phone ids, normalizing it to
+      * NFC as BfeppScorer does. The converted words are remembered in the map. */
+    private int[] phoneIds(String word, Map<String,int[]> converted) {
+        int[] ids = converted.get(word);
+        if (ids == null) {
+            String[] labels = (isBelowCombiningMarks(word) ? word : Normalizer.normalize(word, Normalizer.Form.NFC)).split(" ");
+            ids = new int[labels.length];
+            for (int i = 0; i < labels.length; i++) ids[i] = inventory.getPhoneId(labels[i]);
+            converted.put(word, ids);
+        }
+        return ids;
+    }
+
+    /** Checks whether every character is below U+0300 (combining diacritical marks). No
+      * character there changes under NFC, so the normalization can be skipped. */
+    private static boolean isBelowCombiningMarks(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) >= '\u0300') return false;
+        }
+        return true;
+    }
+
+    /** Calculates the total number of binary feature edits along the Dynamic Time Warp of
+      * ids1[p] and ids2[p] for every p, where the arrays hold phone ids of the scorer's
+      * inventory (see PhoneInventory.getPhoneId()). */
+    public double[] totalFeatureErrors(int[][] ids1, int[][] ids2) {
+        if (ids1.length != ids2.length)
+            throw new IllegalArgumentException("Different numbers of first and second words: "+ids1.length+" and "+ids2.length);
+        if (scorer.getComponentAlignment() != alignment)
+            throw new IllegalStateException("The component alignment has changed from "+alignment+" to "
+                    +scorer.getComponentAlignment()+" since this BatchedBfeppScorer was created");
+        boolean[] used = new boolean[n];
+        for (int p = 0; p < ids1.length; p++) {
+            if (ids1[p].length == 0 || ids2[p].length == 0) throw new IllegalArgumentException("Pair "+(p+1)+" has an empty word");
+            markUsed(ids1[p], used);
+            markUsed(ids2[p], used);
+        }
+        fillTable(used);
+        // group the pairs by their lengths: the group's count and then where it starts in order
+        Map<Long,int[]> groups = new HashMap<Long,int[]>();
+        for (int p = 0; p < ids1.length; p++) {
+            Long key = lengthKey(ids1[p].length, ids2[p].length);
+            int[] group = groups.get(key);
+            if (group == null) groups.put(key, group = new int[2]);
+            group[0]++;
+        }
+        int start = 0;
+        for (int[] group : groups.values()) {
+            group[1] = start;
+            start += group[0];
+        }
+        int[] order = new int[ids1.length];
+        for (int p = 0; p < ids1.length; p++) {
+            int[] group = groups.get(lengthKey(ids1[p].length, ids2[p].length));
+            order[group[1]++] = p;
+        }
+        double[] out = new double[ids1.length];
+        for (int from = 0; from < order.length; ) {
+            int r = ids1[order[from]].length;
+            int c = ids2[order[from]].length;
+            int to = from+1;
+            while (to < order.length && to-from < blockSize
+                    && ids1[order[to]].length == r && ids2[order[to]].length == c) to++;
+            runBlock(ids1, ids2, order, from, to, r, c, out);
+            from = to;
+        }
+        return out;
+    }
+
+    private static Long lengthKey(int r, int c) {
+        return ((long) r << 32) | c;
+    }
+
+    private void markUsed(int[] ids, boolean[] used) {
+        for (int id : ids) {
+            if (id < 0 || id >= n) throw new IllegalArgumentException("Phone id "+id+" not in phone inventory of size "+n);
+            used[id] = true;
+        }
+    }
+
+    /** Fills in the table entries between the used phones and every phone filled in so far,
+      * with the same distance calls as PhoneUtterance.differenceFunction(). Synchronized so
+      * that the entries are visible to the calling thread afterwards. */
+    private synchronized void fillTable(boolean[] used) {
+        WeightedPhoneDistance weights = scorer.getWeights();
+        for (int a = 0; a < n; a++) {
+            if (!used[a] || filled[a]) continue;
+            filled[a] = true;
+            Phone aPh = inventory.getPhoneById(a);
+            for (int b = 0; b < n; b++) {
+                if (!filled[b]) continue;
+                Phone bPh = inventory.getPhoneById(b);
+                // the cost of phone i of the first word and phone j of the second is
+                // otherPhones[j].averageFeatureDistance(thisPhones[i])
+                if (weights == null) {
+                    table[a*n+b] = bPh.averageFeatureDistance(aPh);
+                    table[b*n+a] = aPh.averageFeatureDistance(bPh);
+                } else {
+                    table[a*n+b] = weights.averageFeatureDistance(bPh, aPh);
+                    table[b*n+a] = weights.averageFeatureDistance(aPh, bPh);
+                }
+            }
+        }
+    }
+
+    /** Runs the Dynamic Time Warps of the pairs order[from..to-1], which all have first words
+      * of r phones and second words of c phones, in lockstep. Lane k of a block array holds
+      * pair order[from+k], so element x of that pair is at x*lanes+k. */
+    private void runBlock(int[][] ids1, int[][] ids2, int[] order, int from, int to, int r, int c, double[] out) {
+        int lanes = to-from;
+        int[] rowOffsets = new int[r*lanes]; // phone id of the first word times n
+        int[] cols = new int[c*lanes];
+        for (int k = 0; k < lanes; k++) {
+            int[] a = ids1[order[from+k]];
+            int[] b = ids2[order[from+k]];
+            for (int i = 0; i < r; i++) rowOffsets[i*lanes+k] = a[i]*n;
+            for (int j = 0; j < c; j++) cols[j*lanes+k] = b[j];
+        }
+        double[] prev = new double[c*lanes];
+        double[] cur = new double[c*lanes];
+        // the cost matrix is padded with 0 at the top left and NaN elsewhere on the edges, as
+        // in DanEllisDtw.forwardRow(), so only the inside cells need to compare neighbours
+        for (int k = 0; k < lanes; k++) cur[k] = table[rowOffsets[k]+cols[k]] + 0.0;
+        for (int j = 1; j < c; j++) {
+            int x = j*lanes;
+            for (int k = 0; k < lanes; k++) cur[x+k] = table[rowOffsets[k]+cols[x+k]] + cur[x-lanes+k];
+        }
+        for (int i = 1; i < r; i++) {
+            double[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+            int y = i*lanes;
+            for (int k = 0; k < lanes; k++) cur[k] = table[rowOffsets[y+k]+cols[k]] + prev[k];
+            for (int j = 1; j < c; j++) {
+                int x = j*lanes;
+                for (int k = 0; k < lanes; k++) {
+                    double dm = prev[x-lanes+k];
+                    double up = prev[x+k];
+                    double left = cur[x-lanes+k];
+                    // Double.compare orders NaN last, just like DanEllisDtw.forwardRow()
+                    if (Double.compare(up,dm) < 0) dm = up;
+                    if (Double.compare(left,dm) < 0) dm = left;
+                    cur[x+k] = table[rowOffsets[y+k]+cols[x+k]] + dm;
+                }
+            }
+        }
+        int last = (c-1)*lanes;
+        for (int k = 0; k < lanes; k++) out[order[from+k]] = cur[last+k];
+    }
+}
@@ -32,6 +32,8 @@ public class BfeppForTwoWordsCli implements Callable{
     String word2;
     @Option(names = { "-f", "--feature-framework" }, defaultValue = "phoible", description = "Feature framework to use: phoible (default) or hayes")
     String feature_framework = "phoible";
+    @Option(names = { "-w", "--weights" }, description = "Feature weight profile file (TSV of feature and weight, with a heading line); unlisted features have a weight of 1")
+    String weightsFile;
 
     @Override
     public Integer call() throws IOException {
@@ -40,49 +42,35 @@ public class BfeppForTwoWordsCli implements Callable{
         // load in hayes features
         String word1_nfc = Normalizer.normalize(word1, Normalizer.Form.NFC);
         String word2_nfc = Normalizer.normalize(word2, Normalizer.Form.NFC);
-        LinkedList<String> hayesFiles;
-        String phoneComponentsFilename;
-        if (feature_framework.equals("hayes")) {
-            hayesFiles = new LinkedList<String>(Arrays.asList(
-                "/common/hayes/hayes_features_utf8nfc.tsv",
-                "/common/hayes/extra_and_override_phone_features_utf8nfc.tsv",
-                "/common/hayes/extra_auto_generated_utf8nfc.tsv"));
-            phoneComponentsFilename = "/common/hayes/combined_phone_list_utf8nfc.txt";
+        FeatureFramework framework = feature_framework.equals("hayes") ? FeatureFramework.HAYES : FeatureFramework.PHOIBLE;
+        // load in the big phone inventory (one inventory is shared by both words)
+        BfeppScorer scorer = BfeppScorer.forFramework(framework);
+        if (weightsFile != null) { // compile the weights for the big inventory
+            PhoneInventory phInv = scorer.getInventory();
+            scorer = new BfeppScorer(phInv, FeatureWeightProfile.loadFile(weightsFile).compile(phInv));
         }
-        else {
-            hayesFiles = new LinkedList<String>(Arrays.asList(
-                    "/common/phoible/phoible_segments_no_multivector_no_ambigous_phones_utf8nfc.tsv"));
-            phoneComponentsFilename = "/common/phoible/phonelist_no_multivector_no_ambiguous_phones_utf8nfc.txt";
-        }
-        // load in the big phone inventory 
-        
-        //String phoneComponentsFilename = "/common/hayes/combined_phone_list_utf8nfc.txt";
-        PhoneInventory lang1PhInv = new PhoneInventory(phoneComponentsFilename,hayesFiles);
-        PhoneUtterance lang1PhUtt = new PhoneUtterance(word1_nfc, lang1PhInv);
-        // create the same big phone inventory for language 2
-        PhoneInventory lang2PhInv = new PhoneInventory(phoneComponentsFilename,hayesFiles);
-        PhoneUtterance lang2PhUtt = new PhoneUtterance(word2_nfc, lang2PhInv);
-
-        //Do a dynamic time warp and print the state transitions
-        double[][] diffArray = lang1PhUtt.differenceMatrix(lang2PhUtt);
-        DanEllisDtw dtw = new DanEllisDtw(diffArray);
-        List<Integer> lang1DtwIndexList = dtw.getP();
-        List<Phone> lang1PhoneList = lang1PhUtt.getPhoneList();
-        double totalFeatureErrors = dtw.getTotalCost();
-        // most accurate way to calculate number of phones is to count the spaces and add 1
-        int lengthOfWord1 = word1_nfc.length() - word1_nfc.replaceAll(" ", "").length() +1;
-        int lengthOfWord2 = word2_nfc.length() - word2_nfc.replaceAll(" ", "").length() +1;
-        // to calculate BFEPP we divide by the reference string (Kempton 2012, p69) which 
-        // should be the second string in this case. If there is no reference string the 
-        // second string should be longest string (Kempton 2012, p56)
-        double bfepp = 0;
-        bfepp = totalFeatureErrors/lengthOfWord2;  
+        // the dynamic time warp is divided by the length of the reference string (see BfeppScorer)
+        double bfepp = scorer.bfepp(word1_nfc, word2_nfc);
         System.out.println(word1_nfc+"\t"+word2_nfc+"\t"+bfepp);
         return 0;
     }
     
     public static void main(String[] args) {
-        int exitCode = new CommandLine(new BfeppForTwoWordsCli()).execute(args); 
+        int exitCode;
+        if (args.length == 2 && !args[0].startsWith("-") && !args[1].startsWith("-")) {
+            // just the two words with the default options: skip the start up cost of picocli
+            BfeppForTwoWordsCli cli = new BfeppForTwoWordsCli();
+            cli.word1 = args[0];
+            cli.word2 = args[1];
+            try {
+                exitCode = cli.call();
+            } catch (Exception e) { // reported the same way as picocli does
+                e.printStackTrace();
+                exitCode = 1;
+            }
+        } else {
+            exitCode = new CommandLine(new BfeppForTwoWordsCli()).execute(args); 
+        }
         System.exit(exitCode);
     }      
 }
@@ -0,0 +1,355 @@
+package io.github.speechchemistry;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, size-bounded cache of word pair BFEPP scores (see BfeppScorer.bfepp()), for
+ * evaluation data where the same hypothesis and reference pairs come up again and again e.g.
+ * frequent words and repeated test runs. The key is the pair of NFC normalized transcriptions;
+ * a cache belongs to one scorer, so the feature framework, inventory and weights are part of
+ * the key too.
+ * <p>
+ * The memory tier is a StripedCache (independently locked stripes with LRU or FIFO eviction),
+ * like PhoneDistanceCache. There can also be a disk tier so that scores survive between batch
+ * runs: a memory mapped file of fixed size holding a hash table of buckets of 4 entries, each
+ * entry being a 128 bit fingerprint of the pair and the score. Scores not in memory are looked
+ * up on disk, and new scores are written to both. When a bucket is full one of its entries is
+ * replaced, so the file never grows. The file starts with the identity of the scorer (see
+ * scorerIdentity(): the inventory's phones, the weights and the component alignment) and can't
+ * be opened by a different scorer, so scores from different scorers are never mixed.
+ * <p>
+ * Scores are cached for the scorer's component alignment (see Phone.setComponentAlignment()) at
+ * the time the cache is created; looking up a score after that alignment has changed throws an
+ * IllegalStateException rather than returning a score of the old alignment.
+ * <p>
+ * Hit and miss counts of each tier are kept so that the sizes can be tuned.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class BfeppResultCache implements Closeable {
+
+    /** Default maximum number of scores held in memory. */
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 16;
+
+    /** Default number of scores the disk file can hold (24 bytes each). */
+    public static final int DEFAULT_DISK_ENTRIES = 1 << 20;
+
+    private static final int FILE_MAGIC = 0x42524331; // "BRC1"
+    private static final int FILE_VERSION = 2;
+    /** Bytes before the first bucket: magic, version, bucket count and the scorer identity. */
+    private static final int HEADER_BYTES = 4096;
+    private static final int ENTRY_BYTES = 24;
+    private static final int BUCKET_ENTRIES = 4;
+    private static final int BUCKET_BYTES = BUCKET_ENTRIES*ENTRY_BYTES;
+    /** Buckets guarded by each disk lock. */
+    private static final int DISK_LOCKS = 256;
+
+    private final BfeppScorer scorer;
+    /** The component alignment of the cached scores. */
+    private final ComponentAlignment alignment;
+    private final int maxEntries;
+    private final PhoneDistanceCache.EvictionPolicy policy;
+    /** The memory tier. */
+    private final StripedCache<WordPair,Double> entries;
+    /** The disk tier, or null if there isn't one. */
+    private final DiskTier disk;
+
+    /** Creates a memory only cache with the default size and LRU eviction. */
+    public BfeppResultCache(BfeppScorer scorer) {
+        this(scorer, DEFAULT_MAX_ENTRIES, PhoneDistanceCache.EvictionPolicy.LRU);
+    }
+
+    /** Creates a memory only cache holding at most maxEntries scores. */
+    public BfeppResultCache(BfeppScorer scorer, int maxEntries, PhoneDistanceCache.EvictionPolicy policy) {
+        this(scorer, maxEntries, policy, null);
+    }
+
+    /** Creates a cache holding at most maxEntries scores in memory, with a disk tier in the
+      * given file. If the file doesn't exist it is created with room for about diskEntries
+      * scores; if it does exist its size is kept and it must have been created by a scorer
+      * with the same identity (see scorerIdentity()). */
+    public BfeppResultCache(BfeppScorer scorer, int maxEntries, PhoneDistanceCache.EvictionPolicy policy,
+            File file, int diskEntries) throws IOException {
+        // maxEntries is checked before the file is opened
+        this(scorer, checkMaxEntries(maxEntries), policy, DiskTier.open(file, scorerIdentity(scorer), diskEntries));
+    }
+
+    private BfeppResultCache(BfeppScorer scorer, int maxEntries, PhoneDistanceCache.EvictionPolicy policy, DiskTier disk) {
+        this.scorer = scorer;
+        this.alignment = scorer.getComponentAlignment();
+        this.maxEntries = maxEntries;
+        this.policy = policy;
+        this.entries = new StripedCache<WordPair,Double>(maxEntries, policy, 4*Runtime.getRuntime().availableProcessors());
+        this.disk = disk;
+    }
+
+    private static int checkMaxEntries(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be at least 1");
+        return maxEntries;
+    }
+
+    /** Describes everything that a scorer's scores depend on: a fingerprint of the inventory's
+      * phones (see Phone.getFingerprint()) in id order, the weight profile (if any) and the
+      * component alignment. Two scorers with the same identity give the same scores. */
+    public static String scorerIdentity(BfeppScorer scorer) {
+        long phones = 17;
+        for (Phone phone : scorer.getInventory().getPhoneList()) phones = phones*0x100000001b3L ^ phone.getFingerprint();
+        StringBuilder identity = new StringBuilder();
+        identity.append("phones=").append(scorer.getInventory().size()).append(':').append(Long.toHexString(phones));
+        WeightedPhoneDistance weights = scorer.getWeights();
+        if (weights == null) {
+            identity.append(" weights=none");
+        } else {
+            long h = 17;
+            for (Map.Entry<String,Double> w : new TreeMap<String,Double>(weights.getProfile().getWeights()).entrySet()) {
+                h = h*31+w.getKey().hashCode();
+                h = h*31+Double.doubleToLongBits(w.getValue());
+            }
+            identity.append(" weights=").append(weights.getProfile().getName()).append(':').append(Long.toHexString(h));
+        }
+        identity.append(" alignment=").append(scorer.getComponentAlignment());
+        return identity.toString();
+    }
+
+    /** Gets the scorer whose scores are cached. */
+    public BfeppScorer getScorer() {
+        return scorer;
+    }
+
+    /** Gets the score from the cache, calculating it with the scorer (and adding it) if it
+      * isn't there. The result is the same as getScorer().bfepp(word1, word2). */
+    public double bfepp(String word1, String word2) {
+        if (scorer.getComponentAlignment() != alignment)
+            throw new IllegalStateException("The component alignment has changed from "+alignment+" to "
+                    +scorer.getComponentAlignment()+" since this BfeppResultCache was created");
+        WordPair key = new WordPair(Normalizer.normalize(word1, Normalizer.Form.NFC),
+                Normalizer.normalize(word2, Normalizer.Form.NFC));
+        Double cached = entries.get(key);
+        if (cached != null) return cached;
+        long[] fingerprint = (disk == null) ? null : fingerprint(key);
+        double score;
+        Double stored = (disk == null) ? null : disk.get(fingerprint);
+        if (stored != null) {
+            score = stored;
+        } else {
+            // calculated outside the locks; two threads may occasionally both calculate the same score
+            score = scorer.bfepp(key.getWord1(), key.getWord2());
+            if (disk != null) disk.put(fingerprint, score);
+        }
+        entries.put(key, score);
+        return score;
+    }
+
+    /** Two independent 64 bit hashes of the pair; neither is 0, as 0 marks an empty entry. */
+    private static long[] fingerprint(WordPair key) {
+        long a = 0xcbf29ce484222325L; // FNV-1a
+        long b = 0x9E3779B97F4A7C15L;
+        String[] words = { key.getWord1(), key.getWord2() };
+        for (String word : words) {
+            for (int i = 0; i < word.length(); i++) {
+                char ch = word.charAt(i);
+                a = (a ^ ch)*0x100000001b3L;
+                b = Long.rotateLeft(b ^ (ch*0xFF51AFD7ED558CCDL), 29)*0x9E3779B97F4A7C15L;
+            }
+            a = (a ^ '\t')*0x100000001b3L; // so that moving a phone between the words changes the hash
+            b = Long.rotateLeft(b ^ ('\t'*0xFF51AFD7ED558CCDL), 29)*0x9E3779B97F4A7C15L;
+        }
+        return new long[] { a | 1, b | 1 };
+    }
+
+    /** Gets the maximum number of scores held in memory. */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /** Gets the eviction policy of the memory tier. */
+    public PhoneDistanceCache.EvictionPolicy getEvictionPolicy() {
+        return policy;
+    }
+
+    /** Gets the number of scores the disk file can hold (0 if there is no disk tier). */
+    public long getDiskCapacity() {
+        return (disk == null) ? 0 : (long) disk.bucketCount*BUCKET_ENTRIES;
+    }
+
+    /** Gets the number of scores held in memory. */
+    public int size() {
+        return entries.size();
+    }
+
+    /** Gets the number of lookups that found the score in memory. */
+    public long getHitCount() {
+        return entries.getHitCount();
+    }
+
+    /** Gets the number of lookups that didn't find the score in memory. */
+    public long getMissCount() {
+        return entries.getMissCount();
+    }
+
+    /** Gets the number of memory misses that found the score on disk. */
+    public long getDiskHitCount() {
+        return (disk == null) ? 0 : disk.hits.get();
+    }
+
+    /** Gets the number of memory misses that didn't find the score on disk either. */
+    public long getDiskMissCount() {
+        return (disk == null) ? 0 : disk.misses.get();
+    }
+
+    /** Gets the number of scores removed from memory to make space. */
+    public long getEvictionCount() {
+        return entries.getEvictionCount();
+    }
+
+    /** Gets the proportion of lookups that found the score in memory (0 if there have been no lookups). */
+    public double getHitRate() {
+        long hits = getHitCount();
+        long total = hits+getMissCount();
+        return (total == 0) ? 0 : (1.0*hits)/total;
+    }
+
+    /** Gets the proportion of lookups that found the score in memory or on disk, i.e. didn't
+      * need to calculate it (0 if there have been no lookups). */
+    public double getOverallHitRate() {
+        long hits = getHitCount();
+        long total = hits+getMissCount();
+        return (total == 0) ? 0 : (1.0*(hits+getDiskHitCount()))/total;
+    }
+
+    /** Writes the disk tier's changes to the file. */
+    public void flush() {
+        if (disk != null) disk.buffer.force();
+    }
+
+    /** Writes the disk tier's changes and closes the file. The memory tier can still be used. */
+    public void close() throws IOException {
+        if (disk != null) {
+            flush();
+            disk.file.close();
+        }
+    }
+
+    /** Produces a summary of the statistics. */
+    public String toString() {
+        return "BfeppResultCache [size="+size()+"/"+maxEntries+", policy="+policy
+                +", hits="+getHitCount()+", misses="+getMissCount()+", evictions="+getEvictionCount()
+                +", hitRate="+getHitRate()+(disk == null ? "" : ", diskCapacity="+getDiskCapacity()
+                +", diskHits="+getDiskHitCount()+", diskMisses="+getDiskMissCount()
+                +", overallHitRate="+getOverallHitRate())+"]";
+    }
+
+    /** The memory mapped file of the disk tier: a header then a hash table of buckets. */
+    private static final class DiskTier {
+        final RandomAccessFile file;
+        final MappedByteBuffer buffer;
+        final int bucketCount;
+        final Object[] locks;
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+
+        private DiskTier(RandomAccessFile file, int bucketCount) throws IOException {
+            this.file = file;
+            this.bucketCount = bucketCount;
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+            locks = new Object[Math.min(DISK_LOCKS, bucketCount)];
+            for (int i = 0; i < locks.length; i++) locks[i] = new Object();
+        }
+
+        /** Opens an existing cache file, checking that it was created by a scorer with the same
+          * identity, or creates one with room for about diskEntries scores. */
+        static DiskTier open(File path, String identity, int diskEntries) throws IOException {
+            if (diskEntries < 1) throw new IllegalArgumentException("diskEntries must be at least 1");
+            byte[] description = identity.getBytes(StandardCharsets.UTF_8);
+            if (description.length > HEADER_BYTES-16) throw new IllegalArgumentException("Scorer identity is too long");
+            boolean existed = path.exists() && path.length() > 0;
+            int bucketCount = (int) ((diskEntries+(long) BUCKET_ENTRIES-1)/BUCKET_ENTRIES);
+            // checked before the file is created, so that a file that can't be mapped isn't left behind
+            if (!existed) checkMappable(path, bucketCount);
+            RandomAccessFile file = new RandomAccessFile(path, "rw");
+            try {
+                if (existed) {
+                    if (file.length() < HEADER_BYTES || file.readInt() != FILE_MAGIC || file.readInt() != FILE_VERSION)
+                        throw new IOException(path+" isn't a BFEPP result cache file");
+                    bucketCount = file.readInt();
+                    byte[] existing = new byte[file.readInt()];
+                    if (existing.length > HEADER_BYTES-16 || bucketCount < 1
+                            || file.length() != HEADER_BYTES+(long) bucketCount*BUCKET_BYTES)
+                        throw new IOException(path+" is damaged");
+                    checkMappable(path, bucketCount);
+                    file.readFully(existing);
+                    String existingIdentity = new String(existing, StandardCharsets.UTF_8);
+                    if (!existingIdentity.equals(identity))
+                        throw new IOException(path+" is a cache for a different scorer: "+existingIdentity+" rather than "+identity);
+                } else {
+                    file.setLength(HEADER_BYTES+(long) bucketCount*BUCKET_BYTES); // filled with zeros: empty entries
+                    file.writeInt(FILE_MAGIC);
+                    file.writeInt(FILE_VERSION);
+                    file.writeInt(bucketCount);
+                    file.writeInt(description.length);
+                    file.write(description);
+                }
+                return new DiskTier(file, bucketCount);
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        private static void checkMappable(File path, int bucketCount) throws IOException {
+            if ((long) bucketCount*BUCKET_BYTES > Integer.MAX_VALUE-HEADER_BYTES)
+                throw new IOException(path+" is too large to map");
+        }
+
+        private int bucketFor(long[] fingerprint) {
+            return (int) ((fingerprint[0] >>> 1) % bucketCount);
+        }
+
+        Double get(long[] fingerprint) {
+            int bucket = bucketFor(fingerprint);
+            int base = HEADER_BYTES+bucket*BUCKET_BYTES;
+            synchronized (locks[bucket % locks.length]) {
+                for (int e = 0; e < BUCKET_ENTRIES; e++) {
+                    int at = base+e*ENTRY_BYTES;
+                    if (buffer.getLong(at) == fingerprint[0] && buffer.getLong(at+8) == fingerprint[1]) {
+                        hits.incrementAndGet();
+                        return buffer.getDouble(at+16);
+                    }
+                }
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+
+        void put(long[] fingerprint, double score) {
+            int bucket = bucketFor(fingerprint);
+            int base = HEADER_BYTES+bucket*BUCKET_BYTES;
+            synchronized (locks[bucket % locks.length]) {
+                // an empty entry (or the same pair, written by another thread), otherwise replace one
+                int victim = (int) (fingerprint[1] >>> 62);
+                for (int e = 0; e < BUCKET_ENTRIES; e++) {
+                    int at = base+e*ENTRY_BYTES;
+                    long first = buffer.getLong(at);
+                    if (first == 0 || (first == fingerprint[0] && buffer.getLong(at+8) == fingerprint[1])) {
+                        victim = e;
+                        break;
+                    }
+                }
+                int at = base+victim*ENTRY_BYTES;
+                buffer.putLong(at, fingerprint[0]);
+                buffer.putLong(at+8, fingerprint[1]);
+                buffer.putDouble(at+16, score);
+            }
+        }
+    }
+}
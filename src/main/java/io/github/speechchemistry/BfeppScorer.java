@@ -0,0 +1,86 @@
+package io.github.speechchemistry;
+
+import java.io.IOException;
+import java.text.Normalizer;
+
+/**
+ * Calculates the Binary Feature Edits Per Phone (BFEPP) measure between two phonetic
+ * transcriptions, using one phone inventory for both. This is the calculation done
+ * by BfeppForTwoWordsCli, packaged so that it can be reused for many pairs.
+ * Feature edits can optionally be weighted with a compiled FeatureWeightProfile.
+ * <p>
+ * A BfeppScorer can't be changed once it has been created so it can be shared by any
+ * number of threads.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class BfeppScorer {
+    /** Phone inventory used for both transcriptions. */
+    private final PhoneInventory inventory;
+    /** Feature weights, or null for the unweighted measure. */
+    private final WeightedPhoneDistance weights;
+
+    /** Creates a scorer using the given phone inventory for both transcriptions. */
+    public BfeppScorer(PhoneInventory inventory) {
+        this(inventory, null);
+    }
+
+    /** Creates a scorer using the given phone inventory for both transcriptions, with
+      * feature edits weighted by a profile compiled for that inventory (null for unweighted). */
+    public BfeppScorer(PhoneInventory inventory, WeightedPhoneDistance weights) {
+        this.inventory = inventory;
+        this.weights = weights;
+    }
+
+    /** Creates a scorer using every phone in the feature framework. */
+    public static BfeppScorer forFramework(FeatureFramework framework) throws IOException {
+        return new BfeppScorer(framework.loadFullInventory());
+    }
+
+    /** Gets the phone inventory. */
+    public PhoneInventory getInventory() {
+        return inventory;
+    }
+
+    /** Gets the feature weights (null if unweighted). */
+    public WeightedPhoneDistance getWeights() {
+        return weights;
+    }
+
+    /** Gets how the components of multi-component phones are matched: the alignment the
+      * weights were compiled with, or if unweighted Phone.getComponentAlignment() (which can
+      * change). */
+    public ComponentAlignment getComponentAlignment() {
+        return (weights == null) ? Phone.getComponentAlignment() : weights.getComponentAlignment();
+    }
+
+    /** Calculates the total number of binary feature edits along the dynamic time warp of
+      * the two transcriptions (phones separated by spaces; they are normalized to NFC). */
+    public double totalFeatureErrors(String word1, String word2) {
+        PhoneUtterance lang1PhUtt = new PhoneUtterance(Normalizer.normalize(word1, Normalizer.Form.NFC), inventory);
+        PhoneUtterance lang2PhUtt = new PhoneUtterance(Normalizer.normalize(word2, Normalizer.Form.NFC), inventory);
+        // only the total cost is needed so the cost only mode is used
+        DtwCostFunction f = (weights == null) ? lang1PhUtt.differenceFunction(lang2PhUtt)
+                : lang1PhUtt.differenceFunction(lang2PhUtt, weights);
+        return DanEllisDtw.totalCost(f,
+                lang1PhUtt.getPhoneList().size(), lang2PhUtt.getPhoneList().size());
+    }
+
+    /** Calculates the BFEPP measure. word2 should be the reference transcription / ground-truth.
+      * If there is no reference transcription then this should be the longest transcription. */
+    public double bfepp(String word1, String word2) {
+        // to calculate BFEPP we divide by the reference string (Kempton 2012, p69) which
+        // should be the second string in this case. If there is no reference string the
+        // second string should be longest string (Kempton 2012, p56)
+        return totalFeatureErrors(word1, word2)/numberOfPhones(word2);
+    }
+
+    /** Counts the phones in a transcription (the number of spaces plus 1). */
+    static int numberOfPhones(String word) {
+        int spaces = 0;
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) == ' ') spaces++;
+        }
+        return spaces + 1;
+    }
+}
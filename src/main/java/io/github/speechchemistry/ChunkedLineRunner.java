@@ -0,0 +1,92 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a text stream once in chunks of lines, processes the chunks in parallel on an
+ * executor and passes the results on in the order of the chunks. This is how the corpus
+ * tools (CorpusTransliterator, SrilmFlmConverter, PhoneContextCounts and RecognizerEvaluation)
+ * read a whole corpus.
+ * <p>
+ * At most twice as many chunks as there are threads are submitted but not yet passed on, so
+ * the memory used doesn't depend on the length of the stream. An exception thrown by a chunk
+ * is passed on (see getUnchecked()) when that chunk's turn comes.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+class ChunkedLineRunner {
+
+    /** Processes one chunk of lines; called on a worker thread. */
+    interface ChunkTask<T> {
+        /** Processes the lines, the first of which is line firstLineNumber (from 1) of the stream. */
+        T process(List<String> lines, int firstLineNumber) throws Exception;
+    }
+
+    /** Receives the result of each chunk, in order; called on the reading thread. */
+    interface ResultHandler<T> {
+        void handle(T result) throws IOException;
+    }
+
+    private ChunkedLineRunner() {
+    }
+
+    /** Reads the whole stream, giving each chunk of chunkLines lines to the task on the
+      * executor and each result to the handler (which can be null) in the order of the
+      * chunks. Returns when every chunk has been handled. */
+    static <T> void run(BufferedReader in, int chunkLines, ExecutorService executor, int threads,
+            ChunkTask<T> task, ResultHandler<T> handler) throws IOException, InterruptedException {
+        if (chunkLines < 1) throw new IllegalArgumentException("chunkLines must be at least 1");
+        int maxInFlight = 2*Math.max(1, threads);
+        Deque<Future<T>> inFlight = new ArrayDeque<Future<T>>();
+        List<String> chunk = new ArrayList<String>(chunkLines);
+        int firstLineNumber = 1;
+        int lineNumber = 0;
+        String thisLine;
+        while ((thisLine = in.readLine()) != null) {
+            lineNumber++;
+            chunk.add(thisLine);
+            if (chunk.size() == chunkLines) {
+                if (inFlight.size() == maxInFlight) handle(getUnchecked(inFlight.remove()), handler);
+                inFlight.add(executor.submit(callable(task, chunk, firstLineNumber)));
+                chunk = new ArrayList<String>(chunkLines);
+                firstLineNumber = lineNumber+1;
+            }
+        }
+        if (!chunk.isEmpty()) inFlight.add(executor.submit(callable(task, chunk, firstLineNumber)));
+        while (!inFlight.isEmpty()) handle(getUnchecked(inFlight.remove()), handler);
+    }
+
+    private static <T> Callable<T> callable(final ChunkTask<T> task, final List<String> lines, final int firstLineNumber) {
+        return new Callable<T>() {
+            public T call() throws Exception {
+                return task.process(lines, firstLineNumber);
+            }
+        };
+    }
+
+    private static <T> void handle(T result, ResultHandler<T> handler) throws IOException {
+        if (handler != null) handler.handle(result);
+    }
+
+    /** Waits for a task, passing on any exception it threw (a checked exception is wrapped
+      * in a RuntimeException). */
+    static <T> T getUnchecked(Future<T> f) throws InterruptedException {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+}
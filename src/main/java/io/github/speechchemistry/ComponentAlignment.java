@@ -0,0 +1,87 @@
+package io.github.speechchemistry;
+
+import java.util.Arrays;
+
+/**
+ * How the components of two multi-component phones (e.g. diphthongs, affricates and
+ * prenasalized stops) are matched up for Phone.averageFeatureDistance(). The distance is the
+ * average feature difference of the matched components. Phones with one component are
+ * matched with every component of the other phone whichever alignment is used.
+ * <p>
+ * The alignment used by Phone is chosen with Phone.setComponentAlignment(), or for the command
+ * line tools with the system property phonemic.componentAlignment (diagonal or dp). As distances are
+ * cached (PhoneDistanceCache) or precomputed for an inventory (WeightedPhoneDistance,
+ * InventoryDistanceMatrix), the dynamic programming alignment costs no more to look up than
+ * the approximation.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public enum ComponentAlignment {
+    /** The approximation used so far (default): the components whose cells are crossed by a
+      * diagonal line through the rectangle of component pairs. The feature differences aren't
+      * looked at. */
+    DIAGONAL,
+    /** A dynamic programming (DTW) alignment from the first pair of components to the last,
+      * with diagonal, horizontal and vertical steps, that has the lowest total feature
+      * difference. Between alignments with the same total the one with fewest matches is
+      * used, so the distance is symmetric. For phones of at most two components this always
+      * gives the same distance as DIAGONAL. */
+    DYNAMIC_PROGRAMMING;
+
+    /** Matches the components of two phones. cost[i*otherSize+j] is the cost of matching
+      * component i of this phone with component j of the other (it isn't needed for
+      * DIAGONAL). Returns the matched cells as i*otherSize+j, in order. */
+    int[] align(int thisSize, int otherSize, double[] cost) {
+        if (this == DIAGONAL) {
+            double m = (1.0*otherSize)/thisSize; // gradient of line
+            int[] cells = new int[thisSize+otherSize-1]; // at most this many cells are crossed
+            int count = 0;
+            for (int i = 0; i < thisSize; i++) {
+                for (int j = 0; j < otherSize; j++) {
+                    if ((i*m < j+1) && (j < (i+1)*m)) cells[count++] = i*otherSize+j; // if line goes through cell
+                }
+            }
+            return (count == cells.length) ? cells : Arrays.copyOf(cells, count);
+        }
+        // total cost and number of matches of the best alignment ending at each cell
+        double[] total = new double[thisSize*otherSize];
+        int[] length = new int[thisSize*otherSize];
+        byte[] step = new byte[thisSize*otherSize]; // 1 diagonal, 2 from i-1, 3 from j-1
+        for (int i = 0; i < thisSize; i++) {
+            for (int j = 0; j < otherSize; j++) {
+                int c = i*otherSize+j;
+                int best = -1;
+                byte bestStep = 0;
+                if (i > 0 && j > 0) { best = c-otherSize-1; bestStep = 1; }
+                if (i > 0 && (best < 0 || isBetter(total, length, c-otherSize, best))) { best = c-otherSize; bestStep = 2; }
+                if (j > 0 && (best < 0 || isBetter(total, length, c-1, best))) { best = c-1; bestStep = 3; }
+                total[c] = cost[c]+((best < 0) ? 0 : total[best]);
+                length[c] = 1+((best < 0) ? 0 : length[best]);
+                step[c] = bestStep;
+            }
+        }
+        int last = thisSize*otherSize-1;
+        int[] cells = new int[length[last]];
+        for (int k = cells.length-1, c = last; k >= 0; k--) {
+            cells[k] = c;
+            if (step[c] == 1) c -= otherSize+1;
+            else if (step[c] == 2) c -= otherSize;
+            else if (step[c] == 3) c -= 1;
+        }
+        return cells;
+    }
+
+    /** Whether the alignment ending at cell a is better than the one ending at cell b. */
+    private static boolean isBetter(double[] total, int[] length, int a, int b) {
+        return total[a] < total[b] || (total[a] == total[b] && length[a] < length[b]);
+    }
+
+    /** Gets the alignment from the name used on the command line e.g. "diagonal" or "dp". */
+    public static ComponentAlignment fromName(String name) {
+        if (name.equalsIgnoreCase("dp")) return DYNAMIC_PROGRAMMING;
+        for (ComponentAlignment a : values()) {
+            if (a.name().equalsIgnoreCase(name)) return a;
+        }
+        throw new IllegalArgumentException("Unknown component alignment "+name+"; expected diagonal or dp");
+    }
+}
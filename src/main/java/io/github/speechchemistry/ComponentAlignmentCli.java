@@ -0,0 +1,140 @@
+package io.github.speechchemistry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Lists the phone pairs whose average feature distance (see Phone.averageFeatureDistance())
+ * is different with the DIAGONAL and DYNAMIC_PROGRAMMING component alignments (see
+ * ComponentAlignment). Only pairs where a phone has more than one component can differ.
+ * <p>
+ * Example: java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.ComponentAlignmentCli
+ * -o disagreements.tsv
+ * <p>
+ * By default every bundled inventory is checked: the full inventory of each feature framework
+ * and each language inventory (*_components_utf8nfc.tsv) with each framework that has
+ * features for all its phones. The output is TSV: framework, inventory, the two phones and
+ * the two distances. A summary of each inventory is printed to standard error.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "ComponentAlignmentCli", version = "ComponentAlignmentCli 0.1", mixinStandardHelpOptions = true)
+public class ComponentAlignmentCli implements Callable<Integer> {
+    @Parameters(paramLabel = "inventory", arity = "0..*", description = "Phone inventories to check (default: every bundled inventory)")
+    List<String> inventories;
+    @Option(names = { "-f", "--feature-framework" }, description = "Feature framework: phoible or hayes (default: both)")
+    String feature_framework;
+    @Option(names = { "-o", "--output" }, description = "TSV file to write the disagreeing pairs to (default: standard output)")
+    File outputFile;
+
+    @Override
+    public Integer call() throws IOException, URISyntaxException {
+        List<FeatureFramework> frameworks = new ArrayList<FeatureFramework>();
+        if (feature_framework == null) Collections.addAll(frameworks, FeatureFramework.values());
+        else frameworks.add(FeatureFramework.fromName(feature_framework));
+        List<String> names = inventories;
+        if (names == null || names.isEmpty()) {
+            names = new ArrayList<String>();
+            names.add("full");
+            names.addAll(bundledLanguageInventories());
+        }
+        PrintStream out = (outputFile == null) ? new PrintStream(System.out, true, "UTF-8")
+                : new PrintStream(new FileOutputStream(outputFile), false, "UTF-8");
+        try {
+            out.println("framework\tinventory\tphone1\tphone2\tdiagonal\tdynamicProgramming");
+            for (FeatureFramework framework : frameworks) {
+                for (String name : names) {
+                    PhoneInventory phInv;
+                    try {
+                        phInv = name.equals("full") ? framework.loadFullInventory() : framework.loadInventory(name);
+                    } catch (MissingPhoneException e) { // phones missing from this framework's features
+                        if (inventories != null && !inventories.isEmpty()) throw e;
+                        continue;
+                    }
+                    report(framework, name, phInv, out);
+                }
+            }
+        } finally {
+            if (outputFile == null) out.flush();
+            else out.close();
+        }
+        return 0;
+    }
+
+    /** Prints the disagreeing pairs of one inventory, and the summary to standard error. */
+    private static void report(FeatureFramework framework, String name, PhoneInventory phInv, PrintStream out) {
+        int n = phInv.size();
+        long pairs = 0;
+        long disagreements = 0;
+        for (int a = 0; a < n; a++) {
+            Phone phA = phInv.getPhoneById(a);
+            for (int b = a+1; b < n; b++) {
+                Phone phB = phInv.getPhoneById(b);
+                if (phA.getComponentPhones().size() == 1 && phB.getComponentPhones().size() == 1) continue;
+                pairs++;
+                double diagonal = phA.averageFeatureDistance(phB, ComponentAlignment.DIAGONAL);
+                double dp = phA.averageFeatureDistance(phB, ComponentAlignment.DYNAMIC_PROGRAMMING);
+                if (diagonal != dp) {
+                    disagreements++;
+                    out.println(framework.name().toLowerCase()+"\t"+name+"\t"+phA+"\t"+phB+"\t"+diagonal+"\t"+dp);
+                }
+            }
+        }
+        System.err.println(framework.name().toLowerCase()+" "+name+": "+n+" phones, "+pairs
+                +" pairs with a multi-component phone, "+disagreements+" disagreements");
+    }
+
+    /** Finds the bundled language inventory resources, in the classes folder or jar of this class. */
+    static List<String> bundledLanguageInventories() throws IOException, URISyntaxException {
+        List<String> found = new ArrayList<String>();
+        File location = new File(ComponentAlignmentCli.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        if (location.isDirectory()) {
+            findLanguageInventories(location, "", found);
+        } else {
+            JarFile jar = new JarFile(location);
+            try {
+                for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
+                    String entry = e.nextElement().getName();
+                    if (entry.endsWith("_components_utf8nfc.tsv") && !entry.startsWith("common/")) found.add("/"+entry);
+                }
+            } finally {
+                jar.close();
+            }
+        }
+        Collections.sort(found);
+        return found;
+    }
+
+    private static void findLanguageInventories(File dir, String resourcePath, List<String> found) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File f : files) {
+            if (f.isDirectory()) {
+                if (!f.getName().equals("precompiled") && !f.getName().equals("common"))
+                    findLanguageInventories(f, resourcePath+"/"+f.getName(), found);
+            } else if (f.getName().endsWith("_components_utf8nfc.tsv")) {
+                found.add(resourcePath+"/"+f.getName());
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new ComponentAlignmentCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
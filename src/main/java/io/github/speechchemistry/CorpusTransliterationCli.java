@@ -0,0 +1,89 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Transliterates a phone transcribed corpus into one or more target language phone
+ * inventories in a single pass. Each source phone's closest target phone is worked
+ * out once per target, so the cost is proportional to the number of tokens.
+ * <p>
+ * Example: java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.CorpusTransliterationCli
+ * -f hayes -t hau=/hau/hausa_components_utf8nfc.tsv -t ces=/ces/czech_components_utf8nfc.tsv corpus.txt
+ * <p>
+ * This writes hau.txt and ces.txt to the output folder, with the same number of lines as corpus.txt
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "CorpusTransliterationCli", version = "CorpusTransliterationCli 0.1", mixinStandardHelpOptions = true)
+public class CorpusTransliterationCli implements Callable<Integer> {
+    @Parameters(paramLabel = "corpusFile", description = "Corpus in IPA, one utterance per line with spaces in between phones (UTF-8)")
+    String corpusFile;
+    @Option(names = { "-t", "--target" }, required = true, paramLabel = "name=inventory",
+            description = "Target phone inventory resource e.g. hau=/hau/hausa_components_utf8nfc.tsv (can be repeated). The output is written to name.txt")
+    Map<String,String> targets = new LinkedHashMap<String,String>();
+    @Option(names = { "-f", "--feature-framework" }, defaultValue = "hayes", description = "Feature framework of the corpus and targets: hayes (default) or phoible")
+    String feature_framework = "hayes";
+    @Option(names = { "-s", "--source-inventory" }, description = "Source phone inventory resource (default: every phone in the feature framework)")
+    String sourceInventory;
+    @Option(names = { "-o", "--output-dir" }, defaultValue = ".", description = "Folder to write the transliterations to (default: current folder)")
+    File outputDir = new File(".");
+    @Option(names = { "-j", "--threads" }, description = "Number of worker threads (default: number of processors)")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        FeatureFramework framework = FeatureFramework.fromName(feature_framework);
+        PhoneInventory sourcePhInv = (sourceInventory == null) ? framework.loadFullInventory()
+                : framework.loadInventory(sourceInventory);
+        List<PhoneInventory> targetPhInvs = new ArrayList<PhoneInventory>();
+        for (String targetFilename : targets.values()) {
+            targetPhInvs.add(framework.loadInventory(targetFilename));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Writer> outs = new ArrayList<Writer>();
+        try {
+            CorpusTransliterator transliterator = new CorpusTransliterator(sourcePhInv, targetPhInvs, executor);
+            for (String name : targets.keySet()) {
+                outs.add(new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(new File(outputDir, name+".txt")), StandardCharsets.UTF_8)));
+            }
+            BufferedReader corpus = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(corpusFile), StandardCharsets.UTF_8));
+            try {
+                transliterator.transliterate(corpus, outs, executor, threads);
+            } finally {
+                corpus.close();
+            }
+        } finally {
+            for (Writer out : outs) out.close();
+            executor.shutdownNow();
+        }
+        return 0;
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new CorpusTransliterationCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Transliterates a phone transcribed corpus into several target phone inventories in
+ * one pass. A TransliterationTable is precomputed once per target inventory, then the
+ * corpus is read once in chunks of lines. Chunks are transliterated in parallel and
+ * written out in the original order, one output per target inventory.
+ * <p>
+ * The corpus has one utterance per line with spaces in between phones (the same
+ * format as the PhoneUtterance constructor). Lines are normalized to NFC.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class CorpusTransliterator {
+    /** Number of corpus lines given to each task. */
+    public static final int DEFAULT_CHUNK_LINES = 1024;
+
+    /** One lookup table per target inventory. */
+    private final List<TransliterationTable> tables;
+
+    /** Number of corpus lines given to each task. */
+    private int chunkLines = DEFAULT_CHUNK_LINES;
+
+    /** Creates the transliterator from tables that have already been built. */
+    public CorpusTransliterator(List<TransliterationTable> tables) {
+        this.tables = Collections.unmodifiableList(new ArrayList<TransliterationTable>(tables));
+    }
+
+    /** Creates the transliterator, building one table per target inventory in parallel. */
+    public CorpusTransliterator(final PhoneInventory sourceInventory, List<PhoneInventory> targetInventories,
+            ExecutorService executor) throws InterruptedException {
+        List<Future<TransliterationTable>> futures = new ArrayList<Future<TransliterationTable>>();
+        for (final PhoneInventory targetInventory : targetInventories) {
+            futures.add(executor.submit(new Callable<TransliterationTable>() {
+                public TransliterationTable call() {
+                    return new TransliterationTable(sourceInventory, targetInventory);
+                }
+            }));
+        }
+        List<TransliterationTable> built = new ArrayList<TransliterationTable>(futures.size());
+        for (Future<TransliterationTable> f : futures) {
+            built.add(ChunkedLineRunner.getUnchecked(f));
+        }
+        this.tables = Collections.unmodifiableList(built);
+    }
+
+    /** Gets the lookup tables, in the same order as the target inventories. */
+    public List<TransliterationTable> getTables() {
+        return tables;
+    }
+
+    /** Sets the number of corpus lines given to each task. */
+    public void setChunkLines(int chunkLines) {
+        if (chunkLines < 1) throw new IllegalArgumentException("chunkLines must be at least 1");
+        this.chunkLines = chunkLines;
+    }
+
+    /** Transliterates a single line into every target, returning one line per target. */
+    public String[] transliterateLine(String line) {
+        String[] out = new String[tables.size()];
+        String nfcLine = Normalizer.normalize(line, Normalizer.Form.NFC).trim();
+        for (int t = 0; t < out.length; t++) {
+            out[t] = nfcLine.isEmpty() ? "" : tables.get(t).transliterate(nfcLine);
+        }
+        return out;
+    }
+
+    /** Reads the corpus once and writes each line's transliteration to the writer of the
+      * corresponding target (one writer per table). At most twice as many chunks as there
+      * are threads are held in memory at once. */
+    public void transliterate(BufferedReader corpus, final List<? extends Writer> outs, ExecutorService executor,
+            int threads) throws IOException, InterruptedException {
+        if (outs.size() != tables.size())
+            throw new IllegalArgumentException("Need one writer per target inventory: "+tables.size()+" expected, "+outs.size()+" given");
+        ChunkedLineRunner.run(corpus, chunkLines, executor, threads, chunkTask(), new ChunkedLineRunner.ResultHandler<String[]>() {
+            public void handle(String[] blocks) throws IOException {
+                for (int t = 0; t < blocks.length; t++) outs.get(t).write(blocks[t]);
+            }
+        });
+        for (Writer out : outs) out.flush();
+    }
+
+    /** Creates the task that transliterates a chunk into one block of text per target. */
+    private ChunkedLineRunner.ChunkTask<String[]> chunkTask() {
+        return new ChunkedLineRunner.ChunkTask<String[]>() {
+            public String[] process(List<String> lines, int firstLineNumber) {
+                StringBuilder[] blocks = new StringBuilder[tables.size()];
+                for (int t = 0; t < blocks.length; t++) blocks[t] = new StringBuilder();
+                int lineNumber = firstLineNumber;
+                for (String line : lines) {
+                    String[] translit;
+                    try {
+                        translit = transliterateLine(line);
+                    } catch (RuntimeException e) {
+                        throw new RuntimeException("Line "+lineNumber+": "+e.getMessage(), e);
+                    }
+                    for (int t = 0; t < blocks.length; t++) blocks[t].append(translit[t]).append('\n');
+                    lineNumber++;
+                }
+                String[] out = new String[blocks.length];
+                for (int t = 0; t < out.length; t++) out[t] = blocks[t].toString();
+                return out;
+            }
+        };
+    }
+
+}
@@ -148,6 +148,74 @@ public class DanEllisDtw {
 		return lastItem;
 	}
 
+	/**
+	 * Calculates only the total cost of the Dynamic Time Warp of a 2D array of numbers.
+	 * This gives the same result as getTotalCost() but without keeping the cost or 
+	 * direction matrices.
+	 */
+	public static double totalCost(final double[][] m) {
+		return totalCost(new DtwCostFunction() {
+			public double cost(int i, int j) {
+				return m[i][j];
+			}
+		}, m.length, m[0].length);
+	}
+
+	/**
+	 * Calculates only the total cost of the Dynamic Time Warp of an r by c grid of costs.
+	 * This gives the same result as getTotalCost() but only two rows of the cost matrix 
+	 * are kept. The shorter dimension is used for the rows, so memory is O(min(r,c)), 
+	 * which allows whole recordings to be compared.
+	 */
+	public static double totalCost(final DtwCostFunction f, int r, int c) {
+		if (c > r) { // the total cost doesn't depend on tie breaking so we can transpose
+			return totalCost(new DtwCostFunction() {
+				public double cost(int i, int j) {
+					return f.cost(j, i);
+				}
+			}, c, r);
+		}
+		double[] prev = new double[c];
+		double[] cur = new double[c];
+		for(int i=0;i<r;i++){
+			forwardRow(f, i, prev, cur, c, null, true);
+			double[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+		}
+		return prev[c-1];
+	}
+
+	/**
+	 * Calculates one row of the forward pass. prev holds the costs of row i-1 (ignored
+	 * when i is 0) and the costs of row i are written to cur. If phiRow is not null the
+	 * direction codes (1 diagonal, 2 vertical, 3 horizontal) are written to it. Ties are
+	 * broken in the same order as the constructor: diagonal, then vertical, then 
+	 * horizontal, or if verticalFirst is false: diagonal, then horizontal, then vertical
+	 * (used when the grid is transposed).
+	 */
+	static void forwardRow(DtwCostFunction f, int i, double[] prev, double[] cur, int width,
+			byte[] phiRow, boolean verticalFirst) {
+		for(int j=0;j<width;j++){
+			// the cost matrix is padded with 0 at the top left and NaN elsewhere on the edges 
+			double diag = (i==0) ? ((j==0) ? 0 : Double.NaN) : ((j==0) ? Double.NaN : prev[j-1]);
+			double up = (i==0) ? Double.NaN : prev[j];
+			double left = (j==0) ? Double.NaN : cur[j-1];
+			// Double.compare orders NaN last, just like the Collections.min() in the constructor
+			double dm = diag;
+			byte tb = 1;
+			if (verticalFirst) {
+				if (Double.compare(up,dm) < 0) {dm = up; tb = 2;}
+				if (Double.compare(left,dm) < 0) {dm = left; tb = 3;}
+			} else {
+				if (Double.compare(left,dm) < 0) {dm = left; tb = 3;}
+				if (Double.compare(up,dm) < 0) {dm = up; tb = 2;}
+			}
+			cur[j] = f.cost(i,j) + dm;
+			if (phiRow != null) phiRow[j] = tb;
+		}
+	}
+
 	/**
 	 * Test the Dynamic Time Warp algorithm with a sample matrix.
 	 */
@@ -159,6 +227,9 @@ public class DanEllisDtw {
 		System.out.println(dtw.getQ());
 		System.out.println("d="+Arrays.deepToString(dtw.getD()));
                 System.out.println("i.e. total cost ="+dtw.getTotalCost());
+                System.out.println("cost only mode ="+DanEllisDtw.totalCost(smallArray));
+                HirschbergDtw linearDtw = new HirschbergDtw(smallArray);
+                System.out.println("linear memory mode ="+linearDtw.getP()+" "+linearDtw.getQ()+" "+linearDtw.getTotalCost());
 	}
 
 }
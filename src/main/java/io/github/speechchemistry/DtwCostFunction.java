@@ -0,0 +1,13 @@
+package io.github.speechchemistry;
+
+/**
+ * The local cost of aligning element i of the first sequence with element j of the
+ * second sequence. This is used in place of a full 2D array of costs when the
+ * sequences are too long for the array to fit in memory.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public interface DtwCostFunction {
+    /** Gets the cost of the cell in row i and column j. */
+    double cost(int i, int j);
+}
@@ -0,0 +1,132 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The bundled binary feature frameworks. Each framework has one or more feature
+ * files (.tsv, later files override earlier ones) and a phone list covering every
+ * phone the feature files know about.
+ * <p>
+ * The language inventories under the resources folder (hau, ces, rus, hun, eng, ...)
+ * are all defined with the hayes features.
+ * <p>
+ * If the inventories have been precompiled into the binary format (see InventoryPrecompilerCli
+ * and the fast-startup build profile) they are read from the binary resources instead of
+ * parsing the TSV files, which makes loading much faster. A precompiled inventory is only used
+ * if the TSV files it was made from haven't changed since (see sourceFingerprint()); otherwise
+ * the TSV files are parsed. Precompiled inventories can be ignored by setting the system
+ * property phonemic.precompiled=false.
+ * <p>
+ * loadInventoryView() makes a language inventory as a view of the framework's full inventory
+ * (see PhoneInventory.view()), which is loaded once and shared by all the views. This is much
+ * cheaper than loadInventory() when many language inventories are needed.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public enum FeatureFramework {
+    /** Phoible features (default). */
+    PHOIBLE("/common/phoible/phonelist_no_multivector_no_ambiguous_phones_utf8nfc.txt",
+            "/common/phoible/phoible_segments_no_multivector_no_ambigous_phones_utf8nfc.tsv"),
+    /** Bruce Hayes features with extra and overriding phones. */
+    HAYES("/common/hayes/combined_phone_list_utf8nfc.txt",
+            "/common/hayes/hayes_features_utf8nfc.tsv",
+            "/common/hayes/extra_and_override_phone_features_utf8nfc.tsv",
+            "/common/hayes/extra_auto_generated_utf8nfc.tsv");
+
+    /** Phone list containing every phone in the framework. */
+    private final String phoneListFilename;
+
+    /** Feature files, the later files have priority of overriding the first. */
+    private final List<String> featureFilenames;
+
+    /** The full inventory shared by the views, loaded when first needed. */
+    private PhoneInventory masterInventory;
+
+    private FeatureFramework(String phoneListFilename, String... featureFilenames) {
+        this.phoneListFilename = phoneListFilename;
+        this.featureFilenames = Collections.unmodifiableList(Arrays.asList(featureFilenames));
+    }
+
+    /** Gets the phone list resource containing every phone in the framework. */
+    public String getPhoneListFilename() {
+        return phoneListFilename;
+    }
+
+    /** Gets the feature file resources. */
+    public List<String> getFeatureFilenames() {
+        return featureFilenames;
+    }
+
+    /** Loads the inventory of every phone in the framework. */
+    public PhoneInventory loadFullInventory() throws IOException {
+        PhoneInventory phInv = loadPrecompiled(getPrecompiledFullFilename(), phoneListFilename);
+        return (phInv != null) ? phInv : new PhoneInventory(phoneListFilename, featureFilenames);
+    }
+
+    /** Loads a language inventory (phone components file) using this framework's features. The
+      * inventory can be a classpath resource, a filesystem path or a URI (see PhoneInventory). */
+    public PhoneInventory loadInventory(String inventoryTsvFilename) throws IOException {
+        PhoneInventory phInv = loadPrecompiled(getPrecompiledFilename(inventoryTsvFilename), inventoryTsvFilename);
+        return (phInv != null) ? phInv : new PhoneInventory(inventoryTsvFilename, featureFilenames);
+    }
+
+    /** Gets the full inventory that the views are made from (see loadInventoryView()). It is
+      * loaded the first time it is needed and then kept. */
+    public synchronized PhoneInventory getMasterInventory() throws IOException {
+        if (masterInventory == null) masterInventory = loadFullInventory();
+        return masterInventory;
+    }
+
+    /** Loads a language inventory (phone components file) as a view of the master inventory,
+      * sharing its phones. The phones are the same as with loadInventory(). */
+    public PhoneInventory loadInventoryView(String inventoryTsvFilename) throws IOException {
+        return getMasterInventory().view(inventoryTsvFilename);
+    }
+
+    /** Gets the resource name of the precompiled inventory of every phone in the framework. */
+    public String getPrecompiledFullFilename() {
+        return "/precompiled/"+name().toLowerCase()+"/full.bin";
+    }
+
+    /** Gets the resource name of a precompiled language inventory
+      * e.g. /precompiled/hayes/hau/hausa_components_utf8nfc.bin */
+    public String getPrecompiledFilename(String inventoryTsvFilename) {
+        String bin = inventoryTsvFilename.replaceFirst("\\.tsv$", "")+".bin";
+        return "/precompiled/"+name().toLowerCase()+(bin.startsWith("/") ? "" : "/")+bin;
+    }
+
+    /** Gets the fingerprint of the TSV files that an inventory is made from with this framework:
+      * the inventory file (or the phone list for the full inventory) and the feature files (see
+      * PhoneInventory.sourceFingerprint()). This is stored in the precompiled inventory. */
+    public long sourceFingerprint(String inventoryTsvFilename) throws IOException {
+        return PhoneInventory.sourceFingerprint(inventoryTsvFilename, featureFilenames);
+    }
+
+    /** Reads a precompiled inventory, or returns null if there isn't one, it is older than the
+      * TSV files it was made from, or they are switched off. */
+    private PhoneInventory loadPrecompiled(String resourceName, String inventoryTsvFilename) throws IOException {
+        if ("false".equals(System.getProperty("phonemic.precompiled"))) return null;
+        InputStream in = FeatureFramework.class.getResourceAsStream(resourceName);
+        if (in == null) return null;
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        try {
+            return PhoneInventory.readFrom(data, sourceFingerprint(inventoryTsvFilename));
+        } finally {
+            data.close();
+        }
+    }
+
+    /** Gets the framework from the name used on the command line e.g. "phoible" or "hayes". */
+    public static FeatureFramework fromName(String name) {
+        for (FeatureFramework f : values()) {
+            if (f.name().equalsIgnoreCase(name)) return f;
+        }
+        throw new IllegalArgumentException("Unknown feature framework "+name+"; expected phoible or hayes");
+    }
+}
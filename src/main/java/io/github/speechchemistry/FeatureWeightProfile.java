@@ -0,0 +1,115 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A named set of feature weights for a weighted BFEPP measure, e.g. to count tone
+ * differences as half a feature edit. Features that aren't listed have a weight of 1,
+ * so an empty profile gives the usual unweighted measure.
+ * <p>
+ * Profiles are loaded from a TSV file with a heading line followed by one
+ * feature name and weight per line, e.g.
+ * <pre>
+ * feature	weight
+ * tone_vhigh	0.5
+ * anterior	0.25
+ * </pre>
+ * Feature names are those in the heading of the inventory's feature file. Before use a
+ * profile is compiled for a phone inventory (see compile()), which makes weighted
+ * distances as cheap as unweighted ones.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class FeatureWeightProfile {
+    /** Profile name e.g. the file name without the extension. */
+    private final String name;
+    /** Key = feature name, value = weight (read only). */
+    private final Map<String,Double> weights;
+
+    /** Creates a profile. Weights must not be negative; unlisted features have a weight of 1. */
+    public FeatureWeightProfile(String name, Map<String,Double> weights) {
+        for (Map.Entry<String,Double> w : weights.entrySet()) {
+            if (!(w.getValue() >= 0)) // also rejects NaN
+                throw new IllegalArgumentException("Weight of feature "+w.getKey()+" in profile "+name+" must not be negative: "+w.getValue());
+        }
+        this.name = name;
+        this.weights = Collections.unmodifiableMap(new LinkedHashMap<String,Double>(weights));
+    }
+
+    /** Loads a profile from a TSV file (UTF-8), named after the file without its extension. */
+    public static FeatureWeightProfile loadFile(String filename) throws IOException {
+        String profileName = new File(filename).getName().replaceFirst("\\.[^.]*$", "");
+        return load(profileName, new FileInputStream(filename));
+    }
+
+    /** Loads a profile from a TSV resource (UTF-8) e.g. /common/hayes/weights_reduced_tone_and_anterior_utf8nfc.tsv,
+      * named after the resource without its folder and extension. */
+    public static FeatureWeightProfile loadResource(String resourceName) throws IOException {
+        InputStream in = FeatureWeightProfile.class.getResourceAsStream(resourceName);
+        if (in == null) throw new IOException("Weight profile resource "+resourceName+" not found");
+        String profileName = resourceName.substring(resourceName.lastIndexOf('/')+1).replaceFirst("\\.[^.]*$", "");
+        return load(profileName, in);
+    }
+
+    /** Loads a profile from a TSV stream (UTF-8), closing the stream. */
+    public static FeatureWeightProfile load(String name, InputStream tsv) throws IOException {
+        Map<String,Double> weights = new LinkedHashMap<String,Double>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(tsv, StandardCharsets.UTF_8));
+        try {
+            String thisLine = in.readLine(); // skip the heading
+            int lineNumber = 1;
+            while ((thisLine = in.readLine()) != null) {
+                lineNumber++;
+                if (thisLine.trim().isEmpty()) continue;
+                String[] thisLineArray = thisLine.split("\t");
+                if (thisLineArray.length != 2)
+                    throw new IOException("Line "+lineNumber+" of weight profile "+name+" should be feature<TAB>weight: "+thisLine);
+                try {
+                    weights.put(thisLineArray[0].trim(), Double.valueOf(thisLineArray[1].trim()));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Line "+lineNumber+" of weight profile "+name+" has a weight that isn't a number: "+thisLine);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return new FeatureWeightProfile(name, weights);
+    }
+
+    /** Gets the profile name. */
+    public String getName() {
+        return name;
+    }
+
+    /** Gets the (read only) map of feature names to weights. */
+    public Map<String,Double> getWeights() {
+        return weights;
+    }
+
+    /** Gets the weight of a feature (1 if the feature isn't listed). */
+    public double getWeight(String feature) {
+        Double w = weights.get(feature);
+        return (w == null) ? 1.0 : w;
+    }
+
+    /** Compiles the profile for the phones of an inventory; see WeightedPhoneDistance. */
+    public WeightedPhoneDistance compile(PhoneInventory inventory) {
+        return new WeightedPhoneDistance(this, inventory);
+    }
+
+    /** Produces the profile in the TSV format that it is loaded from. */
+    public String toString() {
+        StringBuilder s = new StringBuilder("feature\tweight\n");
+        for (Map.Entry<String,Double> w : weights.entrySet()) s.append(w.getKey()).append('\t').append(w.getValue()).append('\n');
+        return s.toString();
+    }
+}
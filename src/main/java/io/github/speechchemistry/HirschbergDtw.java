@@ -0,0 +1,187 @@
+package io.github.speechchemistry;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Dynamic Time Warping with path recovery in (near) linear memory, for sequences too
+ * long for the full cost and direction matrices of DanEllisDtw e.g. whole transcribed
+ * recordings. Gives exactly the same state sequences and total cost as DanEllisDtw
+ * (including its tie breaking and its traceback stopping at the first row or column).
+ * <p>
+ * This uses a divide and conquer approach in the style of Hirschberg's algorithm: the
+ * forward pass is run to the middle row, the lower half of the traceback is solved
+ * first (starting from that middle row's costs) and this gives the column where the
+ * traceback enters the middle row, so the upper half only needs the columns to the left
+ * of it. Only one row of costs per level of recursion is kept, so memory is
+ * O(min(r,c) log(max(r,c))) and time is O(rc log(max(r,c))).
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class HirschbergDtw {
+
+        /** Sub-problems with at most this many cells are solved with a direction matrix. */
+        private static final int BASE_CELLS = 1 << 16;
+
+        /** The local cost function (transposed if the grid was wider than it was tall). */
+        private final DtwCostFunction f;
+        /** True if the grid has been transposed so that rows are the longer dimension. */
+        private final boolean transposed;
+        /** Number of rows of the (possibly transposed) grid. */
+        private final int rows;
+        /** Number of columns of the (possibly transposed) grid. */
+        private final int cols;
+        /** Rows of the traceback in reverse order (in the possibly transposed grid). */
+        private int[] pathI = new int[16];
+        /** Columns of the traceback in reverse order (in the possibly transposed grid). */
+        private int[] pathJ = new int[16];
+        /** Number of cells in the traceback. */
+        private int pathLength = 0;
+        /** The state sequence of the first dimension. */
+        private final List<Integer> p;
+        /** The state sequence of the second dimension. */
+        private final List<Integer> q;
+        /** The total cost. */
+        private double totalCost;
+
+	/** Create and calculate the Dynamic Time Warp from a 2D array of numbers. */
+	public HirschbergDtw(final double[][] m) {
+		this(new DtwCostFunction() {
+			public double cost(int i, int j) {
+				return m[i][j];
+			}
+		}, m.length, m[0].length);
+	}
+
+	/** Create and calculate the Dynamic Time Warp from an r by c grid of local costs. */
+	public HirschbergDtw(final DtwCostFunction costFunction, int r, int c) {
+		transposed = c > r; // keep the stored rows as short as possible
+		if (transposed) {
+			f = new DtwCostFunction() {
+				public double cost(int i, int j) {
+					return costFunction.cost(j, i);
+				}
+			};
+			rows = c;
+			cols = r;
+		} else {
+			f = costFunction;
+			rows = r;
+			cols = c;
+		}
+		solve(0, rows-1, cols-1, null);
+		int[] pOut = new int[pathLength];
+		int[] qOut = new int[pathLength];
+		for (int k=0;k<pathLength;k++) { // reverse and transpose back
+			int i = pathI[pathLength-1-k];
+			int j = pathJ[pathLength-1-k];
+			pOut[k] = transposed ? j : i;
+			qOut[k] = transposed ? i : j;
+		}
+		p = new IntegerListView(pOut);
+		q = new IntegerListView(qOut);
+		pathI = null;
+		pathJ = null;
+	}
+
+	/**
+	 * Traces back from (bottom,endCol) through the rows top to bottom. prevRow holds the
+	 * forward costs of row top-1 (null if top is 0). Returns the column where the
+	 * traceback enters row top-1, or -1 if the traceback stopped at the first row or column.
+	 */
+	private int solve(int top, int bottom, int endCol, double[] prevRow) {
+		int width = endCol+1;
+		int height = bottom-top+1;
+		if (height <= 2 || (long) height*width <= BASE_CELLS) {
+			byte[][] phi = new byte[height][width];
+			double[] prev = (prevRow == null) ? new double[width] : prevRow;
+			double[] cur = null;
+			for (int i=top;i<=bottom;i++) {
+				cur = new double[width];
+				DanEllisDtw.forwardRow(f, i, prev, cur, width, phi[i-top], !transposed);
+				prev = cur;
+			}
+			if (bottom == rows-1) totalCost = cur[endCol]; // only the first base case reaches the last row
+			int i = bottom;
+			int j = endCol;
+			while (true) {
+				addToPath(i, j);
+				if (i == 0 || j == 0) return -1;
+				int tb = phi[i-top][j];
+				if (tb == 1) {
+					i=i-1;
+					j=j-1;
+				} else if (tb == 2) {
+					i=i-1;
+				} else if (tb == 3) {
+					j=j-1;
+				} else throw new RuntimeException("found invalid direction code during traceback; perhaps forward scan was incomplete");
+				if (i < top) return j;
+			}
+		}
+		int mid = (top+bottom)/2;
+		double[] prev = (prevRow == null) ? new double[width] : Arrays.copyOf(prevRow, width);
+		double[] cur = new double[width];
+		for (int i=top;i<=mid;i++) {
+			DanEllisDtw.forwardRow(f, i, prev, cur, width, null, !transposed);
+			double[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+		}
+		int k = solve(mid+1, bottom, endCol, prev); // prev now holds row mid
+		if (k < 0) return -1;
+		return solve(top, mid, k, prevRow);
+	}
+
+	private void addToPath(int i, int j) {
+		if (pathLength == pathI.length) {
+			pathI = Arrays.copyOf(pathI, 2*pathLength);
+			pathJ = Arrays.copyOf(pathJ, 2*pathLength);
+		}
+		pathI[pathLength] = i;
+		pathJ[pathLength] = j;
+		pathLength++;
+	}
+
+	/**
+	 * @return the state sequence P
+	 */
+	public List<Integer> getP() {
+		return p;
+	}
+
+	/**
+	 * @return the state sequence Q
+	 */
+	public List<Integer> getQ() {
+		return q;
+	}
+
+	/**
+	 * @return total cost
+	 */
+	public double getTotalCost() {
+		return totalCost;
+	}
+
+	/** Read only list view of an int array. */
+	private static class IntegerListView extends AbstractList<Integer> implements RandomAccess {
+		private final int[] a;
+
+		IntegerListView(int[] a) {
+			this.a = a;
+		}
+
+		@Override
+		public Integer get(int index) {
+			return a[index];
+		}
+
+		@Override
+		public int size() {
+			return a.length;
+		}
+	}
+}
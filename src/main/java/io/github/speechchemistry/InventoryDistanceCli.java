@@ -0,0 +1,84 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Calculates the distance between every pair of language phone inventories (see
+ * InventoryDistanceMatrix) and writes the matrix to a TSV file, one row at a time. If the
+ * output file is left by an interrupted run, only the missing rows are calculated.
+ * <p>
+ * Example with the bundled inventories: java -cp phonemic-analysis-0.6.jar
+ * io.github.speechchemistry.InventoryDistanceCli -f hayes -i hau=/hau/hausa_components_utf8nfc.tsv
+ * -i ces=/ces/czech_components_utf8nfc.tsv -o distances.tsv
+ * <p>
+ * Example with PHOIBLE inventories extracted to inventory&lt;tab&gt;phone lines:
+ * java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.InventoryDistanceCli -f phoible
+ * -l phoible_inventories.tsv -o distances.tsv
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "InventoryDistanceCli", version = "InventoryDistanceCli 0.1", mixinStandardHelpOptions = true)
+public class InventoryDistanceCli implements Callable<Integer> {
+    @Option(names = { "-f", "--feature-framework" }, defaultValue = "phoible", description = "Feature framework: phoible (default) or hayes")
+    String feature_framework = "phoible";
+    @Option(names = { "-i", "--inventory" }, paramLabel = "name=inventory",
+            description = "Phone inventory resource e.g. hau=/hau/hausa_components_utf8nfc.tsv (can be repeated)")
+    Map<String,String> inventoryResources = new LinkedHashMap<String,String>();
+    @Option(names = { "-l", "--inventory-list" },
+            description = "UTF-8 file of inventory<tab>phone lines (e.g. extracted from PHOIBLE); phones not in the feature framework are skipped")
+    File inventoryList;
+    @Option(names = { "-o", "--output" }, required = true, description = "TSV file to write the matrix to; resumed if it is left from an interrupted run")
+    File outputFile;
+    @Option(names = { "--restart" }, description = "Overwrite the output file rather than resuming it")
+    boolean restart;
+    @Option(names = { "-j", "--threads" }, description = "Number of worker threads (default: number of processors)")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @Override
+    public Integer call() throws IOException {
+        FeatureFramework framework = FeatureFramework.fromName(feature_framework);
+        Map<String,PhoneInventory> inventories = new LinkedHashMap<String,PhoneInventory>();
+        for (Map.Entry<String,String> e : inventoryResources.entrySet()) {
+            inventories.put(e.getKey(), framework.loadInventory(e.getValue()));
+        }
+        if (inventoryList != null) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(inventoryList), StandardCharsets.UTF_8));
+            try {
+                inventories.putAll(InventoryDistanceMatrix.readLongFormat(in, framework.loadFullInventory()));
+            } finally {
+                in.close();
+            }
+        }
+        if (inventories.isEmpty())
+            throw new CommandLine.ParameterException(new CommandLine(this), "No inventories given; use --inventory or --inventory-list");
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long start = System.nanoTime();
+            InventoryDistanceMatrix matrix = new InventoryDistanceMatrix(inventories, pool);
+            int rows = matrix.writeTsv(outputFile, restart);
+            System.err.println(matrix.size()+" inventories, "+matrix.getPhoneCount()+" distinct phones, "
+                    +rows+" rows calculated in "+(System.nanoTime()-start)/1000000+" ms");
+        } finally {
+            pool.shutdown();
+        }
+        return 0;
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new InventoryDistanceCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
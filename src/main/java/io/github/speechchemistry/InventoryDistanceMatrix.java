@@ -0,0 +1,334 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Distances between every pair of language phone inventories. The distance from inventory A
+ * to inventory B is the mean, over the phones of A, of the BFEPP (average feature distance)
+ * to the nearest phone in B. This isn't symmetric, so the matrix has both directions: row A,
+ * column B is the distance from A to B.
+ * <p>
+ * Rather than calling PhoneInventory.phonesClosest() in nested loops, the distinct phones of
+ * all the inventories are put in one global table, and the distance between every pair of
+ * them is calculated once. Then for each inventory the distance from every global phone to
+ * its nearest phone in that inventory is found, so that each cell of the matrix is just a
+ * mean of |A| numbers. All three steps run in parallel on a fork/join pool.
+ * <p>
+ * writeTsv() streams the matrix to a file one row at a time as the rows are finished, and
+ * can resume from a file left by an interrupted run.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class InventoryDistanceMatrix {
+    /** Rows of the global distance table given to one fork/join task */
+    private static final int ROWS_PER_TASK = 8;
+
+    /** Names of the inventories, in row (and column) order */
+    private final List<String> names;
+    /** The distinct phones of all the inventories */
+    private final Phone[] phones;
+    /** For each inventory, the global ids of its phones */
+    private final int[][] phoneIds;
+    /** Global distance table: [a*phones.length+b] = BFEPP between global phones a and b */
+    private final double[] phoneDistance;
+    /** [inventory][global id] = distance from the global phone to the nearest phone in the inventory */
+    private final double[][] nearest;
+    private final ForkJoinPool pool;
+
+    /** Calculates the phone distance tables of the named inventories (iteration order
+      * gives the row order) using the given fork/join pool. */
+    public InventoryDistanceMatrix(Map<String,PhoneInventory> inventories, ForkJoinPool pool) {
+        this.pool = pool;
+        names = new ArrayList<String>(inventories.keySet());
+        Map<Phone,Integer> globalIds = new LinkedHashMap<Phone,Integer>();
+        phoneIds = new int[names.size()][];
+        int l = 0;
+        for (PhoneInventory phInv : inventories.values()) {
+            if (phInv.size() == 0) throw new IllegalArgumentException("Inventory "+names.get(l)+" has no phones");
+            phoneIds[l] = new int[phInv.size()];
+            for (int id = 0; id < phInv.size(); id++) {
+                Phone ph = phInv.getPhoneById(id);
+                Integer g = globalIds.get(ph);
+                if (g == null) {
+                    g = globalIds.size();
+                    globalIds.put(ph, g);
+                }
+                phoneIds[l][id] = g;
+            }
+            l++;
+        }
+        phones = globalIds.keySet().toArray(new Phone[globalIds.size()]);
+        phoneDistance = new double[phones.length*phones.length];
+        nearest = new double[names.size()][phones.length];
+        pool.invoke(new PhoneDistanceTask(0, phones.length));
+        pool.invoke(new NearestTask(0, names.size()));
+    }
+
+    /** Calculates the upper triangle of the global distance table for rows from..to-1, and
+      * mirrors it (averageFeatureDistance() is symmetric). */
+    private class PhoneDistanceTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+
+        PhoneDistanceTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to-from > ROWS_PER_TASK) {
+                int mid = (from+to) >>> 1;
+                invokeAll(new PhoneDistanceTask(from, mid), new PhoneDistanceTask(mid, to));
+                return;
+            }
+            int n = phones.length;
+            for (int a = from; a < to; a++) {
+                for (int b = a; b < n; b++) {
+                    // uncached, as every pair is only calculated once and would swamp the shared cache
+                    double dist = (a == b) ? 0 : phones[a].uncachedAverageFeatureDistance(phones[b]);
+                    phoneDistance[a*n+b] = dist;
+                    phoneDistance[b*n+a] = dist;
+                }
+            }
+        }
+    }
+
+    /** Fills in the nearest phone distances of inventories from..to-1. */
+    private class NearestTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+
+        NearestTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to-from > 1) {
+                int mid = (from+to) >>> 1;
+                invokeAll(new NearestTask(from, mid), new NearestTask(mid, to));
+                return;
+            }
+            int n = phones.length;
+            double[] near = nearest[from];
+            Arrays.fill(near, Double.POSITIVE_INFINITY);
+            for (int b : phoneIds[from]) {
+                for (int g = 0; g < n; g++) {
+                    double dist = phoneDistance[b*n+g]; // the same as [g*n+b], but in memory order
+                    if (dist < near[g]) near[g] = dist;
+                }
+            }
+        }
+    }
+
+    /** Gets the number of inventories. */
+    public int size() {
+        return names.size();
+    }
+
+    /** Gets the names of the inventories in row order. */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /** Gets the number of distinct phones in all the inventories. */
+    public int getPhoneCount() {
+        return phones.length;
+    }
+
+    /** Gets the distance from one inventory to another: the mean over the phones of the first
+      * of the distance to the nearest phone in the second. */
+    public double distance(int from, int to) {
+        double[] near = nearest[to];
+        double sum = 0;
+        for (int g : phoneIds[from]) sum += near[g];
+        return sum/phoneIds[from].length;
+    }
+
+    /** Gets the distances from one inventory to every inventory. */
+    public double[] row(int from) {
+        double[] row = new double[names.size()];
+        for (int to = 0; to < row.length; to++) row[to] = distance(from, to);
+        return row;
+    }
+
+    /** Writes the matrix as TSV: a heading line of the inventory names, then one line per
+      * inventory starting with its name. Rows are calculated in parallel and each one is
+      * written (and flushed) as soon as it is finished, so they may not be in order.
+      * <p>
+      * If the file already has a heading for the same inventories, the rows that are already
+      * complete are kept and only the missing rows are calculated, so an interrupted run can
+      * be resumed. Anything after the last complete row (e.g. half a line) is removed first.
+      * @return the number of rows calculated */
+    public int writeTsv(File file, boolean restart) throws IOException {
+        String heading = heading();
+        Set<String> done = new HashSet<String>();
+        boolean resuming = !restart && file.exists() && file.length() > 0;
+        if (resuming) done = readCompletedRows(file, heading);
+        List<Integer> pending = new ArrayList<Integer>();
+        for (int i = 0; i < names.size(); i++) {
+            if (!done.contains(names.get(i))) pending.add(i);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, resuming), StandardCharsets.UTF_8));
+        try {
+            if (!resuming) {
+                out.write(heading);
+                out.write('\n');
+                out.flush();
+            }
+            RowTask task = new RowTask(pending, 0, pending.size(), out);
+            pool.invoke(task);
+            if (task.error[0] != null) throw task.error[0];
+        } finally {
+            out.close();
+        }
+        return pending.size();
+    }
+
+    private String heading() {
+        StringBuilder s = new StringBuilder("inventoryDistance");
+        for (String name : names) s.append('\t').append(name);
+        return s.toString();
+    }
+
+    /** Calculates and writes the rows pending.get(from..to-1). */
+    private class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Integer> pending;
+        private final int from, to;
+        private final Writer out;
+        /** First write error, shared by all the tasks of one writeTsv() */
+        private final IOException[] error;
+
+        RowTask(List<Integer> pending, int from, int to, Writer out) {
+            this(pending, from, to, out, new IOException[1]);
+        }
+
+        private RowTask(List<Integer> pending, int from, int to, Writer out, IOException[] error) {
+            this.pending = pending;
+            this.from = from;
+            this.to = to;
+            this.out = out;
+            this.error = error;
+        }
+
+        protected void compute() {
+            if (to-from > 1) {
+                int mid = (from+to) >>> 1;
+                invokeAll(new RowTask(pending, from, mid, out, error), new RowTask(pending, mid, to, out, error));
+                return;
+            }
+            if (from == to) return;
+            int i = pending.get(from);
+            StringBuilder line = new StringBuilder(names.get(i));
+            for (double d : row(i)) line.append('\t').append(d);
+            line.append('\n');
+            synchronized (out) {
+                if (error[0] != null) return;
+                try {
+                    out.write(line.toString());
+                    out.flush();
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            }
+        }
+    }
+
+    /** Reads the names of the complete rows of a matrix file, checking the heading, and cuts
+      * the file off after the last complete row. */
+    private Set<String> readCompletedRows(File file, String heading) throws IOException {
+        Set<String> done = new HashSet<String>();
+        Set<String> known = new HashSet<String>(names);
+        long goodLength = 0;
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+            long position = 0;
+            boolean isFirstLine = true;
+            int b;
+            while ((b = in.read()) >= 0) {
+                position++;
+                if (b != '\n') {
+                    lineBytes.write(b);
+                    continue;
+                }
+                String line = new String(lineBytes.toByteArray(), StandardCharsets.UTF_8);
+                lineBytes.reset();
+                if (isFirstLine) {
+                    if (!line.equals(heading))
+                        throw new IOException(file+" was written for different inventories; start again to overwrite it");
+                    isFirstLine = false;
+                } else {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length != names.size()+1 || !known.contains(fields[0]) || !done.add(fields[0])) break;
+                }
+                goodLength = position;
+            }
+        } finally {
+            in.close();
+        }
+        if (goodLength == 0) throw new IOException(file+" doesn't start with a complete heading; start again to overwrite it");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(goodLength);
+        } finally {
+            raf.close();
+        }
+        return done;
+    }
+
+    /** Reads inventories in long format, as in the PHOIBLE data: one phone per line as
+      * inventory name, tab, phone label. Lines starting with # are ignored. Each phone is
+      * taken from allPhones (e.g. FeatureFramework.loadFullInventory()); phones it doesn't
+      * have are skipped with a warning, as are inventories left with no phones. */
+    public static Map<String,PhoneInventory> readLongFormat(BufferedReader in, PhoneInventory allPhones) throws IOException {
+        Map<String,Set<Phone>> phoneSets = new LinkedHashMap<String,Set<Phone>>();
+        Set<String> unknown = new LinkedHashSet<String>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] fields = line.split("\t");
+            if (fields.length < 2) throw new IOException("Expected inventory<tab>phone but found: "+line);
+            Phone ph = allPhones.getPhone(fields[1]);
+            if (ph == null) {
+                if (unknown.add(fields[1])) System.err.println("Warning: can't find phone:"+fields[1]+" in feature table");
+                continue;
+            }
+            Set<Phone> phoneSet = phoneSets.get(fields[0]);
+            if (phoneSet == null) {
+                phoneSet = new LinkedHashSet<Phone>();
+                phoneSets.put(fields[0], phoneSet);
+            }
+            phoneSet.add(ph);
+        }
+        Map<String,PhoneInventory> inventories = new LinkedHashMap<String,PhoneInventory>();
+        for (Map.Entry<String,Set<Phone>> e : phoneSets.entrySet()) {
+            inventories.put(e.getKey(), new PhoneInventory(e.getValue()));
+        }
+        return inventories;
+    }
+}
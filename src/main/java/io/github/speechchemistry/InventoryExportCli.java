@@ -0,0 +1,104 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Exports a phone inventory in the SRILM formats or as a feature TSV file. The output is
+ * streamed straight to the file (UTF-8) a phone at a time, so large inventories don't need
+ * to be held in memory as one string. The subcommands are:
+ * <ul>
+ * <li>srilm-flm: the find and replace TSV for SRILM factored language models, the same as
+ * PhoneInventory.toSrilmFlmFindAndReplaceTsv() (use with BatchFindAndReplaceCli)</li>
+ * <li>srilm-dictionary: the -dictionary-align file for SRILM lattice-tool, the same as
+ * PhoneInventory.toSrilmDictionaryString()</li>
+ * <li>features: the features of every component phone, in the same layout as the feature files</li>
+ * </ul>
+ * Example: java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.InventoryExportCli
+ * -f hayes -o flm.tsv srilm-flm
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "InventoryExportCli", version = "InventoryExportCli 0.1", mixinStandardHelpOptions = true)
+public class InventoryExportCli implements Callable<Integer> {
+    @Option(names = { "-f", "--feature-framework" }, defaultValue = "phoible", description = "Feature framework: phoible (default) or hayes")
+    String feature_framework = "phoible";
+    @Option(names = { "-i", "--inventory" }, description = "Phone inventory resource (default: every phone in the feature framework)")
+    String inventory;
+    @Option(names = { "-o", "--output" }, description = "File to write to (default: standard output)")
+    File outputFile;
+
+    @Override
+    public Integer call() {
+        System.err.println("Missing subcommand: srilm-flm, srilm-dictionary or features");
+        CommandLine.usage(this, System.err);
+        return 2;
+    }
+
+    @Command(name = "srilm-flm", description = "Find and replace TSV for SRILM factored language models")
+    int srilmFlm() throws IOException {
+        PhoneInventory phInv = loadInventory();
+        Writer out = openOutput();
+        try {
+            phInv.writeSrilmFlmFindAndReplaceTsv(out);
+        } finally {
+            closeOutput(out);
+        }
+        return 0;
+    }
+
+    @Command(name = "srilm-dictionary", description = "Dictionary for the -dictionary-align option of SRILM lattice-tool")
+    int srilmDictionary() throws IOException {
+        PhoneInventory phInv = loadInventory();
+        Writer out = openOutput();
+        try {
+            phInv.writeSrilmDictionary(out);
+        } finally {
+            closeOutput(out);
+        }
+        return 0;
+    }
+
+    @Command(name = "features", description = "Features of every component phone as TSV")
+    int features() throws IOException {
+        PhoneInventory phInv = loadInventory();
+        Writer out = openOutput();
+        try {
+            phInv.writeFeatureTsv(out, feature_framework.toLowerCase()+"Features");
+        } finally {
+            closeOutput(out);
+        }
+        return 0;
+    }
+
+    private PhoneInventory loadInventory() throws IOException {
+        FeatureFramework framework = FeatureFramework.fromName(feature_framework);
+        return (inventory == null) ? framework.loadFullInventory() : framework.loadInventory(inventory);
+    }
+
+    private Writer openOutput() throws IOException {
+        OutputStream stream = (outputFile == null) ? System.out : new FileOutputStream(outputFile);
+        return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private void closeOutput(Writer out) throws IOException {
+        if (outputFile == null) out.flush(); // leave standard output open
+        else out.close();
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new InventoryExportCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
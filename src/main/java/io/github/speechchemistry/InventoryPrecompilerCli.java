@@ -0,0 +1,88 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Precompiles the bundled phone inventories into the binary format of PhoneInventory.writeTo(),
+ * so that FeatureFramework can load them at runtime without parsing any TSV files. This is run
+ * at build time by the fast-startup profile (mvn -P fast-startup package) on the compiled
+ * classes folder, and writes the binary files to its precompiled sub folder. Each binary file
+ * holds the fingerprint of the TSV files it was made from, so FeatureFramework goes back to
+ * parsing them if they are edited later without precompiling again.
+ * <p>
+ * For each feature framework the full inventory is precompiled, plus every language
+ * inventory (*_components_utf8nfc.tsv) that the framework has features for.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "InventoryPrecompilerCli", version = "InventoryPrecompilerCli 0.1", mixinStandardHelpOptions = true)
+public class InventoryPrecompilerCli implements Callable<Integer> {
+    @Parameters(paramLabel = "classesDir", description = "Folder containing the resources e.g. target/classes")
+    File classesDir;
+
+    @Override
+    public Integer call() throws IOException {
+        System.setProperty("phonemic.precompiled", "false"); // always start from the TSV files
+        List<String> languageInventories = new ArrayList<String>();
+        findLanguageInventories(classesDir, "", languageInventories);
+        for (FeatureFramework framework : FeatureFramework.values()) {
+            write(framework.loadFullInventory(), framework.getPrecompiledFullFilename(),
+                    framework.sourceFingerprint(framework.getPhoneListFilename()));
+            for (String inventoryTsvFilename : languageInventories) {
+                PhoneInventory phInv;
+                try {
+                    phInv = framework.loadInventory(inventoryTsvFilename);
+                } catch (MissingPhoneException e) { // phones missing from this framework's features
+                    System.err.println("Skipping "+inventoryTsvFilename+" for "+framework+": "+e);
+                    continue;
+                }
+                write(phInv, framework.getPrecompiledFilename(inventoryTsvFilename), framework.sourceFingerprint(inventoryTsvFilename));
+            }
+        }
+        return 0;
+    }
+
+    /** Finds the language inventory resources under a folder, as resource names. */
+    private static void findLanguageInventories(File dir, String resourcePath, List<String> found) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files);
+        for (File f : files) {
+            if (f.isDirectory()) {
+                if (!f.getName().equals("precompiled") && !f.getName().equals("common"))
+                    findLanguageInventories(f, resourcePath+"/"+f.getName(), found);
+            } else if (f.getName().endsWith("_components_utf8nfc.tsv")) {
+                found.add(resourcePath+"/"+f.getName());
+            }
+        }
+    }
+
+    private void write(PhoneInventory phInv, String resourceName, long sourceFingerprint) throws IOException {
+        File out = new File(classesDir, resourceName.substring(1));
+        out.getParentFile().mkdirs();
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+        try {
+            phInv.writeTo(data, sourceFingerprint);
+        } finally {
+            data.close();
+        }
+        System.out.println("Precompiled "+resourceName+" ("+phInv.size()+" phones)");
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new InventoryPrecompilerCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,226 @@
+package io.github.speechchemistry;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs an operation many times from several threads and measures throughput, latency
+ * percentiles, garbage collection and allocation (see LoadTestCli for the workloads).
+ * <p>
+ * With a target rate of 0 the load is closed: each thread starts its next operation as
+ * soon as the previous one finishes. With a target rate, operation i is scheduled to start
+ * at i/rate seconds, and its latency is measured from the scheduled time rather than the
+ * actual start, so that queueing delay is included when the library can't keep up.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class LoadTest {
+
+    /** One unit of work; index runs from 0 to operations-1 (and again for the warm up). */
+    public interface Operation {
+        void run(int index) throws Exception;
+    }
+
+    /** Results of a run. toString() gives them as a JSON object. */
+    public static class Report {
+        private final String workload;
+        private final int operations;
+        private final int concurrency;
+        private final double targetRate;
+        private final double elapsedSeconds;
+        private final long[] sortedLatencyNanos;
+        private final int errors;
+        private final Exception firstError;
+        private final long gcCount;
+        private final long gcMillis;
+        private final long allocatedBytes;
+
+        Report(String workload, int operations, int concurrency, double targetRate, double elapsedSeconds,
+                long[] sortedLatencyNanos, int errors, Exception firstError, long gcCount, long gcMillis, long allocatedBytes) {
+            this.workload = workload;
+            this.operations = operations;
+            this.concurrency = concurrency;
+            this.targetRate = targetRate;
+            this.elapsedSeconds = elapsedSeconds;
+            this.sortedLatencyNanos = sortedLatencyNanos;
+            this.errors = errors;
+            this.firstError = firstError;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /** Gets the number of operations completed per second. */
+        public double getThroughput() {
+            return operations/elapsedSeconds;
+        }
+
+        /** Gets a latency percentile (0 to 100) in milliseconds, by the nearest rank method. */
+        public double getLatencyMillis(double percentile) {
+            if (sortedLatencyNanos.length == 0) return Double.NaN;
+            int rank = (int) Math.ceil(percentile/100*sortedLatencyNanos.length);
+            return sortedLatencyNanos[Math.max(0, Math.min(sortedLatencyNanos.length-1, rank-1))]/1e6;
+        }
+
+        /** Gets the number of operations that threw an exception. */
+        public int getErrors() {
+            return errors;
+        }
+
+        /** Gets the exception thrown by the first failed operation, or null if none failed. */
+        public Exception getFirstError() {
+            return firstError;
+        }
+
+        /** Gets the bytes allocated by the worker threads (-1 if the Java runtime can't measure it). */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /** Produces the report as a JSON object. */
+        public String toString() {
+            long sum = 0;
+            for (long l : sortedLatencyNanos) sum += l;
+            double mean = sortedLatencyNanos.length == 0 ? Double.NaN : sum/1e6/sortedLatencyNanos.length;
+            Runtime rt = Runtime.getRuntime();
+            StringBuilder s = new StringBuilder("{\n");
+            s.append("  \"workload\": \"").append(workload).append("\",\n");
+            s.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+            s.append("  \"vmName\": \"").append(System.getProperty("java.vm.name")).append("\",\n");
+            s.append("  \"availableProcessors\": ").append(rt.availableProcessors()).append(",\n");
+            s.append("  \"maxHeapBytes\": ").append(rt.maxMemory()).append(",\n");
+            s.append("  \"operations\": ").append(operations).append(",\n");
+            s.append("  \"concurrency\": ").append(concurrency).append(",\n");
+            s.append("  \"targetRatePerSecond\": ").append(number(targetRate)).append(",\n");
+            s.append("  \"elapsedSeconds\": ").append(number(elapsedSeconds)).append(",\n");
+            s.append("  \"throughputPerSecond\": ").append(number(getThroughput())).append(",\n");
+            s.append("  \"errors\": ").append(errors).append(",\n");
+            s.append("  \"latencyMillis\": {");
+            s.append("\"mean\": ").append(number(mean));
+            s.append(", \"p50\": ").append(number(getLatencyMillis(50)));
+            s.append(", \"p99\": ").append(number(getLatencyMillis(99)));
+            s.append(", \"p999\": ").append(number(getLatencyMillis(99.9)));
+            s.append(", \"max\": ").append(number(getLatencyMillis(100))).append("},\n");
+            s.append("  \"gcCount\": ").append(gcCount).append(",\n");
+            s.append("  \"gcMillis\": ").append(gcMillis).append(",\n");
+            s.append("  \"allocatedBytes\": ").append(allocatedBytes).append(",\n");
+            s.append("  \"allocatedBytesPerOperation\": ")
+                    .append(allocatedBytes < 0 ? "null" : number((1.0*allocatedBytes)/operations)).append("\n");
+            s.append("}\n");
+            return s.toString();
+        }
+
+        private static String number(double d) {
+            if (Double.isNaN(d) || Double.isInfinite(d)) return "null";
+            return String.format(Locale.ROOT, "%.6g", d);
+        }
+    }
+
+    private final String workload;
+    private final Operation operation;
+    private final int operations;
+    private final int warmup;
+    private final int concurrency;
+    private final double targetRate;
+
+    /** Creates the load test. A target rate (operations per second) of 0 means a closed load
+      * at the given concurrency. The warm up operations are run first and not measured. */
+    public LoadTest(String workload, Operation operation, int operations, int warmup, int concurrency, double targetRate) {
+        if (operations < 1 || warmup < 0 || concurrency < 1 || targetRate < 0)
+            throw new IllegalArgumentException("Need operations >= 1, warmup >= 0, concurrency >= 1 and rate >= 0");
+        this.workload = workload;
+        this.operation = operation;
+        this.operations = operations;
+        this.warmup = warmup;
+        this.concurrency = concurrency;
+        this.targetRate = targetRate;
+    }
+
+    /** Runs the warm up and then the measured operations. */
+    public Report run() throws InterruptedException {
+        if (warmup > 0) runPhase(warmup, 0, null, null, null, new AtomicLong());
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long[] latency = new long[operations];
+        AtomicInteger errors = new AtomicInteger();
+        AtomicReference<Exception> firstError = new AtomicReference<Exception>();
+        AtomicLong allocated = new AtomicLong();
+        long start = System.nanoTime();
+        runPhase(operations, targetRate, latency, errors, firstError, allocated);
+        double elapsed = (System.nanoTime()-start)/1e9;
+        Arrays.sort(latency);
+        return new Report(workload, operations, concurrency, targetRate, elapsed, latency, errors.get(), firstError.get(),
+                gcCount()-gcCountBefore, gcMillis()-gcMillisBefore, allocated.get());
+    }
+
+    /** Runs n operations on the worker threads, recording latencies if latency isn't null and
+      * failures if errors isn't null. */
+    private void runPhase(final int n, final double rate, final long[] latency, final AtomicInteger errors,
+            final AtomicReference<Exception> firstError, final AtomicLong allocated) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        final long start = System.nanoTime();
+        Thread[] workers = new Thread[concurrency];
+        for (int t = 0; t < concurrency; t++) {
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    long allocatedBefore = threadAllocatedBytes();
+                    int i;
+                    while ((i = next.getAndIncrement()) < n) {
+                        long scheduled;
+                        if (rate > 0) {
+                            scheduled = start+(long) (i*1e9/rate);
+                            long wait;
+                            while ((wait = scheduled-System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+                        } else {
+                            scheduled = System.nanoTime();
+                        }
+                        try {
+                            operation.run(i);
+                        } catch (Exception e) {
+                            if (errors != null && errors.getAndIncrement() == 0) firstError.set(e);
+                        }
+                        if (latency != null) latency[i] = System.nanoTime()-scheduled;
+                    }
+                    long allocatedAfter = threadAllocatedBytes();
+                    if (allocatedBefore < 0 || allocatedAfter < 0) allocated.set(-1);
+                    else if (allocated.get() >= 0) allocated.addAndGet(allocatedAfter-allocatedBefore);
+                }
+            }, workload+"-"+t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) worker.join();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) millis += Math.max(0, gc.getCollectionTime());
+        return millis;
+    }
+
+    /** Bytes allocated so far by the current thread, or -1 if this can't be measured. The
+      * HotSpot specific com.sun.management.ThreadMXBean is used through reflection. */
+    private static long threadAllocatedBytes() {
+        try {
+            Class<?> hotSpotBean = Class.forName("com.sun.management.ThreadMXBean");
+            Object bean = ManagementFactory.getThreadMXBean();
+            if (!hotSpotBean.isInstance(bean)) return -1;
+            Method m = hotSpotBean.getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) m.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) { // not a HotSpot based runtime
+            return -1;
+        }
+    }
+}
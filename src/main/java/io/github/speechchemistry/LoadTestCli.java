@@ -0,0 +1,176 @@
+package io.github.speechchemistry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Load test of whole workflows on a synthetic corpus, for comparing builds on the same
+ * hardware. The corpus is generated from a bundled phone inventory with a seed, so it is
+ * the same every time (see SyntheticCorpus). The workloads are:
+ * <ul>
+ * <li>bfepp: BfeppScorer.bfepp() of a word pair (a random reference and a mutated copy)</li>
+ * <li>bfepp-cached: the same through a BfeppResultCache, optionally with a disk tier; the
+ * cache statistics are printed to standard error</li>
+ * <li>transliterate: TransliterationTable.transliterate() of an utterance into the target inventory</li>
+ * <li>chart: one row of the articulator and similarity phone relationship charts, for a random phone</li>
+ * <li>replace: BatchFindAndReplace.processString() of an utterance with the inventory's SRILM FLM table</li>
+ * </ul>
+ * Example: java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.LoadTestCli
+ * -n 100000 -c 8 bfepp
+ * <p>
+ * The report is a JSON object with the throughput, latency percentiles (p50, p99, p999),
+ * garbage collection counts and bytes allocated per operation.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "LoadTestCli", version = "LoadTestCli 0.1", mixinStandardHelpOptions = true)
+public class LoadTestCli implements Callable<Integer> {
+    @Parameters(paramLabel = "workload", description = "Workload: bfepp, bfepp-cached, transliterate, chart or replace")
+    String workload;
+    @Option(names = { "-f", "--feature-framework" }, defaultValue = "hayes", description = "Feature framework: hayes (default) or phoible")
+    String feature_framework = "hayes";
+    @Option(names = { "-i", "--inventory" }, defaultValue = "/hau/hausa_components_utf8nfc.tsv",
+            description = "Phone inventory resource the corpus is generated from (default: /hau/hausa_components_utf8nfc.tsv)")
+    String inventory = "/hau/hausa_components_utf8nfc.tsv";
+    @Option(names = { "-t", "--target-inventory" }, defaultValue = "/ces/czech_components_utf8nfc.tsv",
+            description = "Target phone inventory resource for the transliterate workload (default: /ces/czech_components_utf8nfc.tsv)")
+    String targetInventory = "/ces/czech_components_utf8nfc.tsv";
+    @Option(names = { "-n", "--operations" }, defaultValue = "10000", description = "Number of measured operations (default: 10000)")
+    int operations = 10000;
+    @Option(names = { "--warmup" }, defaultValue = "2000", description = "Number of operations run before measuring (default: 2000)")
+    int warmup = 2000;
+    @Option(names = { "-c", "--concurrency" }, defaultValue = "1", description = "Number of threads (default: 1)")
+    int concurrency = 1;
+    @Option(names = { "-r", "--rate" }, defaultValue = "0", description = "Target operations per second; 0 (default) runs each thread flat out")
+    double rate = 0;
+    @Option(names = { "--corpus-size" }, defaultValue = "10000", description = "Number of distinct utterances or pairs generated (default: 10000)")
+    int corpusSize = 10000;
+    @Option(names = { "--seed" }, defaultValue = "1", description = "Random seed of the synthetic corpus (default: 1)")
+    long seed = 1;
+    @Option(names = { "--min-length" }, defaultValue = "3", description = "Minimum utterance length in phones (default: 3)")
+    int minLength = 3;
+    @Option(names = { "--max-length" }, defaultValue = "12", description = "Maximum utterance length in phones (default: 12)")
+    int maxLength = 12;
+    @Option(names = { "--length-distribution" }, defaultValue = "NORMAL", description = "UNIFORM or NORMAL (default) between the minimum and maximum lengths")
+    SyntheticCorpus.LengthDistribution lengthDistribution = SyntheticCorpus.LengthDistribution.NORMAL;
+    @Option(names = { "-m", "--mutation-rate" }, defaultValue = "0.2", description = "Probability of each phone being edited between the words of a pair (default: 0.2)")
+    double mutationRate = 0.2;
+    @Option(names = { "-o", "--output" }, description = "File to write the JSON report to (default: standard output)")
+    String outputFile;
+    @Option(names = { "--cache-size" }, defaultValue = "65536", description = "Maximum number of scores held in memory by the bfepp-cached workload (default: 65536)")
+    int cacheSize = BfeppResultCache.DEFAULT_MAX_ENTRIES;
+    @Option(names = { "--cache-file" }, description = "Disk tier file of the bfepp-cached workload (default: none); it is kept between runs")
+    File cacheFile;
+
+    /** The cache of the bfepp-cached workload. */
+    private BfeppResultCache cache;
+
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        FeatureFramework framework = FeatureFramework.fromName(feature_framework);
+        PhoneInventory phInv = framework.loadInventory(inventory);
+        SyntheticCorpus corpus = new SyntheticCorpus(phInv, seed, minLength, maxLength, lengthDistribution);
+        LoadTest.Operation operation = createOperation(framework, phInv, corpus);
+        LoadTest.Report report;
+        try {
+            report = new LoadTest(workload, operation, operations, warmup, concurrency, rate).run();
+        } finally {
+            if (cache != null) cache.close();
+        }
+        if (cache != null) System.err.println(cache);
+        if (report.getFirstError() != null) {
+            System.err.println(report.getErrors()+" operations failed; the first failure was:");
+            report.getFirstError().printStackTrace();
+        }
+        if (outputFile == null) {
+            System.out.print(report);
+        } else {
+            Writer out = new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8);
+            try {
+                out.write(report.toString());
+            } finally {
+                out.close();
+            }
+        }
+        return report.getErrors() == 0 ? 0 : 1;
+    }
+
+    /** Generates the corpus and sets up the objects used by the workload. */
+    private LoadTest.Operation createOperation(FeatureFramework framework, final PhoneInventory phInv,
+            SyntheticCorpus corpus) throws IOException {
+        if (workload.equals("bfepp")) {
+            final BfeppScorer scorer = new BfeppScorer(phInv);
+            final List<WordPair> pairs = corpus.pairs(corpusSize, mutationRate);
+            return new LoadTest.Operation() {
+                public void run(int index) {
+                    WordPair pair = pairs.get(index % pairs.size());
+                    scorer.bfepp(pair.getWord1(), pair.getWord2());
+                }
+            };
+        } else if (workload.equals("bfepp-cached")) {
+            BfeppScorer scorer = new BfeppScorer(phInv);
+            cache = (cacheFile == null) ? new BfeppResultCache(scorer, cacheSize, PhoneDistanceCache.EvictionPolicy.LRU)
+                    : new BfeppResultCache(scorer, cacheSize, PhoneDistanceCache.EvictionPolicy.LRU, cacheFile,
+                    BfeppResultCache.DEFAULT_DISK_ENTRIES);
+            final BfeppResultCache pairCache = cache;
+            final List<WordPair> pairs = corpus.pairs(corpusSize, mutationRate);
+            return new LoadTest.Operation() {
+                public void run(int index) {
+                    WordPair pair = pairs.get(index % pairs.size());
+                    pairCache.bfepp(pair.getWord1(), pair.getWord2());
+                }
+            };
+        } else if (workload.equals("transliterate")) {
+            final TransliterationTable table = new TransliterationTable(phInv, framework.loadInventory(targetInventory));
+            final List<String> utterances = corpus.utterances(corpusSize);
+            return new LoadTest.Operation() {
+                public void run(int index) {
+                    table.transliterate(utterances.get(index % utterances.size()));
+                }
+            };
+        } else if (workload.equals("chart")) {
+            return new LoadTest.Operation() {
+                public void run(int index) {
+                    int j = (int) ((index * 0x9E3779B97F4A7C15L >>> 33) % phInv.size()); // spread the rows out
+                    Phone jPh = phInv.getPhoneById(j);
+                    for (int i = 0; i < phInv.size(); i++) {
+                        phInv.hasDifferentArticulators(j, i);
+                        phInv.getPhoneById(i).averageCountOfSameFeatures(jPh);
+                    }
+                }
+            };
+        } else if (workload.equals("replace")) {
+            Map<String,String> rMap = new LinkedHashMap<String,String>();
+            for (String line : phInv.toSrilmFlmFindAndReplaceTsv().split("\n")) {
+                String[] lineArray = line.split("\t", 2);
+                if (lineArray.length > 1) rMap.put(lineArray[0], lineArray[1]);
+            }
+            final BatchFindAndReplace replacer = new BatchFindAndReplace(rMap);
+            final List<String> utterances = corpus.utterances(corpusSize);
+            return new LoadTest.Operation() {
+                public void run(int index) {
+                    replacer.processString(utterances.get(index % utterances.size()));
+                }
+            };
+        }
+        throw new CommandLine.ParameterException(new CommandLine(this), "Unknown workload: "+workload);
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new LoadTestCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
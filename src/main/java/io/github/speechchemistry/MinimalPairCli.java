@@ -0,0 +1,93 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Lists the minimal pairs (and optionally near-minimal pairs) of a word corpus, see
+ * MinimalPairIndex. The counts for each pair of phones can be printed as charts with
+ * PhoneChartsCli.
+ * <p>
+ * Example: java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.MinimalPairCli
+ * -f hayes -i /hau/hausa_components_utf8nfc.tsv -d 2 hausa_words.txt
+ * <p>
+ * The corpus is a UTF-8 file with one word per line and spaces in between phones; blank
+ * lines are skipped. Output is one tab separated line per pair: word1, word2, the phones of
+ * word1 that differ and the phones of word2 that differ.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "MinimalPairCli", version = "MinimalPairCli 0.1", mixinStandardHelpOptions = true)
+public class MinimalPairCli implements Callable<Integer> {
+    @Parameters(paramLabel = "corpusFile", description = "Word corpus, one word per line with spaces in between phones (UTF-8)")
+    File corpusFile;
+    @Option(names = { "-f", "--feature-framework" }, defaultValue = "hayes", description = "Feature framework: hayes (default) or phoible")
+    String feature_framework = "hayes";
+    @Option(names = { "-i", "--inventory" }, description = "Phone inventory resource (default: every phone in the feature framework)")
+    String inventory;
+    @Option(names = { "-d", "--max-differences" }, defaultValue = "1",
+            description = "1 (default) for minimal pairs, 2 to include near-minimal pairs that differ in two phones")
+    int maxDifferences = 1;
+    @Option(names = { "-j", "--threads" }, description = "Number of worker threads (default: number of processors)")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @Override
+    public Integer call() throws IOException {
+        FeatureFramework framework = FeatureFramework.fromName(feature_framework);
+        PhoneInventory phInv = (inventory == null) ? framework.loadFullInventory() : framework.loadInventory(inventory);
+        List<String> corpus = readWords(corpusFile);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        MinimalPairIndex index;
+        long start = System.nanoTime();
+        try {
+            index = new MinimalPairIndex(corpus, phInv, maxDifferences, pool);
+        } finally {
+            pool.shutdown();
+        }
+        System.err.println(index.getWordCount()+" distinct words, "+index.getPairs().size()+" pairs found in "
+                +(System.nanoTime()-start)/1000000+" ms");
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        for (MinimalPairIndex.MinimalPair pair : index.getPairs()) {
+            out.write(pair.toString());
+            out.write('\n');
+        }
+        out.flush();
+        return 0;
+    }
+
+    /** Reads a UTF-8 word list, skipping blank lines. */
+    static List<String> readWords(File file) throws IOException {
+        List<String> words = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.trim().isEmpty()) words.add(line.trim());
+            }
+        } finally {
+            in.close();
+        }
+        return words;
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new MinimalPairCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,455 @@
+package io.github.speechchemistry;
+
+import java.io.PrintStream;
+import java.text.Normalizer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds every minimal pair in a word corpus: pairs of words with the same number of phones
+ * that differ in exactly one phone, e.g. "b ɪ" and "d ɪ". With maxDifferences of 2 the
+ * near-minimal pairs, which differ in exactly two phones, are found as well. A minimal pair
+ * is evidence that its two contrasting phones are separate phonemes rather than allophones,
+ * so the counts of each phone pair can be read alongside the phone relationship charts
+ * (see PhoneRelationshipCharts).
+ * <p>
+ * Comparing every pair of words isn't feasible for large corpora, so wildcard hashing is used
+ * instead: each word is given one key for every way of replacing maxDifferences of its phones
+ * with a wildcard (or all its phones if it is shorter), made from the word length, the
+ * wildcard positions and the phone ids of the other phones. Two words differing in at most
+ * maxDifferences phones share a key, so only words with the same key are compared. Each pair
+ * is reported once, from the key whose wildcards are the differing positions followed by the
+ * first other positions. For words of L phones there are L keys per word (L(L-1)/2 for near
+ * minimal pairs), so the work grows linearly with the corpus apart from the pairs found.
+ * The keys are hashed on a fork/join pool and split into partitions by hash, and each
+ * partition is sorted and searched on its own.
+ * <p>
+ * Identical words are only included once, in the order they first appear in the corpus.
+ * The index can't be changed once it has been built, so it can be read by any number of threads.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class MinimalPairIndex {
+    /** Number of words hashed by each fork/join task. */
+    private static final int WORDS_PER_TASK = 2048;
+
+    /** Two words of a corpus that differ in a few phones (at the same positions). */
+    public static class MinimalPair {
+        private final String word1;
+        private final String word2;
+        private final int[] positions;
+        private final Phone[] phones1;
+        private final Phone[] phones2;
+
+        MinimalPair(String word1, String word2, int[] positions, Phone[] phones1, Phone[] phones2) {
+            this.word1 = word1;
+            this.word2 = word2;
+            this.positions = positions;
+            this.phones1 = phones1;
+            this.phones2 = phones2;
+        }
+
+        /** Gets the word that comes first in the corpus. */
+        public String getWord1() {
+            return word1;
+        }
+
+        /** Gets the word that comes second in the corpus. */
+        public String getWord2() {
+            return word2;
+        }
+
+        /** Gets the number of phones that are different: 1 for a minimal pair, 2 for a near-minimal pair. */
+        public int getDifferenceCount() {
+            return positions.length;
+        }
+
+        /** Gets the position (from 0) of difference k. */
+        public int getPosition(int k) {
+            return positions[k];
+        }
+
+        /** Gets the phone of the first word at difference k. */
+        public Phone getPhone1(int k) {
+            return phones1[k];
+        }
+
+        /** Gets the phone of the second word at difference k. */
+        public Phone getPhone2(int k) {
+            return phones2[k];
+        }
+
+        /** Gives the pair as word1, word2, the phones of word1 that differ and the phones of
+          * word2 that differ, separated by tabs (the phones are separated by spaces). */
+        public String toString() {
+            StringBuilder s = new StringBuilder();
+            s.append(word1).append('\t').append(word2).append('\t');
+            for (int k = 0; k < positions.length; k++) s.append(k == 0 ? "" : " ").append(phones1[k]);
+            s.append('\t');
+            for (int k = 0; k < positions.length; k++) s.append(k == 0 ? "" : " ").append(phones2[k]);
+            return s.toString();
+        }
+    }
+
+    private final PhoneInventory inventory;
+    private final int maxDifferences;
+    /** The distinct words (NFC) and their phone ids. */
+    private final String[] words;
+    private final int[][] ids;
+    /** The pairs found: word index 1 in the high 32 bits, word index 2 in the low, sorted. */
+    private final long[] pairs;
+    /** [a*n+b] = number of minimal pairs contrasting phone ids a and b. */
+    private final int[] minimalCounts;
+    /** [a*n+b] = number of near-minimal pairs with a difference between phone ids a and b. */
+    private final int[] nearMinimalCounts;
+
+    /** The wildcard keys, only kept while the pairs are found: the hash, the word and the
+      * wildcard positions (1 + first position in the low 16 bits and 1 + second position, or
+      * 0, in the high 16 bits). */
+    private static class Keys {
+        final long[] hashes;
+        final int[] words;
+        final int[] wildcards;
+
+        Keys(int size) {
+            hashes = new long[size];
+            words = new int[size];
+            wildcards = new int[size];
+        }
+    }
+
+    /** Finds the minimal pairs (maxDifferences 1) or minimal and near-minimal pairs
+      * (maxDifferences 2) of a corpus of words, each with spaces in between phones, using
+      * the given fork/join pool. */
+    public MinimalPairIndex(List<String> corpus, PhoneInventory inventory, int maxDifferences, ForkJoinPool pool) {
+        if (maxDifferences < 1 || maxDifferences > 2) throw new IllegalArgumentException("maxDifferences must be 1 or 2");
+        this.inventory = inventory;
+        this.maxDifferences = maxDifferences;
+        Map<String,Integer> distinct = new LinkedHashMap<String,Integer>();
+        for (int w = 0; w < corpus.size(); w++) {
+            String word = Normalizer.normalize(corpus.get(w), Normalizer.Form.NFC);
+            if (!distinct.containsKey(word)) distinct.put(word, w);
+        }
+        words = distinct.keySet().toArray(new String[distinct.size()]);
+        ids = new int[words.length][];
+        long[] keyStart = new long[words.length+1];
+        for (int w = 0; w < words.length; w++) {
+            String[] labels = words[w].split(" ");
+            if (labels.length > 0xFFFE)
+                throw new IllegalArgumentException("Word "+(distinct.get(words[w])+1)+" has more than "+0xFFFE+" phones");
+            ids[w] = new int[labels.length];
+            for (int i = 0; i < labels.length; i++) {
+                try {
+                    ids[w][i] = inventory.getPhoneId(labels[i]);
+                } catch (RuntimeException e) {
+                    throw new RuntimeException("Word "+(distinct.get(words[w])+1)+" ("+words[w]+"): "+e.getMessage(), e);
+                }
+            }
+            keyStart[w+1] = keyStart[w]+keyCount(labels.length);
+        }
+        if (keyStart[words.length] > Integer.MAX_VALUE-8)
+            throw new IllegalArgumentException("Too many wildcard keys: "+keyStart[words.length]);
+        int keys = (int) keyStart[words.length];
+        Keys keyTable = new Keys(keys);
+        pool.invoke(new KeyTask(keyTable, keyStart, 0, words.length));
+        // partition the keys by hash so that each partition can be sorted on its own
+        int partitions = Math.max(4*pool.getParallelism(), (keys >> 20)+1);
+        int[] partitionStart = new int[partitions+1];
+        for (long h : keyTable.hashes) partitionStart[partition(h, partitions)+1]++;
+        for (int p = 0; p < partitions; p++) partitionStart[p+1] += partitionStart[p];
+        int[] partitionKeys = new int[keys];
+        int[] fill = Arrays.copyOf(partitionStart, partitions);
+        for (int k = 0; k < keys; k++) partitionKeys[fill[partition(keyTable.hashes[k], partitions)]++] = k;
+        PartitionTask[] tasks = new PartitionTask[partitions];
+        for (int p = 0; p < partitions; p++) tasks[p] = new PartitionTask(keyTable, partitionKeys, partitionStart[p], partitionStart[p+1]);
+        pool.invoke(new AllPartitionsTask(tasks));
+        int pairCount = 0;
+        for (PartitionTask task : tasks) pairCount += task.found.size;
+        long[] all = new long[pairCount];
+        int at = 0;
+        for (PartitionTask task : tasks) {
+            System.arraycopy(task.found.values, 0, all, at, task.found.size);
+            at += task.found.size;
+        }
+        Arrays.sort(all);
+        pairs = all;
+        int n = inventory.size();
+        minimalCounts = new int[n*n];
+        nearMinimalCounts = new int[n*n];
+        for (long pair : pairs) {
+            int[] a = ids[(int) (pair >>> 32)];
+            int[] b = ids[(int) pair];
+            int differences = 0;
+            for (int i = 0; i < a.length; i++) if (a[i] != b[i]) differences++;
+            int[] counts = (differences == 1) ? minimalCounts : nearMinimalCounts;
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i]) {
+                    counts[a[i]*n+b[i]]++;
+                    counts[b[i]*n+a[i]]++;
+                }
+            }
+        }
+    }
+
+    /** The number of wildcard keys of a word of the given length. */
+    private long keyCount(int length) {
+        if (maxDifferences == 1 || length < 2) return length;
+        return (long) length*(length-1)/2;
+    }
+
+    private static int partition(long hash, int partitions) {
+        return (int) ((hash >>> 32) % partitions);
+    }
+
+    /** Hashes the wildcard keys of words from..to-1. */
+    private class KeyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Keys keys;
+        private final long[] keyStart;
+        private final int from, to;
+
+        KeyTask(Keys keys, long[] keyStart, int from, int to) {
+            this.keys = keys;
+            this.keyStart = keyStart;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to-from > WORDS_PER_TASK) {
+                int mid = (from+to) >>> 1;
+                invokeAll(new KeyTask(keys, keyStart, from, mid), new KeyTask(keys, keyStart, mid, to));
+                return;
+            }
+            for (int w = from; w < to; w++) {
+                int k = (int) keyStart[w];
+                int length = ids[w].length;
+                if (maxDifferences == 1 || length < 2) {
+                    for (int i = 0; i < length; i++) setKey(k++, w, i+1);
+                } else {
+                    for (int i = 0; i < length; i++) {
+                        for (int j = i+1; j < length; j++) setKey(k++, w, (j+1) << 16 | (i+1));
+                    }
+                }
+            }
+        }
+
+        private void setKey(int k, int w, int wildcards) {
+            int[] word = ids[w];
+            int first = (wildcards & 0xFFFF)-1;
+            int second = (wildcards >>> 16)-1;
+            long h = mix(0x9E3779B97F4A7C15L, word.length);
+            h = mix(h, wildcards);
+            for (int i = 0; i < word.length; i++) {
+                if (i != first && i != second) h = mix(h, word[i]);
+            }
+            keys.hashes[k] = finish(h);
+            keys.words[k] = w;
+            keys.wildcards[k] = wildcards;
+        }
+    }
+
+    private static long mix(long h, int value) {
+        return Long.rotateLeft(h ^ (value*0xFF51AFD7ED558CCDL), 29)*0x9E3779B97F4A7C15L;
+    }
+
+    /** The MurmurHash3 finalizer, so that every bit of the hash depends on every value. */
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Runs the partition tasks. */
+    private static class AllPartitionsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final PartitionTask[] tasks;
+
+        AllPartitionsTask(PartitionTask[] tasks) {
+            this.tasks = tasks;
+        }
+
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+
+    /** Finds the pairs sharing a key among the keys of one partition. */
+    private class PartitionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Keys keys;
+        private final int[] partitionKeys;
+        private final int from, to;
+        /** The pairs found (word indices packed as in pairs). */
+        final LongBuffer found = new LongBuffer();
+
+        PartitionTask(Keys keys, int[] partitionKeys, int from, int to) {
+            this.keys = keys;
+            this.partitionKeys = partitionKeys;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            // the low 32 bits of each hash, with the position in the partition to sort by it
+            long[] sorted = new long[to-from];
+            for (int x = 0; x < sorted.length; x++) {
+                sorted[x] = (keys.hashes[partitionKeys[from+x]] << 32) | x;
+            }
+            Arrays.sort(sorted);
+            for (int start = 0; start < sorted.length; ) {
+                int end = start+1;
+                while (end < sorted.length && (sorted[end] >>> 32) == (sorted[start] >>> 32)) end++;
+                for (int x = start; x < end; x++) {
+                    int kx = partitionKeys[from+(int) sorted[x]];
+                    for (int y = x+1; y < end; y++) {
+                        int ky = partitionKeys[from+(int) sorted[y]];
+                        if (isReportedBy(keys, kx, ky)) {
+                            int a = Math.min(keys.words[kx], keys.words[ky]);
+                            int b = Math.max(keys.words[kx], keys.words[ky]);
+                            found.add(((long) a << 32) | b);
+                        }
+                    }
+                }
+                start = end;
+            }
+        }
+    }
+
+    /** Checks whether two keys really are the same (not just the same hash), and that they
+      * are the key the pair of words is reported from: the differing positions followed by the
+      * first other positions. */
+    private boolean isReportedBy(Keys keys, int kx, int ky) {
+        int wildcards = keys.wildcards[kx];
+        if (wildcards != keys.wildcards[ky]) return false;
+        int[] a = ids[keys.words[kx]];
+        int[] b = ids[keys.words[ky]];
+        if (a.length != b.length) return false;
+        int first = (wildcards & 0xFFFF)-1;
+        int second = (wildcards >>> 16)-1;
+        for (int i = 0; i < a.length; i++) {
+            if (i != first && i != second && a[i] != b[i]) return false;
+        }
+        int reported = 0;
+        int used = 0;
+        for (int i = 0; i < a.length && used < 2; i++) { // the differing positions
+            if (a[i] != b[i]) reported |= (i+1) << (16*used++);
+        }
+        if (used == 0) return false; // the same phones e.g. written with an extra space
+        int wanted = (second < 0) ? 1 : 2;
+        for (int i = 0; i < a.length && used < wanted; i++) { // then the first other positions
+            if (a[i] == b[i]) reported |= (i+1) << (16*used++);
+        }
+        return normalize(reported) == wildcards;
+    }
+
+    /** Puts the smaller position in the low 16 bits, as the keys have them. */
+    private static int normalize(int wildcards) {
+        int first = wildcards & 0xFFFF;
+        int second = wildcards >>> 16;
+        return (second != 0 && second < first) ? (first << 16 | second) : wildcards;
+    }
+
+    /** A growable array of longs. */
+    private static class LongBuffer {
+        long[] values = new long[16];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) values = Arrays.copyOf(values, 2*size);
+            values[size++] = value;
+        }
+    }
+
+    /** Gets the phone inventory of the words. */
+    public PhoneInventory getInventory() {
+        return inventory;
+    }
+
+    /** Gets the maximum number of differing phones: 1 for minimal pairs only, 2 for near-minimal pairs as well. */
+    public int getMaxDifferences() {
+        return maxDifferences;
+    }
+
+    /** Gets the number of distinct words. */
+    public int getWordCount() {
+        return words.length;
+    }
+
+    /** Gets the pairs that were found, ordered by the first word then the second word (in
+      * corpus order). The pairs are made when they are read, so the list takes little memory. */
+    public List<MinimalPair> getPairs() {
+        return new PairList();
+    }
+
+    private class PairList extends AbstractList<MinimalPair> implements RandomAccess {
+        public MinimalPair get(int index) {
+            long pair = pairs[index];
+            int w1 = (int) (pair >>> 32);
+            int w2 = (int) pair;
+            int[] a = ids[w1];
+            int[] b = ids[w2];
+            int differences = 0;
+            for (int i = 0; i < a.length; i++) if (a[i] != b[i]) differences++;
+            int[] positions = new int[differences];
+            Phone[] phones1 = new Phone[differences];
+            Phone[] phones2 = new Phone[differences];
+            int k = 0;
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i]) {
+                    positions[k] = i;
+                    phones1[k] = inventory.getPhoneById(a[i]);
+                    phones2[k++] = inventory.getPhoneById(b[i]);
+                }
+            }
+            return new MinimalPair(words[w1], words[w2], positions, phones1, phones2);
+        }
+
+        public int size() {
+            return pairs.length;
+        }
+    }
+
+    /** Gets the number of minimal pairs contrasting the phones with the given ids (in either order). */
+    public int getMinimalPairCount(int idA, int idB) {
+        return minimalCounts[idA*inventory.size()+idB];
+    }
+
+    /** Gets the number of near-minimal pairs with a difference between the phones with the given ids. */
+    public int getNearMinimalPairCount(int idA, int idB) {
+        return nearMinimalCounts[idA*inventory.size()+idB];
+    }
+
+    /** Prints the minimal pair counts of every pair of phones as a chart in the same CSV
+      * format as the phone relationship charts (see PhoneRelationshipCharts.printSimilarity()). */
+    public void printMinimalPairCounts(PrintStream out) {
+        printCounts(out, "minimalPairs", minimalCounts);
+    }
+
+    /** Prints the near-minimal pair counts of every pair of phones, like printMinimalPairCounts(). */
+    public void printNearMinimalPairCounts(PrintStream out) {
+        printCounts(out, "nearMinimalPairs", nearMinimalCounts);
+    }
+
+    private void printCounts(PrintStream out, String heading, int[] counts) {
+        int n = inventory.size();
+        StringBuilder row = new StringBuilder(heading);
+        for (int i = 0; i < n; i++) row.append(',').append(inventory.getPhoneById(i));
+        out.println(row);
+        for (int j = 0; j < n; j++) {
+            row.setLength(0);
+            row.append(inventory.getPhoneById(j));
+            for (int i = 0; i < n; i++) row.append(',').append(counts[j*n+i]);
+            out.println(row);
+        }
+    }
+}
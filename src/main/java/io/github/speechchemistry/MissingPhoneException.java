@@ -0,0 +1,28 @@
+package io.github.speechchemistry;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an inventory file uses a phone that isn't in the feature table (or the master
+ * inventory of a view), e.g. a language inventory loaded with a feature framework that doesn't
+ * cover all of its phones. Other problems reading the tables are plain IOExceptions, so a
+ * caller can skip inventories a framework doesn't cover without hiding real I/O failures.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class MissingPhoneException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String phoneLabel;
+
+    /** Creates the exception for the phone with the given (toneless) IPA label. */
+    public MissingPhoneException(String message, String phoneLabel) {
+        super(message);
+        this.phoneLabel = phoneLabel;
+    }
+
+    /** Gets the IPA label of the missing phone. */
+    public String getPhoneLabel() {
+        return phoneLabel;
+    }
+}
@@ -7,20 +7,42 @@ import java.util.*;
  * Models a phone (segment) that can be represented by a multiple 
  * vectors of features. Multiple (usually 1 or 2) 
  * UniVectorPhone objects are used.
+ * <p>
+ * Phones are immutable (the component list is copied when the object is created) so
+ * they can be shared between threads.
  * @author Tim Kempton
  * @version 0.1
  */
 public class Phone implements Comparable<Phone>{
     /** Phone label in IPA e.g. d */
-    private String label;
+    private final String label;
 
-    /** List of UniVectorPhone objects */
-    private List<UniVectorPhone> comp; // component phone(s); usually just 1
+    /** List of UniVectorPhone objects (read only copy) */
+    private final List<UniVectorPhone> comp; // component phone(s); usually just 1
+
+    /** Hash code, calculated once as the phone can't change. */
+    private final int hash;
+
+    /** Active articulators of all the components as a bitmask (see getArticMask()). */
+    private final int articMask;
+
+    /** Fingerprint of the label and feature values (see getFingerprint()). */
+    private final long fingerprint;
+
+    /** Cache shared by all Phones for averageFeatureDistance(); null means no caching. */
+    private static volatile PhoneDistanceCache distanceCache = new PhoneDistanceCache();
+
+    /** How the components of multi-component phones are matched by averageFeatureDistance();
+      * the system property phonemic.componentAlignment=dp selects dynamic programming. */
+    private static volatile ComponentAlignment componentAlignment = initialComponentAlignment();
  
-    /** Create phone from IPA label and a list of UniVectorPhone objects */
+    /** Create phone from IPA label and a list of UniVectorPhone objects. The list is copied. */
     public Phone(String ipaLabel, List<UniVectorPhone> uVPhoneList) {
         label = ipaLabel;
-        comp = uVPhoneList;
+        comp = Collections.unmodifiableList(new ArrayList<UniVectorPhone>(uVPhoneList));
+        hash = calculateHashCode();
+        articMask = calculateArticMask();
+        fingerprint = calculateFingerprint();
     }
 
     /** Gets the IPA label */
@@ -28,11 +50,39 @@ public class Phone implements Comparable<Phone>{
         return label;
     }
 
-    /** Gets the list of UniVectorPhone objects */
+    /** Gets the (read only) list of UniVectorPhone objects */
     public List<UniVectorPhone> getComponentPhones() {
         return comp;
     }
 
+    /** Gets a 64 bit fingerprint of the label and of every component's label, features and
+      * feature values (in order). Unlike hashCode() it is the same in every Java run, so it can
+      * be stored to find out which phones have changed when the feature files are edited. */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /** FNV-1a hash of the label and components, with separators so fields can't run together */
+    private long calculateFingerprint() {
+        long h = 0xcbf29ce484222325L;
+        h = fnv(h, label);
+        for (UniVectorPhone uVPhone : comp) {
+            h = fnv((h ^ '|') * 0x100000001b3L, uVPhone.getIpaLabel());
+            for (Map.Entry<String,Integer> f : uVPhone.getFeatureMap().entrySet()) {
+                h = fnv((h ^ ';') * 0x100000001b3L, f.getKey());
+                h = (h ^ (f.getValue() & 0xff)) * 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+
+    private static long fnv(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
     /** Produces a standard string representation */
     public String toString() {
         //return "\n"+label+" "+comp;
@@ -41,11 +91,21 @@ public class Phone implements Comparable<Phone>{
 
     /** Produces a string representation for the SRILM factored language model */
     public String toSrilmFlmString(){
-    	String s = "";
+    	StringBuilder s = new StringBuilder();
+    	try {
+    		appendSrilmFlm(s);
+    	} catch (IOException e) { // StringBuilder doesn't throw
+    		throw new AssertionError(e);
+    	}
+    	return s.toString();
+    }
+
+    /** Writes the SRILM factored language model representation (see toSrilmFlmString()). */
+    public void appendSrilmFlm(Appendable out) throws IOException {
     	for(UniVectorPhone u:comp){
-    		s=s+" "+u.toSrilmFlmString();
+    		out.append(' ');
+    		u.appendSrilmFlm(out);
     	}
-    	return s;
     }
     
     /** Produces a string for the -dictionary-align option in SRILM lattice-tool for
@@ -54,9 +114,19 @@ public class Phone implements Comparable<Phone>{
      * e.g. srilm mesh generation, simple. 
      */ 
     public String toFirstElementSrilmDictionaryString(){
-    	String s = label;
-    	s=s+"\t"+comp.get(0).toSrilmDictionaryString();
-    	return s;
+    	StringBuilder s = new StringBuilder();
+    	try {
+    		appendFirstElementSrilmDictionary(s);
+    	} catch (IOException e) { // StringBuilder doesn't throw
+    		throw new AssertionError(e);
+    	}
+    	return s.toString();
+    }
+
+    /** Writes the -dictionary-align representation (see toFirstElementSrilmDictionaryString()). */
+    public void appendFirstElementSrilmDictionary(Appendable out) throws IOException {
+    	out.append(label).append('\t');
+    	comp.get(0).appendSrilmDictionary(out);
     }
     
     /* (non-Javadoc)
@@ -64,6 +134,10 @@ public class Phone implements Comparable<Phone>{
 	 */
 	@Override
 	public int hashCode() {
+		return hash;
+	}
+
+	private int calculateHashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((comp == null) ? 0 : comp.hashCode());
@@ -83,6 +157,8 @@ public class Phone implements Comparable<Phone>{
 		if (getClass() != obj.getClass())
 			return false;
 		Phone other = (Phone) obj;
+		if (hash != other.hash)
+			return false;
 		if (comp == null) {
 			if (other.comp != null)
 				return false;
@@ -118,9 +194,42 @@ public class Phone implements Comparable<Phone>{
         return size;
     }
 
+    /** Gets the active articulators of this phone as a bitmask, using the bits defined in
+      * UniVectorPhone: the union of the components' articulators, with PAL_AREA_BIT added if
+      * any component is -anterior or DORSAL. This is UniVectorPhone.UNKNOWN_ARTIC_MASK if
+      * the feature system doesn't have the articulator features. */
+    public int getArticMask() {
+        return articMask;
+    }
+
+    private int calculateArticMask() {
+        int mask = 0;
+        for(UniVectorPhone uVPhone : comp) {
+            int uVMask = uVPhone.getArticMask();
+            if (uVMask==UniVectorPhone.UNKNOWN_ARTIC_MASK) return UniVectorPhone.UNKNOWN_ARTIC_MASK;
+            mask |= uVMask;
+        }
+        if ((mask & UniVectorPhone.DORSAL_BIT)!=0) mask |= UniVectorPhone.PAL_AREA_BIT;
+        return mask;
+    }
+
     /** Calculate whether this Phone and the other specified Phone have different active articulators.
       * See Kempton(2012) p49 and p59. */
     public boolean hasDifferentArticulators(Phone otherPhone) {
+        int otherMask = otherPhone.articMask;
+        if (articMask!=UniVectorPhone.UNKNOWN_ARTIC_MASK && otherMask!=UniVectorPhone.UNKNOWN_ARTIC_MASK)
+            return differentArticulators(articMask,otherMask);
+        return hasDifferentArticulatorSets(otherPhone); // articulator features missing
+    }
+
+    /** Whether two articulator masks are both non-empty and don't share an articulator. */
+    static boolean differentArticulators(int maskA, int maskB) {
+        return (maskA & maskB)==0 && maskA!=0 && maskB!=0;
+    }
+
+    /** hasDifferentArticulators() calculated from the articulator sets, which is only used
+      * when the articulator mask isn't known. */
+    private boolean hasDifferentArticulatorSets(Phone otherPhone) {
         // get articulator set from this phone
         Set<String> thisArticSet = new HashSet<String>(3);
         for(UniVectorPhone uVPhone : comp) {
@@ -152,42 +261,95 @@ public class Phone implements Comparable<Phone>{
     }
 
     /** Calculates the binary feature edits per phone (BFEPP) measure. See Kempton(2012) p51, p55-58.
-      *  The implementation here for multiple feature vectors has an emphasis on simplicity and speed, so
-      *  dynamic programming is not fully implemented,  but rather an approximation is made.
-      *  For 99% of phones,  the results should be identical (this still needs to be fully verified) */
-    // can be thought of aligning two sequences (with uniform costs - so nothing complicted 
-    // like DP) and then working out which elements 
+      *  For multiple feature vectors the components are aligned as set by setComponentAlignment():
+      *  by default an approximation (a diagonal line through the rectangle of component pairs),
+      *  or by dynamic programming. The two give identical results for phones of one or two
+      *  components, which covers every phone in the bundled inventories (see ComponentAlignmentCli). */
+    // can be thought of aligning two sequences and then working out which elements 
     // are associated with each other to determin the everage distance.
-    // Alignment is like drawing a diaganal line through a rectangle.
+    // Distances are looked up in (and added to) the shared distance cache if there is one.
     public double averageFeatureDistance(Phone otherPhone) {
+        PhoneDistanceCache cache = distanceCache;
+        if (cache == null) return uncachedAverageFeatureDistance(otherPhone);
+        return cache.averageFeatureDistance(this, otherPhone);
+    }
+
+    /** Like averageFeatureDistance(Phone otherPhone) but with the feature weights of a
+      * compiled FeatureWeightProfile. */
+    public double averageFeatureDistance(Phone otherPhone, WeightedPhoneDistance weights) {
+        return weights.averageFeatureDistance(this, otherPhone);
+    }
+
+    /** Gets the distance cache shared by all Phones (null if caching is switched off). */
+    public static PhoneDistanceCache getDistanceCache() {
+        return distanceCache;
+    }
+
+    /** Sets the distance cache shared by all Phones e.g. to change its size or eviction 
+      * policy. Setting null switches caching off. */
+    public static void setDistanceCache(PhoneDistanceCache cache) {
+        distanceCache = cache;
+    }
+
+    /** Gets how the components of multi-component phones are matched (DIAGONAL by default, or
+      * as set by the system property phonemic.componentAlignment e.g. -Dphonemic.componentAlignment=dp). */
+    public static ComponentAlignment getComponentAlignment() {
+        return componentAlignment;
+    }
+
+    /** Sets how the components of multi-component phones are matched by averageFeatureDistance().
+      * This clears the shared distance cache (whose keys include the alignment, so a distance
+      * still being calculated with the old alignment is never returned for the new one). It
+      * should be set before any scoring starts:
+      * a compiled FeatureWeightProfile keeps the alignment set when it was compiled, and a
+      * BatchedBfeppScorer or BfeppResultCache of an unweighted scorer refuses to score (with an
+      * IllegalStateException) once the alignment differs from when it was created. */
+    public static void setComponentAlignment(ComponentAlignment alignment) {
+        componentAlignment = alignment;
+        PhoneDistanceCache cache = distanceCache;
+        if (cache != null) cache.clear();
+    }
+
+    /** Reads the system property phonemic.componentAlignment. */
+    private static ComponentAlignment initialComponentAlignment() {
+        String name = System.getProperty("phonemic.componentAlignment");
+        if (name == null) return ComponentAlignment.DIAGONAL;
+        try {
+            return ComponentAlignment.fromName(name);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Warning: "+e.getMessage()+"; using diagonal");
+            return ComponentAlignment.DIAGONAL;
+        }
+    }
+
+    /** Calculates averageFeatureDistance() without using the distance cache. */
+    double uncachedAverageFeatureDistance(Phone otherPhone) {
+        return averageFeatureDistance(otherPhone, componentAlignment);
+    }
+
+    /** Calculates averageFeatureDistance() with the given component alignment, without using
+      * the distance cache (so it is slower). */
+    public double averageFeatureDistance(Phone otherPhone, ComponentAlignment alignment) {
         List<UniVectorPhone> otherComp = otherPhone.getComponentPhones();
         int thisSize = comp.size(); // x axis length
         int otherSize = otherComp.size(); // y axis length 
-        double m = (1.0*otherSize)/thisSize; // gradiant of line
-        int dblFeatDiff = 0; //running total of 2x feature difference
-        int calcCount = 0; //count of distances calculated (poss could be calc'd directly)
-        UniVectorPhone thisUVPhone = null;
-        UniVectorPhone otherUVPhone = null;
+        if (thisSize==1 && otherSize==1) return 0.5*comp.get(0).doubleFeatureDiff(otherComp.get(0));
+        if (alignment==ComponentAlignment.DIAGONAL) { // the cells don't depend on the differences, so only they are needed
+            int[] cells = alignment.align(thisSize,otherSize,null);
+            int total = 0;
+            for(int cell : cells) total += comp.get(cell/otherSize).doubleFeatureDiff(otherComp.get(cell%otherSize));
+            return (0.5*total)/cells.length;
+        }
+        double[] dblFeatDiff = new double[thisSize*otherSize]; // 2x feature difference of each pair of components
         for(int i=0;i<thisSize;i++) {
             for(int j=0;j<otherSize;j++) {
-                if (isOverlappingInterval(j,j+1,i*m,(i+1)*m)) { // if line goes through cell
-                    thisUVPhone = comp.get(i);
-                    otherUVPhone = otherComp.get(j);
-                    //System.out.print(" "+thisUVPhone+" and "+otherUVPhone);
-                    dblFeatDiff += thisUVPhone.doubleFeatureDiff(otherUVPhone);
-                    //System.out.println(" dist="+(0.5*thisUVPhone.doubleFeatureDiff(otherUVPhone)));
-                    calcCount++;
-                }
+                dblFeatDiff[i*otherSize+j] = comp.get(i).doubleFeatureDiff(otherComp.get(j));
             }
-        } 
-        //System.out.print(this+" and "+otherPhone);
-        //System.out.println(" average dist="+((0.5*dblFeatDiff)/calcCount));
-        return (0.5*dblFeatDiff)/calcCount;
-    }
-
-    /** Check to see whether interval 1 overlaps with interval 2 */
-    private boolean isOverlappingInterval(double s1,double e1,double s2,double e2) {
-        return (s2 < e1) && (s1 < e2);
+        }
+        int[] cells = alignment.align(thisSize,otherSize,dblFeatDiff);
+        int total = 0; //running total of 2x feature difference
+        for(int cell : cells) total += (int) dblFeatDiff[cell];
+        return (0.5*total)/cells.length;
     }
 
     /** Check to see if all components of this phone are between all 
@@ -265,6 +427,7 @@ public class Phone implements Comparable<Phone>{
         System.out.println(out.getEncoding());
         System.out.println(phB.toSrilmFlmString());
         System.out.println(phB.toFirstElementSrilmDictionaryString());
+        System.out.println(getDistanceCache());
         System.out.println("The above output is for demonstration and test purposes only and can be ignored.");
         System.out.println("See the javadoc or source code API on how to use this class in other java programs.");
     }
@@ -0,0 +1,122 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Prints a phone relationship chart (similarity, minDistance or articulator) of an inventory,
+ * keeping the charts in a cache file so that when the feature files are edited only the phones
+ * whose features changed are recomputed (see PhoneRelationshipCharts). With a word corpus
+ * the counts of minimal pairs (minimalPairs) or near-minimal pairs (nearMinimalPairs) of each
+ * pair of phones can be printed in the same format, as evidence for or against the allophones
+ * that the other charts suggest (see MinimalPairIndex). The complementaryDistribution chart
+ * is counted from a corpus of utterances, which is streamed so it can be larger than memory
+ * (see PhoneContextCounts).
+ * <p>
+ * Example: java -cp myfeatures:phonemic-analysis-0.6.jar io.github.speechchemistry.PhoneChartsCli
+ * -f hayes -i /hau/hausa_components_utf8nfc.tsv -F /my_override_features_utf8nfc.tsv
+ * --cache hausa.charts similarity
+ * <p>
+ * The feature files are resources, so a folder of edited feature files can be put in front of
+ * the jar on the classpath. The phones that changed since the cache was written are listed
+ * on standard error.
+ * <p>
+ * Example: java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.PhoneChartsCli
+ * -f hayes -i /hau/hausa_components_utf8nfc.tsv --corpus hausa_words.txt minimalPairs
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "PhoneChartsCli", version = "PhoneChartsCli 0.1", mixinStandardHelpOptions = true)
+public class PhoneChartsCli implements Callable<Integer> {
+    @Parameters(paramLabel = "chart", description = "Chart to print: similarity, minDistance, articulator, minimalPairs, nearMinimalPairs or complementaryDistribution")
+    String chart;
+    @Option(names = { "-f", "--feature-framework" }, defaultValue = "hayes", description = "Feature framework: hayes (default) or phoible")
+    String feature_framework = "hayes";
+    @Option(names = { "-i", "--inventory" }, description = "Phone inventory resource (default: every phone in the feature framework)")
+    String inventory;
+    @Option(names = { "-F", "--feature-file" }, description = "Extra feature file resource overriding the framework's features (can be repeated, later files have priority)")
+    List<String> extraFeatureFiles = new ArrayList<String>();
+    @Option(names = { "--cache" }, description = "Chart cache file, created if it doesn't exist and patched in place when phones change")
+    File cacheFile;
+    @Option(names = { "--corpus" }, description = "Corpus for the minimal pair and complementary distribution charts, one word or utterance per line with spaces in between phones (UTF-8)")
+    File corpusFile;
+    @Option(names = { "-j", "--threads" }, description = "Number of worker threads for the corpus charts (default: number of processors)")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        boolean pairChart = chart.equalsIgnoreCase("minimalPairs") || chart.equalsIgnoreCase("nearMinimalPairs");
+        boolean distributionChart = chart.equalsIgnoreCase("complementaryDistribution");
+        if (!pairChart && !distributionChart && !chart.equalsIgnoreCase("similarity")
+                && !chart.equalsIgnoreCase("minDistance") && !chart.equalsIgnoreCase("articulator"))
+            throw new CommandLine.ParameterException(new CommandLine(this), "Unknown chart: "+chart);
+        if ((pairChart || distributionChart) && corpusFile == null)
+            throw new CommandLine.ParameterException(new CommandLine(this), "The "+chart+" chart needs a --corpus");
+        FeatureFramework framework = FeatureFramework.fromName(feature_framework);
+        List<String> featureFiles = new ArrayList<String>(framework.getFeatureFilenames());
+        featureFiles.addAll(extraFeatureFiles);
+        PhoneInventory phInv = new PhoneInventory(inventory == null ? framework.getPhoneListFilename() : inventory, featureFiles);
+        if (chart.equalsIgnoreCase("articulator")) {
+            phInv.printArticulatorTruth();
+            return 0;
+        }
+        if (pairChart) {
+            boolean near = chart.equalsIgnoreCase("nearMinimalPairs");
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                MinimalPairIndex index = new MinimalPairIndex(MinimalPairCli.readWords(corpusFile), phInv, near ? 2 : 1, pool);
+                if (near) index.printNearMinimalPairCounts(System.out);
+                else index.printMinimalPairCounts(System.out);
+            } finally {
+                pool.shutdown();
+            }
+            return 0;
+        }
+        if (distributionChart) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(corpusFile), StandardCharsets.UTF_8));
+            try {
+                PhoneContextCounts.count(in, phInv, executor, threads).printComplementaryDistribution(System.out);
+            } finally {
+                in.close();
+                executor.shutdown();
+            }
+            return 0;
+        }
+        PhoneRelationshipCharts charts;
+        if (cacheFile == null) {
+            charts = new PhoneRelationshipCharts(phInv);
+        } else {
+            boolean existed = cacheFile.exists();
+            charts = PhoneRelationshipCharts.updateFile(cacheFile, phInv);
+            if (existed) {
+                Set<String> changed = charts.getChangedPhoneLabels();
+                System.err.println("Recomputed "+changed.size()+" changed phones: "+changed);
+            }
+        }
+        if (chart.equalsIgnoreCase("similarity")) charts.printSimilarity(System.out);
+        else charts.printMinDistance(System.out);
+        return 0;
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new PhoneChartsCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,268 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Counts the left and right contexts (the neighbouring phone, or the utterance boundary) of
+ * every phone of an inventory over a phone transcribed corpus, for the complementary
+ * distribution chart. Allophones of a phoneme tend to be in complementary distribution: they
+ * occur in different contexts (Kempton 2012), whereas the other phone relationship charts only
+ * use the phone inventory.
+ * <p>
+ * Only the counts are kept, so corpora much larger than memory can be counted by streaming
+ * them through count(). The corpus is read in chunks of lines which are counted in parallel,
+ * each thread adding to its own count table, and the tables are merged at the end. The context
+ * counts are kept in hash tables of the (phone, context) pairs that actually occur, so a table
+ * for a large inventory (e.g. the full PHOIBLE inventory) stays small when the corpus only
+ * uses a few of its phones.
+ * <p>
+ * The corpus has one utterance per line with spaces in between phones (the same format as the
+ * PhoneUtterance constructor). Lines are normalized to NFC and blank lines are skipped.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class PhoneContextCounts {
+    /** Number of corpus lines given to each task. */
+    public static final int DEFAULT_CHUNK_LINES = 1024;
+
+    private final PhoneInventory inventory;
+    /** Number of phones; context n is the utterance boundary. */
+    private final int n;
+    /** phone*(n+1)+context = number of times the phone follows the context. */
+    private final PairCounts leftCounts;
+    /** phone*(n+1)+context = number of times the phone is followed by the context. */
+    private final PairCounts rightCounts;
+    /** [phone] = number of times the phone occurs. */
+    private final long[] phoneCounts;
+
+    /** Creates empty counts for the phones of an inventory. */
+    public PhoneContextCounts(PhoneInventory inventory) {
+        this.inventory = inventory;
+        this.n = inventory.size();
+        leftCounts = new PairCounts();
+        rightCounts = new PairCounts();
+        phoneCounts = new long[n];
+    }
+
+    /** Gets the phone inventory that the phones are from. */
+    public PhoneInventory getInventory() {
+        return inventory;
+    }
+
+    /** Adds the contexts of an utterance (phones separated by spaces). Blank lines are skipped. */
+    public void addUtterance(String utterWithSpaces) {
+        String nfcLine = Normalizer.normalize(utterWithSpaces, Normalizer.Form.NFC).trim();
+        if (nfcLine.isEmpty()) return;
+        String[] labels = nfcLine.split(" ");
+        int[] ids = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) ids[i] = inventory.getPhoneId(labels[i]);
+        addUtterance(ids);
+    }
+
+    /** Adds the contexts of an utterance given as phone ids of the inventory. */
+    public void addUtterance(int[] ids) {
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            int left = (i == 0) ? n : ids[i-1];
+            int right = (i == ids.length-1) ? n : ids[i+1];
+            leftCounts.increment(id*(n+1)+left);
+            rightCounts.increment(id*(n+1)+right);
+            phoneCounts[id]++;
+        }
+    }
+
+    /** Adds the counts of another set of counts for the same inventory. */
+    public void merge(PhoneContextCounts other) {
+        if (other.inventory != inventory && !other.inventory.getPhoneList().equals(inventory.getPhoneList()))
+            throw new IllegalArgumentException("Can't merge counts of different phone inventories");
+        leftCounts.addAll(other.leftCounts);
+        rightCounts.addAll(other.rightCounts);
+        for (int k = 0; k < n; k++) phoneCounts[k] += other.phoneCounts[k];
+    }
+
+    /** Gets the number of times the phone with the given id occurs. */
+    public long getPhoneCount(int id) {
+        return phoneCounts[id];
+    }
+
+    /** Gets the number of times phone id follows the context phone id (-1 for the utterance boundary). */
+    public long getLeftContextCount(int id, int contextId) {
+        return leftCounts.get(id*(n+1)+(contextId < 0 ? n : contextId));
+    }
+
+    /** Gets the number of times phone id is followed by the context phone id (-1 for the utterance boundary). */
+    public long getRightContextCount(int id, int contextId) {
+        return rightCounts.get(id*(n+1)+(contextId < 0 ? n : contextId));
+    }
+
+    /** Reads a whole corpus and counts it with the given number of threads of the executor.
+      * At most twice as many chunks as there are threads are held in memory at once. */
+    public static PhoneContextCounts count(BufferedReader corpus, PhoneInventory inventory, ExecutorService executor,
+            int threads) throws IOException, InterruptedException {
+        return count(corpus, inventory, executor, threads, DEFAULT_CHUNK_LINES);
+    }
+
+    /** Like count(corpus, inventory, executor, threads) with the given number of lines in each chunk. */
+    public static PhoneContextCounts count(BufferedReader corpus, PhoneInventory inventory, ExecutorService executor,
+            int threads, int chunkLines) throws IOException, InterruptedException {
+        threads = Math.max(1, threads);
+        // one count table per thread; a task takes a free table and gives it back when it's done
+        List<PhoneContextCounts> tables = new ArrayList<PhoneContextCounts>(threads);
+        BlockingQueue<PhoneContextCounts> free = new ArrayBlockingQueue<PhoneContextCounts>(threads);
+        for (int t = 0; t < threads; t++) {
+            PhoneContextCounts table = new PhoneContextCounts(inventory);
+            tables.add(table);
+            free.add(table);
+        }
+        ChunkedLineRunner.run(corpus, chunkLines, executor, threads, chunkTask(free), null);
+        PhoneContextCounts total = tables.get(0);
+        for (int t = 1; t < tables.size(); t++) total.merge(tables.get(t));
+        return total;
+    }
+
+    /** Creates the task that counts a chunk of lines into one of the free tables. */
+    private static ChunkedLineRunner.ChunkTask<Void> chunkTask(final BlockingQueue<PhoneContextCounts> free) {
+        return new ChunkedLineRunner.ChunkTask<Void>() {
+            public Void process(List<String> lines, int firstLineNumber) throws InterruptedException {
+                PhoneContextCounts table = free.take();
+                try {
+                    int lineNumber = firstLineNumber;
+                    for (String line : lines) {
+                        try {
+                            table.addUtterance(line);
+                        } catch (RuntimeException e) {
+                            throw new RuntimeException("Line "+lineNumber+": "+e.getMessage(), e);
+                        }
+                        lineNumber++;
+                    }
+                } finally {
+                    free.put(table);
+                }
+                return null;
+            }
+        };
+    }
+
+    /** Calculates how complementary the distributions of two phones are: 1 minus the
+      * Bhattacharyya coefficient of their context distributions, where the contexts are the
+      * left and right neighbours (including the boundary). This is 1 when the phones never
+      * share a context and 0 when they occur in the same proportions of every context, so as
+      * in the other charts a higher number means the phones are more likely to be allophones.
+      * It is NaN if either phone doesn't occur in the corpus. */
+    public double complementarity(int idA, int idB) {
+        if (phoneCounts[idA] == 0 || phoneCounts[idB] == 0) return Double.NaN;
+        return complementarity(idA, idB, contextRoot(idA), contextRoot(idB));
+    }
+
+    private double complementarity(int idA, int idB, double[] rootA, double[] rootB) {
+        double sum = 0;
+        for (int k = 0; k < rootA.length; k++) sum += rootA[k]*rootB[k];
+        // each occurrence has a left and a right context
+        double coefficient = sum/(2*Math.sqrt((double) phoneCounts[idA]*phoneCounts[idB]));
+        return Math.max(0, 1-coefficient);
+    }
+
+    /** The square roots of the left then right context counts of a phone. */
+    private double[] contextRoot(int id) {
+        double[] root = new double[2*(n+1)];
+        for (int c = 0; c <= n; c++) {
+            root[c] = Math.sqrt(leftCounts.get(id*(n+1)+c));
+            root[n+1+c] = Math.sqrt(rightCounts.get(id*(n+1)+c));
+        }
+        return root;
+    }
+
+    /** Prints the complementary distribution chart (see complementarity()) in the same CSV
+      * format as the other phone relationship charts, e.g. PhoneRelationshipCharts.printSimilarity(). */
+    public void printComplementaryDistribution(PrintStream out) {
+        double[][] roots = new double[n][];
+        for (int id = 0; id < n; id++) {
+            if (phoneCounts[id] > 0) roots[id] = contextRoot(id);
+        }
+        StringBuilder row = new StringBuilder("complementaryDistribution");
+        for (int i = 0; i < n; i++) row.append(',').append(inventory.getPhoneById(i));
+        out.println(row);
+        for (int j = 0; j < n; j++) {
+            row.setLength(0);
+            row.append(inventory.getPhoneById(j));
+            for (int i = 0; i < n; i++) {
+                row.append(',').append((roots[i] == null || roots[j] == null) ? Double.NaN
+                        : complementarity(j, i, roots[j], roots[i]));
+            }
+            out.println(row);
+        }
+    }
+
+    /** Counts of (phone, context) pairs, keyed by phone*(n+1)+context: an open addressing hash
+      * table holding only the pairs that have been counted. Not thread safe. */
+    private static final class PairCounts {
+        private int[] keys = newKeys(64); // -1 for an empty slot
+        private long[] counts = new long[64];
+        private int size;
+
+        private static int[] newKeys(int capacity) {
+            int[] k = new int[capacity];
+            Arrays.fill(k, -1);
+            return k;
+        }
+
+        /** The slot of a key, or the empty slot where it would go. */
+        private int slot(int key) {
+            int mask = keys.length-1;
+            int s = (key*0x9E3779B9 >>> 7) & mask; // spread neighbouring keys
+            while (keys[s] != -1 && keys[s] != key) s = (s+1) & mask;
+            return s;
+        }
+
+        long get(int key) {
+            int s = slot(key);
+            return (keys[s] == key) ? counts[s] : 0;
+        }
+
+        void increment(int key) {
+            add(key, 1);
+        }
+
+        void add(int key, long count) {
+            int s = slot(key);
+            if (keys[s] != key) {
+                if (2*(size+1) > keys.length) {
+                    grow();
+                    s = slot(key);
+                }
+                keys[s] = key;
+                size++;
+            }
+            counts[s] += count;
+        }
+
+        void addAll(PairCounts other) {
+            for (int s = 0; s < other.keys.length; s++) {
+                if (other.keys[s] != -1) add(other.keys[s], other.counts[s]);
+            }
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            long[] oldCounts = counts;
+            keys = newKeys(2*oldKeys.length);
+            counts = new long[2*oldKeys.length];
+            for (int s = 0; s < oldKeys.length; s++) {
+                if (oldKeys[s] != -1) {
+                    int t = slot(oldKeys[s]);
+                    keys[t] = oldKeys[s];
+                    counts[t] = oldCounts[s];
+                }
+            }
+        }
+    }
+}
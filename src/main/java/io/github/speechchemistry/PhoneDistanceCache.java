@@ -0,0 +1,152 @@
+package io.github.speechchemistry;
+
+/**
+ * A thread-safe, size-bounded cache of Phone to Phone average feature distances
+ * (see Phone.averageFeatureDistance()). The set of phones is open ended (tones,
+ * user defined component phones, phones from several inventories) so rather than a
+ * fixed precomputed matrix, distances are cached as they are calculated. Keys use
+ * the Phone's identity as a value i.e. IPA label plus component phones, so equal
+ * phones loaded in different inventories share entries. The component alignment (see
+ * Phone.setComponentAlignment()) is part of the key too, so a distance calculated with one
+ * alignment is never returned for another, even if it is added after the alignment changed.
+ * <p>
+ * The cache is a StripedCache: it is split into stripes, each with its own lock, so that
+ * parallel scoring threads rarely wait for each other. Each stripe evicts its own entries according to
+ * the eviction policy once it is full. Hit and miss counts are kept so that the size
+ * can be tuned.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class PhoneDistanceCache {
+
+    /** What to remove when the cache is full. */
+    public enum EvictionPolicy {
+        /** Remove the least recently used distance. */
+        LRU,
+        /** Remove the oldest distance (first in first out); lookups are slightly cheaper than LRU. */
+        FIFO
+    }
+
+    /** Default maximum number of cached distances (enough for every pair of phones in the hayes framework). */
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 17;
+
+    /** Maximum number of cached distances. */
+    private final int maxEntries;
+
+    /** The eviction policy. */
+    private final EvictionPolicy policy;
+
+    /** The cached distances. */
+    private final StripedCache<PhonePair,Double> entries;
+
+    /** Creates a cache with the default size, LRU eviction and a number of stripes suited to the number of processors. */
+    public PhoneDistanceCache() {
+        this(DEFAULT_MAX_ENTRIES, EvictionPolicy.LRU);
+    }
+
+    /** Creates a cache with a number of stripes suited to the number of processors. */
+    public PhoneDistanceCache(int maxEntries, EvictionPolicy policy) {
+        this(maxEntries, policy, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Creates a cache holding at most maxEntries distances split into (at least) the given number of stripes. */
+    public PhoneDistanceCache(int maxEntries, EvictionPolicy policy, int stripeCount) {
+        this.maxEntries = maxEntries;
+        this.policy = policy;
+        entries = new StripedCache<PhonePair,Double>(maxEntries, policy, stripeCount);
+    }
+
+    /** Gets the distance with the current component alignment (Phone.getComponentAlignment())
+      * from the cache, calculating it (and adding it) if it isn't there. */
+    public double averageFeatureDistance(Phone phone, Phone otherPhone) {
+        return averageFeatureDistance(phone, otherPhone, Phone.getComponentAlignment());
+    }
+
+    /** Gets the distance with the given component alignment from the cache, calculating it (and
+      * adding it) if it isn't there. */
+    public double averageFeatureDistance(Phone phone, Phone otherPhone, ComponentAlignment alignment) {
+        PhonePair key = new PhonePair(phone, otherPhone, alignment);
+        Double cached = entries.get(key);
+        if (cached != null) return cached;
+        // calculated outside the lock; two threads may occasionally both calculate the same distance
+        double dist = phone.averageFeatureDistance(otherPhone, alignment);
+        entries.put(key, dist);
+        return dist;
+    }
+
+    /** Gets the maximum number of cached distances. */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /** Gets the eviction policy. */
+    public EvictionPolicy getEvictionPolicy() {
+        return policy;
+    }
+
+    /** Gets the number of cached distances. */
+    public int size() {
+        return entries.size();
+    }
+
+    /** Gets the number of lookups that found a cached distance. */
+    public long getHitCount() {
+        return entries.getHitCount();
+    }
+
+    /** Gets the number of lookups that had to calculate the distance. */
+    public long getMissCount() {
+        return entries.getMissCount();
+    }
+
+    /** Gets the number of distances removed to make space. */
+    public long getEvictionCount() {
+        return entries.getEvictionCount();
+    }
+
+    /** Gets the proportion of lookups that found a cached distance (0 if there have been no lookups). */
+    public double getHitRate() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return (total == 0) ? 0 : (1.0 * hits) / total;
+    }
+
+    /** Removes all distances and resets the statistics. */
+    public void clear() {
+        entries.clear();
+    }
+
+    /** Produces a summary of the statistics. */
+    public String toString() {
+        return "PhoneDistanceCache [size=" + size() + "/" + maxEntries + ", policy=" + policy
+                + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + ", hitRate=" + getHitRate() + "]";
+    }
+
+    /** Ordered pair of phones and the component alignment, used as the key. */
+    private static final class PhonePair {
+        private final Phone a;
+        private final Phone b;
+        private final ComponentAlignment alignment;
+        private final int hash;
+
+        PhonePair(Phone a, Phone b, ComponentAlignment alignment) {
+            this.a = a;
+            this.b = b;
+            this.alignment = alignment;
+            this.hash = 31 * (31 * a.hashCode() + b.hashCode()) + alignment.ordinal();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PhonePair)) return false;
+            PhonePair other = (PhonePair) obj;
+            return hash == other.hash && alignment == other.alignment && a.equals(other.a) && b.equals(other.b);
+        }
+    }
+}
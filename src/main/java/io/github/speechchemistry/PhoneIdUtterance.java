@@ -0,0 +1,219 @@
+package io.github.speechchemistry;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A compact, immutable phone utterance stored as an array of phone ids from a
+ * PhoneInventory (see PhoneInventory.getPhoneId()). This uses far less memory than a
+ * PhoneUtterance when millions of utterances are held for batch scoring and
+ * equality, hashing and serialization work directly on the id array.
+ * <p>
+ * The utterance can still be viewed as a list of Phones with getPhoneList().
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public final class PhoneIdUtterance {
+    /** The phone inventory that the ids refer to. */
+    private final PhoneInventory inventory;
+    /** The phone ids of the utterance. */
+    private final int[] ids;
+    /** Cached hash code (0 means not calculated yet). */
+    private int hash;
+
+    /** Creates a PhoneIdUtterance given a string of phones (with spaces in between phones) and the phone inventory. */
+    public PhoneIdUtterance(String utterWithSpaces, PhoneInventory inventory) {
+        this.inventory = inventory;
+        String[] utterArray = utterWithSpaces.split(" ");
+        ids = new int[utterArray.length];
+        for (int i=0;i<utterArray.length;i++) {
+            ids[i] = inventory.getPhoneId(utterArray[i]);
+        }
+    }
+
+    /** Creates a PhoneIdUtterance from an existing PhoneUtterance (using the same phone inventory). */
+    public PhoneIdUtterance(PhoneUtterance utterance) {
+        this.inventory = utterance.getInventory();
+        List<Phone> phList = utterance.getPhoneList();
+        ids = new int[phList.size()];
+        int i=0;
+        for (Phone ph:phList) {
+            ids[i++] = inventory.getPhoneId(ph);
+        }
+    }
+
+    /** Creates a PhoneIdUtterance from an array of phone ids (the array is copied). */
+    public PhoneIdUtterance(int[] phoneIds, PhoneInventory inventory) {
+        this(inventory, phoneIds.clone());
+    }
+
+    /** Takes ownership of the array without copying; ids are checked. */
+    private PhoneIdUtterance(PhoneInventory inventory, int[] ownedIds) {
+        this.inventory = inventory;
+        int n = inventory.size();
+        for (int id:ownedIds) {
+            if (id<0 || id>=n)
+                throw new IllegalArgumentException("Phone id "+id+" not in phone inventory of size "+n);
+        }
+        this.ids = ownedIds;
+    }
+
+    /** Gets the phone inventory that the ids refer to. */
+    public PhoneInventory getInventory() {
+        return inventory;
+    }
+
+    /** Gets the number of phones in the utterance. */
+    public int length() {
+        return ids.length;
+    }
+
+    /** Gets the phone id at a position in the utterance. */
+    public int getPhoneId(int index) {
+        return ids[index];
+    }
+
+    /** Gets a copy of the phone ids. */
+    public int[] toIdArray() {
+        return ids.clone();
+    }
+
+    /** Gets the utterance as a read only list of Phones (a view, no copy is made). */
+    public List<Phone> getPhoneList() {
+        return new PhoneListView();
+    }
+
+    /** Converts this to a PhoneUtterance. */
+    public PhoneUtterance toPhoneUtterance() {
+        return new PhoneUtterance(getPhoneList(), inventory);
+    }
+
+    /** Calculates the difference matrix between this utterance and the other one that is
+      * provided, giving the same result as PhoneUtterance.differenceMatrix(). */
+    public double[][] differenceMatrix(PhoneIdUtterance other) {
+        int r=ids.length;
+        int c=other.ids.length;
+        Phone[] otherPhones = new Phone[c];
+        for (int j=0;j<c;j++) otherPhones[j] = other.inventory.getPhoneById(other.ids[j]);
+        double[][] out = new double[r][c];
+        for (int i=0;i<r;i++) {
+            Phone iPh = inventory.getPhoneById(ids[i]);
+            for (int j=0;j<c;j++) {
+                out[i][j]=otherPhones[j].averageFeatureDistance(iPh);
+            }
+        }
+        return out;
+    }
+
+    /** Like differenceMatrix() but the distances are calculated when needed instead of
+      * being stored, for use with DanEllisDtw.totalCost() and HirschbergDtw. */
+    public DtwCostFunction differenceFunction(PhoneIdUtterance other) {
+        final Phone[] thisPhones = getPhoneList().toArray(new Phone[ids.length]);
+        final Phone[] otherPhones = other.getPhoneList().toArray(new Phone[other.ids.length]);
+        return new DtwCostFunction() {
+            public double cost(int i, int j) {
+                return otherPhones[j].averageFeatureDistance(thisPhones[i]);
+            }
+        };
+    }
+
+    /** Like differenceMatrix(PhoneIdUtterance other) but with the feature weights of a
+      * compiled FeatureWeightProfile. */
+    public double[][] differenceMatrix(PhoneIdUtterance other, WeightedPhoneDistance weights) {
+        DtwCostFunction f = differenceFunction(other, weights);
+        double[][] out = new double[ids.length][other.ids.length];
+        for (int i=0;i<ids.length;i++) {
+            for (int j=0;j<other.ids.length;j++) {
+                out[i][j]=f.cost(i,j);
+            }
+        }
+        return out;
+    }
+
+    /** Like differenceFunction(PhoneIdUtterance other) but with the feature weights of a
+      * compiled FeatureWeightProfile. If both utterances use the inventory that the weights
+      * were compiled for, the distances are looked up directly by phone id. */
+    public DtwCostFunction differenceFunction(PhoneIdUtterance other, final WeightedPhoneDistance weights) {
+        if (inventory==weights.getInventory() && other.inventory==weights.getInventory()) {
+            final int[] thisIds = ids;
+            final int[] otherIds = other.ids;
+            return new DtwCostFunction() {
+                public double cost(int i, int j) {
+                    return weights.averageFeatureDistance(otherIds[j],thisIds[i]);
+                }
+            };
+        }
+        final Phone[] thisPhones = getPhoneList().toArray(new Phone[ids.length]);
+        final Phone[] otherPhones = other.getPhoneList().toArray(new Phone[other.ids.length]);
+        return new DtwCostFunction() {
+            public double cost(int i, int j) {
+                return weights.averageFeatureDistance(otherPhones[j],thisPhones[i]);
+            }
+        };
+    }
+
+    /** Returns a transliteration based on the supplied table; see TransliterationTable. */
+    public PhoneIdUtterance transliterate(TransliterationTable table) {
+        return new PhoneIdUtterance(table.getTargetInventory(), table.closestIds(inventory, ids));
+    }
+
+    /** Writes the utterance as the number of phones followed by each phone id. */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(ids.length);
+        for (int id:ids) out.writeInt(id);
+    }
+
+    /** Reads an utterance written by writeTo(); the ids refer to the given phone inventory. */
+    public static PhoneIdUtterance readFrom(DataInput in, PhoneInventory inventory) throws IOException {
+        int n = in.readInt();
+        if (n<0) throw new IOException("Negative utterance length "+n);
+        int[] readIds = new int[n];
+        for (int i=0;i<n;i++) readIds[i] = in.readInt();
+        return new PhoneIdUtterance(inventory, readIds);
+    }
+
+    /** Two utterances are equal if they have the same ids from the same phone inventory object. */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof PhoneIdUtterance))
+            return false;
+        PhoneIdUtterance other = (PhoneIdUtterance) obj;
+        return inventory == other.inventory && Arrays.equals(ids, other.ids);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = Arrays.hashCode(ids);
+            hash = h;
+        }
+        return h;
+    }
+
+    /** Produces the same string representation as PhoneUtterance. */
+    @Override
+    public String toString() {
+        return "utterance=" + getPhoneList();
+    }
+
+    /** Read only list view of the phones. */
+    private class PhoneListView extends AbstractList<Phone> implements RandomAccess {
+        @Override
+        public Phone get(int index) {
+            return inventory.getPhoneById(ids[index]);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package io.github.speechchemistry;
 
 import java.io.*;
 import java.util.*;
+import java.util.zip.CRC32;
 
 /** 
  * Models a phone inventory of a human language. 
@@ -9,98 +10,348 @@ import java.util.*;
  * <p>
  * Warning: does not perform unicode normalization on input files, files needs to be 
  * normalized first e.g.to NFC form (canonical composition) e.g. using Babelpad.
+ * <p>
+ * A language inventory can also be made as a view of a master inventory, e.g. the full
+ * inventory of a feature framework (see view()). The view keeps the master's Phone objects
+ * rather than parsing the feature files again, so it costs little more than its list of
+ * master ids, and distances cached for the master's phones are shared.
+ * <p>
+ * Thread safety: a PhoneInventory (and the Phones and UniVectorPhones in it) can't be
+ * changed once it has been created, so one inventory can be shared by any number of
+ * threads without locking. Methods that return collections return read only views or
+ * new copies.
  * @author Tim Kempton
  * @version 0.1
  */
 public class PhoneInventory {
 
-    /** Set of Phones. */
-    private Set<Phone> pSet;
+    /** Set of Phones (read only). */
+    private final Set<Phone> pSet;
+
+    /** Phones indexed by their dense phone id (0 to size-1, in the same order as the Phone set). */
+    private final Phone[] phoneById;
+
+    /** Key = IPA label, value = phone id. If two phones share a label the first one is used. */
+    private final Map<String,Integer> idByLabel;
+
+    /** For each phone id, a bitset of the phone ids that have different active articulators
+      * (bit id%64 of word id/64, as in BitSet.toLongArray()). Null if the feature system doesn't
+      * have the articulator features. */
+    private final long[][] differentArticById;
+
+    /** The inventory this is a view of, or null if it isn't a view. */
+    private final PhoneInventory master;
+
+    /** For a view, the master id of each phone (-1 for a phone that isn't in the master). */
+    private final int[] masterIds;
 
-    /** Creates a PhoneInventory given the inventory file (.tsv) and the list of feature files (.tsv). */
+    /** Creates a PhoneInventory given the inventory file (.tsv) and the list of feature files (.tsv).
+      * Each file can be a classpath resource, a filesystem path or a URI (see TsvReader.open()) and
+      * is read as UTF-8. Every phone and component phone in the inventory must be in the feature files. */
     public PhoneInventory(String inventoryTsvFilename, List<String> featureTsvFilenameList) throws IOException {
-        // load Tsv file into rMap: key = phone name, value = feature values as one long string
-        String thisLine = null;
-        String [] thisLineArray = null;
-        Map<String,String> rMap = new LinkedHashMap<String,String>();
-        String featureNames = null;
-        boolean isFirstFile = true;
+        // load the feature files into rMap: key = phone name, value = feature values in the order of featureNames
+        Map<String,int[]> rMap = new HashMap<String,int[]>();
+        String[] featureNames = null;
         for(String featureTsvFilename : featureTsvFilenameList) {
-            //System.out.println("Constructor: looking at feature file: "+featureTsvFilename);
-            //I've changed the bit below to read from a resource rather than any old file (I think this helps
-            // with relative paths))
-            BufferedReader tableFile = new BufferedReader(new InputStreamReader(PhoneInventory.class.getResourceAsStream(featureTsvFilename)));
-            boolean isFirstLine = true;
-            while ((thisLine = tableFile.readLine()) != null) {
-                thisLineArray = thisLine.split("\t",2); // split line into two
-                if (isFirstLine && isFirstFile) {
-                    featureNames = thisLineArray[1];
-                } else if (isFirstLine && !isFirstFile) {
-                    if (!featureNames.equals(thisLineArray[1])) {
-                        throw new RuntimeException("Different feature headings in file "+featureTsvFilename);
-                    } // else do nothing for this first line i.e. ignore feature headings
-                } else if (thisLineArray.length > 1) {
-                    rMap.put(thisLineArray[0],thisLineArray[1]);
+            TsvReader tableFile = TsvReader.open(featureTsvFilename);
+            try {
+                if (!tableFile.next() || tableFile.size() < 2)
+                    throw tableFile.error("expected a heading line of phone and feature names");
+                if (featureNames == null) {
+                    featureNames = new String[tableFile.size()-1];
+                    for (int i=0;i<featureNames.length;i++) featureNames[i] = tableFile.get(i+1);
+                } else { // the headings of later files must be the same
+                    boolean same = (tableFile.size()-1 == featureNames.length);
+                    for (int i=0;same && i<featureNames.length;i++) same = tableFile.fieldEquals(i+1,featureNames[i]);
+                    if (!same) throw tableFile.error("different feature headings to "+featureTsvFilenameList.get(0));
                 }
-                isFirstLine = false;
+                while (tableFile.next()) {
+                    if (tableFile.size() < 2) continue; // blank line, or a phone without any features
+                    if (tableFile.size()-1 != featureNames.length)
+                        throw tableFile.error((tableFile.size()-1)+" feature values but there are "+featureNames.length+" features");
+                    int[] values = new int[featureNames.length];
+                    for (int i=0;i<values.length;i++) values[i] = tableFile.getInt(i+1);
+                    rMap.put(tableFile.get(0),values); // later files override earlier ones
+                }
+            } finally {
+                tableFile.close();
             }
-            isFirstFile = false;
         }
+        if (featureNames == null) throw new IOException("No feature files given");
         // load in phone inventory from tsv file
-        // I've changed the bit below to read from a resource rather than any old file
-        // (I think this helps with relative paths))
-        BufferedReader tableFile = new BufferedReader(new InputStreamReader(PhoneInventory.class.getResourceAsStream(inventoryTsvFilename)));
-        thisLine = null;
-        thisLineArray = null;
-        UniVectorPhone uVPhone= null;
-        List<UniVectorPhone> uVPhoneList = null;
-        Phone ph = null;
-        pSet = new LinkedHashSet<Phone>();
-        String phLabel = null;
-        LinkedList<String> thisLineList = null;
-        while ((thisLine = tableFile.readLine()) != null) {
-            thisLineList = new LinkedList<String>(Arrays.asList(thisLine.split("\t")));
-            phLabel = thisLineList.remove();
-            if (thisLineList.isEmpty()) { // i.e. no component phones are provided by user
-            	StringBuffer uVPhLabelTemp = new StringBuffer(phLabel);
-            	int highFiveTone = removeHighFiveTone(uVPhLabelTemp);
-            	String uVPhLabelToneless = new String(uVPhLabelTemp);
-                if(!rMap.containsKey(uVPhLabelToneless)) 
-                    System.err.println("Warning: can't find phone:"+uVPhLabelToneless+" in feature table");
-                uVPhone = new UniVectorPhone(phLabel,mapFromTsv(featureNames,rMap.get(uVPhLabelToneless)),highFiveTone);
-                uVPhoneList = new ArrayList<UniVectorPhone>(1);
-                uVPhoneList.add(uVPhone);
-            } 
-            else { //  i.e. component phones are provided by user in file
-                //System.out.println("found component phones: "+thisLineList);
-                uVPhoneList = new ArrayList<UniVectorPhone>(thisLineList.size());
-                for (String uVPhLabel:thisLineList) {
-                	StringBuffer uVPhLabelTemp = new StringBuffer(uVPhLabel);
-                	int highFiveTone = removeHighFiveTone(uVPhLabelTemp);
-                	String uVPhLabelToneless = new String(uVPhLabelTemp);
-                	//System.err.print("looking at uvphone "+uVPhLabel);
-                	//System.err.print(" extracted number "+highFiveTone);
-                	//System.err.println(" to leave "+uVPhLabelToneless);
-                    if (!rMap.containsKey(uVPhLabelToneless))
-                        System.err.println("Warning: can't find phone:"+uVPhLabelToneless+" in feature table");
-                    uVPhone = new UniVectorPhone(uVPhLabel,mapFromTsv(featureNames,rMap.get(uVPhLabelToneless)),highFiveTone);
-                    uVPhoneList.add(uVPhone);
+        Set<Phone> phoneSet = new LinkedHashSet<Phone>();
+        TsvReader tableFile = TsvReader.open(inventoryTsvFilename);
+        try {
+            while (tableFile.next()) {
+                if (tableFile.size() == 0) continue; // blank line
+                String phLabel = tableFile.get(0);
+                List<UniVectorPhone> uVPhoneList;
+                if (tableFile.size() == 1) { // i.e. no component phones are provided by user
+                    uVPhoneList = new ArrayList<UniVectorPhone>(1);
+                    uVPhoneList.add(uniVectorPhone(phLabel,featureNames,rMap,tableFile));
+                }
+                else { //  i.e. component phones are provided by user in file
+                    uVPhoneList = new ArrayList<UniVectorPhone>(tableFile.size()-1);
+                    for (int i=1;i<tableFile.size();i++) {
+                        uVPhoneList.add(uniVectorPhone(tableFile.get(i),featureNames,rMap,tableFile));
+                    }
+                }
+                phoneSet.add(new Phone(phLabel,uVPhoneList));
+            }
+        } finally {
+            tableFile.close();
+        }
+        pSet = Collections.unmodifiableSet(phoneSet);
+        // assign each Phone in the set a dense id, in set order
+        phoneById = pSet.toArray(new Phone[pSet.size()]);
+        idByLabel = labelIndex(phoneById);
+        differentArticById = differentArticulatorIndex(phoneById);
+        master = null;
+        masterIds = null;
+    }
+
+    /** Creates a PhoneInventory from a set of Phones that have already been made (the set is copied) */
+    PhoneInventory(Set<Phone> phoneSet) {
+        pSet = Collections.unmodifiableSet(new LinkedHashSet<Phone>(phoneSet));
+        phoneById = pSet.toArray(new Phone[pSet.size()]);
+        idByLabel = labelIndex(phoneById);
+        differentArticById = differentArticulatorIndex(phoneById);
+        master = null;
+        masterIds = null;
+    }
+
+    /** Creates a view of a master inventory (see view()); the set isn't copied. */
+    private PhoneInventory(PhoneInventory master, Set<Phone> phoneSet) {
+        pSet = Collections.unmodifiableSet(phoneSet);
+        phoneById = pSet.toArray(new Phone[pSet.size()]);
+        idByLabel = labelIndex(phoneById);
+        differentArticById = differentArticulatorIndex(phoneById);
+        this.master = master;
+        masterIds = new int[phoneById.length];
+        for (int id=0;id<phoneById.length;id++) masterIds[id] = master.indexOf(phoneById[id]);
+    }
+
+    /** Creates a language inventory as a view of this inventory, from an inventory file (.tsv) in
+      * the same format as for the constructor. Phones that are in this inventory are shared; the
+      * others (e.g. a diphthong defined by its component phones, or a phone with a Chao tone
+      * number) are made from the components of this inventory's single-component phones. The
+      * phones are the same as loading the inventory file with the feature files of this
+      * inventory, but the feature files aren't read again. If this is itself a view the phones
+      * are looked up in its master, and the new view is of the same master. */
+    public PhoneInventory view(String inventoryTsvFilename) throws IOException {
+        if (master!=null) return master.view(inventoryTsvFilename); // the components needn't be in this view
+        Set<Phone> phoneSet = new LinkedHashSet<Phone>();
+        TsvReader tableFile = TsvReader.open(inventoryTsvFilename);
+        try {
+            while (tableFile.next()) {
+                if (tableFile.size() == 0) continue; // blank line
+                String phLabel = tableFile.get(0);
+                int id = indexOfLabel(phLabel);
+                if (tableFile.size() == 1 && id >= 0 && phoneById[id].getComponentPhones().size() == 1
+                        && phoneById[id].getComponentPhones().get(0).getIpaLabel().equals(phLabel)) {
+                    phoneSet.add(phoneById[id]); // the phone that parsing the feature files would make
+                    continue;
+                }
+                List<UniVectorPhone> uVPhoneList = new ArrayList<UniVectorPhone>(Math.max(1,tableFile.size()-1));
+                if (tableFile.size() == 1) { // i.e. no component phones are provided by user
+                    uVPhoneList.add(componentFor(phLabel,tableFile));
+                } else {
+                    for (int i=1;i<tableFile.size();i++) uVPhoneList.add(componentFor(tableFile.get(i),tableFile));
+                }
+                Phone ph = new Phone(phLabel,uVPhoneList);
+                id = indexOf(ph);
+                phoneSet.add((id >= 0) ? phoneById[id] : ph);
+            }
+        } finally {
+            tableFile.close();
+        }
+        return new PhoneInventory((master==null) ? this : master, phoneSet);
+    }
+
+    /** Creates a view of the phones of this inventory with the given ids, in id order. If this
+      * is itself a view the new view is of the same master. */
+    public PhoneInventory view(BitSet ids) {
+        Set<Phone> phoneSet = new LinkedHashSet<Phone>();
+        for (int id=ids.nextSetBit(0);id>=0;id=ids.nextSetBit(id+1)) {
+            if (id>=phoneById.length) throw new IndexOutOfBoundsException("Phone id "+id+" not in inventory of size "+phoneById.length);
+            phoneSet.add(phoneById[id]);
+        }
+        return new PhoneInventory((master==null) ? this : master, phoneSet);
+    }
+
+    /** Gets the UniVectorPhone for an IPA label (possibly with a Chao tone number) of the current
+      * line of an inventory file, from the single-component phone with the toneless label. */
+    private UniVectorPhone componentFor(String uVPhLabel, TsvReader inventoryFile) throws IOException {
+        StringBuffer uVPhLabelTemp = new StringBuffer(uVPhLabel);
+        int highFiveTone = removeHighFiveTone(uVPhLabelTemp);
+        String uVPhLabelToneless = new String(uVPhLabelTemp);
+        int id = indexOfLabel(uVPhLabelToneless);
+        if (id<0 || phoneById[id].getComponentPhones().size()!=1)
+            throw inventoryFile.missingPhone(uVPhLabelToneless,"master inventory");
+        UniVectorPhone uVPhone = phoneById[id].getComponentPhones().get(0);
+        if (highFiveTone==0 && uVPhone.getIpaLabel().equals(uVPhLabel)) return uVPhone;
+        return new UniVectorPhone(uVPhLabel,uVPhone.getFeatureMap(),highFiveTone);
+    }
+
+    /** Whether this inventory is a view of a master inventory (see view()). */
+    public boolean isView() {
+        return master!=null;
+    }
+
+    /** Gets the master inventory of a view, or this inventory if it isn't a view. */
+    public PhoneInventory getMaster() {
+        return (master==null) ? this : master;
+    }
+
+    /** Gets the id in the master inventory of one of this inventory's phones, or -1 if the phone
+      * isn't in the master. For an inventory that isn't a view this is the id itself. */
+    public int getMasterId(int id) {
+        if (id<0 || id>=phoneById.length) throw new IndexOutOfBoundsException("Phone id "+id+" not in inventory of size "+phoneById.length);
+        return (masterIds==null) ? id : masterIds[id];
+    }
+
+    /** Magic number at the start of the binary format ("PHNI") */
+    private static final int BINARY_MAGIC = 0x50484E49;
+    /** Version of the binary format; version 1 didn't have the source fingerprint */
+    private static final int BINARY_VERSION = 2;
+
+    /** Gets a fingerprint of the tables an inventory is made from (as for the constructor): their
+      * names, their total length and a CRC32 of their contents. Reading the tables to check this
+      * is much quicker than parsing them. */
+    public static long sourceFingerprint(String inventoryTsvFilename, List<String> featureTsvFilenameList) throws IOException {
+        List<String> sources = new ArrayList<String>(1+featureTsvFilenameList.size());
+        sources.add(inventoryTsvFilename);
+        sources.addAll(featureTsvFilenameList);
+        CRC32 crc = new CRC32();
+        long length = 0;
+        for (String source:sources) {
+            byte[] name = source.getBytes("UTF-8");
+            crc.update(name,0,name.length);
+            crc.update(0);
+            length += TsvReader.checksum(source,crc);
+        }
+        return (length<<32) | crc.getValue();
+    }
+
+    /** Writes the inventory like writeTo(out, sourceFingerprint) without a source fingerprint,
+      * so readFrom(in, sourceFingerprint) never accepts it. */
+    public void writeTo(DataOutput out) throws IOException {
+        writeTo(out,0);
+    }
+
+    /** Writes the inventory in a compact binary format that can be read back with readFrom()
+      * without parsing any TSV files. Phones, components and features keep their order. The
+      * fingerprint of the tables it was made from (see sourceFingerprint()) is stored too, so
+      * that a binary older than its tables can be recognised. */
+    public void writeTo(DataOutput out, long sourceFingerprint) throws IOException {
+        // every feature name is written once, and then referred to by its index
+        Map<String,Integer> featureIndex = new LinkedHashMap<String,Integer>();
+        for (Phone ph:phoneById) {
+            for (UniVectorPhone uVPhone:ph.getComponentPhones()) {
+                for (String feature:uVPhone.getFeatureMap().keySet()) {
+                    if (!featureIndex.containsKey(feature)) featureIndex.put(feature,featureIndex.size());
+                }
+            }
+        }
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(BINARY_VERSION);
+        out.writeLong(sourceFingerprint);
+        out.writeInt(featureIndex.size());
+        for (String feature:featureIndex.keySet()) out.writeUTF(feature);
+        out.writeInt(phoneById.length);
+        for (Phone ph:phoneById) {
+            out.writeUTF(ph.getIpaLabel());
+            out.writeInt(ph.getComponentPhones().size());
+            for (UniVectorPhone uVPhone:ph.getComponentPhones()) {
+                out.writeUTF(uVPhone.getIpaLabel());
+                out.writeInt(uVPhone.size());
+                for (Map.Entry<String,Integer> f:uVPhone.getFeatureMap().entrySet()) {
+                    out.writeInt(featureIndex.get(f.getKey()));
+                    out.writeByte(f.getValue());
+                }
+            }
+        }
+    }
+
+    /** Reads an inventory written by writeTo(), whatever tables it was made from */
+    public static PhoneInventory readFrom(DataInput in) throws IOException {
+        return readFrom(in,null);
+    }
+
+    /** Reads an inventory written by writeTo(), or returns null if it wasn't made from tables with
+      * the given fingerprint (see sourceFingerprint()) i.e. the tables have changed since. */
+    public static PhoneInventory readFrom(DataInput in, long sourceFingerprint) throws IOException {
+        return readFrom(in,Long.valueOf(sourceFingerprint));
+    }
+
+    private static PhoneInventory readFrom(DataInput in, Long sourceFingerprint) throws IOException {
+        if (in.readInt()!=BINARY_MAGIC) throw new IOException("Not a binary phone inventory");
+        int version = in.readInt();
+        if (version<1 || version>BINARY_VERSION) throw new IOException("Unsupported binary phone inventory version "+version);
+        long writtenFingerprint = (version>=2) ? in.readLong() : 0; // version 1 has no source fingerprint
+        if (sourceFingerprint!=null && (writtenFingerprint==0 || writtenFingerprint!=sourceFingerprint.longValue())) return null;
+        String[] featureNames = new String[in.readInt()];
+        for (int i=0;i<featureNames.length;i++) featureNames[i] = in.readUTF();
+        int phoneCount = in.readInt();
+        Set<Phone> phoneSet = new LinkedHashSet<Phone>(2*phoneCount);
+        for (int p=0;p<phoneCount;p++) {
+            String phLabel = in.readUTF();
+            int compCount = in.readInt();
+            List<UniVectorPhone> uVPhoneList = new ArrayList<UniVectorPhone>(compCount);
+            for (int c=0;c<compCount;c++) {
+                String uVPhLabel = in.readUTF();
+                int featureCount = in.readInt();
+                Map<String,Integer> fMap = new LinkedHashMap<String,Integer>(2*featureCount);
+                for (int f=0;f<featureCount;f++) {
+                    String feature = featureNames[in.readInt()];
+                    fMap.put(feature,Integer.valueOf(in.readByte()));
                 }
+                uVPhoneList.add(new UniVectorPhone(uVPhLabel,fMap));
+            }
+            phoneSet.add(new Phone(phLabel,uVPhoneList));
+        }
+        return new PhoneInventory(phoneSet);
+    }
+
+    /** Creates the bitset rows of phones with different active articulators, or null if any phone's
+      * articulators aren't known */
+    private static long[][] differentArticulatorIndex(Phone[] phones) {
+        int[] masks = new int[phones.length];
+        for (int id=0;id<phones.length;id++) {
+            masks[id] = phones[id].getArticMask();
+            if (masks[id]==UniVectorPhone.UNKNOWN_ARTIC_MASK) return null;
+        }
+        long[][] rows = new long[phones.length][(phones.length+63)/64];
+        for (int j=0;j<phones.length;j++) {
+            for (int i=0;i<phones.length;i++) {
+                if (Phone.differentArticulators(masks[j],masks[i])) rows[j][i>>>6] |= 1L<<i;
             }
-            ph = new Phone(phLabel,uVPhoneList);
-            pSet.add(ph); 
         }
+        return rows;
     }
 
-    /** Convert a string of keys (feature names) and string of integer values ("1","-1", or "0") to an actual map */
-    private static Map<String,Integer> mapFromTsv(String tsvKeys, String tsvValues) {
-        Map<String,Integer> fMap = new LinkedHashMap<String,Integer>();
-        String [] keyArray = tsvKeys.split("\t");
-        String [] valueArray = tsvValues.split("\t");
-        for(int i=0;i<keyArray.length;i++) {
-            fMap.put(keyArray[i],Integer.valueOf(valueArray[i]));
+    /** Creates the IPA label to phone id map; if two phones share a label the first one is used */
+    private static Map<String,Integer> labelIndex(Phone[] phones) {
+        Map<String,Integer> index = new HashMap<String,Integer>(2*phones.length);
+        for (int id=0;id<phones.length;id++) {
+            String phLabel = phones[id].getIpaLabel();
+            if (!index.containsKey(phLabel)) index.put(phLabel,id);
         }
-        return fMap;	
+        return index;
+    }
+
+    /** Creates the UniVectorPhone for an IPA label (possibly with a Chao tone number) of the current
+      * line of an inventory file, from the feature values of the toneless label. */
+    private static UniVectorPhone uniVectorPhone(String uVPhLabel, String[] featureNames, Map<String,int[]> rMap,
+            TsvReader inventoryFile) throws IOException {
+        StringBuffer uVPhLabelTemp = new StringBuffer(uVPhLabel);
+        int highFiveTone = removeHighFiveTone(uVPhLabelTemp);
+        String uVPhLabelToneless = new String(uVPhLabelTemp);
+        int[] values = rMap.get(uVPhLabelToneless);
+        if (values == null) throw inventoryFile.missingPhone(uVPhLabelToneless,"feature table");
+        Map<String,Integer> fMap = new LinkedHashMap<String,Integer>(2*featureNames.length);
+        for (int i=0;i<featureNames.length;i++) fMap.put(featureNames[i],values[i]);
+        return new UniVectorPhone(uVPhLabel,fMap,highFiveTone);
     }
 
     /** Remove any Chao tone superscript numbers from the IPA label, but return the actual number it was as an integer */
@@ -118,7 +369,7 @@ public class PhoneInventory {
     	return res;
     }
 
-    /** Get the Phone set */
+    /** Get the Phone set (read only) */
     public Set<Phone> getPhoneSet() {
         return pSet;
     }
@@ -141,18 +392,85 @@ public class PhoneInventory {
 
     /** Get a particular Phone by specifying it's IPA label */
     public Phone getPhone(String ipaLabel){
-    	Phone outPh = null;
-    	for(Phone ph:pSet){
-    		if(ph.getIpaLabel().equals(ipaLabel)) {
-    			outPh =ph;
-    			break;
-    		}
-    	}
-    	if(outPh==null)
-    		throw new RuntimeException("Phone label "+ipaLabel+" not found in phone inventory");
-    	return outPh;
+    	return phoneById[getPhoneId(ipaLabel)];
 	}
 
+    /** Get the number of Phones in the inventory; phone ids run from 0 to size()-1 */
+    public int size() {
+        return phoneById.length;
+    }
+
+    /** Get the id of a Phone by specifying it's IPA label */
+    public int getPhoneId(String ipaLabel) {
+        Integer id = idByLabel.get(ipaLabel);
+        if(id==null)
+            throw new RuntimeException("Phone label "+ipaLabel+" not found in phone inventory");
+        return id;
+    }
+
+    /** Get the id of a Phone in this inventory */
+    public int getPhoneId(Phone ph) {
+        int id = getPhoneId(ph.getIpaLabel());
+        if (phoneById[id]!=ph && !phoneById[id].equals(ph))
+            throw new RuntimeException("Phone "+ph+" has the same label as a different phone in this inventory");
+        return id;
+    }
+
+    /** Get the id of a Phone by specifying it's IPA label, or -1 if there isn't one */
+    int indexOfLabel(String ipaLabel) {
+        Integer id = idByLabel.get(ipaLabel);
+        return (id==null) ? -1 : id;
+    }
+
+    /** Get the id of a Phone in this inventory, or -1 if it isn't in this inventory */
+    int indexOf(Phone ph) {
+        Integer id = idByLabel.get(ph.getIpaLabel());
+        if (id==null || (phoneById[id]!=ph && !phoneById[id].equals(ph))) return -1;
+        return id;
+    }
+
+    /** Get the labels of the phones that are different in this inventory compared with a
+      * previous version of it (e.g. loaded before a feature file was edited), using the Phone
+      * fingerprints. This includes phones that have been added or removed. */
+    public Set<String> changedPhoneLabels(PhoneInventory previous) {
+        Map<String,Long> previousFingerprints = new HashMap<String,Long>(2*previous.size());
+        for (Phone ph:previous.phoneById) previousFingerprints.put(ph.getIpaLabel(),ph.getFingerprint());
+        Set<String> changed = new LinkedHashSet<String>();
+        for (Phone ph:phoneById) {
+            Long fingerprint = previousFingerprints.remove(ph.getIpaLabel());
+            if (fingerprint==null || fingerprint!=ph.getFingerprint()) changed.add(ph.getIpaLabel());
+        }
+        changed.addAll(previousFingerprints.keySet()); // removed phones
+        return changed;
+    }
+
+    /** Get a particular Phone by specifying it's id */
+    public Phone getPhoneById(int id) {
+        return phoneById[id];
+    }
+
+    /** Check whether the phones with the given ids have different active articulators
+      * (the same as Phone.hasDifferentArticulators()) */
+    public boolean hasDifferentArticulators(int idA, int idB) {
+        if (differentArticById==null) return phoneById[idA].hasDifferentArticulators(phoneById[idB]);
+        return (differentArticById[idA][idB>>>6] & (1L<<idB))!=0;
+    }
+
+    /** Removes the phones that have different active articulators from the phone with the given
+      * id, as these are unlikely to be allophones of it (Kempton 2012, p49). candidateBits is a
+      * bitset with one bit per phone id (bit id%64 of word id/64, as in BitSet.toLongArray())
+      * and it is changed in place, one word at a time. */
+    public void retainPossibleAllophones(int phoneId, long[] candidateBits) {
+        if (differentArticById==null) {
+            for (int id=0;id<phoneById.length && (id>>>6)<candidateBits.length;id++) {
+                if (hasDifferentArticulators(phoneId,id)) candidateBits[id>>>6] &= ~(1L<<id);
+            }
+            return;
+        }
+        long[] row = differentArticById[phoneId];
+        for (int w=0;w<row.length && w<candidateBits.length;w++) candidateBits[w] &= ~row[w];
+    }
+
     /** When given two Phones, check that no Phone in the Phone inventory is phonetically between them.
       * This is the relative minimal 
       * difference heuristic as described in Kempton (2012) p43-44, p58, in turn based on 
@@ -182,10 +500,18 @@ public class PhoneInventory {
 
     /** This returns a list of Phones in the inventory that come joint closest to the Phone provided */
     public List<Phone> phonesClosest(Phone phoneN) {
+    	return phonesClosest(phoneN,null);
+    }
+
+    /** Like phonesClosest(Phone phoneN) but using weighted feature distances (unweighted if weights is null) */
+    public List<Phone> phonesClosest(Phone phoneN, WeightedPhoneDistance weights) {
     	double closestDist = 9999; // high number 
     	List<Phone> phList = new LinkedList<Phone>();
+    	double[] weightedDist = (weights==null) ? null : weights.averageFeatureDistances(phoneN,pSet); // phoneN is only encoded once
+    	int k = 0;
     	for(Phone ph:pSet) {
-    		double currentDist = phoneN.averageFeatureDistance(ph);
+    		double currentDist = (weights==null) ? phoneN.averageFeatureDistance(ph) : weightedDist[k];
+    		k++;
     		//System.out.print(ph+"="+currentDist+" ");
     		if(currentDist<closestDist) {
     			phList.clear();
@@ -203,9 +529,14 @@ public class PhoneInventory {
     /** This is like the method phonesClosest(Phone phoneN), except only one Phone is returned.
       *  The result is deterministic because it is based on a Unicode sort. */ 
     public Phone singlePhoneClosest(Phone phoneN) {
+    	return singlePhoneClosest(phoneN,null);
+    }
+
+    /** Like singlePhoneClosest(Phone phoneN) but using weighted feature distances (unweighted if weights is null) */
+    public Phone singlePhoneClosest(Phone phoneN, WeightedPhoneDistance weights) {
     	Phone phOut;
     	List<Phone> phList = new LinkedList<Phone>();
-    	phList = phonesClosest(phoneN);
+    	phList = phonesClosest(phoneN,weights);
     	//System.out.print("singlePhoneClosest: list = "+phList);
     	if (phList.size()>1){ // if there are multiple close phones 
     		phList.add(phoneN);
@@ -233,20 +564,23 @@ public class PhoneInventory {
       * allophones (See Kempton(2012) p45-50 */  
     public void printArticulatorTruth() {
     	//List<Phone> phList = getSortedPhoneList();
+    	// the phone list is in phone id order, so each row can be read from the bitsets
     	List<Phone> phList = getPhoneList();
     	System.out.print(" ");
         for (Phone iPh:phList) {
             System.out.print(","+iPh);
         }
         System.out.println();
-        for (Phone jPh:phList) {
-            System.out.print(jPh);
-            for (Phone iPh:phList) {
-                if (jPh.hasDifferentArticulators(iPh)) 
-                    System.out.print(",0");
-                else System.out.print(",1");
+        StringBuilder row = new StringBuilder(3*phoneById.length);
+        for (int j=0;j<phoneById.length;j++) {
+            row.setLength(0);
+            row.append(phoneById[j]);
+            for (int i=0;i<phoneById.length;i++) {
+                if (hasDifferentArticulators(j,i)) 
+                    row.append(",0");
+                else row.append(",1");
             }
-            System.out.println();
+            System.out.println(row);
         }
     }
 
@@ -325,11 +659,23 @@ public class PhoneInventory {
       * this is done indirectly by producing a TSV mapping that can be processed
       * with BatchFindAndReplace.java . */
     public String toSrilmFlmFindAndReplaceTsv(){
-    	String s = "";
-    	for(Phone p:pSet){
-    		s=s+p+"\t"+p.toSrilmFlmString()+"\n";
+    	StringBuilder s = new StringBuilder();
+    	try {
+    		writeSrilmFlmFindAndReplaceTsv(s);
+    	} catch (IOException e) { // StringBuilder doesn't throw
+    		throw new AssertionError(e);
+    	}
+    	return s.toString();
+    }
+
+    /** Writes the same as toSrilmFlmFindAndReplaceTsv() straight to a Writer, StringBuilder
+      * or other Appendable, one phone at a time. */
+    public void writeSrilmFlmFindAndReplaceTsv(Appendable out) throws IOException {
+    	for(Phone p:phoneById){
+    		out.append(p.getIpaLabel()).append('\t');
+    		p.appendSrilmFlm(out);
+    		out.append('\n');
     	}
-    	return s;
     }
 
     /** Produces a string for the -dictionary-align option in SRILM lattice-tool for
@@ -338,11 +684,42 @@ public class PhoneInventory {
      * e.g. srilm mesh generation, simple. 
      */ 
     public String toSrilmDictionaryString(){
-    	String s = "";
-    	for(Phone p:pSet){
-    		s=s+p.toFirstElementSrilmDictionaryString()+"\n";
+    	StringBuilder s = new StringBuilder();
+    	try {
+    		writeSrilmDictionary(s);
+    	} catch (IOException e) { // StringBuilder doesn't throw
+    		throw new AssertionError(e);
+    	}
+    	return s.toString();
+    }
+
+    /** Writes the same as toSrilmDictionaryString() straight to an Appendable. */
+    public void writeSrilmDictionary(Appendable out) throws IOException {
+    	for(Phone p:phoneById){
+    		p.appendFirstElementSrilmDictionary(out);
+    		out.append('\n');
+    	}
+    }
+
+    /** Writes the features of every component phone in the inventory as TSV: a heading line
+      * (the first column heading is featureHeading) and then one line per distinct component,
+      * as UniVectorPhone.toTsvBodyString(). This is the same layout as the feature files. */
+    public void writeFeatureTsv(Appendable out, String featureHeading) throws IOException {
+    	Set<UniVectorPhone> written = new HashSet<UniVectorPhone>();
+    	boolean isFirst = true;
+    	for(Phone p:phoneById){
+    		for(UniVectorPhone u:p.getComponentPhones()){
+    			if(!written.add(u)) continue;
+    			if(isFirst){
+    				out.append(featureHeading);
+    				for(String feature:u.getFeatureMap().keySet()) out.append('\t').append(feature);
+    				out.append('\n');
+    				isFirst = false;
+    			}
+    			u.appendTsvBody(out);
+    			out.append('\n');
+    		}
     	}
-    	return s;
     }
 
     /** Demonstration and test 
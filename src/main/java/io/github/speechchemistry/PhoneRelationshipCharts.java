@@ -0,0 +1,294 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The phonetic similarity and relative minimal distance "phone relationship charts" of an
+ * inventory (see PhoneInventory.printSimilarity() and printMinDistance()), kept so that they
+ * can be updated incrementally when the feature files are edited.
+ * <p>
+ * update() compares the Phone fingerprints of the new inventory with the current one and,
+ * as long as the phones are the same and in the same order, only recomputes the rows and
+ * columns of the phones that changed. For the minimal distance chart, the number of phones
+ * in between each pair is kept, so a changed phone's old contribution to every other pair
+ * can be taken away and its new one added (O(changed*n^2) rather than O(n^3)).
+ * <p>
+ * The charts can be saved to a file (updateFile()), and only the rows that changed are
+ * written again when the file is updated.
+ * <p>
+ * Unlike PhoneInventory, a PhoneRelationshipCharts object is changed by update() so it
+ * should only be used by one thread at a time.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class PhoneRelationshipCharts {
+    /** Magic number at the start of the file ("PRCH") */
+    private static final int FILE_MAGIC = 0x50524348;
+    /** Version of the file format */
+    private static final int FILE_VERSION = 1;
+    /** Bytes before the similarity matrix: magic, version and size */
+    private static final int HEADER_BYTES = 12;
+
+    /** The inventory the charts are for. */
+    private PhoneInventory inventory;
+    /** [row j][column i] = phone i averageCountOfSameFeatures(phone j) */
+    private double[][] similarity;
+    /** [row j][column i] = number of other phones that are all between or on the boundary of phones i and j */
+    private int[][] betweenCount;
+    /** Rows changed by the last update(), or null if every row changed. */
+    private boolean[] changedRows;
+    /** Labels of the phones changed, added or removed by the last update(). */
+    private Set<String> changedLabels = Collections.emptySet();
+
+    /** Calculates both charts for an inventory. */
+    public PhoneRelationshipCharts(PhoneInventory inventory) {
+        build(inventory);
+    }
+
+    private PhoneRelationshipCharts(PhoneInventory inventory, double[][] similarity, int[][] betweenCount) {
+        this.inventory = inventory;
+        this.similarity = similarity;
+        this.betweenCount = betweenCount;
+    }
+
+    private void build(PhoneInventory newInventory) {
+        inventory = newInventory;
+        int n = inventory.size();
+        similarity = new double[n][n];
+        betweenCount = new int[n][n];
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < n; i++) {
+                similarity[j][i] = inventory.getPhoneById(i).averageCountOfSameFeatures(inventory.getPhoneById(j));
+                betweenCount[j][i] = countBetween(inventory, i, j);
+            }
+        }
+        changedRows = null;
+    }
+
+    /** Counts the phones other than i and j that are between them, as in PhoneInventory.minDistance() */
+    private static int countBetween(PhoneInventory phInv, int i, int j) {
+        Phone phoneA = phInv.getPhoneById(i);
+        Phone phoneB = phInv.getPhoneById(j);
+        int count = 0;
+        for (int k = 0; k < phInv.size(); k++) {
+            Phone ph = phInv.getPhoneById(k);
+            if (!ph.equals(phoneA) && !ph.equals(phoneB) && ph.isAllBetweenOrOnBoundary(phoneA, phoneB)) count++;
+        }
+        return count;
+    }
+
+    /** Gets the inventory the charts are for. */
+    public PhoneInventory getInventory() {
+        return inventory;
+    }
+
+    /** Updates the charts for a new version of the inventory, returning the labels of the
+      * phones that changed. If phones were added, removed or reordered the charts are
+      * calculated again from scratch. */
+    public Set<String> update(PhoneInventory newInventory) {
+        changedLabels = newInventory.changedPhoneLabels(inventory);
+        if (!sameLabels(inventory, newInventory)) {
+            build(newInventory);
+            return changedLabels;
+        }
+        PhoneInventory oldInventory = inventory;
+        int n = newInventory.size();
+        boolean[] changed = new boolean[n];
+        int[] changedIds = new int[changedLabels.size()];
+        int c = 0;
+        for (int id = 0; id < n; id++) {
+            if (changedLabels.contains(newInventory.getPhoneById(id).getIpaLabel())) {
+                changed[id] = true;
+                changedIds[c++] = id;
+            }
+        }
+        changedRows = new boolean[n];
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < n; i++) {
+                if (changed[i] || changed[j]) { // the whole row and column of a changed phone
+                    similarity[j][i] = newInventory.getPhoneById(i).averageCountOfSameFeatures(newInventory.getPhoneById(j));
+                    betweenCount[j][i] = countBetween(newInventory, i, j);
+                    changedRows[j] = true;
+                    continue;
+                }
+                // other pairs only change if a changed phone moved in or out of between them
+                Phone phoneA = newInventory.getPhoneById(i);
+                Phone phoneB = newInventory.getPhoneById(j);
+                int count = betweenCount[j][i];
+                for (int k : changedIds) {
+                    Phone oldPh = oldInventory.getPhoneById(k);
+                    Phone newPh = newInventory.getPhoneById(k);
+                    if (!oldPh.equals(phoneA) && !oldPh.equals(phoneB) && oldPh.isAllBetweenOrOnBoundary(phoneA, phoneB)) count--;
+                    if (!newPh.equals(phoneA) && !newPh.equals(phoneB) && newPh.isAllBetweenOrOnBoundary(phoneA, phoneB)) count++;
+                }
+                if (count != betweenCount[j][i]) {
+                    betweenCount[j][i] = count;
+                    changedRows[j] = true;
+                }
+            }
+        }
+        inventory = newInventory;
+        return changedLabels;
+    }
+
+    private static boolean sameLabels(PhoneInventory a, PhoneInventory b) {
+        if (a.size() != b.size()) return false;
+        for (int id = 0; id < a.size(); id++) {
+            if (!a.getPhoneById(id).getIpaLabel().equals(b.getPhoneById(id).getIpaLabel())) return false;
+        }
+        return true;
+    }
+
+    /** Gets the labels of the phones changed, added or removed by the last update(). */
+    public Set<String> getChangedPhoneLabels() {
+        return changedLabels;
+    }
+
+    /** Gets the similarity chart value: phone i averageCountOfSameFeatures(phone j). */
+    public double getSimilarity(int i, int j) {
+        return similarity[j][i];
+    }
+
+    /** Gets the minimal distance chart value: true if no other phone is between phones i and j. */
+    public boolean isMinDistance(int i, int j) {
+        return betweenCount[j][i] == 0;
+    }
+
+    /** Prints the similarity chart in the same CSV format as PhoneInventory.printSimilarity() */
+    public void printSimilarity(PrintStream out) {
+        int n = inventory.size();
+        StringBuilder row = new StringBuilder("phoneticSimilarity");
+        for (int i = 0; i < n; i++) row.append(',').append(inventory.getPhoneById(i));
+        out.println(row);
+        for (int j = 0; j < n; j++) {
+            row.setLength(0);
+            row.append(inventory.getPhoneById(j));
+            for (int i = 0; i < n; i++) row.append(',').append(similarity[j][i]);
+            out.println(row);
+        }
+    }
+
+    /** Prints the minimal distance chart in the same CSV format as PhoneInventory.printMinDistance() */
+    public void printMinDistance(PrintStream out) {
+        int n = inventory.size();
+        StringBuilder row = new StringBuilder(" ");
+        for (int i = 0; i < n; i++) row.append(',').append(inventory.getPhoneById(i));
+        out.println(row);
+        for (int j = 0; j < n; j++) {
+            row.setLength(0);
+            row.append(inventory.getPhoneById(j));
+            for (int i = 0; i < n; i++) row.append(betweenCount[j][i] == 0 ? ",1" : ",0");
+            out.println(row);
+        }
+    }
+
+    /** Saves the charts and the inventory they are for. The file layout is a header, the
+      * similarity matrix (doubles), the in between counts (ints), then the inventory in the
+      * binary format of PhoneInventory.writeTo(), so rows can be rewritten in place. */
+    public void save(File file) throws IOException {
+        int n = inventory.size();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(n);
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < n; i++) out.writeDouble(similarity[j][i]);
+            }
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < n; i++) out.writeInt(betweenCount[j][i]);
+            }
+            inventory.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Loads charts saved by save() or updateFile(). */
+    public static PhoneRelationshipCharts load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FILE_MAGIC) throw new IOException(file+" is not a phone relationship chart file");
+            int version = in.readInt();
+            if (version != FILE_VERSION) throw new IOException("Unsupported phone relationship chart file version "+version+" in "+file);
+            int n = in.readInt();
+            double[][] similarity = new double[n][n];
+            int[][] betweenCount = new int[n][n];
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < n; i++) similarity[j][i] = in.readDouble();
+            }
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < n; i++) betweenCount[j][i] = in.readInt();
+            }
+            PhoneInventory phInv = PhoneInventory.readFrom(in);
+            if (phInv.size() != n) throw new IOException("Inventory size doesn't match the charts in "+file);
+            return new PhoneRelationshipCharts(phInv, similarity, betweenCount);
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Brings a chart file up to date with an inventory. If the file doesn't exist the charts
+      * are calculated and saved. Otherwise they are loaded and updated (see update()), and only
+      * the rows that changed are written back, followed by the new inventory. */
+    public static PhoneRelationshipCharts updateFile(File file, PhoneInventory phInv) throws IOException {
+        if (!file.exists()) {
+            PhoneRelationshipCharts charts = new PhoneRelationshipCharts(phInv);
+            charts.save(file);
+            return charts;
+        }
+        PhoneRelationshipCharts charts = load(file);
+        Set<String> changedLabels = charts.update(phInv);
+        if (charts.changedRows == null) { // layout changed
+            charts.save(file);
+        } else if (!changedLabels.isEmpty()) {
+            charts.patch(file);
+        }
+        return charts;
+    }
+
+    /** Writes the rows changed by the last update() and the inventory to an existing file. */
+    private void patch(File file) throws IOException {
+        int n = inventory.size();
+        long countOffset = HEADER_BYTES+8L*n*n;
+        long inventoryOffset = countOffset+4L*n*n;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            ByteBuffer simRow = ByteBuffer.allocate(8*n);
+            ByteBuffer countRow = ByteBuffer.allocate(4*n);
+            for (int j = 0; j < n; j++) {
+                if (!changedRows[j]) continue;
+                simRow.clear();
+                countRow.clear();
+                for (int i = 0; i < n; i++) {
+                    simRow.putDouble(similarity[j][i]);
+                    countRow.putInt(betweenCount[j][i]);
+                }
+                raf.seek(HEADER_BYTES+8L*n*j);
+                raf.write(simRow.array());
+                raf.seek(countOffset+4L*n*j);
+                raf.write(countRow.array());
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            inventory.writeTo(new DataOutputStream(bytes));
+            raf.setLength(inventoryOffset);
+            raf.seek(inventoryOffset);
+            raf.write(bytes.toByteArray());
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -3,7 +3,9 @@ package io.github.speechchemistry;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.BufferedReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -13,40 +15,60 @@ import java.util.List;
  * <p>
  * Warning: does not perform unicode normalization on input files, files needs to be 
  * normalized first e.g. to NFC form (canonical composition) e.g. using Babelpad.
+ * <p>
+ * PhoneUtterances are immutable (apart from the deprecated addPhoneToEnd()) so they 
+ * can be shared between threads.
  * @author Tim Kempton
  * @version 0.1
  */
 public class PhoneUtterance{
         /** A list of phones represents the utterance. */
-	private List<Phone> utterance;
+	private final List<Phone> utterance;
         /** The phone inventory of the language. */
-	private PhoneInventory inventory;	//if we use the above structure, this might only 
+	private final PhoneInventory inventory;	//if we use the above structure, this might only 
 				                // be needed for the constructor
 
         /** Creates a PhoneUtterance given a string of phone (with spaces in between phones and the phone inventory.*/
 	public PhoneUtterance(String utterWithSpaces, PhoneInventory inventory) {
 		this.inventory = inventory;
-		this.utterance = new LinkedList<Phone>();
 		String[] utterArray = utterWithSpaces.split(" ");
+		this.utterance = new ArrayList<Phone>(utterArray.length);
 		for(String ipaLabel:utterArray){
 			utterance.add(this.inventory.getPhone(ipaLabel));
 		}
 	}
 
+    /** Creates a PhoneUtterance from a list of phones (the list is copied) and the phone inventory.*/
+    public PhoneUtterance(List<Phone> phones, PhoneInventory inventory) {
+        this.inventory = inventory;
+        this.utterance = new ArrayList<Phone>(phones);
+    }
+
     /** Creates a PhoneUtterance that is empty (but still associated with a particular language i.e. is associated with a phone inventory).*/
     public PhoneUtterance(PhoneInventory inventory) {
         this.inventory = inventory;
-        this.utterance =  new LinkedList<Phone>(); // empty list
+        this.utterance =  new ArrayList<Phone>(); // empty list
     }
 
 	/**
-	 * @return the utterance as a list of Phones
+	 * @return the phone inventory of the language
+	 */
+	public PhoneInventory getInventory() {
+		return inventory;
+	}
+
+	/**
+	 * @return the utterance as a (read only) list of Phones
 	 */
 	public List<Phone> getPhoneList() {
-		return utterance;
+		return Collections.unmodifiableList(utterance);
 	}
 
-    /** Add a phone to the end of the utterance */
+    /** Add a phone to the end of the utterance.
+     *  @deprecated this is the only method that changes a PhoneUtterance, so it is not safe
+     *  to use once the utterance is shared between threads. Build a list of Phones and use 
+     *  PhoneUtterance(List, PhoneInventory) instead. */
+	@Deprecated
 	public void addPhoneToEnd(Phone additionalPh) {
 		utterance.add(additionalPh);
 	}
@@ -83,17 +105,64 @@ public class PhoneUtterance{
 		return out;
 	}
 	
+    /** Like differenceMatrix() but the average feature distances are calculated when 
+     *  needed instead of being stored. This can be used with DanEllisDtw.totalCost() 
+     *  and HirschbergDtw for very long utterances. 
+     */
+	public DtwCostFunction differenceFunction(PhoneUtterance other){
+		final Phone[] thisPhones = utterance.toArray(new Phone[utterance.size()]);
+		List<Phone> otherPhList = other.getPhoneList();
+		final Phone[] otherPhones = otherPhList.toArray(new Phone[otherPhList.size()]);
+		return new DtwCostFunction() {
+			public double cost(int i, int j) {
+				return otherPhones[j].averageFeatureDistance(thisPhones[i]);
+			}
+		};
+	}
+	
+    /** Like differenceMatrix(PhoneUtterance other) but with the feature weights of a
+     *  compiled FeatureWeightProfile.
+     */
+	public double[][] differenceMatrix(PhoneUtterance other, WeightedPhoneDistance weights){
+		List<Phone> otherPhList = other.getPhoneList();
+		double[][] out = new double[utterance.size()][otherPhList.size()];
+		int i=0;
+        for (Phone iPh:utterance) {
+            int j=0;
+            for (Phone jPh:otherPhList) {
+                out[i][j]=weights.averageFeatureDistance(jPh,iPh);
+                j++;
+            }
+            i++;
+        }
+		return out;
+	}
+	
+    /** Like differenceFunction(PhoneUtterance other) but with the feature weights of a
+     *  compiled FeatureWeightProfile.
+     */
+	public DtwCostFunction differenceFunction(PhoneUtterance other, final WeightedPhoneDistance weights){
+		final Phone[] thisPhones = utterance.toArray(new Phone[utterance.size()]);
+		List<Phone> otherPhList = other.getPhoneList();
+		final Phone[] otherPhones = otherPhList.toArray(new Phone[otherPhList.size()]);
+		return new DtwCostFunction() {
+			public double cost(int i, int j) {
+				return weights.averageFeatureDistance(otherPhones[j],thisPhones[i]);
+			}
+		};
+	}
+	
     /** Returns a transliteration based on the supplied PhoneInventory.
      * For each phone in the utterance we replace it with the closest 
      * phone in the supplied inventory */
     public PhoneUtterance transliterate(PhoneInventory foreignPhInv){
-        // Start with an empty utterance
-        PhoneUtterance translitPhUtt = new PhoneUtterance(foreignPhInv); 
+        // Start with an empty list
+        List<Phone> translitPhList = new ArrayList<Phone>(utterance.size()); 
         // Go through each phone in the utterance and find the closest phone in the inventory
         for (Phone iPh:utterance) {
-            translitPhUtt.addPhoneToEnd(foreignPhInv.singlePhoneClosest(iPh));
+            translitPhList.add(foreignPhInv.singlePhoneClosest(iPh));
         }
-        return translitPhUtt;
+        return new PhoneUtterance(translitPhList, foreignPhInv);
         }
 	
 	/**
@@ -109,9 +178,9 @@ public class PhoneUtterance{
         // load in the big phone inventory 
         String bigPhoneComponentsFilename = "/mnt/c/Users/Tim/Dropbox/#SIL/language_analysis/technology_experiments/Phoible/phonelist_no_multivector_no_ambiguous_phones_utf8nfc.txt";
         PhoneInventory bigPhInv = new PhoneInventory(bigPhoneComponentsFilename,binaryFeatureFiles);
-        // create the phone inventory for the source language e.g. English
+        // create the phone inventory for the source language e.g. English, as a view of the big one
         String englishPhoneComponentsFilename = "/mnt/c/Users/Tim/Dropbox/#SIL/language_analysis/technology_experiments/Phoible/cmuArpabet_components_phoible_compatible_utf8nfc.tsv";
-        PhoneInventory englishPhInv = new PhoneInventory(englishPhoneComponentsFilename,binaryFeatureFiles);
+        PhoneInventory englishPhInv = bigPhInv.view(englishPhoneComponentsFilename);
         PhoneUtterance arbUtterance = new PhoneUtterance(arbitraryTranscription,bigPhInv);
         System.out.println("Here is the utterance: "+arbUtterance);
         System.out.println("Here is an attempt at transliteration: "+arbUtterance.transliterate(englishPhInv));
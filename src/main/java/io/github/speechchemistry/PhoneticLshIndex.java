@@ -0,0 +1,384 @@
+package io.github.speechchemistry;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate phonetic search over a large lexicon using locality sensitive hashing
+ * (MinHash with banding). Only the candidates that the hashing finds are scored with
+ * the exact BFEPP measure (dynamic time warp), so a query doesn't have to scan the
+ * whole lexicon.
+ * <p>
+ * Each transcription is encoded as a set of feature n-grams: the phones are expanded
+ * into their UniVectorPhone components, the sequence is padded with a word boundary at
+ * each end, and for every window of n consecutive components and every feature there
+ * is one element made of the feature and its n values. Two transcriptions that differ
+ * by a few feature edits therefore share most of their elements. The MinHash signature
+ * is split into bands of rows; entries that agree on every row of at least one band
+ * become candidates. Roughly, pairs with a set similarity above (1/bands)^(1/rows) are
+ * likely to be found. More bands or fewer rows give better recall but more candidates;
+ * recall() measures the trade-off on a sample of queries.
+ * <p>
+ * The index can't be changed once it has been built, so it can be searched by any number
+ * of threads.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class PhoneticLshIndex {
+
+    /** Default number of consecutive components in each n-gram. */
+    public static final int DEFAULT_NGRAM = 3;
+    /** Default number of bands. */
+    public static final int DEFAULT_BANDS = 30;
+    /** Default number of MinHash values in each band. */
+    public static final int DEFAULT_ROWS = 5;
+
+    /** Code used for the word boundary in place of a feature value. */
+    private static final int BOUNDARY = 3;
+
+    /** A search result: a lexicon entry and its exact BFEPP score. */
+    public static class Match {
+        private final int entry;
+        private final String transcription;
+        private final double bfepp;
+
+        Match(int entry, String transcription, double bfepp) {
+            this.entry = entry;
+            this.transcription = transcription;
+            this.bfepp = bfepp;
+        }
+
+        /** Gets the position of the entry in the lexicon. */
+        public int getEntry() {
+            return entry;
+        }
+
+        /** Gets the transcription of the entry. */
+        public String getTranscription() {
+            return transcription;
+        }
+
+        /** Gets the BFEPP score with the lexicon entry as the reference. */
+        public double getBfepp() {
+            return bfepp;
+        }
+
+        public String toString() {
+            return transcription + "\t" + bfepp;
+        }
+    }
+
+    /** Orders matches by score, then by lexicon position so the order is deterministic. */
+    private static final Comparator<Match> BY_SCORE = new Comparator<Match>() {
+        public int compare(Match a, Match b) {
+            int c = Double.compare(a.bfepp, b.bfepp);
+            return (c != 0) ? c : (a.entry < b.entry ? -1 : (a.entry == b.entry ? 0 : 1));
+        }
+    };
+
+    /** Summary of how approximate search compares with exact search on a set of queries. */
+    public static class RecallReport {
+        private final int queries;
+        private final int k;
+        private final double recall;
+        private final double meanCandidates;
+        private final int lexiconSize;
+        private final double exactMillis;
+        private final double approximateMillis;
+
+        RecallReport(int queries, int k, double recall, double meanCandidates, int lexiconSize,
+                double exactMillis, double approximateMillis) {
+            this.queries = queries;
+            this.k = k;
+            this.recall = recall;
+            this.meanCandidates = meanCandidates;
+            this.lexiconSize = lexiconSize;
+            this.exactMillis = exactMillis;
+            this.approximateMillis = approximateMillis;
+        }
+
+        /** Gets the mean proportion of the exact top k results that approximate search also found. */
+        public double getRecall() {
+            return recall;
+        }
+
+        /** Gets the mean number of candidates scored per query. */
+        public double getMeanCandidates() {
+            return meanCandidates;
+        }
+
+        /** Gets the mean time of an exact search in milliseconds. */
+        public double getExactMillis() {
+            return exactMillis;
+        }
+
+        /** Gets the mean time of an approximate search in milliseconds. */
+        public double getApproximateMillis() {
+            return approximateMillis;
+        }
+
+        /** Produces the report as tab separated name value lines. */
+        public String toString() {
+            return "queries\t" + queries + "\nk\t" + k + "\nrecall\t" + recall
+                    + "\nmeanCandidates\t" + meanCandidates + "\nlexiconSize\t" + lexiconSize
+                    + "\nexactMillisPerQuery\t" + exactMillis + "\napproximateMillisPerQuery\t" + approximateMillis + "\n";
+        }
+    }
+
+    /** The phone inventory of the lexicon transcriptions. */
+    private final PhoneInventory inventory;
+    /** Lexicon transcriptions as given. */
+    private final List<String> transcriptions;
+    /** Lexicon transcriptions as phone ids. */
+    private final PhoneIdUtterance[] entries;
+    /** Number of consecutive components in each n-gram. */
+    private final int ngram;
+    /** Number of bands. */
+    private final int bands;
+    /** Number of MinHash values in each band. */
+    private final int rows;
+    /** One seed per MinHash function. */
+    private final long[] seeds;
+    /** For each phone id, the feature values of each component (indexed by featureIndex). */
+    private final int[][][] componentValues;
+    /** For each band, key = band hash, value = lexicon entries in that bucket. */
+    private final List<Map<Long,int[]>> buckets;
+
+    /** Creates the index with the default parameters. */
+    public PhoneticLshIndex(List<String> lexicon, PhoneInventory inventory) {
+        this(lexicon, inventory, DEFAULT_NGRAM, DEFAULT_BANDS, DEFAULT_ROWS);
+    }
+
+    /** Creates the index. Transcriptions have phones separated by spaces and are normalized to NFC. */
+    public PhoneticLshIndex(List<String> lexicon, PhoneInventory inventory, int ngram, int bands, int rows) {
+        if (ngram < 1 || bands < 1 || rows < 1)
+            throw new IllegalArgumentException("ngram, bands and rows must be at least 1");
+        if (ngram > 12) throw new IllegalArgumentException("ngram can be at most 12");
+        this.inventory = inventory;
+        this.ngram = ngram;
+        this.bands = bands;
+        this.rows = rows;
+        seeds = new long[bands * rows];
+        long s = 0x5DEECE66DL;
+        for (int i = 0; i < seeds.length; i++) {
+            s = mix64(s + i);
+            seeds[i] = s;
+        }
+        componentValues = componentValues(inventory);
+        List<String> t = new ArrayList<String>(lexicon.size());
+        entries = new PhoneIdUtterance[lexicon.size()];
+        List<Map<Long,IntList>> building = new ArrayList<Map<Long,IntList>>(bands);
+        for (int b = 0; b < bands; b++) building.add(new HashMap<Long,IntList>());
+        long[] sig = new long[seeds.length];
+        for (int e = 0; e < entries.length; e++) {
+            String transcription = Normalizer.normalize(lexicon.get(e), Normalizer.Form.NFC);
+            t.add(transcription);
+            entries[e] = new PhoneIdUtterance(transcription, inventory);
+            signature(entries[e], sig);
+            for (int b = 0; b < bands; b++) {
+                Long key = bandKey(sig, b);
+                IntList bucket = building.get(b).get(key);
+                if (bucket == null) {
+                    bucket = new IntList();
+                    building.get(b).put(key, bucket);
+                }
+                bucket.add(e);
+            }
+        }
+        transcriptions = Collections.unmodifiableList(t);
+        buckets = new ArrayList<Map<Long,int[]>>(bands);
+        for (Map<Long,IntList> band : building) { // compact the buckets
+            Map<Long,int[]> compact = new HashMap<Long,int[]>(2 * band.size());
+            for (Map.Entry<Long,IntList> bucket : band.entrySet()) compact.put(bucket.getKey(), bucket.getValue().toArray());
+            buckets.add(compact);
+        }
+    }
+
+    /** Gets the feature values of every component of every phone in the inventory. */
+    private static int[][][] componentValues(PhoneInventory inventory) {
+        Map<String,Integer> featureIndex = new HashMap<String,Integer>();
+        for (Phone ph : inventory.getPhoneSet()) {
+            for (UniVectorPhone uVPhone : ph.getComponentPhones()) {
+                for (String feature : uVPhone.getFeatureMap().keySet()) {
+                    if (!featureIndex.containsKey(feature)) featureIndex.put(feature, featureIndex.size());
+                }
+            }
+        }
+        int[][][] values = new int[inventory.size()][][];
+        for (int id = 0; id < values.length; id++) {
+            List<UniVectorPhone> comp = inventory.getPhoneById(id).getComponentPhones();
+            values[id] = new int[comp.size()][featureIndex.size()]; // missing features are 0 (don't care)
+            for (int c = 0; c < comp.size(); c++) {
+                for (Map.Entry<String,Integer> f : comp.get(c).getFeatureMap().entrySet()) {
+                    values[id][c][featureIndex.get(f.getKey())] = f.getValue();
+                }
+            }
+        }
+        return values;
+    }
+
+    /** Calculates the MinHash signature of the feature n-grams of an utterance. */
+    private void signature(PhoneIdUtterance utt, long[] sig) {
+        // expand the phones into their components
+        List<int[]> comps = new ArrayList<int[]>();
+        for (int i = 0; i < utt.length(); i++) {
+            comps.addAll(Arrays.asList(componentValues[utt.getPhoneId(i)]));
+        }
+        int features = comps.isEmpty() ? 0 : comps.get(0).length;
+        Arrays.fill(sig, Long.MAX_VALUE);
+        // windows start at the boundary before the first component and end at the boundary after the last
+        int first = -1;
+        int last = Math.max(first, comps.size() + 1 - ngram);
+        for (int start = first; start <= last; start++) {
+            for (int f = 0; f < features; f++) {
+                long key = f;
+                for (int k = start; k < start + ngram; k++) {
+                    int code = (k < 0 || k >= comps.size()) ? BOUNDARY : comps.get(k)[f] + 1; // -1,0,1 -> 0,1,2
+                    key = (key << 2) | code;
+                }
+                long h = mix64(key);
+                for (int i = 0; i < sig.length; i++) {
+                    long v = mix64(h ^ seeds[i]);
+                    if (v < sig[i]) sig[i] = v;
+                }
+            }
+        }
+    }
+
+    private Long bandKey(long[] sig, int band) {
+        long key = band;
+        for (int r = band * rows; r < (band + 1) * rows; r++) key = mix64(key ^ sig[r]);
+        return key;
+    }
+
+    /** The finalizer of SplitMix64; a fast, well mixed 64 bit hash. */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Gets the phone inventory. */
+    public PhoneInventory getInventory() {
+        return inventory;
+    }
+
+    /** Gets the number of lexicon entries. */
+    public int size() {
+        return entries.length;
+    }
+
+    /** Gets the lexicon transcriptions (NFC). */
+    public List<String> getTranscriptions() {
+        return transcriptions;
+    }
+
+    /** Gets the positions of the lexicon entries that share at least one band with the query, in increasing order. */
+    public int[] candidates(String query) {
+        return candidates(new PhoneIdUtterance(Normalizer.normalize(query, Normalizer.Form.NFC), inventory));
+    }
+
+    private int[] candidates(PhoneIdUtterance queryUtt) {
+        long[] sig = new long[seeds.length];
+        signature(queryUtt, sig);
+        IntList found = new IntList();
+        for (int b = 0; b < bands; b++) {
+            int[] bucket = buckets.get(b).get(bandKey(sig, b));
+            if (bucket != null) found.addAll(bucket);
+        }
+        int[] c = found.toArray();
+        Arrays.sort(c);
+        int n = 0;
+        for (int i = 0; i < c.length; i++) { // remove duplicates
+            if (i == 0 || c[i] != c[i-1]) c[n++] = c[i];
+        }
+        return Arrays.copyOf(c, n);
+    }
+
+    /** Finds the k best lexicon entries among the candidates, scored with exact BFEPP. */
+    public List<Match> search(String query, int k) {
+        PhoneIdUtterance queryUtt = new PhoneIdUtterance(Normalizer.normalize(query, Normalizer.Form.NFC), inventory);
+        return best(queryUtt, candidates(queryUtt), k);
+    }
+
+    /** Finds the k best lexicon entries by scoring every entry with exact BFEPP (slow; for comparison). */
+    public List<Match> exactSearch(String query, int k) {
+        PhoneIdUtterance queryUtt = new PhoneIdUtterance(Normalizer.normalize(query, Normalizer.Form.NFC), inventory);
+        int[] all = new int[entries.length];
+        for (int e = 0; e < all.length; e++) all[e] = e;
+        return best(queryUtt, all, k);
+    }
+
+    /** Scores the given entries and keeps the k best. */
+    private List<Match> best(PhoneIdUtterance queryUtt, int[] entryList, int k) {
+        List<Match> matches = new ArrayList<Match>(entryList.length);
+        for (int e : entryList) {
+            PhoneIdUtterance ref = entries[e];
+            // the lexicon entry is the reference, as in BfeppScorer.bfepp(query, entry)
+            double cost = DanEllisDtw.totalCost(queryUtt.differenceFunction(ref), queryUtt.length(), ref.length());
+            matches.add(new Match(e, transcriptions.get(e), cost / ref.length()));
+        }
+        Collections.sort(matches, BY_SCORE);
+        return (matches.size() > k) ? new ArrayList<Match>(matches.subList(0, k)) : matches;
+    }
+
+    /** Compares approximate search with exact search on a sample of queries (which should
+      * not be in the lexicon, e.g. held out entries). An approximate result counts as found
+      * if its score is no worse than the k-th exact score, so ties are not penalised. */
+    public RecallReport recall(List<String> queries, int k) {
+        double recallSum = 0;
+        long candidateSum = 0;
+        long exactNanos = 0;
+        long approxNanos = 0;
+        for (String query : queries) {
+            long t0 = System.nanoTime();
+            List<Match> exact = exactSearch(query, k);
+            long t1 = System.nanoTime();
+            List<Match> approx = search(query, k);
+            long t2 = System.nanoTime();
+            exactNanos += t1 - t0;
+            approxNanos += t2 - t1;
+            candidateSum += candidates(query).length;
+            if (exact.isEmpty()) {
+                recallSum += 1;
+                continue;
+            }
+            double kthExact = exact.get(exact.size() - 1).getBfepp();
+            int found = 0;
+            for (Match m : approx) {
+                if (m.getBfepp() <= kthExact) found++;
+            }
+            recallSum += (1.0 * Math.min(found, exact.size())) / exact.size();
+        }
+        int n = Math.max(1, queries.size());
+        return new RecallReport(queries.size(), k, recallSum / n, (1.0 * candidateSum) / n, entries.length,
+                exactNanos / 1e6 / n, approxNanos / 1e6 / n);
+    }
+
+    /** Minimal growable int array. */
+    private static class IntList {
+        private int[] a = new int[4];
+        private int size = 0;
+
+        void add(int v) {
+            if (size == a.length) a = Arrays.copyOf(a, 2 * size);
+            a[size++] = v;
+        }
+
+        void addAll(int[] values) {
+            if (size + values.length > a.length) a = Arrays.copyOf(a, Math.max(2 * a.length, size + values.length));
+            System.arraycopy(values, 0, a, size, values.length);
+            size += values.length;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(a, size);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Finds the phonetically closest lexicon entries (by BFEPP) for each query transcription,
+ * using approximate candidate retrieval (see PhoneticLshIndex) so that large lexicons don't
+ * need to be scanned for every query.
+ * <p>
+ * Example: java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.PhoneticSearchCli
+ * -f hayes -k 5 lexicon.txt queries.txt
+ * <p>
+ * Output is one tab separated line per result: query, rank, lexicon entry, BFEPP.
+ * With --recall-sample the queries file isn't needed: the given number of lexicon entries
+ * are held out of the index and used as queries, and a recall report comparing approximate
+ * search with exact search is printed instead.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "PhoneticSearchCli", version = "PhoneticSearchCli 0.1", mixinStandardHelpOptions = true)
+public class PhoneticSearchCli implements Callable<Integer> {
+    @Parameters(index = "0", paramLabel = "lexiconFile", description = "Lexicon in IPA, one transcription per line with spaces in between phones (UTF-8)")
+    String lexiconFile;
+    @Parameters(index = "1", arity = "0..1", paramLabel = "queriesFile", description = "Queries in the same format as the lexicon")
+    String queriesFile;
+    @Option(names = { "-f", "--feature-framework" }, defaultValue = "hayes", description = "Feature framework: hayes (default) or phoible")
+    String feature_framework = "hayes";
+    @Option(names = { "-k", "--results" }, defaultValue = "5", description = "Number of results per query (default: 5)")
+    int k = 5;
+    @Option(names = { "--bands" }, description = "Number of LSH bands; more bands find more candidates")
+    int bands = PhoneticLshIndex.DEFAULT_BANDS;
+    @Option(names = { "--rows" }, description = "Number of MinHash values per band; more rows find fewer candidates")
+    int rows = PhoneticLshIndex.DEFAULT_ROWS;
+    @Option(names = { "--ngram" }, description = "Number of consecutive phone components in each feature n-gram")
+    int ngram = PhoneticLshIndex.DEFAULT_NGRAM;
+    @Option(names = { "--exact" }, description = "Score every lexicon entry instead of using the index")
+    boolean exact;
+    @Option(names = { "--recall-sample" }, description = "Hold out this many lexicon entries and report recall against exact search")
+    int recallSample;
+    @Option(names = { "--seed" }, defaultValue = "1", description = "Random seed for choosing the held out entries (default: 1)")
+    long seed = 1;
+
+    @Override
+    public Integer call() throws IOException {
+        PhoneInventory phInv = FeatureFramework.fromName(feature_framework).loadFullInventory();
+        List<String> lexicon = readLines(lexiconFile);
+        if (recallSample > 0) {
+            Collections.shuffle(lexicon, new Random(seed));
+            int n = Math.min(recallSample, lexicon.size());
+            List<String> heldOut = new ArrayList<String>(lexicon.subList(0, n));
+            PhoneticLshIndex index = new PhoneticLshIndex(lexicon.subList(n, lexicon.size()), phInv, ngram, bands, rows);
+            System.out.print(index.recall(heldOut, k));
+            return 0;
+        }
+        if (queriesFile == null) throw new CommandLine.ParameterException(new CommandLine(this),
+                "A queries file is needed unless --recall-sample is given");
+        PhoneticLshIndex index = new PhoneticLshIndex(lexicon, phInv, ngram, bands, rows);
+        for (String query : readLines(queriesFile)) {
+            List<PhoneticLshIndex.Match> matches = exact ? index.exactSearch(query, k) : index.search(query, k);
+            for (int rank = 0; rank < matches.size(); rank++) {
+                PhoneticLshIndex.Match m = matches.get(rank);
+                System.out.println(query+"\t"+(rank+1)+"\t"+m.getTranscription()+"\t"+m.getBfepp());
+            }
+        }
+        return 0;
+    }
+
+    /** Reads the non-empty lines of a UTF-8 file, trimmed. */
+    private static List<String> readLines(String filename) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) lines.add(line);
+            }
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new PhoneticSearchCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
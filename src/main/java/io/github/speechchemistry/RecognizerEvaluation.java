@@ -0,0 +1,307 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Evaluates a phone recognizer over a whole test set of hypothesis and reference
+ * transcriptions. Each pair is aligned with the same Dynamic Time Warp as BfeppScorer (the
+ * alignment path of DanEllisDtw), and the following are added up over the test set:
+ * <ul>
+ * <li>a confusion matrix: the number of times each reference phone is aligned with each
+ * hypothesis phone (a phone aligned with several phones is counted with each of them)</li>
+ * <li>feature errors: for each feature, the feature edits along the alignments, split into
+ * reference + recognized as -, - as +, + or - as 0, and 0 as + or -. The components of
+ * phones are matched as in Phone.averageFeatureDistance(), so the feature errors of all the
+ * features add up to the total feature errors of the unweighted measure.</li>
+ * <li>the total feature errors and the number of reference phones, giving the BFEPP of the
+ * whole test set, and the mean BFEPP of the pairs</li>
+ * </ul>
+ * evaluate() reads a test set in chunks of lines which are evaluated in parallel, each thread
+ * adding to its own count tables, and the tables are merged at the end. The feature errors
+ * are worked out from the merged confusion matrix, as every alignment of the same two phones
+ * has the same feature edits.
+ * <p>
+ * The test set has one pair per line: the hypothesis, a tab, then the reference, each with
+ * spaces in between phones. Lines are normalized to NFC and blank lines are skipped.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class RecognizerEvaluation {
+    /** Number of test set lines given to each task. */
+    public static final int DEFAULT_CHUNK_LINES = 1024;
+
+    /** The kinds of feature error, in the order of getFeatureErrors(). */
+    public static final String[] ERROR_TYPES = { "plusAsMinus", "minusAsPlus", "valueAsZero", "zeroAsValue" };
+
+    private final BfeppScorer scorer;
+    private final PhoneInventory inventory;
+    private final int n;
+    /** How the components of multi-component phones are matched for the feature errors. */
+    private final ComponentAlignment alignment;
+    /** [reference id*n+hypothesis id] = number of times the phones are aligned. */
+    private final long[] confusion;
+    private long pairCount;
+    private long referencePhoneCount;
+    private double totalFeatureErrors;
+    private double sumOfPairBfepp;
+
+    /** Creates an empty evaluation, aligning with the given scorer (so with its inventory and
+      * feature weights, if any). */
+    public RecognizerEvaluation(BfeppScorer scorer) {
+        this.scorer = scorer;
+        this.inventory = scorer.getInventory();
+        this.n = inventory.size();
+        this.alignment = (scorer.getWeights() == null) ? Phone.getComponentAlignment() : scorer.getWeights().getComponentAlignment();
+        confusion = new long[n*n];
+    }
+
+    /** Gets the scorer used for the alignments. */
+    public BfeppScorer getScorer() {
+        return scorer;
+    }
+
+    /** Aligns a pair and adds it to the evaluation, returning its BFEPP (the same as
+      * BfeppScorer.bfepp(hypothesis, reference)). */
+    public double addPair(String hypothesis, String reference) {
+        PhoneIdUtterance hyp = new PhoneIdUtterance(Normalizer.normalize(hypothesis, Normalizer.Form.NFC), inventory);
+        PhoneIdUtterance ref = new PhoneIdUtterance(Normalizer.normalize(reference, Normalizer.Form.NFC), inventory);
+        DtwCostFunction f = (scorer.getWeights() == null) ? hyp.differenceFunction(ref)
+                : hyp.differenceFunction(ref, scorer.getWeights());
+        int r = hyp.length();
+        int c = ref.length();
+        // the forward pass of DanEllisDtw, keeping the directions for the traceback
+        byte[][] phi = new byte[r][c];
+        double[] prev = new double[c];
+        double[] cur = new double[c];
+        for (int i = 0; i < r; i++) {
+            DanEllisDtw.forwardRow(f, i, prev, cur, c, phi[i], true);
+            double[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        double cost = prev[c-1];
+        // the traceback of DanEllisDtw, then on along the first row or column to the start
+        int i = r-1;
+        int j = c-1;
+        confusion[ref.getPhoneId(j)*n+hyp.getPhoneId(i)]++;
+        while (i > 0 || j > 0) {
+            int tb = (i == 0) ? 3 : (j == 0) ? 2 : phi[i][j];
+            if (tb == 1) {
+                i--;
+                j--;
+            } else if (tb == 2) {
+                i--;
+            } else if (tb == 3) {
+                j--;
+            } else throw new RuntimeException("found invalid direction code during traceback; perhaps forward scan was incomplete");
+            confusion[ref.getPhoneId(j)*n+hyp.getPhoneId(i)]++;
+        }
+        double bfepp = cost/BfeppScorer.numberOfPhones(reference);
+        pairCount++;
+        referencePhoneCount += c;
+        totalFeatureErrors += cost;
+        sumOfPairBfepp += bfepp;
+        return bfepp;
+    }
+
+    /** Adds the counts of another evaluation with the same scorer. */
+    public void merge(RecognizerEvaluation other) {
+        if (other.scorer != scorer) throw new IllegalArgumentException("Can't merge evaluations with different scorers");
+        for (int k = 0; k < confusion.length; k++) confusion[k] += other.confusion[k];
+        pairCount += other.pairCount;
+        referencePhoneCount += other.referencePhoneCount;
+        totalFeatureErrors += other.totalFeatureErrors;
+        sumOfPairBfepp += other.sumOfPairBfepp;
+    }
+
+    /** Reads a whole test set and evaluates it with the given number of threads of the
+      * executor. At most twice as many chunks as there are threads are held in memory at once. */
+    public static RecognizerEvaluation evaluate(BufferedReader testSet, BfeppScorer scorer, ExecutorService executor,
+            int threads) throws IOException, InterruptedException {
+        return evaluate(testSet, scorer, executor, threads, DEFAULT_CHUNK_LINES);
+    }
+
+    /** Like evaluate(testSet, scorer, executor, threads) with the given number of lines in each chunk. */
+    public static RecognizerEvaluation evaluate(BufferedReader testSet, BfeppScorer scorer, ExecutorService executor,
+            int threads, int chunkLines) throws IOException, InterruptedException {
+        threads = Math.max(1, threads);
+        // one set of counts per thread; a task takes a free one and gives it back when it's done
+        List<RecognizerEvaluation> tables = new ArrayList<RecognizerEvaluation>(threads);
+        BlockingQueue<RecognizerEvaluation> free = new ArrayBlockingQueue<RecognizerEvaluation>(threads);
+        for (int t = 0; t < threads; t++) {
+            RecognizerEvaluation table = new RecognizerEvaluation(scorer);
+            tables.add(table);
+            free.add(table);
+        }
+        ChunkedLineRunner.run(testSet, chunkLines, executor, threads, chunkTask(free), null);
+        RecognizerEvaluation total = tables.get(0);
+        for (int t = 1; t < tables.size(); t++) total.merge(tables.get(t));
+        return total;
+    }
+
+    /** Creates the task that evaluates a chunk of lines into one of the free sets of counts. */
+    private static ChunkedLineRunner.ChunkTask<Void> chunkTask(final BlockingQueue<RecognizerEvaluation> free) {
+        return new ChunkedLineRunner.ChunkTask<Void>() {
+            public Void process(List<String> lines, int firstLineNumber) throws InterruptedException {
+                RecognizerEvaluation table = free.take();
+                try {
+                    int lineNumber = firstLineNumber;
+                    for (String line : lines) {
+                        if (!line.trim().isEmpty()) {
+                            String[] pair = line.split("\t");
+                            try {
+                                if (pair.length != 2)
+                                    throw new IllegalArgumentException("Expected a hypothesis and a reference separated by a tab");
+                                table.addPair(pair[0].trim(), pair[1].trim());
+                            } catch (RuntimeException e) {
+                                throw new RuntimeException("Line "+lineNumber+": "+e.getMessage(), e);
+                            }
+                        }
+                        lineNumber++;
+                    }
+                } finally {
+                    free.put(table);
+                }
+                return null;
+            }
+        };
+    }
+
+    /** Gets the number of pairs evaluated. */
+    public long getPairCount() {
+        return pairCount;
+    }
+
+    /** Gets the number of reference phones. */
+    public long getReferencePhoneCount() {
+        return referencePhoneCount;
+    }
+
+    /** Gets the total feature errors along all the alignments (weighted, if the scorer is). */
+    public double getTotalFeatureErrors() {
+        return totalFeatureErrors;
+    }
+
+    /** Gets the BFEPP of the whole test set: the total feature errors divided by the number
+      * of reference phones. */
+    public double getBfepp() {
+        return totalFeatureErrors/referencePhoneCount;
+    }
+
+    /** Gets the mean of the BFEPP of each pair. */
+    public double getMeanPairBfepp() {
+        return sumOfPairBfepp/pairCount;
+    }
+
+    /** Gets the number of times a reference phone was aligned with a hypothesis phone. */
+    public long getConfusionCount(int referenceId, int hypothesisId) {
+        return confusion[referenceId*n+hypothesisId];
+    }
+
+    /** Gets the feature errors of every feature (in the order the features first appear in the
+      * inventory): for each feature an array of the errors of each of the ERROR_TYPES. An edit
+      * between + and - counts 1, and an edit between 0 and + or - counts 0.5, as in the BFEPP
+      * measure. Feature weights aren't used. */
+    public Map<String,double[]> getFeatureErrors() {
+        Map<String,Integer> featureIndex = new LinkedHashMap<String,Integer>();
+        for (int id = 0; id < n; id++) {
+            for (UniVectorPhone uVPhone : inventory.getPhoneById(id).getComponentPhones()) {
+                for (String feature : uVPhone.getFeatureMap().keySet()) {
+                    if (!featureIndex.containsKey(feature)) featureIndex.put(feature, featureIndex.size());
+                }
+            }
+        }
+        String[] features = featureIndex.keySet().toArray(new String[featureIndex.size()]);
+        double[][] errors = new double[features.length][ERROR_TYPES.length];
+        for (int ref = 0; ref < n; ref++) {
+            for (int hyp = 0; hyp < n; hyp++) {
+                long count = confusion[ref*n+hyp];
+                if (count == 0 || ref == hyp) continue;
+                addFeatureErrors(inventory.getPhoneById(ref), inventory.getPhoneById(hyp), alignment, features, count, errors);
+            }
+        }
+        Map<String,double[]> out = new LinkedHashMap<String,double[]>();
+        for (int k = 0; k < features.length; k++) out.put(features[k], errors[k]);
+        return Collections.unmodifiableMap(out);
+    }
+
+    /** Adds count times the feature edits between two phones, with their components matched
+      * as in Phone.averageFeatureDistance() (by the unweighted differences). */
+    private static void addFeatureErrors(Phone ref, Phone hyp, ComponentAlignment alignment, String[] features,
+            long count, double[][] errors) {
+        List<UniVectorPhone> refComp = ref.getComponentPhones();
+        List<UniVectorPhone> hypComp = hyp.getComponentPhones();
+        // this phone (x axis) is the reference, as the cost is reference.averageFeatureDistance(hypothesis)
+        int thisSize = refComp.size();
+        int otherSize = hypComp.size();
+        double[] diff = new double[thisSize*otherSize];
+        if (alignment != ComponentAlignment.DIAGONAL) {
+            for (int i = 0; i < thisSize; i++) {
+                for (int j = 0; j < otherSize; j++) diff[i*otherSize+j] = refComp.get(i).doubleFeatureDiff(hypComp.get(j));
+            }
+        }
+        int[] matched = alignment.align(thisSize, otherSize, diff);
+        double share = (double) count/matched.length;
+        for (int cell : matched) {
+            Map<String,Integer> refFeatures = refComp.get(cell/otherSize).getFeatureMap();
+            Map<String,Integer> hypFeatures = hypComp.get(cell%otherSize).getFeatureMap();
+            for (int k = 0; k < features.length; k++) {
+                Integer refValue = refFeatures.get(features[k]);
+                Integer hypValue = hypFeatures.get(features[k]);
+                if (refValue == null || hypValue == null || refValue.equals(hypValue)) continue;
+                if (refValue == 1 && hypValue == -1) errors[k][0] += share;
+                else if (refValue == -1 && hypValue == 1) errors[k][1] += share;
+                else if (hypValue == 0) errors[k][2] += 0.5*share;
+                else errors[k][3] += 0.5*share;
+            }
+        }
+    }
+
+    /** Prints the confusion matrix in the same CSV format as the phone relationship charts,
+      * with a row for each reference phone and a column for each hypothesis phone. */
+    public void printConfusion(PrintStream out) {
+        StringBuilder row = new StringBuilder("reference\\hypothesis");
+        for (int i = 0; i < n; i++) row.append(',').append(inventory.getPhoneById(i));
+        out.println(row);
+        for (int j = 0; j < n; j++) {
+            row.setLength(0);
+            row.append(inventory.getPhoneById(j));
+            for (int i = 0; i < n; i++) row.append(',').append(confusion[j*n+i]);
+            out.println(row);
+        }
+    }
+
+    /** Prints the feature errors (see getFeatureErrors()) as TSV: the feature, its total
+      * errors, then the errors of each of the ERROR_TYPES. */
+    public void printFeatureErrors(PrintStream out) {
+        StringBuilder row = new StringBuilder("feature\terrors");
+        for (String type : ERROR_TYPES) row.append('\t').append(type);
+        out.println(row);
+        for (Map.Entry<String,double[]> e : getFeatureErrors().entrySet()) {
+            double total = 0;
+            for (double v : e.getValue()) total += v;
+            row.setLength(0);
+            row.append(e.getKey()).append('\t').append(total);
+            for (double v : e.getValue()) row.append('\t').append(v);
+            out.println(row);
+        }
+    }
+
+    /** Gives a summary: the number of pairs and reference phones, the total feature errors,
+      * the BFEPP of the whole test set and the mean BFEPP of the pairs, one per line. */
+    public String toString() {
+        return "pairs\t"+pairCount+"\nreferencePhones\t"+referencePhoneCount+"\nfeatureErrors\t"+totalFeatureErrors
+                +"\nbfepp\t"+getBfepp()+"\nmeanPairBfepp\t"+getMeanPairBfepp()+"\n";
+    }
+}
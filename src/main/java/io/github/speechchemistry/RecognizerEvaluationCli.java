@@ -0,0 +1,89 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Evaluates phone recognizer output against reference transcriptions in one pass over the
+ * test set (see RecognizerEvaluation), printing the BFEPP of the whole test set and
+ * optionally writing the phone confusion matrix and the feature errors.
+ * <p>
+ * Example: java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.RecognizerEvaluationCli
+ * -f hayes --confusion confusion.csv --feature-errors features.tsv test_set.tsv
+ * <p>
+ * The test set is a UTF-8 file with one pair per line: the recognizer output, a tab, then the
+ * reference transcription, each with spaces in between phones.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "RecognizerEvaluationCli", version = "RecognizerEvaluationCli 0.1", mixinStandardHelpOptions = true)
+public class RecognizerEvaluationCli implements Callable<Integer> {
+    @Parameters(paramLabel = "testSetFile", description = "Test set, one hypothesis<tab>reference pair per line with spaces in between phones (UTF-8)")
+    File testSetFile;
+    @Option(names = { "-f", "--feature-framework" }, defaultValue = "phoible", description = "Feature framework: phoible (default) or hayes")
+    String feature_framework = "phoible";
+    @Option(names = { "-i", "--inventory" }, description = "Phone inventory resource of the transcriptions (default: every phone in the feature framework)")
+    String inventory;
+    @Option(names = { "-w", "--weights" }, description = "Feature weight profile file (TSV of feature and weight, with a heading line); unlisted features have a weight of 1")
+    String weightsFile;
+    @Option(names = { "--confusion" }, description = "CSV file to write the confusion matrix to (rows are reference phones)")
+    File confusionFile;
+    @Option(names = { "--feature-errors" }, description = "TSV file to write the feature errors to")
+    File featureErrorsFile;
+    @Option(names = { "-j", "--threads" }, description = "Number of worker threads (default: number of processors)")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        FeatureFramework framework = FeatureFramework.fromName(feature_framework);
+        PhoneInventory phInv = (inventory == null) ? framework.loadFullInventory() : framework.loadInventory(inventory);
+        BfeppScorer scorer = (weightsFile == null) ? new BfeppScorer(phInv)
+                : new BfeppScorer(phInv, FeatureWeightProfile.loadFile(weightsFile).compile(phInv));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        RecognizerEvaluation evaluation;
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(testSetFile), StandardCharsets.UTF_8));
+        try {
+            evaluation = RecognizerEvaluation.evaluate(in, scorer, executor, threads);
+        } finally {
+            in.close();
+            executor.shutdown();
+        }
+        System.out.print(evaluation);
+        if (confusionFile != null) {
+            PrintStream out = new PrintStream(new FileOutputStream(confusionFile), false, "UTF-8");
+            try {
+                evaluation.printConfusion(out);
+            } finally {
+                out.close();
+            }
+        }
+        if (featureErrorsFile != null) {
+            PrintStream out = new PrintStream(new FileOutputStream(featureErrorsFile), false, "UTF-8");
+            try {
+                evaluation.printFeatureErrors(out);
+            } finally {
+                out.close();
+            }
+        }
+        return 0;
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new RecognizerEvaluationCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
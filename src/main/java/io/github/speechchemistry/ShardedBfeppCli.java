@@ -0,0 +1,164 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Runs a large pairwise BFEPP job in shards with checkpoints (see ShardedBfeppJob). The
+ * subcommands are:
+ * <ul>
+ * <li>run: starts local worker processes, waits for them and merges the results</li>
+ * <li>worker: runs one worker's shards, e.g. on one of several machines sharing the job folder</li>
+ * <li>merge: joins the completed shards into the final output</li>
+ * <li>status: prints the number of completed shards</li>
+ * </ul>
+ * Running a job again skips the shards that are already complete.
+ * <p>
+ * Example: java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.ShardedBfeppCli
+ * -f hayes -a lexicon.txt -d job run -p 8 -o lexicon_bfepp.tsv
+ * <p>
+ * The word lists are UTF-8 files with one word per line and spaces in between phones.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "ShardedBfeppCli", version = "ShardedBfeppCli 0.1", mixinStandardHelpOptions = true)
+public class ShardedBfeppCli implements Callable<Integer> {
+    @Option(names = { "-a", "--words-a" }, required = true, description = "First word list, one word per line")
+    File wordsAFile;
+    @Option(names = { "-b", "--words-b" }, description = "Second word list (default: pairs of words within the first list)")
+    File wordsBFile;
+    @Option(names = { "--paired" }, description = "Score line i of the first list with line i of the second, rather than every combination")
+    boolean paired;
+    @Option(names = { "-d", "--job-dir" }, required = true, description = "Folder for the shards and checkpoints, shared by the workers")
+    File jobDir;
+    @Option(names = { "-f", "--feature-framework" }, defaultValue = "phoible", description = "Feature framework: phoible (default) or hayes")
+    String feature_framework = "phoible";
+    @Option(names = { "-i", "--inventory" }, description = "Phone inventory resource of the words (default: every phone in the feature framework)")
+    String inventory;
+    @Option(names = { "--shard-rows" }, defaultValue = ""+ShardedBfeppJob.DEFAULT_SHARD_ROWS,
+            description = "Words of the first list in each shard (default: ${DEFAULT-VALUE})")
+    int shardRows = ShardedBfeppJob.DEFAULT_SHARD_ROWS;
+
+    @Override
+    public Integer call() {
+        System.err.println("Missing subcommand: run, worker, merge or status");
+        CommandLine.usage(this, System.err);
+        return 2;
+    }
+
+    @Command(name = "run", description = "Run the job with local worker processes and merge the results")
+    int run(@Option(names = { "-p", "--processes" }, description = "Number of worker processes (default: number of processors)")
+            Integer processes,
+            @Option(names = { "-o", "--output" }, description = "File to write the merged results to (default: standard output)")
+            File outputFile) throws IOException, InterruptedException {
+        ShardedBfeppJob job = createJob();
+        int workers = (processes == null) ? Runtime.getRuntime().availableProcessors() : processes;
+        workers = Math.max(1, Math.min(workers, job.getShardCount()));
+        List<Process> started = new ArrayList<Process>();
+        for (int w = 0; w < workers; w++) {
+            started.add(new ProcessBuilder(workerCommand(w, workers)).inheritIO().start());
+        }
+        int failed = 0;
+        for (Process p : started) {
+            if (p.waitFor() != 0) failed++;
+        }
+        if (failed > 0) {
+            System.err.println(failed+" of "+workers+" workers failed; "+job.getCompletedShardCount()+" of "
+                    +job.getShardCount()+" shards are complete. Run again to finish the job.");
+            return 1;
+        }
+        return merge(outputFile);
+    }
+
+    /** The command line of a worker process: the same job options, then the worker subcommand. */
+    private List<String> workerCommand(int workerIndex, int workers) {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+        command.add("-Dfile.encoding=UTF-8");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardedBfeppCli.class.getName());
+        command.add("--words-a="+wordsAFile.getPath());
+        if (wordsBFile != null) command.add("--words-b="+wordsBFile.getPath());
+        if (paired) command.add("--paired");
+        command.add("--job-dir="+jobDir.getPath());
+        command.add("--feature-framework="+feature_framework);
+        if (inventory != null) command.add("--inventory="+inventory);
+        command.add("--shard-rows="+shardRows);
+        command.add("worker");
+        command.add("--index="+workerIndex);
+        command.add("--workers="+workers);
+        return command;
+    }
+
+    @Command(name = "worker", description = "Run the incomplete shards k where k % workers == index")
+    int worker(@Option(names = { "--index" }, required = true, description = "This worker's number, from 0") int index,
+            @Option(names = { "--workers" }, required = true, description = "Total number of workers") int workers)
+            throws IOException {
+        ShardedBfeppJob job = createJob();
+        long start = System.nanoTime();
+        int run = job.runWorker(index, workers);
+        System.err.println("Worker "+index+" of "+workers+" ran "+run+" shards in "+(System.nanoTime()-start)/1000000+" ms");
+        return 0;
+    }
+
+    @Command(name = "merge", description = "Join the completed shards into the final output")
+    int merge(@Option(names = { "-o", "--output" }, description = "File to write to (default: standard output)")
+            File outputFile) throws IOException {
+        ShardedBfeppJob job = createJob();
+        OutputStream out = (outputFile == null) ? System.out : new FileOutputStream(outputFile);
+        try {
+            job.merge(out);
+        } finally {
+            if (outputFile != null) out.close();
+        }
+        return 0;
+    }
+
+    @Command(name = "status", description = "Print the number of completed shards")
+    int status() throws IOException {
+        ShardedBfeppJob job = createJob();
+        System.out.println(job.getCompletedShardCount()+" of "+job.getShardCount()+" shards complete ("+job.getPairCount()+" pairs)");
+        return 0;
+    }
+
+    private ShardedBfeppJob createJob() throws IOException {
+        FeatureFramework framework = FeatureFramework.fromName(feature_framework);
+        ShardedBfeppJob.Mode mode = paired ? ShardedBfeppJob.Mode.PAIRED
+                : (wordsBFile == null) ? ShardedBfeppJob.Mode.SELF : ShardedBfeppJob.Mode.CROSS;
+        List<String> wordsB = (wordsBFile == null) ? null : readWords(wordsBFile);
+        PhoneInventory phInv = (inventory == null) ? framework.loadFullInventory() : framework.loadInventory(inventory);
+        return new ShardedBfeppJob(jobDir, readWords(wordsAFile), wordsB, mode, shardRows,
+                new BfeppScorer(phInv), framework.name()+(inventory == null ? "" : " "+inventory));
+    }
+
+    private static List<String> readWords(File file) throws IOException {
+        List<String> words = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) words.add(line);
+        } finally {
+            in.close();
+        }
+        return words;
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new ShardedBfeppCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
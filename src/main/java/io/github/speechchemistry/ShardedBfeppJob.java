@@ -0,0 +1,260 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A large pairwise BFEPP job split into shards that can be run by independent worker
+ * processes, on one machine or on several machines sharing a folder. The pairs are:
+ * <ul>
+ * <li>cross: every word of list A with every word of list B</li>
+ * <li>self: every pair of different words of list A, each pair once (i &lt; j)</li>
+ * <li>paired: line i of list A with line i of list B e.g. recogniser output and references</li>
+ * </ul>
+ * Shard k covers the rows (words of list A) from k*shardRows. Each shard's results are
+ * written to shard-k.tsv and then a checkpoint file shard-k.done, both by writing a temporary
+ * file and renaming it, so a shard is either complete or is run again from the start.
+ * Worker w of n runs the incomplete shards where k % n == w, so restarting a job skips the
+ * completed shards and no locking is needed. merge() joins the shards in order into the
+ * final output: one word1, tab, word2, tab, BFEPP line per pair.
+ * <p>
+ * The job folder has a job.properties file describing the job, which every worker checks so
+ * that shards from different inputs or settings are never mixed.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class ShardedBfeppJob {
+    /** The kinds of pairs a job can score */
+    public enum Mode { CROSS, SELF, PAIRED }
+
+    /** Default number of rows (words of list A) in a shard */
+    public static final int DEFAULT_SHARD_ROWS = 256;
+
+    private final File jobDir;
+    private final List<String> wordsA;
+    private final List<String> wordsB;
+    private final Mode mode;
+    private final int shardRows;
+    private final BfeppScorer scorer;
+    /** Describes the scorer e.g. the feature framework, so that it is part of the job description */
+    private final String scorerDescription;
+
+    /** Creates the job. wordsB is ignored in SELF mode, and must be the same length as wordsA
+      * in PAIRED mode. The job folder is created if needed, and if it already has a job
+      * description it must be for the same job. */
+    public ShardedBfeppJob(File jobDir, List<String> wordsA, List<String> wordsB, Mode mode, int shardRows,
+            BfeppScorer scorer, String scorerDescription) throws IOException {
+        if (shardRows < 1) throw new IllegalArgumentException("shardRows must be at least 1");
+        if (mode == Mode.SELF) wordsB = wordsA;
+        if (wordsB == null) throw new IllegalArgumentException("Need a second word list in "+mode+" mode");
+        if (mode == Mode.PAIRED && wordsA.size() != wordsB.size())
+            throw new IllegalArgumentException("Paired word lists have different lengths: "+wordsA.size()+" and "+wordsB.size());
+        this.jobDir = jobDir;
+        this.wordsA = Collections.unmodifiableList(new ArrayList<String>(wordsA));
+        this.wordsB = Collections.unmodifiableList(new ArrayList<String>(wordsB));
+        this.mode = mode;
+        this.shardRows = shardRows;
+        this.scorer = scorer;
+        this.scorerDescription = scorerDescription;
+        checkJobDescription();
+    }
+
+    /** Writes the job description, or checks that the existing one is for this job. */
+    private void checkJobDescription() throws IOException {
+        Properties job = new Properties();
+        job.setProperty("mode", mode.name());
+        job.setProperty("shardRows", Integer.toString(shardRows));
+        job.setProperty("scorer", scorerDescription);
+        job.setProperty("wordsA", wordsA.size()+" "+Long.toHexString(fingerprint(wordsA)));
+        job.setProperty("wordsB", wordsB.size()+" "+Long.toHexString(fingerprint(wordsB)));
+        File description = new File(jobDir, "job.properties");
+        if (description.exists()) {
+            Properties existing = new Properties();
+            InputStream in = new FileInputStream(description);
+            try {
+                existing.load(in);
+            } finally {
+                in.close();
+            }
+            if (!existing.equals(job))
+                throw new IOException("Job folder "+jobDir+" is for a different job: "+existing+" rather than "+job);
+            return;
+        }
+        if (!jobDir.isDirectory() && !jobDir.mkdirs()) throw new IOException("Can't create job folder "+jobDir);
+        File tmp = tempFile(description);
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            job.store(out, "ShardedBfeppJob");
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(tmp.toPath(), description.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) { // another worker got there first
+            tmp.delete();
+            if (!description.exists()) throw e;
+            checkJobDescription();
+        }
+    }
+
+    /** FNV-1a hash of the words, to detect a changed input file */
+    private static long fingerprint(List<String> words) {
+        long h = 0xcbf29ce484222325L;
+        for (String word : words) {
+            for (int i = 0; i < word.length(); i++) h = (h ^ word.charAt(i)) * 0x100000001b3L;
+            h = (h ^ '\n') * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Gets the number of shards. */
+    public int getShardCount() {
+        return (wordsA.size()+shardRows-1)/shardRows;
+    }
+
+    /** Gets the number of pairs in the whole job. */
+    public long getPairCount() {
+        long n = wordsA.size();
+        if (mode == Mode.PAIRED) return n;
+        if (mode == Mode.SELF) return n*(n-1)/2;
+        return n*wordsB.size();
+    }
+
+    private File shardFile(int shard) {
+        return new File(jobDir, String.format("shard-%06d.tsv", shard));
+    }
+
+    private File checkpointFile(int shard) {
+        return new File(jobDir, String.format("shard-%06d.done", shard));
+    }
+
+    private static File tempFile(File file) {
+        // unique per process, so that two workers never write the same temporary file
+        String process = ManagementFactory.getRuntimeMXBean().getName().replaceAll("\\W", "_");
+        return new File(file.getParentFile(), file.getName()+"."+process+".tmp");
+    }
+
+    /** Checks whether a shard has been completed: its checkpoint exists and the results file
+      * has the length recorded in it. */
+    public boolean isShardComplete(int shard) throws IOException {
+        File checkpoint = checkpointFile(shard);
+        if (!checkpoint.exists()) return false;
+        Properties done = new Properties();
+        InputStream in = new FileInputStream(checkpoint);
+        try {
+            done.load(in);
+        } finally {
+            in.close();
+        }
+        return Long.toString(shardFile(shard).length()).equals(done.getProperty("bytes"));
+    }
+
+    /** Gets the number of completed shards. */
+    public int getCompletedShardCount() throws IOException {
+        int completed = 0;
+        for (int k = 0; k < getShardCount(); k++) {
+            if (isShardComplete(k)) completed++;
+        }
+        return completed;
+    }
+
+    /** Scores every pair of a shard and writes the results and then the checkpoint. */
+    public void runShard(int shard) throws IOException {
+        if (shard < 0 || shard >= getShardCount()) throw new IllegalArgumentException("No shard "+shard);
+        File results = shardFile(shard);
+        File tmp = tempFile(results);
+        long pairs = 0;
+        FileOutputStream stream = new FileOutputStream(tmp);
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+            int end = Math.min(wordsA.size(), (shard+1)*shardRows);
+            for (int i = shard*shardRows; i < end; i++) {
+                String word1 = wordsA.get(i);
+                int from = (mode == Mode.SELF) ? i+1 : (mode == Mode.PAIRED) ? i : 0;
+                int to = (mode == Mode.PAIRED) ? i+1 : wordsB.size();
+                for (int j = from; j < to; j++) {
+                    String word2 = wordsB.get(j);
+                    double score;
+                    try {
+                        score = scorer.bfepp(word1, word2);
+                    } catch (RuntimeException e) {
+                        throw new RuntimeException("Pair "+(i+1)+","+(j+1)+" ("+word1+" / "+word2+"): "+e.getMessage(), e);
+                    }
+                    out.write(word1);
+                    out.write('\t');
+                    out.write(word2);
+                    out.write('\t');
+                    out.write(Double.toString(score));
+                    out.write('\n');
+                    pairs++;
+                }
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        Files.move(tmp.toPath(), results.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Properties done = new Properties();
+        done.setProperty("pairs", Long.toString(pairs));
+        done.setProperty("bytes", Long.toString(results.length()));
+        File checkpoint = checkpointFile(shard);
+        File checkpointTmp = tempFile(checkpoint);
+        FileOutputStream checkpointOut = new FileOutputStream(checkpointTmp);
+        try {
+            done.store(checkpointOut, "shard "+shard);
+            checkpointOut.getFD().sync();
+        } finally {
+            checkpointOut.close();
+        }
+        Files.move(checkpointTmp.toPath(), checkpoint.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Runs worker number workerIndex of workers (from 0): the incomplete shards k where
+      * k % workers == workerIndex.
+      * @return the number of shards run */
+    public int runWorker(int workerIndex, int workers) throws IOException {
+        if (workers < 1 || workerIndex < 0 || workerIndex >= workers)
+            throw new IllegalArgumentException("Need 0 <= workerIndex < workers");
+        int run = 0;
+        for (int k = workerIndex; k < getShardCount(); k += workers) {
+            if (isShardComplete(k)) continue;
+            runShard(k);
+            run++;
+        }
+        return run;
+    }
+
+    /** Joins the shards in order. Every shard must be complete. */
+    public void merge(OutputStream out) throws IOException {
+        for (int k = 0; k < getShardCount(); k++) {
+            if (!isShardComplete(k)) throw new IOException("Shard "+k+" of "+jobDir+" hasn't been completed");
+        }
+        byte[] buffer = new byte[1 << 16];
+        for (int k = 0; k < getShardCount(); k++) {
+            InputStream in = new FileInputStream(shardFile(k));
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+            } finally {
+                in.close();
+            }
+        }
+        out.flush();
+    }
+}
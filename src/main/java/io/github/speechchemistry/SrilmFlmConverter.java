@@ -0,0 +1,149 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.Normalizer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Converts a phone transcribed corpus into training data for SRILM factored language
+ * models, i.e. each phone is replaced by its factors (see Phone.toSrilmFlmString()).
+ * <p>
+ * This gives the same tokens as running BatchFindAndReplace with
+ * PhoneInventory.toSrilmFlmFindAndReplaceTsv(), but each token is looked up in a table
+ * indexed by phone id rather than searched for as a substring, so multi-character IPA
+ * labels can't be matched by mistake (e.g. the t in t͡ʃ). Tokens are separated by single
+ * spaces, where the find and replace output has extra spaces (SRILM ignores the difference).
+ * <p>
+ * Lines are normalized to NFC and split on spaces. By default a token that isn't a phone
+ * label is an error, reported with its line number, so that a typo or a missing tie bar isn't
+ * quietly turned into the wrong phones. For unsegmented transcriptions
+ * setSegmentUnknownTokens() makes such tokens be split into phones by taking the longest label
+ * at each position instead; if that isn't possible the line is still rejected. The corpus is
+ * read once in chunks of lines that are converted in parallel and written in order.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class SrilmFlmConverter {
+    /** Number of corpus lines given to each task. */
+    public static final int DEFAULT_CHUNK_LINES = 1024;
+
+    /** The inventory the labels are looked up in */
+    private final PhoneInventory inventory;
+    /** Factors of each phone, indexed by phone id, without the leading space */
+    private final String[] factorsById;
+    /** Length of the longest phone label */
+    private final int maxLabelLength;
+
+    /** Number of corpus lines given to each task. */
+    private int chunkLines = DEFAULT_CHUNK_LINES;
+    /** Whether tokens that aren't phone labels are split into phones (longest label first). */
+    private boolean segmentUnknownTokens;
+
+    /** Creates the converter, working out the factors of every phone in the inventory once. */
+    public SrilmFlmConverter(PhoneInventory inventory) {
+        this.inventory = inventory;
+        factorsById = new String[inventory.size()];
+        int maxLength = 0;
+        for (int id = 0; id < factorsById.length; id++) {
+            Phone ph = inventory.getPhoneById(id);
+            factorsById[id] = ph.toSrilmFlmString().substring(1);
+            maxLength = Math.max(maxLength, ph.getIpaLabel().length());
+        }
+        maxLabelLength = maxLength;
+    }
+
+    /** Sets the number of corpus lines given to each task. */
+    public void setChunkLines(int chunkLines) {
+        if (chunkLines < 1) throw new IllegalArgumentException("chunkLines must be at least 1");
+        this.chunkLines = chunkLines;
+    }
+
+    /** Sets whether tokens that aren't phone labels are split into phones, taking the longest
+      * label at each position (default false: they are rejected). Only suitable for
+      * unsegmented transcriptions, as a misspelt token can be split into the wrong phones. */
+    public void setSegmentUnknownTokens(boolean segmentUnknownTokens) {
+        this.segmentUnknownTokens = segmentUnknownTokens;
+    }
+
+    /** Converts a single line. */
+    public String convertLine(String line) {
+        StringBuilder out = new StringBuilder();
+        appendLine(Normalizer.normalize(line, Normalizer.Form.NFC), out);
+        return out.toString();
+    }
+
+    /** Converts a line (already normalized) and appends it to out. */
+    private void appendLine(String line, StringBuilder out) {
+        int start = out.length();
+        int n = line.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && line.charAt(i) == ' ') i++;
+            int end = i;
+            while (end < n && line.charAt(end) != ' ') end++;
+            if (end == i) break;
+            int id = inventory.indexOfLabel(line.substring(i, end));
+            if (id >= 0) {
+                if (out.length() > start) out.append(' ');
+                out.append(factorsById[id]);
+            } else if (segmentUnknownTokens) {
+                appendSegmented(line, i, end, out, start);
+            } else {
+                throw new IllegalArgumentException("\""+line.substring(i, end)+"\" isn't a phone in the phone inventory");
+            }
+            i = end;
+        }
+    }
+
+    /** Splits line[from,to) into phones, longest label first, and appends their factors. */
+    private void appendSegmented(String line, int from, int to, StringBuilder out, int lineStart) {
+        int i = from;
+        while (i < to) {
+            int id = -1;
+            int length = Math.min(maxLabelLength, to-i);
+            for (; length > 0; length--) {
+                id = inventory.indexOfLabel(line.substring(i, i+length));
+                if (id >= 0) break;
+            }
+            if (id < 0) throw new IllegalArgumentException("Can't find a phone at \""+line.substring(i, to)+"\" in the phone inventory");
+            if (out.length() > lineStart) out.append(' ');
+            out.append(factorsById[id]);
+            i += length;
+        }
+    }
+
+    /** Reads the corpus once and writes the converted lines to out, in the same order. At
+      * most twice as many chunks as there are threads are held in memory at once. */
+    public void convert(BufferedReader corpus, final Writer out, ExecutorService executor, int threads)
+            throws IOException, InterruptedException {
+        ChunkedLineRunner.run(corpus, chunkLines, executor, threads, chunkTask(), new ChunkedLineRunner.ResultHandler<String>() {
+            public void handle(String block) throws IOException {
+                out.write(block);
+            }
+        });
+        out.flush();
+    }
+
+    /** Creates the task that converts a chunk into one block of text. */
+    private ChunkedLineRunner.ChunkTask<String> chunkTask() {
+        return new ChunkedLineRunner.ChunkTask<String>() {
+            public String process(List<String> lines, int firstLineNumber) {
+                StringBuilder block = new StringBuilder();
+                int lineNumber = firstLineNumber;
+                for (String line : lines) {
+                    try {
+                        appendLine(Normalizer.normalize(line, Normalizer.Form.NFC), block);
+                    } catch (RuntimeException e) {
+                        throw new RuntimeException("Line "+lineNumber+": "+e.getMessage(), e);
+                    }
+                    block.append('\n');
+                    lineNumber++;
+                }
+                return block.toString();
+            }
+        };
+    }
+}
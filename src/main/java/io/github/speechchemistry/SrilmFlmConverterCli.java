@@ -0,0 +1,72 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Converts a phone transcribed corpus into SRILM factored language model training data
+ * (see SrilmFlmConverter). This replaces producing the find and replace TSV with
+ * PhoneInventory.toSrilmFlmFindAndReplaceTsv() and running BatchFindAndReplaceCli on it.
+ * <p>
+ * Example: java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.SrilmFlmConverterCli
+ * -f hayes -i /hau/hausa_components_utf8nfc.tsv -o corpus.flm corpus.txt
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "SrilmFlmConverterCli", version = "SrilmFlmConverterCli 0.1", mixinStandardHelpOptions = true)
+public class SrilmFlmConverterCli implements Callable<Integer> {
+    @Parameters(paramLabel = "corpusFile", description = "Corpus in IPA, one utterance per line with spaces in between phones (UTF-8)")
+    String corpusFile;
+    @Option(names = { "-f", "--feature-framework" }, defaultValue = "phoible", description = "Feature framework: phoible (default) or hayes")
+    String feature_framework = "phoible";
+    @Option(names = { "-i", "--inventory" }, description = "Phone inventory resource (default: every phone in the feature framework)")
+    String inventory;
+    @Option(names = { "-o", "--output" }, description = "File to write to (default: standard output)")
+    String outputFile;
+    @Option(names = { "-j", "--threads" }, description = "Number of worker threads (default: number of processors)")
+    int threads = Runtime.getRuntime().availableProcessors();
+    @Option(names = { "--segment" }, description = "Split tokens that aren't phones into phones, longest phone label first (default: reject the line)")
+    boolean segment;
+
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        FeatureFramework framework = FeatureFramework.fromName(feature_framework);
+        PhoneInventory phInv = (inventory == null) ? framework.loadFullInventory() : framework.loadInventory(inventory);
+        SrilmFlmConverter converter = new SrilmFlmConverter(phInv);
+        converter.setSegmentUnknownTokens(segment);
+        OutputStream stream = (outputFile == null) ? System.out : new FileOutputStream(outputFile);
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+        BufferedReader corpus = new BufferedReader(new InputStreamReader(new FileInputStream(corpusFile), StandardCharsets.UTF_8));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            converter.convert(corpus, out, executor, threads);
+        } finally {
+            corpus.close();
+            if (outputFile == null) out.flush();
+            else out.close();
+            executor.shutdownNow();
+        }
+        return 0;
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new SrilmFlmConverterCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.speechchemistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Measures the time to first result of BfeppForTwoWordsCli from the command line, i.e. the
+ * wall time of a whole new JVM including startup, with and without the fast-startup
+ * features: skipping picocli when only the two words are given, precompiled inventories
+ * and an AppCDS (class data sharing) archive. Each
+ * configuration is run several times in a fresh JVM and the median and minimum times are
+ * printed as TSV. The fast-startup profile (mvn -P fast-startup package) runs this after
+ * creating the archive.
+ * <p>
+ * Example: java -cp phonemic-analysis-0.6.jar io.github.speechchemistry.StartupBenchmarkCli
+ * --jar phonemic-analysis-0.6.jar --archive phonemic-analysis-0.6.jsa
+ * @author Tim Kempton
+ * @version 0.1
+ */
+@Command(name = "StartupBenchmarkCli", version = "StartupBenchmarkCli 0.1", mixinStandardHelpOptions = true)
+public class StartupBenchmarkCli implements Callable<Integer> {
+    @Option(names = { "--jar" }, required = true, description = "Shaded jar with BfeppForTwoWordsCli as its main class")
+    File jar;
+    @Option(names = { "--archive" }, description = "AppCDS archive created from a training run of the jar")
+    File archive;
+    @Option(names = { "-n", "--runs" }, defaultValue = "5", description = "Number of runs of each configuration (default: 5)")
+    int runs = 5;
+    @Option(names = { "--java" }, description = "Java launcher (default: the one running this benchmark)")
+    String javaCommand = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+    @Option(names = { "-a", "--cli-args" }, defaultValue = "t u|d u",
+            description = "Arguments of BfeppForTwoWordsCli, separated by | (default: t u|d u)")
+    String cliArgs = "t u|d u";
+
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        List<String> args = Arrays.asList(cliArgs.split("\\|"));
+        System.out.println("configuration\tmedianMillis\tminMillis");
+        // the original start up: picocli (forced by "--" if there are no options) and TSV parsing
+        List<String> picocliArgs = new ArrayList<String>(args);
+        if (args.size() == 2) picocliArgs.add(0, "--");
+        run("tsv+picocli", Arrays.asList("-Dphonemic.precompiled=false", "-Xshare:auto"), picocliArgs);
+        run("tsv", Arrays.asList("-Dphonemic.precompiled=false", "-Xshare:auto"), args);
+        run("precompiled", Arrays.asList("-Xshare:auto"), args);
+        if (archive != null) run("precompiled+appcds", Arrays.asList("-XX:SharedArchiveFile="+archive.getPath(), "-Xshare:auto"), args);
+        return 0;
+    }
+
+    /** Runs one configuration and prints its times. */
+    private void run(String name, List<String> jvmOptions, List<String> args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(javaCommand);
+        command.add("-Dfile.encoding=UTF-8");
+        command.addAll(jvmOptions);
+        command.add("-jar");
+        command.add(jar.getPath());
+        command.addAll(args);
+        long[] millis = new long[runs];
+        for (int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+            InputStream out = p.getInputStream();
+            byte[] buffer = new byte[4096];
+            while (out.read(buffer) >= 0) {} // discard the output
+            int exit = p.waitFor();
+            millis[r] = (System.nanoTime()-start)/1000000;
+            if (exit != 0) throw new IOException(name+" run failed with exit code "+exit+": "+command);
+        }
+        Arrays.sort(millis);
+        System.out.println(name+"\t"+millis[runs/2]+"\t"+millis[0]);
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new StartupBenchmarkCli()).execute(args);
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,134 @@
+package io.github.speechchemistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe, size-bounded map used by the caches (PhoneDistanceCache and
+ * BfeppResultCache). It is split into stripes, each with its own lock, so that parallel
+ * threads rarely wait for each other. Each stripe evicts its own entries according to the
+ * eviction policy once it is full, and counts its hits, misses and evictions.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+class StripedCache<K,V> {
+
+    /** Independently locked parts of the cache. */
+    private final Stripe<K,V>[] stripes;
+
+    /** Creates a cache holding about maxEntries entries split into (at least) the given
+      * number of stripes, but no more stripes than entries. */
+    @SuppressWarnings({"unchecked","rawtypes"})
+    StripedCache(int maxEntries, PhoneDistanceCache.EvictionPolicy policy, int stripeCount) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be at least 1");
+        int n = 1;
+        while (n < stripeCount && n < maxEntries) n <<= 1; // power of two so a mask can be used
+        stripes = new Stripe[n];
+        int perStripe = Math.max(1, maxEntries / n);
+        for (int i = 0; i < n; i++) stripes[i] = new Stripe<K,V>(perStripe, policy == PhoneDistanceCache.EvictionPolicy.LRU);
+    }
+
+    /** Gets the value for a key (null if it isn't cached), counting a hit or a miss. */
+    V get(K key) {
+        Stripe<K,V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            V cached = stripe.get(key);
+            if (cached != null) stripe.hits++;
+            else stripe.misses++;
+            return cached;
+        }
+    }
+
+    /** Adds a value, evicting another from the key's stripe if it is full. */
+    void put(K key, V value) {
+        Stripe<K,V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            stripe.put(key, value);
+        }
+    }
+
+    private Stripe<K,V> stripeFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16); // spread the high bits
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    /** Gets the number of cached entries. */
+    int size() {
+        int size = 0;
+        for (Stripe<K,V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /** Gets the number of lookups that found a cached value. */
+    long getHitCount() {
+        long hits = 0;
+        for (Stripe<K,V> stripe : stripes) {
+            synchronized (stripe) {
+                hits += stripe.hits;
+            }
+        }
+        return hits;
+    }
+
+    /** Gets the number of lookups that didn't find a cached value. */
+    long getMissCount() {
+        long misses = 0;
+        for (Stripe<K,V> stripe : stripes) {
+            synchronized (stripe) {
+                misses += stripe.misses;
+            }
+        }
+        return misses;
+    }
+
+    /** Gets the number of entries removed to make space. */
+    long getEvictionCount() {
+        long evictions = 0;
+        for (Stripe<K,V> stripe : stripes) {
+            synchronized (stripe) {
+                evictions += stripe.evictions;
+            }
+        }
+        return evictions;
+    }
+
+    /** Removes all entries and resets the statistics. */
+    void clear() {
+        for (Stripe<K,V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+                stripe.hits = 0;
+                stripe.misses = 0;
+                stripe.evictions = 0;
+            }
+        }
+    }
+
+    /** One independently locked part of the cache; all access is synchronized on the stripe. */
+    private static class Stripe<K,V> extends LinkedHashMap<K,V> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+        long hits;
+        long misses;
+        long evictions;
+
+        Stripe(int capacity, boolean accessOrder) {
+            super(16, 0.75f, accessOrder);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+            if (size() > capacity) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
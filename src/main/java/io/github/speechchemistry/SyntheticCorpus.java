@@ -0,0 +1,120 @@
+package io.github.speechchemistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates reproducible synthetic phone transcriptions from a phone inventory, for load
+ * testing (see LoadTestCli). Utterances are random phone sequences with lengths drawn from
+ * a configurable distribution, and word pairs are made by mutating an utterance with
+ * substitutions, deletions and insertions at a given rate. The same seed always gives the
+ * same corpus.
+ * <p>
+ * A SyntheticCorpus holds its own random number generator so it should only be used by
+ * one thread at a time.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class SyntheticCorpus {
+
+    /** Shapes of the utterance length distribution. */
+    public enum LengthDistribution {
+        /** Every length from min to max is equally likely. */
+        UNIFORM,
+        /** Normal around the middle of min and max with a standard deviation of a quarter of
+          * the range, rounded and clipped to min..max. */
+        NORMAL
+    }
+
+    /** Phone labels to choose from. */
+    private final String[] labels;
+    private final Random random;
+    private final int minLength;
+    private final int maxLength;
+    private final LengthDistribution lengthDistribution;
+
+    /** Creates the generator. Lengths are numbers of phones. */
+    public SyntheticCorpus(PhoneInventory inventory, long seed, int minLength, int maxLength,
+            LengthDistribution lengthDistribution) {
+        if (minLength < 1 || maxLength < minLength)
+            throw new IllegalArgumentException("Lengths should satisfy 1 <= min <= max: "+minLength+", "+maxLength);
+        // sorted so the corpus doesn't depend on the order the inventory was loaded in
+        List<Phone> phList = inventory.getSortedPhoneList();
+        labels = new String[phList.size()];
+        for (int i = 0; i < labels.length; i++) labels[i] = phList.get(i).getIpaLabel();
+        this.random = new Random(seed);
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.lengthDistribution = lengthDistribution;
+    }
+
+    /** Draws an utterance length from the length distribution. */
+    public int nextLength() {
+        if (lengthDistribution == LengthDistribution.NORMAL) {
+            double mean = 0.5*(minLength+maxLength);
+            double sd = 0.25*(maxLength-minLength);
+            long length = Math.round(mean+sd*random.nextGaussian());
+            return (int) Math.max(minLength, Math.min(maxLength, length));
+        }
+        return minLength+random.nextInt(maxLength-minLength+1);
+    }
+
+    /** Generates a random utterance (phones separated by spaces). */
+    public String nextUtterance() {
+        int length = nextLength();
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) s.append(' ');
+            s.append(randomLabel());
+        }
+        return s.toString();
+    }
+
+    /** Mutates an utterance: each phone is, with probability mutationRate, substituted, deleted
+      * or followed by an inserted phone (equally likely). At least one phone is always kept. */
+    public String mutate(String utterance, double mutationRate) {
+        String[] phones = utterance.split(" ");
+        List<String> out = new ArrayList<String>(phones.length+4);
+        for (String ph : phones) {
+            if (random.nextDouble() >= mutationRate) {
+                out.add(ph);
+                continue;
+            }
+            int edit = random.nextInt(3);
+            if (edit == 0) out.add(randomLabel()); // substitution
+            else if (edit == 2) { // insertion
+                out.add(ph);
+                out.add(randomLabel());
+            } // else deletion
+        }
+        if (out.isEmpty()) out.add(phones[0]);
+        StringBuilder s = new StringBuilder(out.get(0));
+        for (int i = 1; i < out.size(); i++) s.append(' ').append(out.get(i));
+        return s.toString();
+    }
+
+    /** Generates a hypothesis/reference pair: a random reference and a mutated copy of it. */
+    public WordPair nextPair(double mutationRate) {
+        String reference = nextUtterance();
+        return new WordPair(mutate(reference, mutationRate), reference);
+    }
+
+    /** Generates a list of utterances. */
+    public List<String> utterances(int n) {
+        List<String> out = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) out.add(nextUtterance());
+        return out;
+    }
+
+    /** Generates a list of word pairs. */
+    public List<WordPair> pairs(int n, double mutationRate) {
+        List<WordPair> out = new ArrayList<WordPair>(n);
+        for (int i = 0; i < n; i++) out.add(nextPair(mutationRate));
+        return out;
+    }
+
+    private String randomLabel() {
+        return labels[random.nextInt(labels.length)];
+    }
+}
@@ -0,0 +1,176 @@
+package io.github.speechchemistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A precomputed source phone to target phone lookup table. Every phone in the source
+ * inventory is mapped once to its closest phone in the target inventory using
+ * PhoneInventory.singlePhoneClosest(), so the tie-breaking is identical to
+ * PhoneUtterance.transliterate(PhoneInventory) but each token then costs one
+ * map lookup instead of a full inventory scan and sort.
+ * <p>
+ * When the feature files have been edited, a table for the new versions of the inventories
+ * can be made from the previous table so that only the entries that could have changed
+ * are searched again.
+ * <p>
+ * The table is not modified after construction so it can be shared between threads.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class TransliterationTable {
+    /** The inventory that the transliteration is from. */
+    private final PhoneInventory sourceInventory;
+
+    /** The inventory that the transliteration is into. */
+    private final PhoneInventory targetInventory;
+
+    /** Key = source phone IPA label, value = closest target phone. */
+    private final Map<String,Phone> closestMap;
+
+    /** Index = source phone id, value = closest target phone id. */
+    private final int[] closestIdBySourceId;
+
+    /** Creates the lookup table for every phone of the source inventory. */
+    public TransliterationTable(PhoneInventory sourceInventory, PhoneInventory targetInventory) {
+        this(sourceInventory, targetInventory, closestPhones(null, sourceInventory, targetInventory));
+    }
+
+    /** Creates the lookup table for new versions of the inventories of a previous table. An
+      * entry is only searched for again if its source phone has changed, its previous closest
+      * phone has changed or been removed, or a changed or added target phone is at least as
+      * close; otherwise the previous closest phone is kept. The result is the same as creating
+      * the table from scratch. */
+    public TransliterationTable(TransliterationTable previous, PhoneInventory sourceInventory, PhoneInventory targetInventory) {
+        this(sourceInventory, targetInventory, closestPhones(previous, sourceInventory, targetInventory));
+    }
+
+    private TransliterationTable(PhoneInventory sourceInventory, PhoneInventory targetInventory, Phone[] closestBySourceId) {
+        this.sourceInventory = sourceInventory;
+        this.targetInventory = targetInventory;
+        Map<String,Phone> m = new LinkedHashMap<String,Phone>();
+        closestIdBySourceId = new int[sourceInventory.size()];
+        for (int id = 0; id < closestIdBySourceId.length; id++) {
+            Phone ph = sourceInventory.getPhoneById(id);
+            Phone closestPh = closestBySourceId[id];
+            closestIdBySourceId[id] = targetInventory.getPhoneId(closestPh);
+            if (!m.containsKey(ph.getIpaLabel())) m.put(ph.getIpaLabel(), closestPh);
+        }
+        closestMap = Collections.unmodifiableMap(m);
+    }
+
+    /** Finds the closest target phone of every source phone, reusing a previous table's entries where possible. */
+    private static Phone[] closestPhones(TransliterationTable previous, PhoneInventory sourceInventory, PhoneInventory targetInventory) {
+        Phone[] closest = new Phone[sourceInventory.size()];
+        Set<String> changedSource = Collections.emptySet();
+        List<Phone> changedTargetPhones = new ArrayList<Phone>();
+        if (previous != null) {
+            changedSource = sourceInventory.changedPhoneLabels(previous.sourceInventory);
+            for (String label : targetInventory.changedPhoneLabels(previous.targetInventory)) {
+                int id = targetInventory.indexOfLabel(label);
+                if (id >= 0) changedTargetPhones.add(targetInventory.getPhoneById(id)); // else removed
+            }
+        }
+        for (int id = 0; id < closest.length; id++) {
+            Phone ph = sourceInventory.getPhoneById(id);
+            if (previous != null && !changedSource.contains(ph.getIpaLabel())) {
+                closest[id] = previousClosest(previous, ph, targetInventory, changedTargetPhones);
+            }
+            if (closest[id] == null) closest[id] = targetInventory.singlePhoneClosest(ph);
+        }
+        return closest;
+    }
+
+    /** Gets the previous closest phone (from the new target inventory) if it must still be the closest, otherwise null. */
+    private static Phone previousClosest(TransliterationTable previous, Phone ph, PhoneInventory targetInventory,
+            List<Phone> changedTargetPhones) {
+        int previousSourceId = previous.sourceInventory.indexOfLabel(ph.getIpaLabel());
+        if (previousSourceId < 0) return null;
+        Phone previousPh = previous.targetInventory.getPhoneById(previous.closestIdBySourceId[previousSourceId]);
+        int targetId = targetInventory.indexOf(previousPh); // -1 if it has changed or been removed
+        if (targetId < 0) return null;
+        Phone closestPh = targetInventory.getPhoneById(targetId);
+        double closestDist = ph.averageFeatureDistance(closestPh);
+        for (Phone changedPh : changedTargetPhones) {
+            if (ph.averageFeatureDistance(changedPh) <= closestDist) return null; // could now be closest or tied
+        }
+        return closestPh;
+    }
+
+    /** Gets the source inventory. */
+    public PhoneInventory getSourceInventory() {
+        return sourceInventory;
+    }
+
+    /** Gets the target inventory. */
+    public PhoneInventory getTargetInventory() {
+        return targetInventory;
+    }
+
+    /** Gets the closest target phone for a source phone IPA label. */
+    public Phone closest(String sourceIpaLabel) {
+        Phone ph = closestMap.get(sourceIpaLabel);
+        if (ph == null)
+            throw new RuntimeException("Phone label "+sourceIpaLabel+" not found in source phone inventory");
+        return ph;
+    }
+
+    /** Gets the closest target phone for a source phone. Phones outside the source
+      * inventory fall back to a (slow) search of the target inventory. */
+    public Phone closest(Phone sourcePhone) {
+        Phone ph = closestMap.get(sourcePhone.getIpaLabel());
+        if (ph == null) ph = targetInventory.singlePhoneClosest(sourcePhone);
+        return ph;
+    }
+
+    /** Returns the same result as utterance.transliterate(targetInventory). */
+    public PhoneUtterance transliterate(PhoneUtterance utterance) {
+        List<Phone> sourcePhList = utterance.getPhoneList();
+        List<Phone> translitPhList = new ArrayList<Phone>(sourcePhList.size());
+        for (Phone iPh : sourcePhList) {
+            translitPhList.add(closest(iPh));
+        }
+        return new PhoneUtterance(translitPhList, targetInventory);
+    }
+
+    /** Maps phone ids of the given inventory to target phone ids. Ids from an inventory
+      * other than the source inventory fall back to a (slow) search of the target inventory. */
+    int[] closestIds(PhoneInventory idInventory, int[] ids) {
+        int[] out = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            out[i] = (idInventory == sourceInventory) ? closestIdBySourceId[ids[i]]
+                    : targetInventory.getPhoneId(closest(idInventory.getPhoneById(ids[i])));
+        }
+        return out;
+    }
+
+    /** Transliterates a string of source phone labels (with spaces in between phones)
+      * directly to a string of target phone labels. */
+    public String transliterate(String utterWithSpaces) {
+        StringBuilder sb = new StringBuilder(utterWithSpaces.length());
+        String[] utterArray = utterWithSpaces.split(" ");
+        for (int i = 0; i < utterArray.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(closest(utterArray[i]).getIpaLabel());
+        }
+        return sb.toString();
+    }
+
+    /** Number of source phones in the table. */
+    public int size() {
+        return closestMap.size();
+    }
+
+    /** Produces a TSV mapping (source label, target label) one phone per line. */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String,Phone> entry : closestMap.entrySet()) {
+            sb.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+}
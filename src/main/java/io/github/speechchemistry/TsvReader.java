@@ -0,0 +1,195 @@
+package io.github.speechchemistry;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Checksum;
+
+/**
+ * Reads a tab separated table one line at a time, for the inventory and feature files.
+ * <p>
+ * A table source can be a classpath resource (e.g. /hau/hausa_components_utf8nfc.tsv), a
+ * filesystem path (e.g. tables/my_features.tsv) or a URI (e.g. file:///data/my_features.tsv
+ * or a jar: or http: URL); see open(). Tables are always read as UTF-8, whatever the platform
+ * charset, and a UTF-8 BOM at the start is skipped.
+ * <p>
+ * Each line is split in one pass into the offsets of its fields, so reading a field as a
+ * number (getInt()) or comparing it (fieldEquals()) doesn't create any strings. As with
+ * String.split("\t") empty fields at the end of a line are ignored. Problems are reported as
+ * IOExceptions giving the source and line number (see error()).
+ * <p>
+ * Not thread safe: each thread reading a table needs its own TsvReader.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+class TsvReader {
+    private static final char BOM = '\uFEFF';
+
+    private final BufferedReader in;
+    private final String sourceName;
+    private String line;
+    private int lineNumber;
+    /** Field i is line.substring(starts[i], ends[i]). */
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int fieldCount;
+
+    /** Reads a table from a character stream (which is closed by close()). */
+    TsvReader(Reader in, String sourceName) {
+        this.in = (in instanceof BufferedReader) ? (BufferedReader) in : new BufferedReader(in);
+        this.sourceName = sourceName;
+    }
+
+    /** Opens a table source: a URI with a scheme of two or more letters (so that Windows
+      * drive letters are still paths), else a classpath resource if there is one with that
+      * name, else a filesystem path. */
+    static TsvReader open(String source) throws IOException {
+        return new TsvReader(new InputStreamReader(openStream(source), StandardCharsets.UTF_8), source);
+    }
+
+    private static InputStream openStream(String source) throws IOException {
+        if (source.matches("[A-Za-z][A-Za-z0-9+.-]+:.*")) {
+            try {
+                URI uri = new URI(source);
+                return "file".equals(uri.getScheme()) ? new FileInputStream(new File(uri)) : uri.toURL().openStream();
+            } catch (URISyntaxException e) {
+                throw new IOException("Table source "+source+" isn't a valid URI: "+e.getMessage());
+            } catch (IllegalArgumentException e) { // e.g. a file: URI with a query
+                throw new IOException("Table source "+source+" isn't a valid file URI: "+e.getMessage());
+            }
+        }
+        InputStream resource = TsvReader.class.getResourceAsStream(source);
+        if (resource != null) return resource;
+        File file = new File(source);
+        if (!file.isFile()) throw new FileNotFoundException("Table "+source+" isn't a classpath resource or a file");
+        return new FileInputStream(file);
+    }
+
+    /** Adds the raw bytes of a table source (see open()) to a checksum, and returns the number
+      * of bytes. */
+    static long checksum(String source, Checksum checksum) throws IOException {
+        InputStream stream = openStream(source);
+        try {
+            byte[] buffer = new byte[8192];
+            long length = 0;
+            int n;
+            while ((n = stream.read(buffer)) > 0) {
+                checksum.update(buffer, 0, n);
+                length += n;
+            }
+            return length;
+        } finally {
+            stream.close();
+        }
+    }
+
+    /** Reads the next line and splits it into fields. Returns false at the end of the table. */
+    boolean next() throws IOException {
+        line = in.readLine();
+        if (line == null) return false;
+        lineNumber++;
+        int start = (lineNumber == 1 && line.length() > 0 && line.charAt(0) == BOM) ? 1 : 0;
+        fieldCount = 0;
+        int nonEmpty = 0; // number of fields up to the last non-empty one
+        int length = line.length();
+        while (true) {
+            int end = line.indexOf('\t', start);
+            if (end < 0) end = length;
+            if (fieldCount == starts.length) {
+                int[] newStarts = new int[2*fieldCount];
+                int[] newEnds = new int[2*fieldCount];
+                System.arraycopy(starts, 0, newStarts, 0, fieldCount);
+                System.arraycopy(ends, 0, newEnds, 0, fieldCount);
+                starts = newStarts;
+                ends = newEnds;
+            }
+            starts[fieldCount] = start;
+            ends[fieldCount] = end;
+            fieldCount++;
+            if (end > start) nonEmpty = fieldCount;
+            if (end == length) break;
+            start = end+1;
+        }
+        fieldCount = nonEmpty;
+        return true;
+    }
+
+    /** Gets the number of the current line, starting from 1. */
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    /** Gets the name of the table source. */
+    String getSourceName() {
+        return sourceName;
+    }
+
+    /** Gets the number of fields on the current line (0 for a blank line). */
+    int size() {
+        return fieldCount;
+    }
+
+    /** Gets a field of the current line. */
+    String get(int i) {
+        checkIndex(i);
+        return line.substring(starts[i], ends[i]);
+    }
+
+    /** Checks whether a field of the current line is the given text, without copying it. */
+    boolean fieldEquals(int i, String text) {
+        checkIndex(i);
+        int length = ends[i]-starts[i];
+        return length == text.length() && line.regionMatches(starts[i], text, 0, length);
+    }
+
+    /** Reads a field of the current line as a whole number (with an optional + or - sign). */
+    int getInt(int i) throws IOException {
+        checkIndex(i);
+        int at = starts[i];
+        int end = ends[i];
+        boolean negative = false;
+        if (at < end && (line.charAt(at) == '-' || line.charAt(at) == '+')) {
+            negative = line.charAt(at) == '-';
+            at++;
+        }
+        if (at == end || end-at > 9) throw error("field "+(i+1)+" isn't a whole number: \""+get(i)+"\"");
+        int value = 0;
+        for (; at < end; at++) {
+            int digit = line.charAt(at)-'0';
+            if (digit < 0 || digit > 9) throw error("field "+(i+1)+" isn't a whole number: \""+get(i)+"\"");
+            value = 10*value+digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= fieldCount) throw new IndexOutOfBoundsException("Field "+i+" of "+fieldCount);
+    }
+
+    /** Creates an exception for a problem with the current line, giving the source and line number. */
+    IOException error(String message) {
+        return new IOException(describe(message));
+    }
+
+    /** Creates the exception for a phone of the current line that isn't in the feature table. */
+    MissingPhoneException missingPhone(String phoneLabel, String from) {
+        return new MissingPhoneException(describe("can't find phone "+phoneLabel+" in the "+from), phoneLabel);
+    }
+
+    private String describe(String message) {
+        return "Line "+lineNumber+" of "+sourceName+": "+message;
+    }
+
+    /** Closes the table source. */
+    void close() throws IOException {
+        in.close();
+    }
+}
@@ -8,6 +8,9 @@ import java.util.*;
  * vector of features. This is true for most phones. Currently feature values are
  * represented by integers e.g. 1,-1 for binary features with zero representing 
  * the special value 'don't care' (undefined).
+ * <p>
+ * UniVectorPhones are immutable (the feature map is copied when the object is created)
+ * so they can be shared between threads.
  * @author Tim Kempton
  * @version 0.1
  */
@@ -16,42 +19,74 @@ public class UniVectorPhone implements Comparable<UniVectorPhone>{
     /**
      * Phone label in IPA e.g. d
      */
-    private String label;
+    private final String label;
 
     /**
-     * Binary features e.g.  voice=1,  nasal=-1, ...
+     * Binary features e.g.  voice=1,  nasal=-1, ... (read only copy)
      */
-    private Map<String,Integer> features;
+    private final Map<String,Integer> features;
+
+    /**
+     * Hash code, calculated once as the phone can't change.
+     */
+    private final int hash;
+
+    /**
+     * Active articulators as a bitmask (see getArticMask()), calculated once as the phone can't change.
+     */
+    private final int articMask;
+
+    /** Articulator mask bit for LABIAL */
+    public static final int LABIAL_BIT = 1;
+    /** Articulator mask bit for CORONAL */
+    public static final int CORONAL_BIT = 2;
+    /** Articulator mask bit for DORSAL */
+    public static final int DORSAL_BIT = 4;
+    /** Articulator mask bit for nasal */
+    public static final int NASAL_BIT = 8;
+    /** Articulator mask bit for the palatal area (-anterior, or DORSAL at the Phone level) */
+    public static final int PAL_AREA_BIT = 16;
+    /** Articulator mask when the feature system doesn't have the articulator features */
+    public static final int UNKNOWN_ARTIC_MASK = -1;
 
     /**
      * The universe set of active articulators: {LABIAL,CORONAL,DORSAL,nasal}
      */
-    public final static Set<String> articUnivSet =
-        new HashSet<String>(Arrays.asList("LABIAL","CORONAL","DORSAL","nasal")); // active articulator universe set
+    public final static Set<String> articUnivSet = Collections.unmodifiableSet(
+        new HashSet<String>(Arrays.asList("LABIAL","CORONAL","DORSAL","nasal"))); // active articulator universe set
 
     /**
-     * Create the UniVectorPhone with IPA label and binary features
+     * Create the UniVectorPhone with IPA label and binary features. The feature map is copied.
      */
     public UniVectorPhone(String ipaLabel,Map<String,Integer> featureMap) {
         label = ipaLabel;
-        features = featureMap;
+        features = Collections.unmodifiableMap(new LinkedHashMap<String,Integer>(featureMap));
+        hash = calculateHashCode();
+        articMask = calculateArticMask();
     }
 
     /**
-     * Create the UniVectorPhone with IPA label and binary features and supplying the Chao tone number (1-5 with 5 as high)
+     * Create the UniVectorPhone with IPA label and binary features and supplying the Chao tone number (1-5 with 5 as high).
+     * The tone features are added to a copy of the feature map; the map supplied is not changed.
      */
     public UniVectorPhone(String ipaLabel,Map<String,Integer> featureMap, int highFiveTone) {
-    	this(ipaLabel,featureMap);
+    	this(ipaLabel,withToneFeatures(featureMap,highFiveTone));
+    }
+
+    /** Copies the feature map and adds the tone features for the Chao tone number */
+    private static Map<String,Integer> withToneFeatures(Map<String,Integer> featureMap, int highFiveTone) {
+    	Map<String,Integer> toneMap = new LinkedHashMap<String,Integer>(featureMap);
     	int vhigh=-1; int high=-1; int low=-1; int vlow=-1; // together this is the default for tone level 3
     	if (highFiveTone>4) vhigh = 1;
     	if (highFiveTone>3) high = 1;
     	if (highFiveTone<3) low = 1;
     	if (highFiveTone<2) vlow = 1;
     	if (highFiveTone==0) {vhigh=0;high=0;low=0;vlow=0;} // zero denotes don't care
-    	features.put("tone_vhigh", vhigh); // put is optional for Maps so might cause probs for some Maps?
-    	features.put("tone_high", high);
-    	features.put("tone_low", low);
-    	features.put("tone_vlow", vlow);
+    	toneMap.put("tone_vhigh", vhigh);
+    	toneMap.put("tone_high", high);
+    	toneMap.put("tone_low", low);
+    	toneMap.put("tone_vlow", vlow);
+    	return toneMap;
     }
 
    /**
@@ -62,6 +97,11 @@ public class UniVectorPhone implements Comparable<UniVectorPhone>{
         return label;
     }
 
+    /** Get the (read only) map of feature names to values, in the order of the feature file */
+    public Map<String,Integer> getFeatureMap() {
+        return features;
+    }
+
     /** Get number of features in this UniVectorPhone */
     public int size() {
         return features.size();
@@ -83,6 +123,28 @@ public class UniVectorPhone implements Comparable<UniVectorPhone>{
         return thisSet;
     }
 
+    /** Get the active articulators as a bitmask of LABIAL_BIT, CORONAL_BIT, DORSAL_BIT and NASAL_BIT
+      * (the same as getArticSet()), plus PAL_AREA_BIT if the phone is -anterior. This is
+      * UNKNOWN_ARTIC_MASK if any of these features are missing e.g. in the PHOIBLE feature system. */
+    public int getArticMask() {
+        return articMask;
+    }
+
+    private int calculateArticMask() {
+        final String[] articFeatures = {"LABIAL","CORONAL","DORSAL","nasal"};
+        final int[] articBits = {LABIAL_BIT,CORONAL_BIT,DORSAL_BIT,NASAL_BIT};
+        int mask = 0;
+        for (int i=0;i<articFeatures.length;i++) {
+            Integer value = features.get(articFeatures[i]);
+            if (value==null) return UNKNOWN_ARTIC_MASK;
+            if (value==1) mask |= articBits[i];
+        }
+        Integer anterior = features.get("anterior");
+        if (anterior==null) return UNKNOWN_ARTIC_MASK;
+        if (anterior==-1) mask |= PAL_AREA_BIT;
+        return mask;
+    }
+
     /** Calculates (2x) feature difference, assumes both phones use same feature system. */
     public int doubleFeatureDiff(UniVectorPhone otherUVPhone) {
         Set<String> featureSet = features.keySet();
@@ -126,42 +188,74 @@ public class UniVectorPhone implements Comparable<UniVectorPhone>{
 
     /** Produces a string representation for the SRILM factored language model. */
     public String toSrilmFlmString(){
-    	String s = label;
+    	StringBuilder s = new StringBuilder();
+    	try {
+    		appendSrilmFlm(s);
+    	} catch (IOException e) { // StringBuilder doesn't throw
+    		throw new AssertionError(e);
+    	}
+    	return s.toString();
+    }
+
+    /** Writes the SRILM factored language model representation (see toSrilmFlmString()). */
+    public void appendSrilmFlm(Appendable out) throws IOException {
+    	out.append(label);
     	for(Map.Entry<String,Integer> entry:features.entrySet()){
-    		s=s+":"+entry.getKey()+"-="+entry.getValue();
+    		out.append(':').append(entry.getKey()).append("-=").append(Integer.toString(entry.getValue()));
     	}
-    	return s;
     }
     
     /** Produces a string representation for the -dictionary-align option in SRILM lattice-tool for
       * phone lattices being transformed into sausages.
       */ 
     public String toSrilmDictionaryString(){
-    	String s = "";
+    	StringBuilder s = new StringBuilder();
+    	try {
+    		appendSrilmDictionary(s);
+    	} catch (IOException e) { // StringBuilder doesn't throw
+    		throw new AssertionError(e);
+    	}
+    	return s.toString();
+    }
+
+    /** Writes the -dictionary-align representation (see toSrilmDictionaryString()). */
+    public void appendSrilmDictionary(Appendable out) throws IOException {
     	for(Map.Entry<String,Integer> entry:features.entrySet()){
     		int v = entry.getValue();
-    		if (v==-1) s=s+"- - ";
-    		else if (v==1) s=s+"+ + ";
-    		else s=s+"+ - "; // i.e. if v==0
-    		s=s+entry.getKey()+" , ";
+    		if (v==-1) out.append("- - ");
+    		else if (v==1) out.append("+ + ");
+    		else out.append("+ - "); // i.e. if v==0
+    		out.append(entry.getKey()).append(" , ");
     	}
-    	return s;
     }
 
     /** Produces a string displaying feature values in TSV format */
-    /* efficiency saving: could use values rather than entry */
     public String toTsvBodyString(){
-    	String s = label;
-    	for(Map.Entry<String,Integer> entry:features.entrySet()){
-    		s=s+"\t"+entry.getValue();
+    	StringBuilder s = new StringBuilder();
+    	try {
+    		appendTsvBody(s);
+    	} catch (IOException e) { // StringBuilder doesn't throw
+    		throw new AssertionError(e);
+    	}
+    	return s.toString();
+    }
+
+    /** Writes the feature values in TSV format (see toTsvBodyString()). */
+    public void appendTsvBody(Appendable out) throws IOException {
+    	out.append(label);
+    	for(Integer value:features.values()){
+    		out.append('\t').append(Integer.toString(value));
     	}
-    	return s;
     }
     /* (non-Javadoc) Overide "hashCode" (probably done by Eclipse automatically)
 	 * @see java.lang.Object#hashCode()
 	 */
 	@Override
 	public int hashCode() {
+		return hash;
+	}
+
+	private int calculateHashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result
@@ -182,6 +276,8 @@ public class UniVectorPhone implements Comparable<UniVectorPhone>{
 		if (getClass() != obj.getClass())
 			return false;
 		UniVectorPhone other = (UniVectorPhone) obj;
+		if (hash != other.hash)
+			return false;
 		if (features == null) {
 			if (other.features != null)
 				return false;
@@ -0,0 +1,182 @@
+package io.github.speechchemistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Dynamic Time Warping of one large grid on several cores. Gives exactly the same cost
+ * matrix, state sequences and total cost as DanEllisDtw, including its tie breaking
+ * (diagonal, then vertical, then horizontal) and its traceback stopping at the first row
+ * or column.
+ * <p>
+ * The grid is split into square tiles. Each cell only depends on the cells above and to
+ * the left, so all the tiles on one anti-diagonal of tiles (a wavefront) can be filled in
+ * at the same time once the previous wavefront is finished. The tiles of each wavefront
+ * are run on a fork/join pool, and each tile is filled in row by row just like DanEllisDtw,
+ * so every cell is calculated with exactly the same arithmetic. The traceback is then done
+ * sequentially.
+ * <p>
+ * The cost function is called from several threads at once, so it must be thread safe
+ * (the cost functions used with PhoneUtterance are, as they only read the phones).
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class WavefrontDtw {
+
+        /** Default width and height of a tile in cells. */
+        public static final int DEFAULT_TILE_SIZE = 128;
+
+        /** The cost matrix. */
+        private final double[][] d;
+        /** The direction matrix: 1 diagonal, 2 vertical, 3 horizontal. */
+        private final byte[][] phi;
+        /** The state sequence of the first dimension. */
+        private final List<Integer> p;
+        /** The state sequence of the second dimension. */
+        private final List<Integer> q;
+
+	/** Create and calculate the Dynamic Time Warp from a 2D array of numbers. */
+	public WavefrontDtw(final double[][] m, ForkJoinPool pool) {
+		this(new DtwCostFunction() {
+			public double cost(int i, int j) {
+				return m[i][j];
+			}
+		}, m.length, m[0].length, pool, DEFAULT_TILE_SIZE);
+	}
+
+	/** Create and calculate the Dynamic Time Warp from an r by c grid of local costs,
+	  * using tiles of tileSize by tileSize cells. */
+	public WavefrontDtw(DtwCostFunction f, int r, int c, ForkJoinPool pool, int tileSize) {
+		if (tileSize < 1) throw new IllegalArgumentException("tileSize must be at least 1");
+		d = new double[r][c];
+		phi = new byte[r][c];
+		int tileRows = (r+tileSize-1)/tileSize;
+		int tileCols = (c+tileSize-1)/tileSize;
+		if (tileRows*tileCols == 1) {
+			fillTile(f, 0, r, 0, c);
+		} else {
+			for (int wave = 0; wave < tileRows+tileCols-1; wave++) {
+				List<ForkJoinTask<?>> tiles = new ArrayList<ForkJoinTask<?>>();
+				for (int ti = Math.max(0, wave-tileCols+1); ti <= Math.min(wave, tileRows-1); ti++) {
+					int tj = wave-ti;
+					tiles.add(new TileTask(f, ti*tileSize, Math.min(r, (ti+1)*tileSize),
+							tj*tileSize, Math.min(c, (tj+1)*tileSize)));
+				}
+				pool.invoke(new WaveTask(tiles));
+			}
+		}
+		// traceback
+		int i = r-1;
+		int j = c-1;
+		List<Integer> pRev = new ArrayList<Integer>();
+		List<Integer> qRev = new ArrayList<Integer>();
+		pRev.add(i);
+		qRev.add(j);
+		while(i>0 && j>0){
+			int tb = phi[i][j];
+			if (tb == 1) {
+				i=i-1;
+				j=j-1;
+			}else if (tb == 2) {
+				i=i-1;
+			}else if (tb == 3) {
+				j=j-1;
+			}else throw new RuntimeException("found invalid direction code during traceback; perhaps forward scan was incomplete");
+			pRev.add(i);
+			qRev.add(j);
+		}
+		Collections.reverse(pRev);
+		Collections.reverse(qRev);
+		p = Collections.unmodifiableList(pRev);
+		q = Collections.unmodifiableList(qRev);
+	}
+
+	/** Runs the tiles of one wavefront. */
+	private static class WaveTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<ForkJoinTask<?>> tiles;
+
+		WaveTask(List<ForkJoinTask<?>> tiles) {
+			this.tiles = tiles;
+		}
+
+		protected void compute() {
+			invokeAll(tiles);
+		}
+	}
+
+	/** Fills in one tile. */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final DtwCostFunction f;
+		private final int rowFrom, rowTo, colFrom, colTo;
+
+		TileTask(DtwCostFunction f, int rowFrom, int rowTo, int colFrom, int colTo) {
+			this.f = f;
+			this.rowFrom = rowFrom;
+			this.rowTo = rowTo;
+			this.colFrom = colFrom;
+			this.colTo = colTo;
+		}
+
+		protected void compute() {
+			fillTile(f, rowFrom, rowTo, colFrom, colTo);
+		}
+	}
+
+	/** Fills in the cost and direction matrices for rows rowFrom..rowTo-1 and columns
+	  * colFrom..colTo-1, in the same way as DanEllisDtw.forwardRow(). The cells above and
+	  * to the left of the tile must already be filled in. */
+	private void fillTile(DtwCostFunction f, int rowFrom, int rowTo, int colFrom, int colTo) {
+		for(int i=rowFrom;i<rowTo;i++){
+			double[] prev = (i==0) ? null : d[i-1];
+			double[] cur = d[i];
+			byte[] phiRow = phi[i];
+			for(int j=colFrom;j<colTo;j++){
+				// the cost matrix is padded with 0 at the top left and NaN elsewhere on the edges
+				double diag = (i==0) ? ((j==0) ? 0 : Double.NaN) : ((j==0) ? Double.NaN : prev[j-1]);
+				double up = (i==0) ? Double.NaN : prev[j];
+				double left = (j==0) ? Double.NaN : cur[j-1];
+				double dm = diag;
+				byte tb = 1;
+				if (Double.compare(up,dm) < 0) {dm = up; tb = 2;}
+				if (Double.compare(left,dm) < 0) {dm = left; tb = 3;}
+				cur[j] = f.cost(i,j) + dm;
+				phiRow[j] = tb;
+			}
+		}
+	}
+
+	/**
+	 * @return the state sequence P
+	 */
+	public List<Integer> getP() {
+		return p;
+	}
+
+	/**
+	 * @return the state sequence Q
+	 */
+	public List<Integer> getQ() {
+		return q;
+	}
+
+	/**
+	 * @return the cost array
+	 */
+	public double[][] getD() {
+		return d;
+	}
+
+	/**
+	 * @return total cost
+	 */
+	public double getTotalCost() {
+		double[] lastRow = d[d.length - 1];
+		return lastRow[lastRow.length - 1];
+	}
+}
@@ -0,0 +1,280 @@
+package io.github.speechchemistry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A FeatureWeightProfile compiled for a phone inventory, giving weighted versions of
+ * Phone.averageFeatureDistance().
+ * <p>
+ * Each UniVectorPhone is encoded as two bit-planes, one with a bit set for each + feature
+ * and one for each - feature. For a pair of phones, the number of bits that differ in the
+ * two planes is the same as UniVectorPhone.doubleFeatureDiff(), so features with the same
+ * weight are counted together with one mask and a bit count, and the weighted sum only
+ * needs one multiplication per distinct weight. The distances from a phone of the inventory
+ * to every other phone are worked out the first time one of them is needed and kept as a row
+ * of a table indexed by phone id, so looking up a weighted distance costs about the same as
+ * an unweighted (cached) one, and a few queries against a large inventory only fill in the
+ * rows they use.
+ * <p>
+ * With every weight equal to 1 the results are exactly the same as the unweighted measure.
+ * Components of multi-component phones are matched with the weighted differences, using the
+ * Phone.getComponentAlignment() at the time the profile is compiled.
+ * The full table has size()^2 entries (about 28MB for the full PHOIBLE inventory). Phones
+ * that aren't in the inventory are encoded when needed, which is slower; to find the phones
+ * closest to such a phone use averageFeatureDistances(), which encodes it only once.
+ * <p>
+ * A profile compiled for a master inventory can be shared by views of it (see forView()),
+ * so the table is only worked out once.
+ * <p>
+ * A WeightedPhoneDistance can't be changed once it has been created so it can be shared by
+ * any number of threads.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public class WeightedPhoneDistance {
+    /** The profile that was compiled. */
+    private final FeatureWeightProfile profile;
+    /** The inventory whose phone pairs are in the table. */
+    private final PhoneInventory inventory;
+    /** Key = feature name, value = bit number in the bit-planes. */
+    private final Map<String,Integer> featureBit;
+    /** Number of longs in each bit-plane. */
+    private final int words;
+    /** The distinct non-zero weights. */
+    private final double[] classWeights;
+    /** For each distinct weight, the bits of the features with that weight. */
+    private final long[][] classMasks;
+    /** How the components of multi-component phones are matched. */
+    private final ComponentAlignment alignment;
+    /** The components of each phone of tableInventory, encoded as bit-planes (see encode()). */
+    private final long[][][] planesById;
+    /** Weighted average feature distances: row thisId, column otherId by the ids of
+      * tableInventory. A row is null until it is first needed (see row()). */
+    private final AtomicReferenceArray<double[]> table;
+    /** The inventory whose ids index the table: the same as inventory, or its master for a view. */
+    private final PhoneInventory tableInventory;
+    /** Number of rows in the table. */
+    private final int tableSize;
+    /** For each phone id of the inventory, the table id (-1 if it isn't in the table); null if they are the same. */
+    private final int[] tableIds;
+
+    /** Compiles the profile; see FeatureWeightProfile.compile(). The feature names are taken
+      * from the inventory and every feature in the profile must be one of them. */
+    WeightedPhoneDistance(FeatureWeightProfile profile, PhoneInventory inventory) {
+        this.profile = profile;
+        this.inventory = inventory;
+        this.alignment = Phone.getComponentAlignment();
+        featureBit = new HashMap<String,Integer>();
+        for (Phone ph : inventory.getPhoneSet()) {
+            for (UniVectorPhone uVPhone : ph.getComponentPhones()) {
+                for (String feature : uVPhone.getFeatureMap().keySet()) {
+                    if (!featureBit.containsKey(feature)) featureBit.put(feature, featureBit.size());
+                }
+            }
+        }
+        for (String feature : profile.getWeights().keySet()) {
+            if (!featureBit.containsKey(feature))
+                throw new IllegalArgumentException("Feature "+feature+" in weight profile "+profile.getName()+" is not used by the phone inventory");
+        }
+        words = Math.max(1, (featureBit.size()+63)/64);
+        // group the features by weight; zero weights can be left out
+        Map<Double,long[]> masksByWeight = new TreeMap<Double,long[]>();
+        for (Map.Entry<String,Integer> f : featureBit.entrySet()) {
+            double w = profile.getWeight(f.getKey());
+            if (w == 0) continue;
+            long[] mask = masksByWeight.get(w);
+            if (mask == null) {
+                mask = new long[words];
+                masksByWeight.put(w, mask);
+            }
+            mask[f.getValue()>>>6] |= 1L<<f.getValue();
+        }
+        classWeights = new double[masksByWeight.size()];
+        classMasks = new long[masksByWeight.size()][];
+        int c = 0;
+        for (Map.Entry<Double,long[]> m : masksByWeight.entrySet()) {
+            classWeights[c] = m.getKey();
+            classMasks[c] = m.getValue();
+            c++;
+        }
+        // encode every phone once; the table is filled in as rows are needed
+        int n = inventory.size();
+        planesById = new long[n][][];
+        for (int id = 0; id < n; id++) planesById[id] = encode(inventory.getPhoneById(id));
+        table = new AtomicReferenceArray<double[]>(n);
+        tableInventory = inventory;
+        tableSize = n;
+        tableIds = null;
+    }
+
+    /** Shares a compiled table with a view of its inventory (see forView()). */
+    private WeightedPhoneDistance(WeightedPhoneDistance compiled, PhoneInventory view) {
+        profile = compiled.profile;
+        inventory = view;
+        alignment = compiled.alignment;
+        featureBit = compiled.featureBit;
+        words = compiled.words;
+        classWeights = compiled.classWeights;
+        classMasks = compiled.classMasks;
+        planesById = compiled.planesById;
+        table = compiled.table;
+        tableInventory = compiled.tableInventory;
+        tableSize = compiled.tableSize;
+        tableIds = new int[view.size()];
+        for (int id = 0; id < tableIds.length; id++) tableIds[id] = view.getMasterId(id);
+    }
+
+    /** Gets the weighted distances for a view of the inventory that the profile was compiled
+      * for (see PhoneInventory.view()), sharing the table rather than compiling it again. Phones
+      * of the view that aren't in the table are encoded when needed, which is slower. Rows
+      * filled in by either are used by both. */
+    public WeightedPhoneDistance forView(PhoneInventory view) {
+        if (view.getMaster() != tableInventory)
+            throw new IllegalArgumentException("The inventory isn't a view of the inventory that weight profile "+profile.getName()+" was compiled for");
+        return new WeightedPhoneDistance(this, view);
+    }
+
+    /** Gets the profile that was compiled. */
+    public FeatureWeightProfile getProfile() {
+        return profile;
+    }
+
+    /** Gets the inventory whose phone pairs are in the table. */
+    public PhoneInventory getInventory() {
+        return inventory;
+    }
+
+    /** Gets how the components of multi-component phones are matched. */
+    public ComponentAlignment getComponentAlignment() {
+        return alignment;
+    }
+
+    /** Weighted version of thisPhone.averageFeatureDistance(otherPhone). */
+    public double averageFeatureDistance(Phone thisPhone, Phone otherPhone) {
+        int thisId = tableInventory.indexOf(thisPhone);
+        int otherId = tableInventory.indexOf(otherPhone);
+        if (thisId >= 0 && otherId >= 0) return row(thisId)[otherId];
+        return averageDistance((thisId >= 0) ? planesById[thisId] : encode(thisPhone),
+                (otherId >= 0) ? planesById[otherId] : encode(otherPhone));
+    }
+
+    /** Weighted versions of thisPhone.averageFeatureDistance(otherPhone) for each of the
+      * other phones, in iteration order. Unlike calling averageFeatureDistance(Phone, Phone)
+      * for each one, a phone that isn't in the inventory (e.g. from another language) is
+      * only encoded once, so this suits nearest phone searches. */
+    public double[] averageFeatureDistances(Phone thisPhone, Collection<Phone> otherPhones) {
+        double[] distances = new double[otherPhones.size()];
+        int thisId = tableInventory.indexOf(thisPhone);
+        double[] thisRow = (thisId >= 0) ? row(thisId) : null;
+        long[][] thisPlanes = (thisId >= 0) ? planesById[thisId] : encode(thisPhone);
+        int k = 0;
+        for (Phone otherPhone : otherPhones) {
+            int otherId = tableInventory.indexOf(otherPhone);
+            if (otherId >= 0) {
+                distances[k++] = (thisRow != null) ? thisRow[otherId] : averageDistance(thisPlanes, planesById[otherId]);
+            } else {
+                distances[k++] = averageDistance(thisPlanes, encode(otherPhone));
+            }
+        }
+        return distances;
+    }
+
+    /** Weighted average feature distance between two phones of the inventory, given their ids. */
+    public double averageFeatureDistance(int thisId, int otherId) {
+        int n = inventory.size();
+        if (thisId < 0 || thisId >= n || otherId < 0 || otherId >= n)
+            throw new IndexOutOfBoundsException("Phone ids "+thisId+", "+otherId+" not in inventory of size "+n);
+        if (tableIds == null) return row(thisId)[otherId];
+        int thisTableId = tableIds[thisId];
+        int otherTableId = tableIds[otherId];
+        if (thisTableId >= 0 && otherTableId >= 0) return row(thisTableId)[otherTableId];
+        return averageDistance(encode(inventory.getPhoneById(thisId)), encode(inventory.getPhoneById(otherId)));
+    }
+
+    /** Gets a row of the table, working it out if this is the first time it is needed. Two
+      * threads may occasionally both work out the same row, with the same result. */
+    private double[] row(int tableId) {
+        double[] row = table.get(tableId);
+        if (row == null) {
+            row = new double[tableSize];
+            long[][] planes = planesById[tableId];
+            for (int j = 0; j < tableSize; j++) row[j] = averageDistance(planes, planesById[j]);
+            table.set(tableId, row);
+        }
+        return row;
+    }
+
+    /** Encodes the components of a phone as bit-planes: + features then - features. */
+    private long[][] encode(Phone ph) {
+        List<UniVectorPhone> comp = ph.getComponentPhones();
+        long[][] planes = new long[comp.size()][2*words];
+        for (int k = 0; k < comp.size(); k++) {
+            for (Map.Entry<String,Integer> f : comp.get(k).getFeatureMap().entrySet()) {
+                Integer bit = featureBit.get(f.getKey());
+                if (bit == null)
+                    throw new IllegalArgumentException("Feature "+f.getKey()+" of phone "+ph+" is not used by the phone inventory");
+                int value = f.getValue();
+                if (value == 1) planes[k][bit>>>6] |= 1L<<bit;
+                else if (value == -1) planes[k][words+(bit>>>6)] |= 1L<<bit;
+                else if (value != 0)
+                    throw new IllegalArgumentException("Feature "+f.getKey()+" of phone "+ph+" has value "+value+" (should be 1, -1 or 0)");
+            }
+        }
+        return planes;
+    }
+
+    /** Weighted (2x) feature difference of two encoded components. */
+    private double weightedDoubleDiff(long[] a, long[] b) {
+        double sum = 0;
+        for (int c = 0; c < classWeights.length; c++) {
+            long[] mask = classMasks[c];
+            int count = 0;
+            for (int w = 0; w < words; w++) {
+                count += Long.bitCount((a[w]^b[w]) & mask[w]) + Long.bitCount((a[words+w]^b[words+w]) & mask[w]);
+            }
+            sum += classWeights[c]*count;
+        }
+        return sum;
+    }
+
+    /** The alignment of Phone.averageFeatureDistance() (see ComponentAlignment) using the
+      * weighted component difference. */
+    private double averageDistance(long[][] thisComp, long[][] otherComp) {
+        int thisSize = thisComp.length; // x axis length
+        int otherSize = otherComp.length; // y axis length
+        if (thisSize == 1 && otherSize == 1) return 0.5*weightedDoubleDiff(thisComp[0], otherComp[0]);
+        if (alignment == ComponentAlignment.DIAGONAL) { // only the matched cells are needed
+            int[] cells = alignment.align(thisSize, otherSize, null);
+            double dblFeatDiff = 0;
+            for (int cell : cells) dblFeatDiff += weightedDoubleDiff(thisComp[cell/otherSize], otherComp[cell%otherSize]);
+            return (0.5*dblFeatDiff)/cells.length;
+        }
+        double[] diff = new double[thisSize*otherSize];
+        for (int i = 0; i < thisSize; i++) {
+            for (int j = 0; j < otherSize; j++) {
+                diff[i*otherSize+j] = weightedDoubleDiff(thisComp[i], otherComp[j]);
+            }
+        }
+        int[] cells = alignment.align(thisSize, otherSize, diff);
+        double dblFeatDiff = 0;
+        for (int cell : cells) dblFeatDiff += diff[cell];
+        return (0.5*dblFeatDiff)/cells.length;
+    }
+
+    /** Gets the features that have each weight, for display. */
+    public String toString() {
+        Map<Double,List<String>> byWeight = new TreeMap<Double,List<String>>();
+        for (String feature : featureBit.keySet()) {
+            double w = profile.getWeight(feature);
+            if (!byWeight.containsKey(w)) byWeight.put(w, new ArrayList<String>());
+            byWeight.get(w).add(feature);
+        }
+        return profile.getName()+" "+byWeight;
+    }
+}
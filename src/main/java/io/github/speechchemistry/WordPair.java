@@ -0,0 +1,53 @@
+package io.github.speechchemistry;
+
+/**
+ * A pair of phonetic transcriptions to be compared e.g. a recognizer hypothesis and its
+ * reference transcription. Phones are separated by spaces. Following BfeppForTwoWordsCli,
+ * word2 should be the reference transcription / ground-truth.
+ * @author Tim Kempton
+ * @version 0.1
+ */
+public final class WordPair {
+    /** First transcription (e.g. hypothesis). */
+    private final String word1;
+    /** Second transcription (reference). */
+    private final String word2;
+
+    /** Creates the pair; word2 should be the reference transcription. */
+    public WordPair(String word1, String word2) {
+        if (word1 == null || word2 == null) throw new NullPointerException("Transcriptions can't be null");
+        this.word1 = word1;
+        this.word2 = word2;
+    }
+
+    /** Gets the first transcription. */
+    public String getWord1() {
+        return word1;
+    }
+
+    /** Gets the second (reference) transcription. */
+    public String getWord2() {
+        return word2;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * word1.hashCode() + word2.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof WordPair))
+            return false;
+        WordPair other = (WordPair) obj;
+        return word1.equals(other.word1) && word2.equals(other.word2);
+    }
+
+    /** Produces the same tab separated layout as BfeppForTwoWordsCli (without the score). */
+    @Override
+    public String toString() {
+        return word1 + "\t" + word2;
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the asynchronous scorer against the synchronous one, and its backpressure and timeouts.
+ */
+public class AsyncBfeppScorerTest
+{
+    @Test
+    public void resultsMatchSynchronousScorer() throws Exception
+    {
+        BfeppScorer scorer = BfeppScorer.forFramework(FeatureFramework.HAYES);
+        assertEquals(2.75, scorer.bfepp("x e", "k ã"), 0.1);
+        List<WordPair> pairs = new ArrayList<WordPair>();
+        for (int i = 0; i < 50; i++) {
+            pairs.add(new WordPair("t u", "d u"));
+            pairs.add(new WordPair("x e", "k ã"));
+            pairs.add(new WordPair("h ɛ l o", "h ɛ l o w"));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AsyncBfeppScorer async = new AsyncBfeppScorer(scorer, executor, 8, 0, TimeUnit.SECONDS);
+        try {
+            List<Future<Double>> futures = async.submitAll(pairs);
+            for (int i = 0; i < pairs.size(); i++) {
+                WordPair pair = pairs.get(i);
+                assertEquals(scorer.bfepp(pair.getWord1(), pair.getWord2()), futures.get(i).get(), 0);
+            }
+            final Map<WordPair, Double> streamed = new ConcurrentHashMap<WordPair, Double>();
+            final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+            async.scoreAll(pairs.iterator(), new AsyncBfeppScorer.ResultHandler() {
+                public void onResult(WordPair pair, double bfepp) {
+                    streamed.put(pair, bfepp);
+                }
+                public void onError(WordPair pair, Throwable error) {
+                    errors.add(error);
+                }
+            }, 3);
+            assertTrue(errors.isEmpty());
+            assertEquals(3, streamed.size());
+            assertEquals(0.5, streamed.get(new WordPair("t u", "d u")), 0);
+            assertEquals(0, async.getPendingCount());
+        } finally {
+            async.close();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void slowRequestsAreBoundedAndTimedOut() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        BfeppScorer slowScorer = new BfeppScorer(FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv")) {
+            @Override
+            public double bfepp(String word1, String word2) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return 0;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AsyncBfeppScorer async = new AsyncBfeppScorer(slowScorer, executor, 2, 200, TimeUnit.MILLISECONDS);
+        try {
+            Future<Double> first = async.submit(new WordPair("b", "b"));
+            Future<Double> second = async.submit(new WordPair("b", "m"));
+            assertEquals(2, async.getPendingCount());
+            // no place until one of the slow requests times out
+            assertNull(async.trySubmit(new WordPair("m", "m"), 10, TimeUnit.MILLISECONDS));
+            try {
+                first.get();
+                fail("Request should have timed out");
+            } catch (CancellationException expected) {}
+            try {
+                second.get();
+                fail("Request should have timed out");
+            } catch (CancellationException expected) {}
+            release.countDown();
+            Future<Double> third = async.trySubmit(new WordPair("m", "m"), 5, TimeUnit.SECONDS);
+            assertNotNull(third);
+            assertEquals(0, third.get(), 0);
+        } finally {
+            release.countDown();
+            async.close();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void timedOutRequestsKeepTheirPlaceUntilScoringStops() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        BfeppScorer stubbornScorer = new BfeppScorer(FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv")) {
+            @Override
+            public double bfepp(String word1, String word2) {
+                while (release.getCount() > 0) Thread.yield(); // ignores interrupts
+                return 0;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AsyncBfeppScorer async = new AsyncBfeppScorer(stubbornScorer, executor, 1, 50, TimeUnit.MILLISECONDS);
+        try {
+            Future<Double> first = async.submit(new WordPair("b", "b"));
+            try {
+                first.get();
+                fail("Request should have timed out");
+            } catch (CancellationException expected) {}
+            // the scoring is still running, so there is still no place
+            assertNull(async.trySubmit(new WordPair("m", "m"), 100, TimeUnit.MILLISECONDS));
+            assertEquals(1, async.getPendingCount());
+            release.countDown();
+            Future<Double> second = async.trySubmit(new WordPair("m", "m"), 5, TimeUnit.SECONDS);
+            assertNotNull(second);
+            assertEquals(0, second.get(), 0);
+        } finally {
+            release.countDown();
+            async.close();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that batch scoring gives exactly the same results as scoring each pair.
+ */
+public class BatchedBfeppScorerTest
+{
+    @Test
+    public void sameResultsAsPerPairScoring() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        BfeppScorer scorer = new BfeppScorer(phInv);
+        List<WordPair> pairs = new SyntheticCorpus(phInv, 5, 1, 9, SyntheticCorpus.LengthDistribution.UNIFORM).pairs(3000, 0.3);
+        // block sizes that split the groups of pairs with the same lengths in different places
+        for (int blockSize : new int[] {1, 7, BatchedBfeppScorer.DEFAULT_BLOCK_SIZE}) {
+            BatchedBfeppScorer batched = new BatchedBfeppScorer(scorer, blockSize);
+            double[] errors = batched.totalFeatureErrors(pairs);
+            double[] bfepp = batched.bfepp(pairs);
+            for (int p = 0; p < pairs.size(); p++) {
+                WordPair pair = pairs.get(p);
+                assertEquals(pair.toString(), scorer.totalFeatureErrors(pair.getWord1(), pair.getWord2()), errors[p], 0);
+                assertEquals(pair.toString(), scorer.bfepp(pair.getWord1(), pair.getWord2()), bfepp[p], 0);
+            }
+        }
+        try {
+            new BatchedBfeppScorer(scorer).bfepp(Arrays.asList(new WordPair("b ɪ", "b x")));
+            fail("Unknown phones must be reported");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("Pair 1 "));
+        }
+    }
+}
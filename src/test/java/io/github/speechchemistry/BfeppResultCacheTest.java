@@ -0,0 +1,93 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that cached word pair scores are the same as the scorer's, in memory and on disk.
+ */
+public class BfeppResultCacheTest
+{
+    @Test
+    public void memoryTier() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        BfeppScorer scorer = new BfeppScorer(phInv);
+        List<WordPair> pairs = new SyntheticCorpus(phInv, 3, 1, 8, SyntheticCorpus.LengthDistribution.UNIFORM).pairs(200, 0.3);
+        BfeppResultCache cache = new BfeppResultCache(scorer, 50, PhoneDistanceCache.EvictionPolicy.LRU);
+        for (int repeat = 0; repeat < 2; repeat++) {
+            for (WordPair pair : pairs) {
+                assertEquals(scorer.bfepp(pair.getWord1(), pair.getWord2()), cache.bfepp(pair.getWord1(), pair.getWord2()), 0);
+            }
+        }
+        assertTrue(cache.size() <= 50);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(400, cache.getHitCount()+cache.getMissCount());
+        BfeppResultCache small = new BfeppResultCache(scorer, 10, PhoneDistanceCache.EvictionPolicy.FIFO);
+        small.bfepp("b aː", "d aː");
+        small.bfepp("b aː", "d aː");
+        assertEquals(0.5, small.getHitRate(), 0);
+    }
+
+    @Test
+    public void diskTierKeptBetweenRuns() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        BfeppScorer scorer = new BfeppScorer(phInv);
+        List<WordPair> pairs = new SyntheticCorpus(phInv, 5, 1, 8, SyntheticCorpus.LengthDistribution.UNIFORM).pairs(300, 0.3);
+        File file = File.createTempFile("bfepp", ".cache");
+        file.delete();
+        try {
+            BfeppResultCache cache = new BfeppResultCache(scorer, 20, PhoneDistanceCache.EvictionPolicy.LRU, file, 4096);
+            for (WordPair pair : pairs) cache.bfepp(pair.getWord1(), pair.getWord2());
+            cache.close();
+            long length = file.length();
+            cache = new BfeppResultCache(scorer, 20, PhoneDistanceCache.EvictionPolicy.LRU, file, 16);
+            for (WordPair pair : pairs) {
+                assertEquals(scorer.bfepp(pair.getWord1(), pair.getWord2()), cache.bfepp(pair.getWord1(), pair.getWord2()), 0);
+            }
+            cache.close();
+            assertEquals(length, file.length());
+            assertEquals(cache.getMissCount(), cache.getDiskHitCount()+cache.getDiskMissCount());
+            assertTrue(cache.getOverallHitRate() > 0.8);
+            // the same inventory loaded again is the same scorer, but other weights or another inventory aren't
+            new BfeppResultCache(new BfeppScorer(FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv")),
+                    20, PhoneDistanceCache.EvictionPolicy.LRU, file, 16).close();
+            Map<String,Double> w = new HashMap<String,Double>();
+            w.put("voice", 0.5);
+            BitSet half = new BitSet();
+            half.set(0, phInv.size()/2);
+            BfeppScorer[] others = { new BfeppScorer(phInv, new FeatureWeightProfile("half voice", w).compile(phInv)),
+                    new BfeppScorer(phInv.view(half)) };
+            for (BfeppScorer other : others) {
+                try {
+                    new BfeppResultCache(other, 20, PhoneDistanceCache.EvictionPolicy.LRU, file, 16);
+                    fail("A cache of a different scorer must be rejected");
+                } catch (IOException e) {
+                    assertTrue(e.getMessage().contains("different scorer"));
+                }
+            }
+
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void oversizedDiskTierIsNotCreated() throws IOException
+    {
+        BfeppScorer scorer = new BfeppScorer(FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv"));
+        File file = File.createTempFile("bfepp", ".cache");
+        file.delete();
+        try {
+            new BfeppResultCache(scorer, 20, PhoneDistanceCache.EvictionPolicy.LRU, file, Integer.MAX_VALUE);
+            fail("A disk tier too large to map must be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("too large to map"));
+        }
+        assertFalse(file.exists());
+    }
+}
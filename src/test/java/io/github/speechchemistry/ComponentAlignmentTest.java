@@ -0,0 +1,108 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the dynamic programming component alignment against the diagonal approximation.
+ */
+public class ComponentAlignmentTest
+{
+    private static Phone phone(PhoneInventory phInv, String... components)
+    {
+        List<UniVectorPhone> comp = new ArrayList<UniVectorPhone>();
+        StringBuilder label = new StringBuilder();
+        for (String c : components) {
+            comp.add(phInv.getPhone(c).getComponentPhones().get(0));
+            label.append(c);
+        }
+        return new Phone(label.toString(), comp);
+    }
+
+    @Test
+    public void sameForTwoComponents() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        for (Phone a : phInv.getPhoneList()) {
+            for (Phone b : phInv.getPhoneList()) {
+                assertEquals(a+" "+b, a.averageFeatureDistance(b, ComponentAlignment.DIAGONAL),
+                        a.averageFeatureDistance(b, ComponentAlignment.DYNAMIC_PROGRAMMING), 0);
+            }
+        }
+    }
+
+    @Test
+    public void threeComponents() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadFullInventory();
+        Phone au = phone(phInv, "a", "u");
+        Phone aau = phone(phInv, "a", "a", "u");
+        // the diagonal line matches the second a with u, the alignment doesn't need to
+        assertTrue(au.averageFeatureDistance(aau, ComponentAlignment.DIAGONAL) > 0);
+        assertEquals(0, au.averageFeatureDistance(aau, ComponentAlignment.DYNAMIC_PROGRAMMING), 0);
+        // the alignment distance is symmetric
+        String[] labels = { "a", "u", "i", "b", "m", "k", "s" };
+        Random random = new Random(3);
+        for (int k = 0; k < 500; k++) {
+            String[] x = new String[1+random.nextInt(4)];
+            String[] y = new String[1+random.nextInt(4)];
+            for (int i = 0; i < x.length; i++) x[i] = labels[random.nextInt(labels.length)];
+            for (int i = 0; i < y.length; i++) y[i] = labels[random.nextInt(labels.length)];
+            Phone phX = phone(phInv, x);
+            Phone phY = phone(phInv, y);
+            double dp = phX.averageFeatureDistance(phY, ComponentAlignment.DYNAMIC_PROGRAMMING);
+            assertEquals(phX+" "+phY, dp, phY.averageFeatureDistance(phX, ComponentAlignment.DYNAMIC_PROGRAMMING), 0);
+        }
+    }
+
+    @Test
+    public void selectedAlignmentIsUsed() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadFullInventory();
+        Phone au = phone(phInv, "a", "u");
+        Phone aau = phone(phInv, "a", "a", "u");
+        double diagonal = au.averageFeatureDistance(aau);
+        try {
+            Phone.setComponentAlignment(ComponentAlignment.DYNAMIC_PROGRAMMING);
+            assertEquals(0, au.averageFeatureDistance(aau), 0);
+            Set<Phone> phones = new LinkedHashSet<Phone>(Arrays.asList(au, aau));
+            WeightedPhoneDistance weights = FeatureWeightProfile.loadResource("/common/hayes/weights_reduced_tone_and_anterior_utf8nfc.tsv")
+                    .compile(new PhoneInventory(phones));
+            assertEquals(ComponentAlignment.DYNAMIC_PROGRAMMING, weights.getComponentAlignment());
+            assertEquals(0, weights.averageFeatureDistance(0, 1), 0);
+        } finally {
+            Phone.setComponentAlignment(ComponentAlignment.DIAGONAL);
+        }
+        assertEquals(diagonal, au.averageFeatureDistance(aau), 0);
+        assertEquals(ComponentAlignment.DYNAMIC_PROGRAMMING, ComponentAlignment.fromName("dp"));
+    }
+
+    @Test
+    public void tablesRefuseToScoreAfterTheAlignmentChanges() throws IOException
+    {
+        BfeppScorer scorer = new BfeppScorer(FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv"));
+        BatchedBfeppScorer batched = new BatchedBfeppScorer(scorer);
+        BfeppResultCache cache = new BfeppResultCache(scorer);
+        List<WordPair> pairs = Arrays.asList(new WordPair("t uː", "d uː"));
+        batched.bfepp(pairs);
+        cache.bfepp("t uː", "d uː");
+        try {
+            Phone.setComponentAlignment(ComponentAlignment.DYNAMIC_PROGRAMMING);
+            try {
+                batched.bfepp(pairs);
+                fail("The batched scorer's table has distances of the old alignment");
+            } catch (IllegalStateException expected) {}
+            try {
+                cache.bfepp("t uː", "d uː");
+                fail("The cache has scores of the old alignment");
+            } catch (IllegalStateException expected) {}
+            assertEquals(scorer.bfepp("t uː", "d uː"), new BfeppResultCache(scorer).bfepp("t uː", "d uː"), 0);
+        } finally {
+            Phone.setComponentAlignment(ComponentAlignment.DIAGONAL);
+        }
+        assertEquals(scorer.bfepp("t uː", "d uː"), batched.bfepp(pairs)[0], 0);
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the precomputed transliteration tables against PhoneUtterance.transliterate().
+ */
+public class CorpusTransliteratorTest
+{
+    @Test
+    public void tableMatchesSingleUtteranceTransliteration() throws IOException
+    {
+        PhoneInventory sourcePhInv = FeatureFramework.HAYES.loadFullInventory();
+        PhoneInventory targetPhInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        TransliterationTable table = new TransliterationTable(sourcePhInv, targetPhInv);
+        assertEquals(sourcePhInv.getPhoneSet().size(), table.size());
+        // one utterance containing every phone of the source inventory
+        PhoneUtterance everyPhone = new PhoneUtterance(new ArrayList<Phone>(sourcePhInv.getPhoneSet()), sourcePhInv);
+        assertEquals(everyPhone.transliterate(targetPhInv).toString(), table.transliterate(everyPhone).toString());
+    }
+
+    @Test
+    public void corpusIsWrittenInOrderForEveryTarget() throws IOException, InterruptedException
+    {
+        PhoneInventory sourcePhInv = FeatureFramework.HAYES.loadFullInventory();
+        List<PhoneInventory> targets = Arrays.asList(
+                FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv"),
+                FeatureFramework.HAYES.loadInventory("/rus/russian_components_utf8nfc.tsv"));
+        String[] corpusLines = {"h ɛ l o w", "", "t u", "d u", "k a t"};
+        StringBuilder corpus = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            for (String line : corpusLines) corpus.append(line).append('\n');
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CorpusTransliterator transliterator = new CorpusTransliterator(sourcePhInv, targets, executor);
+            transliterator.setChunkLines(3);
+            List<StringWriter> outs = Arrays.asList(new StringWriter(), new StringWriter());
+            transliterator.transliterate(new BufferedReader(new StringReader(corpus.toString())), outs, executor, 4);
+            for (int t = 0; t < targets.size(); t++) {
+                String[] outLines = outs.get(t).toString().split("\n", -1);
+                assertEquals(50 * corpusLines.length + 1, outLines.length);
+                for (int i = 0; i < 50 * corpusLines.length; i++) {
+                    String in = corpusLines[i % corpusLines.length];
+                    String expected = in.isEmpty() ? "" : new PhoneUtterance(in, sourcePhInv).transliterate(targets.get(t))
+                            .getPhoneList().toString().replaceAll("[\\[\\],]", "");
+                    assertEquals(expected, outLines[i]);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package io.github.speechchemistry;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the linear memory Dynamic Time Warp modes against DanEllisDtw.
+ */
+public class HirschbergDtwTest
+{
+    @Test
+    public void sampleMatrix()
+    {
+        double[][] smallArray = {{1,2,3,4},{1,1,1,8},{3,2,1,1}};
+        HirschbergDtw dtw = new HirschbergDtw(smallArray);
+        assertEquals(4.0, dtw.getTotalCost(), 0);
+        assertEquals(4.0, DanEllisDtw.totalCost(smallArray), 0);
+        assertEquals(new DanEllisDtw(smallArray).getP(), dtw.getP());
+        assertEquals(new DanEllisDtw(smallArray).getQ(), dtw.getQ());
+    }
+
+    @Test
+    public void sameAlignmentAsFullMatrix()
+    {
+        Random random = new Random(42);
+        for (int n = 0; n < 300; n++) {
+            // small integer costs so that there are lots of ties to break
+            int r = 1 + random.nextInt(n < 200 ? 12 : 400);
+            int c = 1 + random.nextInt(n < 200 ? 12 : 400);
+            double[][] m = new double[r][c];
+            for (int i = 0; i < r; i++)
+                for (int j = 0; j < c; j++)
+                    m[i][j] = random.nextInt(3) * 0.5;
+            DanEllisDtw expected = new DanEllisDtw(m);
+            HirschbergDtw actual = new HirschbergDtw(m);
+            String shape = r + "x" + c;
+            assertEquals(shape, expected.getP(), actual.getP());
+            assertEquals(shape, expected.getQ(), actual.getQ());
+            assertEquals(shape, expected.getTotalCost(), actual.getTotalCost(), 0);
+            assertEquals(shape, expected.getTotalCost(), DanEllisDtw.totalCost(m), 0);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that updating the charts and transliteration table after a feature file edit gives
+ * the same results as calculating them from scratch.
+ */
+public class IncrementalChartsTest
+{
+    private static final String HAUSA = "/hau/hausa_components_utf8nfc.tsv";
+    private static final String CZECH = "/ces/czech_components_utf8nfc.tsv";
+
+    private static PhoneInventory load(String inventory, boolean edited) throws IOException
+    {
+        List<String> featureFiles = new ArrayList<String>(FeatureFramework.HAYES.getFeatureFilenames());
+        if (edited) featureFiles.add("/override_test_features_utf8nfc.tsv"); // changes ɸ and s
+        return new PhoneInventory(inventory, featureFiles);
+    }
+
+    private static String similarity(PhoneRelationshipCharts charts)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        charts.printSimilarity(new PrintStream(bytes));
+        return bytes.toString();
+    }
+
+    private static String minDistance(PhoneRelationshipCharts charts)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        charts.printMinDistance(new PrintStream(bytes));
+        return bytes.toString();
+    }
+
+    @Test
+    public void fingerprintsFindTheEditedPhones() throws IOException
+    {
+        PhoneInventory before = load(HAUSA, false);
+        PhoneInventory after = load(HAUSA, true);
+        assertEquals(new HashSet<String>(Arrays.asList("ɸ", "s")), after.changedPhoneLabels(before));
+        assertTrue(load(HAUSA, false).changedPhoneLabels(before).isEmpty());
+    }
+
+    @Test
+    public void updatedChartsMatchRebuiltCharts() throws IOException
+    {
+        PhoneInventory after = load(HAUSA, true);
+        PhoneRelationshipCharts full = new PhoneRelationshipCharts(after);
+        PhoneRelationshipCharts updated = new PhoneRelationshipCharts(load(HAUSA, false));
+        String oldMinDistance = minDistance(updated);
+        updated.update(after);
+        assertEquals(similarity(full), similarity(updated));
+        assertEquals(minDistance(full), minDistance(updated));
+        assertFalse(oldMinDistance.equals(minDistance(updated)));
+    }
+
+    @Test
+    public void chartFileIsPatchedInPlace() throws IOException
+    {
+        File file = File.createTempFile("hausa", ".charts");
+        file.delete();
+        try {
+            PhoneRelationshipCharts.updateFile(file, load(HAUSA, false));
+            PhoneInventory after = load(HAUSA, true);
+            PhoneRelationshipCharts updated = PhoneRelationshipCharts.updateFile(file, after);
+            assertEquals(2, updated.getChangedPhoneLabels().size());
+            PhoneRelationshipCharts loaded = PhoneRelationshipCharts.load(file);
+            PhoneRelationshipCharts full = new PhoneRelationshipCharts(after);
+            assertEquals(similarity(full), similarity(loaded));
+            assertEquals(minDistance(full), minDistance(loaded));
+            assertTrue(loaded.getInventory().changedPhoneLabels(after).isEmpty());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void updatedTransliterationTableMatchesRebuiltTable() throws IOException
+    {
+        TransliterationTable before = new TransliterationTable(load(HAUSA, false), load(CZECH, false));
+        PhoneInventory hausa = load(HAUSA, true);
+        PhoneInventory czech = load(CZECH, true);
+        TransliterationTable full = new TransliterationTable(hausa, czech);
+        TransliterationTable updated = new TransliterationTable(before, hausa, czech);
+        for (int id = 0; id < hausa.size(); id++) {
+            Phone ph = hausa.getPhoneById(id);
+            assertEquals(ph.getIpaLabel(), full.closest(ph), updated.closest(ph));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the inventory distance matrix against nested loops, and that an interrupted
+ * matrix file is resumed to the same rows.
+ */
+public class InventoryDistanceMatrixTest
+{
+    private static Map<String,PhoneInventory> inventories() throws IOException
+    {
+        Map<String,PhoneInventory> inventories = new LinkedHashMap<String,PhoneInventory>();
+        inventories.put("hau", FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv"));
+        inventories.put("ces", FeatureFramework.HAYES.loadInventory("/ces/czech_components_utf8nfc.tsv"));
+        inventories.put("rus", FeatureFramework.HAYES.loadInventory("/rus/russian_components_utf8nfc.tsv"));
+        return inventories;
+    }
+
+    private static Set<String> lines(File file) throws IOException
+    {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        Set<String> lines = new HashSet<String>();
+        String line;
+        while ((line = in.readLine()) != null) assertTrue(line, lines.add(line));
+        in.close();
+        return lines;
+    }
+
+    @Test
+    public void matrixMatchesNestedLoops() throws IOException
+    {
+        Map<String,PhoneInventory> inventories = inventories();
+        List<PhoneInventory> list = new ArrayList<PhoneInventory>(inventories.values());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        InventoryDistanceMatrix matrix = new InventoryDistanceMatrix(inventories, pool);
+        pool.shutdown();
+        for (int from = 0; from < list.size(); from++) {
+            for (int to = 0; to < list.size(); to++) {
+                double sum = 0;
+                for (Phone a : list.get(from).getPhoneList()) {
+                    double min = Double.POSITIVE_INFINITY;
+                    for (Phone b : list.get(to).getPhoneList()) min = Math.min(min, a.averageFeatureDistance(b));
+                    sum += min;
+                }
+                assertEquals(sum/list.get(from).size(), matrix.distance(from, to), 1e-12);
+            }
+            assertEquals(0.0, matrix.distance(from, from), 0.0);
+        }
+    }
+
+    @Test
+    public void interruptedFileIsResumed() throws IOException
+    {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        InventoryDistanceMatrix matrix = new InventoryDistanceMatrix(inventories(), pool);
+        File complete = File.createTempFile("distances", ".tsv");
+        File interrupted = File.createTempFile("distances", ".tsv");
+        try {
+            assertEquals(3, matrix.writeTsv(complete, true));
+            // keep the heading, one row and half of the next row
+            byte[] bytes = new byte[(int) complete.length()];
+            DataInputStream in = new DataInputStream(new FileInputStream(complete));
+            in.readFully(bytes);
+            in.close();
+            int secondRowEnd = 0;
+            for (int newlines = 0; newlines < 2; secondRowEnd++) if (bytes[secondRowEnd] == '\n') newlines++;
+            FileOutputStream out = new FileOutputStream(interrupted);
+            out.write(bytes, 0, secondRowEnd+10);
+            out.close();
+            assertEquals(2, matrix.writeTsv(interrupted, false));
+            assertEquals(lines(complete), lines(interrupted));
+            assertEquals(0, matrix.writeTsv(interrupted, false));
+        } finally {
+            pool.shutdown();
+            complete.delete();
+            interrupted.delete();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that the streaming exporters write exactly what the original string building
+ * methods produced.
+ */
+public class InventoryExportTest
+{
+    /** The original PhoneInventory.toSrilmFlmFindAndReplaceTsv() */
+    private static String originalFlm(PhoneInventory phInv)
+    {
+        String s = "";
+        for (Phone p : phInv.getPhoneList()) {
+            String flm = "";
+            for (UniVectorPhone u : p.getComponentPhones()) {
+                String uFlm = u.getIpaLabel();
+                for (Map.Entry<String,Integer> entry : u.getFeatureMap().entrySet()) uFlm = uFlm+":"+entry.getKey()+"-="+entry.getValue();
+                flm = flm+" "+uFlm;
+            }
+            s = s+p+"\t"+flm+"\n";
+        }
+        return s;
+    }
+
+    /** The original PhoneInventory.toSrilmDictionaryString() */
+    private static String originalDictionary(PhoneInventory phInv)
+    {
+        String s = "";
+        for (Phone p : phInv.getPhoneList()) {
+            String d = "";
+            for (Map.Entry<String,Integer> entry : p.getComponentPhones().get(0).getFeatureMap().entrySet()) {
+                int v = entry.getValue();
+                if (v == -1) d = d+"- - ";
+                else if (v == 1) d = d+"+ + ";
+                else d = d+"+ - ";
+                d = d+entry.getKey()+" , ";
+            }
+            s = s+p.getIpaLabel()+"\t"+d+"\n";
+        }
+        return s;
+    }
+
+    @Test
+    public void streamingOutputIsUnchanged() throws IOException
+    {
+        PhoneInventory[] inventories = {
+            FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv"),
+            FeatureFramework.HAYES.loadInventory("/eng/timit_components_utf8nfc.tsv")
+        };
+        for (PhoneInventory phInv : inventories) {
+            StringWriter flm = new StringWriter();
+            phInv.writeSrilmFlmFindAndReplaceTsv(flm);
+            assertEquals(originalFlm(phInv), flm.toString());
+            assertEquals(originalFlm(phInv), phInv.toSrilmFlmFindAndReplaceTsv());
+            StringWriter dictionary = new StringWriter();
+            phInv.writeSrilmDictionary(dictionary);
+            assertEquals(originalDictionary(phInv), dictionary.toString());
+            assertEquals(originalDictionary(phInv), phInv.toSrilmDictionaryString());
+        }
+    }
+
+    @Test
+    public void featureTsvHasOneLinePerComponent() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        StringBuilder tsv = new StringBuilder();
+        phInv.writeFeatureTsv(tsv, "hayesFeatures");
+        String[] lines = tsv.toString().split("\n");
+        Set<UniVectorPhone> components = new HashSet<UniVectorPhone>();
+        for (Phone p : phInv.getPhoneList()) components.addAll(p.getComponentPhones());
+        assertEquals(components.size()+1, lines.length);
+        int columns = lines[0].split("\t").length;
+        for (String line : lines) assertEquals(line, columns, line.split("\t").length);
+        assertEquals(phInv.getPhoneById(0).getComponentPhones().get(0).toTsvBodyString(), lines[1]);
+    }
+}
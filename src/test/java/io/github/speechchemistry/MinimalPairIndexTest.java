@@ -0,0 +1,82 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the minimal pairs found by wildcard hashing against comparing every pair of words.
+ */
+public class MinimalPairIndexTest
+{
+    /** Every pair of distinct words with the same length and 1..maxDifferences different phones */
+    private static Set<String> allPairs(List<String> words, int maxDifferences)
+    {
+        List<String> distinct = new ArrayList<String>(new LinkedHashSet<String>(words));
+        Set<String> pairs = new LinkedHashSet<String>();
+        for (int a = 0; a < distinct.size(); a++) {
+            String[] wa = distinct.get(a).split(" ");
+            for (int b = a+1; b < distinct.size(); b++) {
+                String[] wb = distinct.get(b).split(" ");
+                if (wa.length != wb.length) continue;
+                StringBuilder phones1 = new StringBuilder();
+                StringBuilder phones2 = new StringBuilder();
+                int differences = 0;
+                for (int i = 0; i < wa.length; i++) {
+                    if (!wa[i].equals(wb[i])) {
+                        phones1.append(differences == 0 ? "" : " ").append(wa[i]);
+                        phones2.append(differences == 0 ? "" : " ").append(wb[i]);
+                        differences++;
+                    }
+                }
+                if (differences <= maxDifferences) {
+                    pairs.add(distinct.get(a)+"\t"+distinct.get(b)+"\t"+phones1+"\t"+phones2);
+                }
+            }
+        }
+        return pairs;
+    }
+
+    @Test
+    public void sameAsComparingEveryPair() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        // short words from a few phones, so that there are plenty of minimal pairs
+        List<String> words = new ArrayList<String>();
+        Random random = new Random(3);
+        String[] labels = {"b", "d", "t", "aː", "ɪ", "k", "s"};
+        for (int w = 0; w < 1500; w++) {
+            StringBuilder word = new StringBuilder();
+            int length = 1+random.nextInt(5);
+            for (int i = 0; i < length; i++) word.append(i == 0 ? "" : " ").append(labels[random.nextInt(labels.length)]);
+            words.add(word.toString());
+        }
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int maxDifferences = 1; maxDifferences <= 2; maxDifferences++) {
+                MinimalPairIndex index = new MinimalPairIndex(words, phInv, maxDifferences, pool);
+                Set<String> expected = allPairs(words, maxDifferences);
+                List<String> found = new ArrayList<String>();
+                for (MinimalPairIndex.MinimalPair pair : index.getPairs()) found.add(pair.toString());
+                assertEquals(new ArrayList<String>(expected), found);
+                int b = phInv.getPhoneId("b");
+                int d = phInv.getPhoneId("d");
+                int minimal = 0;
+                for (String pair : expected) {
+                    String[] columns = pair.split("\t");
+                    if (columns[2].equals("b") && columns[3].equals("d") || columns[2].equals("d") && columns[3].equals("b")) minimal++;
+                }
+                assertTrue(minimal > 0);
+                assertEquals(minimal, index.getMinimalPairCount(b, d));
+                assertEquals(minimal, index.getMinimalPairCount(d, b));
+                assertEquals(0, index.getMinimalPairCount(b, b));
+                assertEquals(maxDifferences == 1, index.getNearMinimalPairCount(b, d) == 0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
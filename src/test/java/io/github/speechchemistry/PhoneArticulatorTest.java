@@ -0,0 +1,49 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the precomputed articulator masks and bitsets against the articulator sets.
+ */
+public class PhoneArticulatorTest
+{
+    /** The articulator set of a phone as described in Kempton(2012) p49 and p59. */
+    private static Set<String> articSet(Phone ph)
+    {
+        Set<String> articSet = new HashSet<String>();
+        for (UniVectorPhone uVPhone : ph.getComponentPhones()) {
+            articSet.addAll(uVPhone.getArticSet());
+            if (uVPhone.getFeatureValue("anterior") == -1) articSet.add("pal_area");
+        }
+        if (articSet.contains("DORSAL")) articSet.add("pal_area");
+        return articSet;
+    }
+
+    @Test
+    public void bitsetsMatchArticulatorSets() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadFullInventory();
+        int n = phInv.size();
+        for (int j = 0; j < n; j++) {
+            Phone jPh = phInv.getPhoneById(j);
+            Set<String> jSet = articSet(jPh);
+            long[] candidates = new long[(n + 63) / 64];
+            Arrays.fill(candidates, -1L);
+            phInv.retainPossibleAllophones(j, candidates);
+            BitSet retained = BitSet.valueOf(candidates);
+            for (int i = 0; i < n; i++) {
+                Set<String> shared = new HashSet<String>(jSet);
+                Set<String> iSet = articSet(phInv.getPhoneById(i));
+                shared.retainAll(iSet);
+                boolean different = shared.isEmpty() && !jSet.isEmpty() && !iSet.isEmpty();
+                assertEquals(jPh + " " + phInv.getPhoneById(i), different, phInv.hasDifferentArticulators(j, i));
+                assertEquals(different, jPh.hasDifferentArticulators(phInv.getPhoneById(i)));
+                assertEquals(!different, retained.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the context counts of a streamed corpus and the complementary distribution chart.
+ */
+public class PhoneContextCountsTest
+{
+    @Test
+    public void complementaryPhones() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        PhoneContextCounts counts = new PhoneContextCounts(phInv);
+        counts.addUtterance("b aː");
+        counts.addUtterance("d aː");
+        counts.addUtterance("");
+        int b = phInv.getPhoneId("b");
+        int d = phInv.getPhoneId("d");
+        int a = phInv.getPhoneId("aː");
+        assertEquals(2, counts.getPhoneCount(a));
+        assertEquals(1, counts.getLeftContextCount(a, b));
+        assertEquals(2, counts.getRightContextCount(a, -1));
+        // b and d have the same contexts, but aː never shares a context with them
+        assertEquals(0.0, counts.complementarity(b, d), 1e-12);
+        assertEquals(1.0, counts.complementarity(a, b), 1e-12);
+        assertTrue(Double.isNaN(counts.complementarity(a, phInv.getPhoneId("k"))));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        counts.printComplementaryDistribution(new PrintStream(bytes, true, "UTF-8"));
+        String[] rows = new String(bytes.toByteArray(), "UTF-8").split("\n");
+        assertEquals(phInv.size()+1, rows.length);
+        assertTrue(rows[0].startsWith("complementaryDistribution,"+phInv.getPhoneById(0)+","));
+    }
+
+    @Test
+    public void parallelCountsSameAsSequential() throws IOException, InterruptedException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        List<String> corpus = new SyntheticCorpus(phInv, 4, 1, 10, SyntheticCorpus.LengthDistribution.NORMAL).utterances(5000);
+        PhoneContextCounts expected = new PhoneContextCounts(phInv);
+        StringBuilder text = new StringBuilder();
+        for (String utterance : corpus) {
+            expected.addUtterance(utterance);
+            text.append(utterance).append('\n');
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            PhoneContextCounts actual = PhoneContextCounts.count(new BufferedReader(new StringReader(text.toString())),
+                    phInv, executor, 3, 37);
+            for (int i = 0; i < phInv.size(); i++) {
+                assertEquals(expected.getPhoneCount(i), actual.getPhoneCount(i));
+                for (int c = -1; c < phInv.size(); c++) {
+                    assertEquals(expected.getLeftContextCount(i, c), actual.getLeftContextCount(i, c));
+                    assertEquals(expected.getRightContextCount(i, c), actual.getRightContextCount(i, c));
+                }
+            }
+            try {
+                PhoneContextCounts.count(new BufferedReader(new StringReader("b aː\nb x\n")), phInv, executor, 3, 1);
+                fail("Unknown phones must be reported");
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage().startsWith("Line 2: "));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
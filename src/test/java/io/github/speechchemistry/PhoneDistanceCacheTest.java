@@ -0,0 +1,90 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the eviction, size bound and statistics of the phone distance cache.
+ */
+public class PhoneDistanceCacheTest
+{
+    private static List<Phone> phones() throws IOException
+    {
+        return FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv").getPhoneList();
+    }
+
+    @Test
+    public void lruKeepsRecentlyUsed() throws IOException
+    {
+        List<Phone> ph = phones();
+        PhoneDistanceCache cache = new PhoneDistanceCache(2, PhoneDistanceCache.EvictionPolicy.LRU, 1);
+        cache.averageFeatureDistance(ph.get(0), ph.get(1)); // miss
+        cache.averageFeatureDistance(ph.get(0), ph.get(2)); // miss
+        cache.averageFeatureDistance(ph.get(0), ph.get(1)); // hit, now most recently used
+        cache.averageFeatureDistance(ph.get(0), ph.get(3)); // miss, evicts (0,2)
+        cache.averageFeatureDistance(ph.get(0), ph.get(1)); // hit
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(1, cache.getEvictionCount());
+        cache.averageFeatureDistance(ph.get(0), ph.get(2)); // miss
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void fifoEvictsOldest() throws IOException
+    {
+        List<Phone> ph = phones();
+        PhoneDistanceCache cache = new PhoneDistanceCache(2, PhoneDistanceCache.EvictionPolicy.FIFO, 1);
+        cache.averageFeatureDistance(ph.get(0), ph.get(1)); // miss
+        cache.averageFeatureDistance(ph.get(0), ph.get(2)); // miss
+        cache.averageFeatureDistance(ph.get(0), ph.get(1)); // hit, but still the oldest
+        cache.averageFeatureDistance(ph.get(0), ph.get(3)); // miss, evicts (0,1)
+        cache.averageFeatureDistance(ph.get(0), ph.get(1)); // miss
+        assertEquals(1, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void distancesOfAnotherAlignmentAreNotReturned() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadFullInventory();
+        UniVectorPhone a = phInv.getPhone("a").getComponentPhones().get(0);
+        UniVectorPhone u = phInv.getPhone("u").getComponentPhones().get(0);
+        Phone au = new Phone("au", Arrays.asList(a, u));
+        Phone aau = new Phone("aau", Arrays.asList(a, a, u));
+        PhoneDistanceCache cache = new PhoneDistanceCache(16, PhoneDistanceCache.EvictionPolicy.LRU, 1);
+        // as if a thread added a diagonal distance just after the alignment changed
+        double diagonal = cache.averageFeatureDistance(au, aau, ComponentAlignment.DIAGONAL);
+        assertTrue(diagonal > 0);
+        assertEquals(0, cache.averageFeatureDistance(au, aau, ComponentAlignment.DYNAMIC_PROGRAMMING), 0);
+        assertEquals(diagonal, cache.averageFeatureDistance(au, aau, ComponentAlignment.DIAGONAL), 0);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void sizeIsBoundedAndResultsAreUncached() throws IOException
+    {
+        List<Phone> ph = phones();
+        for (PhoneDistanceCache.EvictionPolicy policy : PhoneDistanceCache.EvictionPolicy.values()) {
+            PhoneDistanceCache cache = new PhoneDistanceCache(100, policy, 8);
+            for (int round = 0; round < 2; round++) {
+                for (Phone a : ph) {
+                    for (Phone b : ph) {
+                        assertEquals(a+" "+b, a.uncachedAverageFeatureDistance(b), cache.averageFeatureDistance(a, b), 0);
+                        assertTrue(cache.size() <= cache.getMaxEntries());
+                    }
+                }
+            }
+            assertEquals(2L*ph.size()*ph.size(), cache.getHitCount()+cache.getMissCount());
+            assertTrue(cache.getEvictionCount() > 0);
+            cache.clear();
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.getHitCount()+cache.getMissCount());
+        }
+    }
+}
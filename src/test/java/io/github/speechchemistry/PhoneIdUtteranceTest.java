@@ -0,0 +1,53 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that the id array utterance behaves the same as the linked list PhoneUtterance.
+ */
+public class PhoneIdUtteranceTest
+{
+    @Test
+    public void matchesPhoneUtterance() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadFullInventory();
+        PhoneInventory hausaPhInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        PhoneUtterance word1 = new PhoneUtterance("h ɛ l o w", phInv);
+        PhoneUtterance word2 = new PhoneUtterance("x e", phInv);
+        PhoneIdUtterance idWord1 = new PhoneIdUtterance("h ɛ l o w", phInv);
+        PhoneIdUtterance idWord2 = new PhoneIdUtterance(word2);
+
+        assertEquals(word1.getPhoneList(), idWord1.getPhoneList());
+        assertEquals(word1.toString(), idWord1.toString());
+        assertTrue(Arrays.deepEquals(word1.differenceMatrix(word2), idWord1.differenceMatrix(idWord2)));
+        assertTrue(Arrays.deepEquals(word2.differenceMatrix(word1), idWord2.differenceMatrix(idWord1)));
+
+        TransliterationTable table = new TransliterationTable(phInv, hausaPhInv);
+        assertEquals(word1.transliterate(hausaPhInv).getPhoneList(), idWord1.transliterate(table).getPhoneList());
+        assertSame(hausaPhInv, idWord1.transliterate(table).getInventory());
+    }
+
+    @Test
+    public void equalityAndSerialization() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadFullInventory();
+        PhoneIdUtterance a = new PhoneIdUtterance("t u", phInv);
+        PhoneIdUtterance b = new PhoneIdUtterance(new int[] {phInv.getPhoneId("t"), phInv.getPhoneId("u")}, phInv);
+        PhoneIdUtterance c = new PhoneIdUtterance("d u", phInv);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(c));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        a.writeTo(out);
+        c.writeTo(out);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(a, PhoneIdUtterance.readFrom(in, phInv));
+        assertEquals(c, PhoneIdUtterance.readFrom(in, phInv));
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that one phone inventory can be shared by many scoring threads.
+ */
+public class PhoneInventoryConcurrencyTest
+{
+    @Test
+    public void modelCannotBeChanged() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        Phone ph = phInv.getPhoneSet().iterator().next();
+        try {
+            phInv.getPhoneSet().clear();
+            fail("Phone set should be read only");
+        } catch (UnsupportedOperationException expected) {}
+        try {
+            ph.getComponentPhones().clear();
+            fail("Component phones should be read only");
+        } catch (UnsupportedOperationException expected) {}
+        try {
+            new PhoneUtterance(ph.getIpaLabel(), phInv).getPhoneList().clear();
+            fail("Utterance phone list should be read only");
+        } catch (UnsupportedOperationException expected) {}
+
+        Map<String, Integer> fMap = new LinkedHashMap<String, Integer>();
+        fMap.put("syllabic", 1);
+        new UniVectorPhone("a", fMap, 5);
+        assertEquals("tone constructor must not change the caller's map", 1, fMap.size());
+    }
+
+    @Test
+    public void sharedInventoryGivesSameResultsOnEveryThread() throws Exception
+    {
+        final PhoneInventory phInv = FeatureFramework.HAYES.loadFullInventory();
+        final PhoneInventory hausaPhInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        final List<Phone> phList = phInv.getPhoneList();
+        // random word pairs scored once on this thread
+        Random random = new Random(1);
+        final int pairs = 200;
+        final String[] words1 = new String[pairs];
+        final String[] words2 = new String[pairs];
+        final double[] expectedCost = new double[pairs];
+        final String[] expectedTranslit = new String[pairs];
+        Phone.setDistanceCache(null);
+        for (int n = 0; n < pairs; n++) {
+            words1[n] = randomWord(phList, random);
+            words2[n] = randomWord(phList, random);
+            PhoneUtterance utt1 = new PhoneUtterance(words1[n], phInv);
+            PhoneUtterance utt2 = new PhoneUtterance(words2[n], phInv);
+            expectedCost[n] = new DanEllisDtw(utt1.differenceMatrix(utt2)).getTotalCost();
+            expectedTranslit[n] = utt1.transliterate(hausaPhInv).toString();
+        }
+        // the same pairs scored at the same time by many threads sharing one inventory and one small cache
+        Phone.setDistanceCache(new PhoneDistanceCache(512, PhoneDistanceCache.EvictionPolicy.LRU, 4));
+        try {
+            int threads = 8;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        start.await();
+                        int checked = 0;
+                        for (int k = 0; k < 3 * pairs; k++) {
+                            int n = (k + offset * 17) % pairs;
+                            PhoneUtterance utt1 = new PhoneUtterance(words1[n], phInv);
+                            PhoneUtterance utt2 = new PhoneUtterance(words2[n], phInv);
+                            assertEquals(expectedCost[n], new DanEllisDtw(utt1.differenceMatrix(utt2)).getTotalCost(), 0);
+                            assertEquals(expectedTranslit[n], utt1.transliterate(hausaPhInv).toString());
+                            checked++;
+                        }
+                        return checked;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> f : futures) assertEquals(Integer.valueOf(3 * pairs), f.get(5, TimeUnit.MINUTES));
+            executor.shutdown();
+            assertTrue(Phone.getDistanceCache().size() <= 512);
+            assertTrue(Phone.getDistanceCache().getHitCount() > 0);
+        } finally {
+            Phone.setDistanceCache(new PhoneDistanceCache());
+        }
+    }
+
+    private static String randomWord(List<Phone> phList, Random random) {
+        int length = 1 + random.nextInt(6);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(phList.get(random.nextInt(phList.size())).getIpaLabel());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks loading inventories from files and URIs, with a BOM, and the errors for bad tables.
+ */
+public class PhoneInventorySourceTest
+{
+    private static File writeTable(String text) throws IOException
+    {
+        File file = File.createTempFile("table", ".tsv");
+        file.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(text);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void filesAndUris() throws IOException
+    {
+        File features = writeTable("\uFEFFphone\tvoice\tnasal\nb\t+1\t-1\n\nm\t1\t1\t\nɓ\t1\t0\n");
+        File inventory = writeTable("\uFEFFb\nm\r\n\nmb\tm\tb\n");
+        List<String> featureFiles = Arrays.asList(features.toURI().toString());
+        PhoneInventory phInv = new PhoneInventory(inventory.getPath(), featureFiles);
+        assertEquals(3, phInv.size());
+        assertEquals(Integer.valueOf(1), phInv.getPhone("b").getComponentPhones().get(0).getFeatureMap().get("voice"));
+        assertEquals(Integer.valueOf(-1), phInv.getPhone("b").getComponentPhones().get(0).getFeatureMap().get("nasal"));
+        assertEquals(2, phInv.getPhone("mb").getComponentPhones().size());
+        // a classpath resource and the same table as a file give the same inventory
+        String hausa = "/hau/hausa_components_utf8nfc.tsv";
+        File hausaFile = writeTable(new Scanner(PhoneInventory.class.getResourceAsStream(hausa), "UTF-8").useDelimiter("\\A").next());
+        assertEquals(new PhoneInventory(hausa, FeatureFramework.HAYES.getFeatureFilenames()).getPhoneList(),
+                new PhoneInventory(hausaFile.getPath(), FeatureFramework.HAYES.getFeatureFilenames()).getPhoneList());
+    }
+
+    @Test
+    public void errorsGiveTheLine() throws IOException
+    {
+        File features = writeTable("phone\tvoice\tnasal\nb\t1\t-1\nm\t1\n");
+        File inventory = writeTable("b\n");
+        try {
+            new PhoneInventory(inventory.getPath(), Arrays.asList(features.getPath()));
+            fail("A missing feature value must be reported");
+        } catch (IOException e) {
+            assertEquals("Line 3 of "+features.getPath()+": 1 feature values but there are 2 features", e.getMessage());
+        }
+        features = writeTable("phone\tvoice\tnasal\nb\t1\tx\n");
+        try {
+            new PhoneInventory(inventory.getPath(), Arrays.asList(features.getPath()));
+            fail("A feature value that isn't a number must be reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Line 2 of "));
+        }
+        inventory = writeTable("b\nb\tp\n");
+        try {
+            new PhoneInventory(inventory.getPath(), Arrays.asList(writeTable("phone\tvoice\nb\t1\n").getPath()));
+            fail("A phone missing from the feature table must be reported");
+        } catch (MissingPhoneException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line 2 of "+inventory.getPath()+": can't find phone p"));
+            assertEquals("p", e.getPhoneLabel());
+        }
+        try {
+            new PhoneInventory("no/such/inventory.tsv", FeatureFramework.HAYES.getFeatureFilenames());
+            fail("A missing table must be reported");
+        } catch (FileNotFoundException e) {
+            assertTrue(e.getMessage().contains("no/such/inventory.tsv"));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that language inventories made as views of a master inventory are the same as parsed ones.
+ */
+public class PhoneInventoryViewTest
+{
+    @Test
+    public void viewsSameAsParsed() throws IOException
+    {
+        PhoneInventory master = FeatureFramework.HAYES.getMasterInventory();
+        String[] languages = { "/hau/hausa_components_utf8nfc.tsv", "/ces/czech_components_utf8nfc.tsv", "/eng/timit_components_utf8nfc.tsv" };
+        for (String language : languages) {
+            PhoneInventory parsed = new PhoneInventory(language, FeatureFramework.HAYES.getFeatureFilenames());
+            PhoneInventory view = FeatureFramework.HAYES.loadInventoryView(language);
+            assertTrue(view.isView());
+            assertSame(master, view.getMaster());
+            assertEquals(parsed.getPhoneList(), view.getPhoneList());
+            for (int id = 0; id < view.size(); id++) {
+                assertEquals(parsed.getPhoneById(id).getComponentPhones(), view.getPhoneById(id).getComponentPhones());
+                int masterId = view.getMasterId(id);
+                // phones in the master are the master's objects; the others (diphthongs) aren't in it
+                if (masterId >= 0) assertSame(master.getPhoneById(masterId), view.getPhoneById(id));
+                else assertTrue(view.getPhoneById(id).getComponentPhones().size() > 1);
+                for (int other = 0; other < view.size(); other++) {
+                    assertEquals(parsed.hasDifferentArticulators(id, other), view.hasDifferentArticulators(id, other));
+                }
+            }
+        }
+        // a view of some ids, and a view of a view, are of the same master
+        BitSet ids = new BitSet();
+        ids.set(3);
+        ids.set(1);
+        PhoneInventory small = master.view(ids);
+        assertEquals(Arrays.asList(master.getPhoneById(1), master.getPhoneById(3)), small.getPhoneList());
+        ids.clear(3); // id 1 of the small view is id 3 of the master
+        assertSame(master, small.view(ids).getMaster());
+        assertEquals(3, small.view(ids).getMasterId(0));
+        // a language view of the small view still finds its phones in the master
+        PhoneInventory hausa = small.view("/hau/hausa_components_utf8nfc.tsv");
+        assertSame(master, hausa.getMaster());
+        assertEquals(FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv").getPhoneList(), hausa.getPhoneList());
+        assertFalse(master.isView());
+        assertEquals(5, master.getMasterId(5));
+    }
+
+    @Test
+    public void weightsSharedWithViews() throws IOException
+    {
+        PhoneInventory master = FeatureFramework.HAYES.getMasterInventory();
+        FeatureWeightProfile profile = FeatureWeightProfile.loadResource("/common/hayes/weights_reduced_tone_and_anterior_utf8nfc.tsv");
+        WeightedPhoneDistance masterWeights = profile.compile(master);
+        PhoneInventory view = FeatureFramework.HAYES.loadInventoryView("/hau/hausa_components_utf8nfc.tsv");
+        WeightedPhoneDistance shared = masterWeights.forView(view);
+        WeightedPhoneDistance compiled = profile.compile(view);
+        assertSame(view, shared.getInventory());
+        for (int a = 0; a < view.size(); a++) {
+            for (int b = 0; b < view.size(); b++) {
+                assertEquals(compiled.averageFeatureDistance(a, b), shared.averageFeatureDistance(a, b), 0);
+            }
+        }
+        BfeppScorer scorer = new BfeppScorer(view, shared);
+        assertEquals(new BfeppScorer(view, compiled).bfepp("ʔb aː", "b aː"), scorer.bfepp("ʔb aː", "b aː"), 0);
+        try {
+            compiled.forView(view);
+            fail("Only views of the compiled inventory can share its table");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
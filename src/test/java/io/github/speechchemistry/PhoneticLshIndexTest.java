@@ -0,0 +1,54 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks approximate phonetic search against exact search on a random lexicon.
+ */
+public class PhoneticLshIndexTest
+{
+    @Test
+    public void approximateSearchAgreesWithExactSearch() throws IOException
+    {
+        PhoneInventory hausaPhInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        List<Phone> phones = hausaPhInv.getSortedPhoneList();
+        Random random = new Random(7);
+        List<String> lexicon = new ArrayList<String>();
+        for (int w = 0; w < 400; w++) {
+            StringBuilder word = new StringBuilder();
+            int length = 3 + random.nextInt(5);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) word.append(' ');
+                word.append(phones.get(random.nextInt(phones.size())).getIpaLabel());
+            }
+            lexicon.add(word.toString());
+        }
+        PhoneticLshIndex index = new PhoneticLshIndex(lexicon, hausaPhInv);
+        BfeppScorer scorer = new BfeppScorer(hausaPhInv);
+        // an entry finds itself
+        List<PhoneticLshIndex.Match> self = index.search(lexicon.get(10), 3);
+        assertEquals(0, self.get(0).getBfepp(), 0);
+        assertEquals(lexicon.get(10), self.get(0).getTranscription());
+        // scores are exact BFEPP with the entry as the reference
+        for (PhoneticLshIndex.Match m : self) {
+            assertEquals(scorer.bfepp(lexicon.get(10), m.getTranscription()), m.getBfepp(), 1e-12);
+        }
+        assertTrue(index.candidates(lexicon.get(10)).length < lexicon.size());
+        // queries one phone away from an entry
+        List<String> queries = new ArrayList<String>();
+        for (int q = 0; q < 20; q++) {
+            String[] word = lexicon.get(q * 13).split(" ");
+            word[random.nextInt(word.length)] = phones.get(random.nextInt(phones.size())).getIpaLabel();
+            StringBuilder query = new StringBuilder(word[0]);
+            for (int i = 1; i < word.length; i++) query.append(' ').append(word[i]);
+            queries.add(query.toString());
+        }
+        PhoneticLshIndex.RecallReport report = index.recall(queries, 1);
+        assertTrue(report.toString(), report.getRecall() >= 0.8);
+        assertTrue(report.toString(), report.getMeanCandidates() < lexicon.size());
+    }
+}
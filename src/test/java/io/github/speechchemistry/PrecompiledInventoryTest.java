@@ -0,0 +1,95 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that an inventory read back from the binary format is the same as the parsed one.
+ */
+public class PrecompiledInventoryTest
+{
+    private static PhoneInventory roundTrip(PhoneInventory phInv) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        phInv.writeTo(new DataOutputStream(bytes));
+        return PhoneInventory.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    public void binaryFormatKeepsEveryPhone() throws IOException
+    {
+        String hausa = "/hau/hausa_components_utf8nfc.tsv";
+        PhoneInventory[] parsed = {
+            new PhoneInventory(hausa, FeatureFramework.HAYES.getFeatureFilenames()),
+            new PhoneInventory(FeatureFramework.PHOIBLE.getPhoneListFilename(), FeatureFramework.PHOIBLE.getFeatureFilenames())
+        };
+        for (PhoneInventory phInv : parsed) {
+            PhoneInventory read = roundTrip(phInv);
+            assertEquals(phInv.size(), read.size());
+            for (int id = 0; id < phInv.size(); id++) {
+                Phone ph = phInv.getPhoneById(id);
+                Phone readPh = read.getPhoneById(id);
+                assertEquals(ph, readPh);
+                assertEquals(ph.toSrilmFlmString(), readPh.toSrilmFlmString());
+                assertEquals(ph.getArticMask(), readPh.getArticMask());
+            }
+        }
+        assertEquals("/precompiled/hayes/hau/hausa_components_utf8nfc.bin", FeatureFramework.HAYES.getPrecompiledFilename(hausa));
+        // whichever way the framework loads it, the result is the same
+        assertEquals(parsed[0].getPhoneList(), FeatureFramework.HAYES.loadInventory(hausa).getPhoneList());
+    }
+
+    @Test
+    public void editedTableIsParsedAgain() throws Exception
+    {
+        // a copy of the hausa inventory, precompiled into the test classes folder
+        File dir = File.createTempFile("inventory", "");
+        dir.delete();
+        dir.mkdir();
+        File table = new File(dir, "test_components_utf8nfc.tsv");
+        PhoneInventory hausa = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        List<String> lines = new ArrayList<String>();
+        for (Phone ph : hausa.getPhoneList()) {
+            StringBuilder line = new StringBuilder(ph.getIpaLabel());
+            for (UniVectorPhone component : ph.getComponentPhones()) line.append('\t').append(component.getIpaLabel());
+            lines.add(line.toString());
+        }
+        writeLines(table, lines);
+        String tableName = table.getAbsolutePath();
+        File classesDir = new File(PrecompiledInventoryTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        File bin = new File(classesDir, FeatureFramework.HAYES.getPrecompiledFilename(tableName).substring(1));
+        bin.getParentFile().mkdirs();
+        try {
+            // the binary holds fewer phones than the table, to tell which one is read
+            BitSet half = new BitSet();
+            half.set(0, hausa.size()/2);
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(bin));
+            try {
+                hausa.view(half).writeTo(out, FeatureFramework.HAYES.sourceFingerprint(tableName));
+            } finally {
+                out.close();
+            }
+            assertEquals(hausa.size()/2, FeatureFramework.HAYES.loadInventory(tableName).size());
+            // after the table is edited the binary is out of date, so the table is parsed
+            writeLines(table, lines.subList(0, lines.size()-1));
+            assertEquals(hausa.size()-1, FeatureFramework.HAYES.loadInventory(tableName).size());
+        } finally {
+            bin.delete();
+            table.delete();
+            dir.delete();
+        }
+    }
+
+    private static void writeLines(File file, List<String> lines) throws IOException
+    {
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (String line : lines) w.write(line+"\n");
+        } finally {
+            w.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the test set evaluation against BfeppScorer and the alignment path of DanEllisDtw.
+ */
+public class RecognizerEvaluationTest
+{
+    @Test
+    public void alignmentsMatchDanEllisDtw() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        BfeppScorer scorer = new BfeppScorer(phInv);
+        List<WordPair> pairs = new SyntheticCorpus(phInv, 6, 1, 8, SyntheticCorpus.LengthDistribution.UNIFORM).pairs(300, 0.4);
+        for (WordPair pair : pairs) {
+            RecognizerEvaluation evaluation = new RecognizerEvaluation(scorer);
+            assertEquals(scorer.bfepp(pair.getWord1(), pair.getWord2()), evaluation.addPair(pair.getWord1(), pair.getWord2()), 0);
+            PhoneUtterance hyp = new PhoneUtterance(pair.getWord1(), phInv);
+            PhoneUtterance ref = new PhoneUtterance(pair.getWord2(), phInv);
+            DanEllisDtw dtw = new DanEllisDtw(hyp.differenceMatrix(ref));
+            // the path of DanEllisDtw stops at the first row or column, so finish it to the start
+            List<Integer> p = new ArrayList<Integer>(dtw.getP());
+            List<Integer> q = new ArrayList<Integer>(dtw.getQ());
+            while (p.get(0) > 0 || q.get(0) > 0) {
+                p.add(0, Math.max(0, p.get(0)-1));
+                q.add(0, Math.max(0, q.get(0)-1));
+            }
+            Map<String,Integer> expected = new HashMap<String,Integer>();
+            for (int k = 0; k < p.size(); k++) {
+                String key = ref.getPhoneList().get(q.get(k))+" "+hyp.getPhoneList().get(p.get(k));
+                expected.put(key, expected.containsKey(key) ? expected.get(key)+1 : 1);
+            }
+            Map<String,Integer> actual = new HashMap<String,Integer>();
+            for (int r = 0; r < phInv.size(); r++) {
+                for (int h = 0; h < phInv.size(); h++) {
+                    long count = evaluation.getConfusionCount(r, h);
+                    if (count > 0) actual.put(phInv.getPhoneById(r)+" "+phInv.getPhoneById(h), (int) count);
+                }
+            }
+            assertEquals(pair.toString(), expected, actual);
+            // the feature errors add up to the total feature errors
+            double featureErrors = 0;
+            for (double[] errors : evaluation.getFeatureErrors().values()) {
+                for (double e : errors) featureErrors += e;
+            }
+            assertEquals(pair.toString(), evaluation.getTotalFeatureErrors(), featureErrors, 1e-9);
+        }
+    }
+
+    @Test
+    public void parallelSameAsSequential() throws IOException, InterruptedException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        BfeppScorer scorer = new BfeppScorer(phInv);
+        List<WordPair> pairs = new SyntheticCorpus(phInv, 7, 2, 10, SyntheticCorpus.LengthDistribution.NORMAL).pairs(2000, 0.2);
+        RecognizerEvaluation expected = new RecognizerEvaluation(scorer);
+        StringBuilder testSet = new StringBuilder();
+        for (WordPair pair : pairs) {
+            expected.addPair(pair.getWord1(), pair.getWord2());
+            testSet.append(pair.getWord1()).append('\t').append(pair.getWord2()).append("\n\n");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            RecognizerEvaluation actual = RecognizerEvaluation.evaluate(new BufferedReader(new StringReader(testSet.toString())),
+                    scorer, executor, 3, 50);
+            assertEquals(2000, actual.getPairCount());
+            assertEquals(expected.getReferencePhoneCount(), actual.getReferencePhoneCount());
+            assertEquals(expected.getBfepp(), actual.getBfepp(), 1e-12);
+            assertEquals(expected.getMeanPairBfepp(), actual.getMeanPairBfepp(), 1e-12);
+            for (int r = 0; r < phInv.size(); r++) {
+                for (int h = 0; h < phInv.size(); h++) {
+                    assertEquals(expected.getConfusionCount(r, h), actual.getConfusionCount(r, h));
+                }
+            }
+            try {
+                RecognizerEvaluation.evaluate(new BufferedReader(new StringReader("b\tb\nb aː\n")), scorer, executor, 3, 1);
+                fail("A line without a tab must be reported");
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage().startsWith("Line 2: "));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
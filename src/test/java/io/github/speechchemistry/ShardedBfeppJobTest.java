@@ -0,0 +1,109 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that a sharded BFEPP job gives the same results as scoring the pairs directly,
+ * including after a failed shard and with local worker processes.
+ */
+public class ShardedBfeppJobTest
+{
+    private static File tempDir() throws IOException
+    {
+        File dir = File.createTempFile("bfeppjob", "");
+        dir.delete();
+        return dir;
+    }
+
+    private static void delete(File f)
+    {
+        File[] files = f.listFiles();
+        if (files != null) for (File child : files) delete(child);
+        f.delete();
+    }
+
+    private static final String HAUSA = "/hau/hausa_components_utf8nfc.tsv";
+
+    private static List<String> words(long seed, int n) throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory(HAUSA);
+        return new SyntheticCorpus(phInv, seed, 2, 6, SyntheticCorpus.LengthDistribution.UNIFORM).utterances(n);
+    }
+
+    private static String expected(BfeppScorer scorer, List<String> wordsA)
+    {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < wordsA.size(); i++) {
+            for (int j = i+1; j < wordsA.size(); j++) {
+                s.append(wordsA.get(i)).append('\t').append(wordsA.get(j)).append('\t')
+                        .append(scorer.bfepp(wordsA.get(i), wordsA.get(j))).append('\n');
+            }
+        }
+        return s.toString();
+    }
+
+    @Test
+    public void restartSkipsCompletedShards() throws IOException
+    {
+        File dir = tempDir();
+        try {
+            BfeppScorer scorer = new BfeppScorer(FeatureFramework.HAYES.loadInventory(HAUSA));
+            List<String> wordsA = words(1, 23);
+            ShardedBfeppJob job = new ShardedBfeppJob(dir, wordsA, null, ShardedBfeppJob.Mode.SELF, 5, scorer, "HAYES");
+            assertEquals(5, job.getShardCount());
+            assertEquals(23*22/2, job.getPairCount());
+            assertEquals(3, job.runWorker(0, 2));
+            // worker 1 finished shard 1 and then failed part way through shard 3
+            job.runShard(1);
+            Writer partial = new OutputStreamWriter(new FileOutputStream(new File(dir, "shard-000003.tsv")), StandardCharsets.UTF_8);
+            partial.write(wordsA.get(15)+"\t"+wordsA.get(16));
+            partial.close();
+            ShardedBfeppJob restarted = new ShardedBfeppJob(dir, wordsA, null, ShardedBfeppJob.Mode.SELF, 5, scorer, "HAYES");
+            assertEquals(4, restarted.getCompletedShardCount());
+            assertEquals(1, restarted.runWorker(1, 2));
+            assertEquals(0, restarted.runWorker(0, 1));
+            ByteArrayOutputStream merged = new ByteArrayOutputStream();
+            restarted.merge(merged);
+            assertEquals(expected(scorer, wordsA), new String(merged.toByteArray(), StandardCharsets.UTF_8));
+            try {
+                new ShardedBfeppJob(dir, words(2, 23), null, ShardedBfeppJob.Mode.SELF, 5, scorer, "HAYES");
+                fail("A different word list must not reuse the shards");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("different job"));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void localWorkerProcesses() throws IOException
+    {
+        File dir = tempDir();
+        try {
+            dir.mkdirs();
+            List<String> wordsA = words(3, 12);
+            File wordsFile = new File(dir, "words.txt");
+            Writer w = new OutputStreamWriter(new FileOutputStream(wordsFile), StandardCharsets.UTF_8);
+            for (String word : wordsA) w.write(word+"\n");
+            w.close();
+            File output = new File(dir, "out.tsv");
+            ShardedBfeppCli cli = new ShardedBfeppCli();
+            int exit = new picocli.CommandLine(cli).execute("-f", "hayes", "-i", HAUSA, "-a", wordsFile.getPath(),
+                    "-d", new File(dir, "job").getPath(), "--shard-rows", "4", "run", "-p", "2", "-o", output.getPath());
+            assertEquals(0, exit);
+            byte[] bytes = new byte[(int) output.length()];
+            DataInputStream in = new DataInputStream(new FileInputStream(output));
+            in.readFully(bytes);
+            in.close();
+            assertEquals(expected(new BfeppScorer(FeatureFramework.HAYES.loadInventory(HAUSA)), wordsA), new String(bytes, StandardCharsets.UTF_8));
+        } finally {
+            delete(dir);
+        }
+    }
+}
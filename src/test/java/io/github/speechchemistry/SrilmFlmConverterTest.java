@@ -0,0 +1,80 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the SRILM factored language model converter against the find and replace route.
+ */
+public class SrilmFlmConverterTest
+{
+    private static final String HAUSA = "/hau/hausa_components_utf8nfc.tsv";
+
+    @Test
+    public void sameTokensAsFindAndReplace() throws IOException, InterruptedException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory(HAUSA);
+        Map<String,String> rMap = new LinkedHashMap<String,String>();
+        for (String line : phInv.toSrilmFlmFindAndReplaceTsv().split("\n")) {
+            String[] lineArray = line.split("\t", 2);
+            rMap.put(lineArray[0], lineArray[1]);
+        }
+        BatchFindAndReplace replacer = new BatchFindAndReplace(rMap);
+        List<String> utterances = new SyntheticCorpus(phInv, 3, 1, 10, SyntheticCorpus.LengthDistribution.UNIFORM).utterances(200);
+        StringBuilder corpus = new StringBuilder();
+        for (String utterance : utterances) corpus.append(utterance).append('\n');
+        SrilmFlmConverter converter = new SrilmFlmConverter(phInv);
+        converter.setChunkLines(7);
+        StringWriter out = new StringWriter();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            converter.convert(new BufferedReader(new StringReader(corpus.toString())), out, executor, 4);
+        } finally {
+            executor.shutdown();
+        }
+        String[] outLines = out.toString().split("\n", -1);
+        assertEquals(utterances.size()+1, outLines.length);
+        for (int i = 0; i < utterances.size(); i++) {
+            String replaced = replacer.processString(utterances.get(i)).trim().replaceAll(" +", " ");
+            assertEquals(replaced, outLines[i]);
+        }
+    }
+
+    @Test
+    public void unknownTokensAreRejectedWithTheirLineNumber() throws IOException, InterruptedException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory(HAUSA);
+        SrilmFlmConverter converter = new SrilmFlmConverter(phInv);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            converter.convert(new BufferedReader(new StringReader("t͡ʃ aː s\nt͡ʃaːs\n")), new StringWriter(), executor, 2);
+            fail("t͡ʃaːs isn't a Hausa phone");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line 2: "));
+            assertTrue(e.getMessage(), e.getMessage().contains("t͡ʃaːs"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void unsegmentedTokensAreSplitIntoPhones() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadInventory(HAUSA);
+        SrilmFlmConverter converter = new SrilmFlmConverter(phInv);
+        converter.setSegmentUnknownTokens(true);
+        assertEquals(converter.convertLine("t͡ʃ aː s"), converter.convertLine("t͡ʃaːs"));
+        assertEquals(phInv.getPhone("t͡ʃ").toSrilmFlmString().substring(1), converter.convertLine(" t͡ʃ "));
+        try {
+            converter.convertLine("t͡ʃ q");
+            fail("q isn't a Hausa phone");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("q"));
+        }
+    }
+}
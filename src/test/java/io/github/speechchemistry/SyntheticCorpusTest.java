@@ -0,0 +1,50 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that synthetic corpora are reproducible and that the load test counts every operation.
+ */
+public class SyntheticCorpusTest
+{
+    @Test
+    public void sameSeedGivesSameCorpus() throws IOException
+    {
+        PhoneInventory hausaPhInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        SyntheticCorpus a = new SyntheticCorpus(hausaPhInv, 42, 2, 6, SyntheticCorpus.LengthDistribution.NORMAL);
+        SyntheticCorpus b = new SyntheticCorpus(hausaPhInv, 42, 2, 6, SyntheticCorpus.LengthDistribution.NORMAL);
+        List<WordPair> pairs = a.pairs(200, 0.3);
+        assertEquals(pairs, b.pairs(200, 0.3));
+        for (WordPair pair : pairs) {
+            int length = pair.getWord2().split(" ").length;
+            assertTrue(length >= 2 && length <= 6);
+            new PhoneUtterance(pair.getWord1(), hausaPhInv); // every phone is in the inventory
+        }
+        SyntheticCorpus c = new SyntheticCorpus(hausaPhInv, 1, 4, 4, SyntheticCorpus.LengthDistribution.UNIFORM);
+        WordPair unchanged = c.nextPair(0);
+        assertEquals(unchanged.getWord2(), unchanged.getWord1());
+        assertEquals(4, unchanged.getWord2().split(" ").length);
+    }
+
+    @Test
+    public void loadTestRunsEveryOperation() throws InterruptedException
+    {
+        final AtomicInteger count = new AtomicInteger();
+        LoadTest.Report report = new LoadTest("count", new LoadTest.Operation() {
+            public void run(int index) {
+                count.incrementAndGet();
+                if (index == 7) throw new IllegalStateException("expected test failure");
+            }
+        }, 100, 10, 3, 0).run();
+        assertEquals(110, count.get());
+        assertEquals(1, report.getErrors());
+        assertEquals("expected test failure", report.getFirstError().getMessage());
+        assertTrue(report.getLatencyMillis(50) <= report.getLatencyMillis(99.9));
+        assertTrue(report.toString().contains("\"operations\": 100"));
+    }
+}
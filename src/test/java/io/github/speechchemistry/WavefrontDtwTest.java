@@ -0,0 +1,47 @@
+package io.github.speechchemistry;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the parallel wavefront Dynamic Time Warp against DanEllisDtw.
+ */
+public class WavefrontDtwTest
+{
+    @Test
+    public void sameMatricesAndAlignmentAsSequential()
+    {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Random random = new Random(7);
+            for (int n = 0; n < 200; n++) {
+                // small integer costs so that there are lots of ties to break
+                int r = 1 + random.nextInt(n < 150 ? 20 : 300);
+                int c = 1 + random.nextInt(n < 150 ? 20 : 300);
+                final double[][] m = new double[r][c];
+                for (int i = 0; i < r; i++)
+                    for (int j = 0; j < c; j++)
+                        m[i][j] = random.nextInt(3) * 0.5;
+                int tileSize = 1 + random.nextInt(n < 150 ? 6 : 64);
+                DanEllisDtw expected = new DanEllisDtw(m);
+                WavefrontDtw actual = new WavefrontDtw(new DtwCostFunction() {
+                    public double cost(int i, int j) {
+                        return m[i][j];
+                    }
+                }, r, c, pool, tileSize);
+                String shape = r + "x" + c + " tiles of " + tileSize;
+                assertEquals(shape, expected.getP(), actual.getP());
+                assertEquals(shape, expected.getQ(), actual.getQ());
+                assertTrue(shape, Arrays.deepEquals(expected.getD(), actual.getD()));
+                assertEquals(shape, expected.getTotalCost(), actual.getTotalCost(), 0);
+            }
+            double[][] smallArray = {{1,2,3,4},{1,1,1,8},{3,2,1,1}};
+            assertEquals(4.0, new WavefrontDtw(smallArray, pool).getTotalCost(), 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
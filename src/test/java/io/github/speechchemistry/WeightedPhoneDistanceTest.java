@@ -0,0 +1,82 @@
+package io.github.speechchemistry;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks compiled feature weight profiles against the unweighted measure and a direct
+ * weighted calculation.
+ */
+public class WeightedPhoneDistanceTest
+{
+    @Test
+    public void unitWeightsGiveTheUnweightedMeasure() throws IOException
+    {
+        PhoneInventory hausaPhInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        WeightedPhoneDistance weights = new FeatureWeightProfile("unit", new HashMap<String,Double>()).compile(hausaPhInv);
+        for (Phone a : hausaPhInv.getPhoneSet()) {
+            for (Phone b : hausaPhInv.getPhoneSet()) {
+                assertEquals(a.averageFeatureDistance(b), a.averageFeatureDistance(b, weights), 0);
+            }
+        }
+        BfeppScorer scorer = new BfeppScorer(hausaPhInv);
+        BfeppScorer weightedScorer = new BfeppScorer(hausaPhInv, weights);
+        assertEquals(scorer.bfepp("t uː", "d uː"), weightedScorer.bfepp("t uː", "d uː"), 0);
+        PhoneIdUtterance u1 = new PhoneIdUtterance("k aː ɪ", hausaPhInv);
+        PhoneIdUtterance u2 = new PhoneIdUtterance("k aː aː t͡sʼ", hausaPhInv);
+        assertTrue(Arrays.deepEquals(u1.differenceMatrix(u2), u1.differenceMatrix(u2, weights)));
+        assertTrue(Arrays.deepEquals(u1.toPhoneUtterance().differenceMatrix(u2.toPhoneUtterance()),
+                u1.toPhoneUtterance().differenceMatrix(u2.toPhoneUtterance(), weights)));
+    }
+
+    @Test
+    public void weightedDistanceMatchesDirectCalculation() throws IOException
+    {
+        PhoneInventory phInv = FeatureFramework.HAYES.loadFullInventory();
+        FeatureWeightProfile profile = FeatureWeightProfile.loadResource("/common/hayes/weights_reduced_tone_and_anterior_utf8nfc.tsv");
+        assertEquals("weights_reduced_tone_and_anterior_utf8nfc", profile.getName());
+        assertEquals(0.5, profile.getWeight("anterior"), 0);
+        assertEquals(1, profile.getWeight("voice"), 0);
+        WeightedPhoneDistance weights = profile.compile(phInv);
+        for (Phone a : phInv.getPhoneSet()) {
+            if (a.getComponentPhones().size() != 1) continue;
+            UniVectorPhone ua = a.getComponentPhones().get(0);
+            for (Phone b : phInv.getPhoneSet()) {
+                if (b.getComponentPhones().size() != 1) continue;
+                UniVectorPhone ub = b.getComponentPhones().get(0);
+                double expected = 0;
+                for (String feature : ua.getFeatureMap().keySet()) {
+                    expected += profile.getWeight(feature) * 0.5 * Math.abs(ua.getFeatureValue(feature) - ub.getFeatureValue(feature));
+                }
+                assertEquals(a + " " + b, expected, weights.averageFeatureDistance(a, b), 1e-9);
+            }
+        }
+        // nearest phone queries from another inventory
+        PhoneInventory hausaPhInv = FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv");
+        Phone d = phInv.getPhone("d");
+        assertEquals(d, phInv.singlePhoneClosest(hausaPhInv.getPhone("d"), weights));
+        // a phone in neither inventory is encoded once for the whole search
+        List<UniVectorPhone> comp = new ArrayList<UniVectorPhone>();
+        comp.add(phInv.getPhone("a").getComponentPhones().get(0));
+        comp.add(phInv.getPhone("a").getComponentPhones().get(0));
+        comp.add(phInv.getPhone("u").getComponentPhones().get(0));
+        Phone aau = new Phone("aau", comp);
+        assertEquals(-1, phInv.indexOf(aau));
+        double[] distances = weights.averageFeatureDistances(aau, phInv.getPhoneSet());
+        int k = 0;
+        for (Phone b : phInv.getPhoneSet()) {
+            assertEquals(aau + " " + b, weights.averageFeatureDistance(aau, b), distances[k++], 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFeaturesAreRejected() throws IOException
+    {
+        Map<String,Double> w = new HashMap<String,Double>();
+        w.put("no_such_feature", 0.5);
+        new FeatureWeightProfile("bad", w).compile(FeatureFramework.HAYES.loadInventory("/hau/hausa_components_utf8nfc.tsv"));
+    }
+}